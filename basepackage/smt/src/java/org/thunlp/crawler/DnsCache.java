@@ -0,0 +1,89 @@
+package org.thunlp.crawler;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Host name to IP address cache of bounded size, least recently used names
+ * are dropped first. Names which cannot be resolved are remembered for a
+ * shorter time, as "".
+ *
+ * @author adam
+ *
+ */
+public class DnsCache {
+	private static final long FAILURE_TTL = 60 * 1000;
+
+	private long ttl;
+	private LinkedHashMap<String, Address> addresses;
+	private long hits = 0;
+	private long misses = 0;
+
+	private static class Address {
+		String ip;
+		long expireTime;
+	}
+
+	/**
+	 * @param capacity the number of host names kept.
+	 * @param ttl how long an address is kept, in milliseconds.
+	 */
+	public DnsCache(final int capacity, long ttl) {
+		this.ttl = ttl;
+		this.addresses = new LinkedHashMap<String, Address>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Address> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * The IP address of the host, "" if it cannot be resolved.
+	 */
+	public String resolve(String host) {
+		long now = System.currentTimeMillis();
+		synchronized (this) {
+			Address address = addresses.get(host);
+			if (address != null && address.expireTime > now) {
+				hits++;
+				return address.ip;
+			}
+			misses++;
+		}
+		// Resolved without the lock, so a slow name does not hold up the
+		// others. Two threads may resolve the same name at once.
+		Address address = new Address();
+		try {
+			address.ip = lookup(host);
+			address.expireTime = now + ttl;
+		} catch (UnknownHostException e) {
+			address.ip = "";
+			address.expireTime = now + Math.min(ttl, FAILURE_TTL);
+		}
+		synchronized (this) {
+			addresses.put(host, address);
+		}
+		return address.ip;
+	}
+
+	protected String lookup(String host) throws UnknownHostException {
+		return InetAddress.getByName(host).getHostAddress();
+	}
+
+	public synchronized int size() {
+		return addresses.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+}
@@ -1,18 +1,20 @@
 package org.thunlp.crawler;
 
 import java.io.IOException;
-import java.net.InetAddress;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.Hashtable;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map.Entry;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -22,13 +24,19 @@ import org.apache.commons.httpclient.HttpException;
 import org.apache.commons.httpclient.HttpMethod;
 import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
 import org.apache.commons.httpclient.params.HttpConnectionParams;
 import org.apache.commons.httpclient.params.HttpMethodParams;
-import org.thunlp.crawler.InternalCrawlerListener.InternalResult;
 
 /**
  * Generic web resource crawler
- * 
+ *
+ * Tasks are queued by host, as given by the hash method. A pool of fetcher
+ * threads takes the hosts from a delay queue, so each host is fetched by one
+ * thread at a time and at most once every siteInterval milliseconds, while
+ * the other hosts go on. Schedulers wait for room in the queues instead of
+ * polling.
+ *
  * @author adam
  *
  */
@@ -48,23 +56,42 @@ public class WebCrawler {
 
 	// hash method
 	protected HashMethod hashMethod;
+	protected DnsCache dnsCache;
 
 	// http client
 	protected HttpMethodParams params;
 	protected HttpClient httpClient;
-	protected HttpConnectionParams connParams;
+	protected HttpConnectionManagerParams connParams;
 
-	// worker threads
-	protected ReadWriteLock workersLock;
-	protected Hashtable<Integer, CrawlerThread> workers;
+	// Hosts with queued tasks. A host is in readyHosts, or taken by a fetcher
+	// which puts it back after the fetch, until its queue is found empty.
+	protected ReentrantLock hostsLock;
+	protected Condition spaceAvailable;
+	protected Condition allDone;
+	protected HashMap<Integer, HostQueue> hosts;
+	protected DelayQueue<HostQueue> readyHosts;
+	protected List<Fetcher> fetchers;
 
 	// listeners
-	protected InternalCrawlerListener internalListener;
 	protected CrawlerListener listener;
 
 	// monitor
 	protected ProactiveMonitor monitor;
 
+	/**
+	 * A page fetched by fetch(), with the response headers in the form
+	 * "Name:value", as given to CrawlerListener.handleSuccess().
+	 */
+	public static class Response {
+		public byte[] content;
+		public String[] headers;
+
+		public Response(byte[] content, String[] headers) {
+			this.content = content;
+			this.headers = headers;
+		}
+	}
+
 	// Management reports.
 	public static class WorkerStat {
 		public int hashId;
@@ -77,7 +104,6 @@ public class WebCrawler {
 
 	public WebCrawler(CrawlerListener listener) {
 		this.listener = listener;
-		this.internalListener = new InternalCrawlerListener();
 		this.monitor = null;
 
 		// build default parameters
@@ -92,16 +118,20 @@ public class WebCrawler {
 		this.connTimeout = 30000;
 		this.readTimeout = 60000;
 		this.hashMethod = new IpHashMethod();
+		this.dnsCache = new DnsCache(10000, 10 * 60 * 1000);
 		this.headers = new LinkedList<Header>();
 	}
 
 	public List<WorkerStat> getWorkerStats() {
 		List<WorkerStat> stats = new ArrayList<WorkerStat>();
-		workersLock.writeLock().lock();
-		for (Entry<Integer, CrawlerThread> e : workers.entrySet()) {
-			stats.add(e.getValue().getWorkerStat());
+		hostsLock.lock();
+		try {
+			for (Entry<Integer, HostQueue> e : hosts.entrySet()) {
+				stats.add(e.getValue().getWorkerStat());
+			}
+		} finally {
+			hostsLock.unlock();
 		}
-		workersLock.writeLock().unlock();
 		return stats;
 	}
 
@@ -137,6 +167,10 @@ public class WebCrawler {
 		return readTimeout;
 	}
 
+	/**
+	 * The number of fetcher threads, which is also the number of hosts with
+	 * queued tasks at once.
+	 */
 	public void setMaxConcurrency(int nthreads) {
 		this.maxConcurrency = nthreads;
 	}
@@ -153,6 +187,14 @@ public class WebCrawler {
 		return this.hashMethod;
 	}
 
+	public void setDnsCache(DnsCache cache) {
+		this.dnsCache = cache;
+	}
+
+	public DnsCache getDnsCache() {
+		return this.dnsCache;
+	}
+
 	public void setQueueLength(int length) {
 		this.queueLength = length;
 	}
@@ -170,33 +212,69 @@ public class WebCrawler {
 	public void start() {
 		LOG.log(Level.INFO, "inititalizing crawler");
 		// Initialize http client
-		httpClient = new HttpClient(new MultiThreadedHttpConnectionManager());
-		connParams = httpClient.getHttpConnectionManager().getParams();
+		MultiThreadedHttpConnectionManager manager = new MultiThreadedHttpConnectionManager();
+		httpClient = new HttpClient(manager);
+		connParams = manager.getParams();
 
 		connParams.setParameter(HttpConnectionParams.CONNECTION_TIMEOUT, this.connTimeout);
+		// One connection for each fetcher, several hosts may share a name.
+		connParams.setMaxTotalConnections(this.maxConcurrency);
+		connParams.setDefaultMaxConnectionsPerHost(this.maxConcurrency);
 		params = new HttpMethodParams();
 		params.setParameter(HttpMethodParams.USER_AGENT, this.agentString);
 		params.setParameter(HttpMethodParams.SO_TIMEOUT, this.getReadTimeout());
-		workers = new Hashtable<Integer, CrawlerThread>(this.maxConcurrency);
-		workersLock = new ReentrantReadWriteLock();
+		hostsLock = new ReentrantLock();
+		spaceAvailable = hostsLock.newCondition();
+		allDone = hostsLock.newCondition();
+		hosts = new HashMap<Integer, HostQueue>(this.maxConcurrency);
+		readyHosts = new DelayQueue<HostQueue>();
+		fetchers = new ArrayList<Fetcher>(this.maxConcurrency);
+		for (int i = 0; i < this.maxConcurrency; i++) {
+			Fetcher fetcher = new Fetcher(i);
+			fetchers.add(fetcher);
+			fetcher.start();
+		}
 		LOG.log(Level.INFO, "crawler started");
 	}
 
+	/**
+	 * Stop the fetchers and the monitor. Queued tasks are dropped.
+	 */
+	public void shutdown() {
+		if (monitor != null) {
+			monitor.shouldStop = true;
+			monitor.interrupt();
+		}
+		for (Fetcher fetcher : fetchers) {
+			fetcher.interrupt();
+		}
+		((MultiThreadedHttpConnectionManager) httpClient.getHttpConnectionManager()).shutdown();
+	}
+
+	/**
+	 * Wait until all scheduled tasks are done, at most millisec milliseconds
+	 * if it is positive.
+	 */
 	public void waitForAll(long millisec) {
 		if (monitor != null)
 			monitor.shouldStop = true;
-		LOG.log(Level.INFO, "waiting for " + workers.size() + "workers to finish");
-		if (millisec > 0)
-			millisec += System.currentTimeMillis();
-		while (workers.size() > 0) {
-			try {
-				Thread.sleep(1000);
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+		hostsLock.lock();
+		try {
+			LOG.log(Level.INFO, "waiting for " + hosts.size() + " hosts to finish");
+			long nanos = TimeUnit.MILLISECONDS.toNanos(millisec);
+			while (hosts.size() > 0) {
+				if (millisec <= 0) {
+					allDone.await();
+				} else if (nanos > 0) {
+					nanos = allDone.awaitNanos(nanos);
+				} else {
+					break;
+				}
 			}
-			if (millisec > 0 && System.currentTimeMillis() > millisec)
-				break;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			hostsLock.unlock();
 		}
 	}
 
@@ -205,10 +283,15 @@ public class WebCrawler {
 	}
 
 	public int getCurrentConcurrency() {
-		return workers.size();
+		hostsLock.lock();
+		try {
+			return hosts.size();
+		} finally {
+			hostsLock.unlock();
+		}
 	}
 
-	protected CrawlerTaskEntry buildTask(String url, String ip, Object customData, boolean internal) {
+	protected CrawlerTaskEntry buildTask(String url, String ip, Object customData) {
 		GetMethod method = new GetMethod(url);
 		method.setParams(params);
 		for (Header h : headers) {
@@ -219,119 +302,144 @@ public class WebCrawler {
 		}
 		CrawlerTaskEntry task = new CrawlerTaskEntry(url, ip, method, customData);
 		task.hashid = hashMethod.hash(url, ip);
-		task.internal = internal;
 		return task;
 	}
 
 	public String getIpByUrl(String url) {
-		String ip, host;
+		String ip;
 		try {
 			URL u = new URL(url);
-			host = u.getHost();
-			ip = InetAddress.getByName(host).getHostAddress();
+			ip = dnsCache.resolve(u.getHost());
 		} catch (Exception e) {
+			ip = "";
+		}
+		if (ip.length() == 0) {
 			LOG.log(Level.WARNING, "cannot resolve " + url);
-			return "";
 		}
 		return ip;
 	}
 
-	protected boolean scheduleTask(CrawlerTaskEntry task) {
-		workersLock.readLock().lock();
-		CrawlerThread worker = workers.get(task.hashid);
-
-		if (worker != null) {
-			workersLock.readLock().unlock();
-			if (worker.queue.size() > this.queueLength)
-				return false;
-			worker.submitTask(task);
-		} else {
-			if (workers.size() > this.maxConcurrency) {
-				workersLock.readLock().unlock();
-				return false;
+	/**
+	 * Queue the task for its host. When the host queue is full, or there are
+	 * too many hosts, wait for room if block is true, or return false.
+	 */
+	protected boolean scheduleTask(CrawlerTaskEntry task, boolean block)
+			throws InterruptedException {
+		hostsLock.lock();
+		try {
+			while (true) {
+				HostQueue host = hosts.get(task.hashid);
+				if (host != null) {
+					if (host.tasks.size() < this.queueLength) {
+						host.tasks.add(task);
+						break;
+					}
+				} else if (hosts.size() < this.maxConcurrency) {
+					host = new HostQueue(task.hashid);
+					host.tasks.add(task);
+					hosts.put(task.hashid, host);
+					readyHosts.put(host);
+					break;
+				}
+				if (!block) {
+					return false;
+				}
+				spaceAvailable.await();
 			}
-			worker = new CrawlerThread(this, task.hashid);
-			worker.submitTask(task);
-			worker.start();
-			workers.put(task.hashid, worker);
-			workersLock.readLock().unlock();
+		} finally {
+			hostsLock.unlock();
 		}
-
-		LOG.log(Level.INFO, "task " + task.url + " " + task.ip + "scheduled to worker " + task.hashid);
+		LOG.log(Level.INFO, "task " + task.url + " " + task.ip + " scheduled to host " + task.hashid);
 		return true;
 	}
 
+	/**
+	 * Schedule the url, waiting for room in the queues. The result goes to
+	 * the listener.
+	 */
 	public void schedule(String url, String ip, Object customData) {
 		CrawlerTaskEntry task = null;
 		try {
-			task = buildTask(url, ip, customData, false);
+			task = buildTask(url, ip, customData);
 		} catch (Exception e) {
 			e.printStackTrace();
 			LOG.info("Cannot schedule task for URL:[" + url + "]");
 			return;
 		}
-		while (!scheduleTask(task)) {
-			try {
-				Thread.sleep(100);
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
+		try {
+			scheduleTask(task, true);
+		} catch (InterruptedException e) {
+			LOG.log(Level.WARNING, "interrupted when scheduling " + url);
+			Thread.currentThread().interrupt();
 		}
 	}
 
 	public boolean scheduleNonBlock(String url, String ip, Object customData) {
 		CrawlerTaskEntry task = null;
 		try {
-			task = buildTask(url, ip, customData, false);
+			task = buildTask(url, ip, customData);
 		} catch (Exception e) {
 			e.printStackTrace();
 			LOG.info("Cannot schedule task for URL:[" + url + "]");
 			return true;
 		}
-		return scheduleTask(task);
+		try {
+			return scheduleTask(task, false);
+		} catch (InterruptedException e) {
+			// Never waits.
+			return false;
+		}
+	}
+
+	/**
+	 * Schedule the url, waiting for room in the queues, and return the future
+	 * content and headers of the page. The listener is not called. The future
+	 * fails with an IOException if the page cannot be fetched.
+	 */
+	public CompletableFuture<Response> fetch(String url, String ip) {
+		CompletableFuture<Response> result = new CompletableFuture<Response>();
+		CrawlerTaskEntry task = null;
+		try {
+			task = buildTask(url, ip, null);
+		} catch (Exception e) {
+			LOG.info("Cannot schedule task for URL:[" + url + "]");
+			result.completeExceptionally(e);
+			return result;
+		}
+		task.result = result;
+		try {
+			scheduleTask(task, true);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			result.completeExceptionally(e);
+		}
+		return result;
 	}
 
 	public byte[] scheduleAndWait(String url, String ip) {
 		return scheduleAndWait(url, ip, 60000);
 	}
 
+	/**
+	 * The content of the page, or null if it cannot be fetched within timeout
+	 * milliseconds after it is scheduled.
+	 */
 	public byte[] scheduleAndWait(String url, String ip, long timeout) {
 		if (url == null) {
 			LOG.info("null url [" + url + "]");
 			return null;
 		}
-		CrawlerTaskEntry task = null;
+		CompletableFuture<Response> result = fetch(url, ip);
 		try {
-			task = buildTask(url, ip, null, true);
-		} catch (Exception e) {
-			e.printStackTrace();
-			LOG.info("Cannot schedule task for URL:[" + url + "]");
-		}
-		while (!scheduleTask(task)) {
-			try {
-				Thread.sleep(100);
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
+			return result.get(timeout, TimeUnit.MILLISECONDS).content;
+		} catch (TimeoutException e) {
+			LOG.info("Timeout when waiting for URL:[" + url + "]");
+		} catch (ExecutionException e) {
+			LOG.info("Cannot fetch URL:[" + url + "] " + e.getCause().getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
-		while (!internalListener.storeBox.containsKey(url) && timeout > 0) {
-			try {
-				Thread.sleep(100);
-				timeout -= 100;
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-		}
-		InternalResult result = internalListener.storeBox.get(url);
-		if (result == null) {
-			return null;
-		}
-		byte[] content = internalListener.storeBox.get(url).content;
-		internalListener.storeBox.remove(url);
-		return content;
+		return null;
 	}
 
 	protected class CrawlerTaskEntry {
@@ -340,7 +448,8 @@ public class WebCrawler {
 		public String url;
 		public String ip;
 		public int hashid;
-		public boolean internal;
+		// Set for fetch(), which does not go through the listener.
+		public CompletableFuture<Response> result;
 
 		public CrawlerTaskEntry(String url, String ip, HttpMethod method, Object data) {
 			this.url = url;
@@ -350,30 +459,88 @@ public class WebCrawler {
 		}
 	}
 
+	/**
+	 * The queued tasks and the statistics of a host. It is due when the last
+	 * fetch is siteInterval milliseconds old.
+	 */
+	protected class HostQueue implements Delayed {
+		private int hashid;
+		private LinkedList<CrawlerTaskEntry> tasks = new LinkedList<CrawlerTaskEntry>();
+		private long dueTime = System.nanoTime();
+		private long birthTime = System.currentTimeMillis();
+		private volatile long totalConnTime = 0;
+		private volatile long totalFetchTime = 0;
+		private volatile int numFetched = 0;
+
+		public HostQueue(int hashid) {
+			this.hashid = hashid;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(dueTime - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed o) {
+			long diff = dueTime - ((HostQueue) o).dueTime;
+			return (diff < 0) ? -1 : ((diff > 0) ? 1 : 0);
+		}
+
+		/**
+		 * Called under hostsLock.
+		 */
+		public WorkerStat getWorkerStat() {
+			WorkerStat ws = new WorkerStat();
+			ws.hashId = this.hashid;
+			ws.lifetime = System.currentTimeMillis() - birthTime;
+			ws.numWaitingTask = tasks.size();
+			if (numFetched > 0) {
+				ws.meanConnTime = (double) totalConnTime / numFetched;
+				ws.meanFetchTime = (double) totalFetchTime / numFetched;
+			} else {
+				ws.meanConnTime = 0;
+				ws.meanFetchTime = 0;
+			}
+			ws.numFetched = numFetched;
+			return ws;
+		}
+	}
+
 	protected class ProactiveMonitor extends Thread {
 		private WebCrawler parent;
-		public boolean shouldStop = false;
+		public volatile boolean shouldStop = false;
 
 		public ProactiveMonitor(WebCrawler parent) {
 			this.parent = parent;
+			setDaemon(true);
 		}
 
 		public void run() {
 			while (!shouldStop) {
-				int capacity = parent.maxConcurrency - parent.workers.size();
+				int capacity;
+				List<Integer> hashids = new ArrayList<Integer>();
+				List<Integer> capacities = new ArrayList<Integer>();
+				parent.hostsLock.lock();
+				try {
+					capacity = parent.maxConcurrency - parent.hosts.size();
+					for (Entry<Integer, HostQueue> entry : parent.hosts.entrySet()) {
+						hashids.add(entry.getKey());
+						capacities.add(parent.queueLength - entry.getValue().tasks.size());
+					}
+				} finally {
+					parent.hostsLock.unlock();
+				}
+				// The listener may schedule more tasks, so it is called without
+				// the lock.
 				if (capacity > 0) {
 					parent.listener.workersAvailable(capacity);
 				}
-				parent.workersLock.writeLock().lock();
-				Iterator<Entry<Integer, CrawlerThread>> iter = parent.workers.entrySet().iterator();
-				while (iter.hasNext()) {
-					Entry<Integer, CrawlerThread> entry = iter.next();
-					capacity = parent.queueLength - entry.getValue().queue.size();
-					if (capacity > 0) {
-						parent.listener.workerQueueAvailable(entry.getKey(), capacity);
+				for (int i = 0; i < hashids.size(); i++) {
+					if (capacities.get(i) > 0) {
+						parent.listener.workerQueueAvailable(hashids.get(i), capacities.get(i));
 					}
 				}
-				parent.workersLock.writeLock().unlock();
 				try {
 					Thread.sleep(1000);
 				} catch (InterruptedException e) {
@@ -383,139 +550,110 @@ public class WebCrawler {
 		}
 	}
 
-	protected class CrawlerThread extends Thread {
-		private WebCrawler parent;
-		private BlockingQueue<CrawlerTaskEntry> queue;
-		private int hashid = -1;
-		private long birthTime = 0;
-		private long totalConnTime = 0;
-		private long totalFetchTime = 0;
-		private int numFetched = 0;
-
-		public CrawlerThread(WebCrawler parent, int hashid) {
-			this.parent = parent;
-			this.hashid = hashid;
-			this.queue = new LinkedBlockingQueue<CrawlerTaskEntry>(parent.queueLength);
-			birthTime = System.currentTimeMillis();
-		}
-
-		public void submitTask(CrawlerTaskEntry task) {
-			try {
-				queue.put(task);
-			} catch (InterruptedException e) {
-				LOG.log(Level.WARNING, hashid + " submit task failed" + e.getMessage());
-			}
-		}
-
-		public WorkerStat getWorkerStat() {
-			WorkerStat ws = new WorkerStat();
-			ws.hashId = this.hashid;
-			ws.lifetime = System.currentTimeMillis() - birthTime;
-			ws.numWaitingTask = queue.size();
-			if (numFetched > 0) {
-				ws.meanConnTime = (double) totalConnTime / numFetched;
-				ws.meanFetchTime = (double) totalFetchTime / numFetched;
-			} else {
-				ws.meanConnTime = 0;
-				ws.meanFetchTime = 0;
-			}
-			ws.numFetched = numFetched;
-			return ws;
-		}
-
-		private void clean() {
-			parent.workers.remove(this.hashid);
+	protected class Fetcher extends Thread {
+		public Fetcher(int id) {
+			super("crawler-fetcher-" + id);
+			setDaemon(true);
 		}
 
 		public void run() {
-			long startTime = 0;
-			long endTime = 0;
-			// check interval
 			while (true) {
-				CrawlerTaskEntry task;
-				if (queue.size() == 0) {
-					parent.workersLock.readLock().lock();
-					if (queue.size() == 0) {
-						LOG.log(Level.INFO, hashid + " no more task");
-						clean();
-						parent.workersLock.readLock().unlock();
-						return;
-					} else {
-						parent.workersLock.readLock().unlock();
-					}
+				HostQueue host;
+				try {
+					host = readyHosts.take();
+				} catch (InterruptedException e) {
+					return;
 				}
+				CrawlerTaskEntry task;
+				hostsLock.lock();
 				try {
-					task = queue.take();
+					task = host.tasks.poll();
 					if (task == null) {
-						LOG.log(Level.WARNING, hashid + " empty task");
-						clean();
-						return;
+						LOG.log(Level.INFO, host.hashid + " no more task");
+						hosts.remove(host.hashid);
+						if (hosts.isEmpty()) {
+							allDone.signalAll();
+						}
 					}
-				} catch (InterruptedException e) {
-					LOG.log(Level.WARNING, hashid + " interrupted when dequeue " + e.getMessage());
-					clean();
-					return;
+					spaceAvailable.signalAll();
+				} finally {
+					hostsLock.unlock();
 				}
+				if (task == null) {
+					continue;
+				}
+				fetch(host, task);
+				host.dueTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(siteInterval);
+				readyHosts.put(host);
+			}
+		}
 
-				CrawlerListener listener = (task.internal) ? parent.internalListener : parent.listener;
-
-				if (task.ip.length() < 5) {
-					listener.handleFailed(task.url, task.ip, -1, task.data);
-				} else {
-					boolean success = false;
-					byte[] content = null;
-					Header[] headers = null;
-					String[] responseHeaders = null;
-					try {
-						LOG.log(Level.INFO, hashid + " fetching " + task.url + " " + task.ip);
-						startTime = System.currentTimeMillis();
-						parent.httpClient.executeMethod(task.method);
-						endTime = System.currentTimeMillis();
-						totalConnTime += endTime - startTime;
-						startTime = System.currentTimeMillis();
-						content = task.method.getResponseBody();
-						endTime = System.currentTimeMillis();
-						totalFetchTime += endTime - startTime;
-						headers = task.method.getResponseHeaders();
-						responseHeaders = new String[headers.length];
-						for (int i = 0; i < headers.length; i++) {
-							responseHeaders[i] = headers[i].getName() + ":" + headers[i].getValue();
+		private void fetch(HostQueue host, CrawlerTaskEntry task) {
+			if (task.ip.length() < 5) {
+				failed(task, -1);
+				return;
+			}
+			boolean success = false;
+			byte[] content = null;
+			Header[] headers = null;
+			String[] responseHeaders = null;
+			long startTime = 0;
+			long endTime = 0;
+			try {
+				LOG.log(Level.INFO, host.hashid + " fetching " + task.url + " " + task.ip);
+				startTime = System.currentTimeMillis();
+				httpClient.executeMethod(task.method);
+				endTime = System.currentTimeMillis();
+				host.totalConnTime += endTime - startTime;
+				startTime = System.currentTimeMillis();
+				content = task.method.getResponseBody();
+				endTime = System.currentTimeMillis();
+				host.totalFetchTime += endTime - startTime;
+				headers = task.method.getResponseHeaders();
+				responseHeaders = new String[headers.length];
+				for (int i = 0; i < headers.length; i++) {
+					responseHeaders[i] = headers[i].getName() + ":" + headers[i].getValue();
+				}
+				success = true;
+			} catch (HttpException e1) {
+				LOG.log(Level.WARNING, host.hashid + " fetch failed " + e1.getClass().getName() + " " + task.url);
+			} catch (IOException e1) {
+				LOG.log(Level.WARNING, host.hashid + " fetch failed " + e1.getClass().getName() + " " + task.url);
+			} catch (Exception e) {
+				LOG.log(Level.WARNING, host.hashid + " fetch failed " + e.getClass().getName() + " " + task.url);
+			} finally {
+				try {
+					if (success) {
+						host.numFetched++;
+						if (task.result != null) {
+							task.result.complete(new Response(content, responseHeaders));
+						} else {
+							listener.handleSuccess(task.url, task.ip, content, responseHeaders, task.data);
 						}
-						success = true;
-					} catch (HttpException e1) {
-						LOG.log(Level.WARNING, hashid + " fetch failed " + e1.getClass().getName() + " " + task.url);
-					} catch (IOException e1) {
-						LOG.log(Level.WARNING, hashid + " fetch failed " + e1.getClass().getName() + " " + task.url);
-					} catch (Exception e) {
-						LOG.log(Level.WARNING, hashid + " fetch failed " + e.getClass().getName() + " " + task.url);
-					} finally {
+					} else {
+						int statusCode = -1;
 						try {
-							if (success) {
-								numFetched++;
-								listener.handleSuccess(task.url, task.ip, content, responseHeaders, task.data);
-							} else {
-								int statusCode = -1;
-								try {
-									statusCode = task.method.getStatusCode();
-								} catch (NullPointerException e) {
-									LOG.info("Failed to get the status code.");
-								}
-								listener.handleFailed(task.url, task.ip, statusCode, task.data);
-							}
-							task.method.releaseConnection();
-						} catch (Exception e) {
-							e.printStackTrace();
-							LOG.log(Level.WARNING, hashid + " user handler failed for result from " + task.url);
+							statusCode = task.method.getStatusCode();
+						} catch (NullPointerException e) {
+							LOG.info("Failed to get the status code.");
 						}
+						failed(task, statusCode);
 					}
-				}
-				try {
-					Thread.sleep(parent.siteInterval);
-				} catch (InterruptedException e) {
-					LOG.log(Level.WARNING, hashid + " interrupted when waiting for task " + e.getMessage());
+					task.method.releaseConnection();
+				} catch (Exception e) {
+					e.printStackTrace();
+					LOG.log(Level.WARNING, host.hashid + " user handler failed for result from " + task.url);
 				}
 			}
 		}
 
+		private void failed(CrawlerTaskEntry task, int statusCode) {
+			if (task.result != null) {
+				task.result.completeExceptionally(new IOException("fetch failed, status "
+						+ statusCode + " " + task.url));
+			} else {
+				listener.handleFailed(task.url, task.ip, statusCode, task.data);
+			}
+		}
 	}
 }
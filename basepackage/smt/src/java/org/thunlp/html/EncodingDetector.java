@@ -1,19 +1,348 @@
 package org.thunlp.html;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.HashMap;
+import java.util.Map;
 
+/**
+ * Find the charset of a web page from its bytes. The hints are checked in
+ * the order of the browsers: a byte order mark, the charset of the HTTP
+ * Content-Type header, then a charset in the first 1024 bytes of the page,
+ * like &lt;meta charset="utf-8"&gt;. Without a usable hint, the page is
+ * checked against UTF-8, GBK/GB18030 and Big5, and the one which explains
+ * the bytes best is taken. Pages of only ASCII are GBK.
+ *
+ * Nothing is decoded to find the charset, and decode() decodes the page into
+ * a reusable buffer once the charset is known.
+ *
+ * @author adam
+ */
 public class EncodingDetector {
-	private static Pattern charsetPat = Pattern.compile("; ?charset=([A-Za-z0-9_-]+)", Pattern.CASE_INSENSITIVE);
+	public static final Charset UTF8 = Charset.forName("UTF-8");
+	public static final Charset GBK = Charset.forName("GBK");
+	public static final Charset GB18030 = Charset.forName("GB18030");
+	public static final Charset BIG5 = Charset.forName("Big5");
+	private static final Charset UTF16LE = Charset.forName("UTF-16LE");
+	private static final Charset UTF16BE = Charset.forName("UTF-16BE");
 
-	public static String detect(byte[] page) {
-		int previewLength = page.length > 1024 ? 1024 : page.length;
-		String charsetName = "gbk";
-		String preview = new String(page, 0, previewLength);
-		Matcher m = charsetPat.matcher(preview);
-		if (m.find()) {
-			charsetName = m.group(1);
+	private static final int PREVIEW_LENGTH = 1024;
+	private static final int SAMPLE_LENGTH = 64 * 1024;
+	private static final byte [] CHARSET = "charset".getBytes(UTF8);
+
+	// Labels which name a charset that Java does not decode the way browsers
+	// do, GB2312 pages for example use GBK characters freely.
+	private static Map<String, Charset> aliases = new HashMap<String, Charset>();
+	static {
+		aliases.put("gb2312", GBK);
+		aliases.put("gb_2312-80", GBK);
+		aliases.put("csgb2312", GBK);
+		aliases.put("x-gbk", GBK);
+		aliases.put("cp936", GBK);
+		aliases.put("utf8", UTF8);
+		aliases.put("unicode", UTF8);
+		aliases.put("utf-16", UTF8);
+		aliases.put("big5-hkscs", Charset.forName("Big5-HKSCS"));
+	}
+
+	/**
+	 * The charset label of the page as it is written in the page, or the
+	 * lower case name of the guessed charset.
+	 */
+	public static String detect(byte [] page) {
+		String label = declared(page, 0, Math.min(page.length, PREVIEW_LENGTH));
+		if (label != null) {
+			return label;
+		}
+		return detect(page, 0, page.length, null).name().toLowerCase();
+	}
+
+	public static Charset detect(byte [] page, int offset, int length) {
+		return detect(page, offset, length, null);
+	}
+
+	/**
+	 * The charset of the page, with the response headers of the crawler in
+	 * the form "Name:value". The headers may be null.
+	 */
+	public static Charset detect(byte [] page, int offset, int length,
+			String [] responseHeaders) {
+		Charset charset = byteOrderMark(page, offset, length);
+		if (charset != null) {
+			return charset;
+		}
+		if (responseHeaders != null) {
+			for (String header : responseHeaders) {
+				charset = fromHeader(header);
+				if (charset != null) {
+					return charset;
+				}
+			}
+		}
+		String label = declared(page, offset, Math.min(length, PREVIEW_LENGTH));
+		if (label != null) {
+			charset = forLabel(label);
+			if (charset != null) {
+				return charset;
+			}
+		}
+		return guess(page, offset, Math.min(length, SAMPLE_LENGTH));
+	}
+
+	/**
+	 * Decode the page into the buffer, which is replaced by a larger one when
+	 * it is too small. A byte order mark is skipped. The returned buffer is
+	 * ready to be read.
+	 */
+	public static CharBuffer decode(byte [] page, int offset, int length,
+			Charset charset, CharBuffer buffer) {
+		Charset bom = byteOrderMark(page, offset, length);
+		if (charset.equals(bom)) {
+			int bomLength = bom.equals(UTF8) ? 3 : 2;
+			offset += bomLength;
+			length -= bomLength;
+		}
+		CharsetDecoder decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		int capacity = (int) (length * (double) decoder.averageCharsPerByte()) + 16;
+		if (buffer == null || buffer.capacity() < capacity) {
+			buffer = CharBuffer.allocate(capacity);
+		}
+		buffer.clear();
+		ByteBuffer in = ByteBuffer.wrap(page, offset, length);
+		while (true) {
+			CoderResult result = decoder.decode(in, buffer, true);
+			if (!result.isOverflow()) {
+				result = decoder.flush(buffer);
+			}
+			if (!result.isOverflow()) {
+				break;
+			}
+			buffer = grow(buffer);
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private static CharBuffer grow(CharBuffer buffer) {
+		CharBuffer larger = CharBuffer.allocate(buffer.capacity() * 2 + 16);
+		buffer.flip();
+		larger.put(buffer);
+		return larger;
+	}
+
+	/**
+	 * The charset for a label like "GB2312" or "utf-8", null if unknown.
+	 */
+	public static Charset forLabel(String label) {
+		label = label.trim().toLowerCase();
+		Charset charset = aliases.get(label);
+		if (charset != null) {
+			return charset;
+		}
+		try {
+			return Charset.forName(label);
+		} catch (IllegalArgumentException e) {
+			// Both IllegalCharsetNameException and UnsupportedCharsetException.
+			return null;
+		}
+	}
+
+	private static Charset fromHeader(String header) {
+		int colon = header.indexOf(':');
+		if (colon < 0
+				|| !header.substring(0, colon).trim().equalsIgnoreCase("content-type")) {
+			return null;
+		}
+		byte [] value = header.substring(colon + 1).getBytes(UTF8);
+		String label = declared(value, 0, value.length);
+		return (label == null) ? null : forLabel(label);
+	}
+
+	private static Charset byteOrderMark(byte [] page, int offset, int length) {
+		if (length >= 3 && (page[offset] & 0xff) == 0xef
+				&& (page[offset + 1] & 0xff) == 0xbb
+				&& (page[offset + 2] & 0xff) == 0xbf) {
+			return UTF8;
+		}
+		if (length >= 2 && (page[offset] & 0xff) == 0xff
+				&& (page[offset + 1] & 0xff) == 0xfe) {
+			return UTF16LE;
+		}
+		if (length >= 2 && (page[offset] & 0xff) == 0xfe
+				&& (page[offset + 1] & 0xff) == 0xff) {
+			return UTF16BE;
+		}
+		return null;
+	}
+
+	/**
+	 * Find "charset", optional spaces, "=", optional spaces and quotes, and a
+	 * label, ignoring case. Returns the first label, or null.
+	 */
+	private static String declared(byte [] page, int offset, int length) {
+		int end = offset + length;
+		for (int i = offset; i + CHARSET.length < end; i++) {
+			int j = 0;
+			while (j < CHARSET.length
+					&& lowerCase(page[i + j]) == CHARSET[j]) {
+				j++;
+			}
+			if (j < CHARSET.length) {
+				continue;
+			}
+			int k = skip(page, i + j, end, false);
+			if (k >= end || page[k] != '=') {
+				continue;
+			}
+			k = skip(page, k + 1, end, true);
+			int labelEnd = k;
+			while (labelEnd < end && isLabelByte(page[labelEnd])) {
+				labelEnd++;
+			}
+			if (labelEnd > k) {
+				return new String(page, k, labelEnd - k, UTF8);
+			}
+		}
+		return null;
+	}
+
+	private static int skip(byte [] page, int i, int end, boolean quotes) {
+		while (i < end && (page[i] == ' ' || page[i] == '\t'
+				|| (quotes && (page[i] == '"' || page[i] == '\'')))) {
+			i++;
+		}
+		return i;
+	}
+
+	private static byte lowerCase(byte b) {
+		return (b >= 'A' && b <= 'Z') ? (byte) (b + ('a' - 'A')) : b;
+	}
+
+	private static boolean isLabelByte(byte b) {
+		return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z')
+				|| (b >= '0' && b <= '9') || b == '-' || b == '_' || b == '.'
+				|| b == ':';
+	}
+
+	/**
+	 * Check the bytes against UTF-8, and if they are not UTF-8, against
+	 * GB18030 and Big5 in one pass. Invalid sequences count heavily against a
+	 * charset. Valid but uncommon characters count lightly, so that Big5
+	 * text, which is mostly valid GBK, is told apart by its many trail bytes
+	 * below 0xa1, and GBK text by the lead bytes 0xc7 and 0xc8, which Big5
+	 * does not use.
+	 */
+	static Charset guess(byte [] page, int offset, int length) {
+		int end = offset + length;
+		boolean ascii = true;
+		boolean utf8Valid = true;
+		int utf8Pending = 0;
+		int gbBad = 0;
+		int gbFourBytes = 0;
+		int big5Bad = 0;
+
+		int i = offset;
+		while (i < end && utf8Valid) {
+			int b = page[i] & 0xff;
+			if (utf8Pending > 0) {
+				if ((b & 0xc0) != 0x80) {
+					utf8Valid = false;
+				}
+				utf8Pending--;
+			} else if (b >= 0x80) {
+				ascii = false;
+				utf8Pending = utf8Length(page, i, end);
+				if (utf8Pending < 0) {
+					utf8Valid = false;
+				}
+				// The continuation bytes are checked as they come.
+				utf8Pending = Math.max(utf8Pending - 1, 0);
+			}
+			i++;
+		}
+		if (ascii) {
+			return GBK;
+		}
+		if (utf8Valid) {
+			return UTF8;
+		}
+
+		for (i = offset; i < end; i++) {
+			int b = page[i] & 0xff;
+			if (b < 0x80) {
+				continue;
+			}
+			if (b == 0x80 || b == 0xff || i + 1 >= end) {
+				gbBad += 10;
+				big5Bad += 10;
+				continue;
+			}
+			int t = page[i + 1] & 0xff;
+			boolean fourBytes = false;
+			// GB18030, which covers GBK.
+			if (t >= 0x30 && t <= 0x39) {
+				if (i + 3 < end && (page[i + 2] & 0xff) >= 0x81
+						&& (page[i + 2] & 0xff) <= 0xfe
+						&& (page[i + 3] & 0xff) >= 0x30
+						&& (page[i + 3] & 0xff) <= 0x39) {
+					gbFourBytes++;
+					fourBytes = true;
+				} else {
+					gbBad += 10;
+				}
+			} else if (t < 0x40 || t == 0x7f || t == 0xff) {
+				gbBad += 10;
+			} else if (t < 0xa1) {
+				gbBad++;
+			}
+			// Big5.
+			if (b < 0xa1 || b > 0xf9 || b == 0xc7 || b == 0xc8
+					|| t < 0x40 || (t > 0x7e && t < 0xa1) || t == 0xff) {
+				big5Bad += 10;
+			} else if (b > 0xc6) {
+				big5Bad++;
+			}
+			i += fourBytes ? 3 : 1;
+		}
+		if (gbBad <= big5Bad) {
+			return gbFourBytes > 0 ? GB18030 : GBK;
+		}
+		return BIG5;
+	}
+
+	/**
+	 * The length of the UTF-8 sequence starting at i, -1 if it is not valid.
+	 * A sequence cut by the end is taken as valid.
+	 */
+	private static int utf8Length(byte [] page, int i, int end) {
+		int b = page[i] & 0xff;
+		int length;
+		int min, max;
+		if (b >= 0xc2 && b <= 0xdf) {
+			return 2;
+		} else if (b >= 0xe0 && b <= 0xef) {
+			length = 3;
+			min = (b == 0xe0) ? 0xa0 : 0x80;
+			max = (b == 0xed) ? 0x9f : 0xbf;
+		} else if (b >= 0xf0 && b <= 0xf4) {
+			length = 4;
+			min = (b == 0xf0) ? 0x90 : 0x80;
+			max = (b == 0xf4) ? 0x8f : 0xbf;
+		} else {
+			return -1;
+		}
+		if (i + 1 < end) {
+			int c = page[i + 1] & 0xff;
+			if (c < min || c > max) {
+				return -1;
+			}
 		}
-		return charsetName;
+		return length;
 	}
 }
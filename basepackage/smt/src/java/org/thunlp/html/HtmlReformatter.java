@@ -1,9 +1,8 @@
 package org.thunlp.html;
 
+import java.nio.charset.Charset;
 import java.util.regex.Pattern;
 
-import org.htmlparser.util.Translate;
-
 /**
  * Try to fix html page design problems, especially in Chinese webpages
  * 
@@ -25,18 +24,23 @@ public class HtmlReformatter {
 	 * escapes like &lt; to right character. 5) remove html comments like <!--
 	 * -->
 	 * 
+	 * The page is converted in one pass by HtmlTextExtractor, with the same
+	 * result as the regular expressions above.
+	 * 
 	 * @param htmlPage
 	 * @return
 	 */
 	public static String getPlainText(String htmlPage) {
-		String content = htmlPage;
-		content = commentBlockRE.matcher(content).replaceAll("");
-		content = styleBlockRE.matcher(content).replaceAll("");
-		content = scriptBlockRE.matcher(content).replaceAll("");
-		content = htmlTagRE.matcher(content).replaceAll("");
-		content = Translate.decode(content);
-		content = content.replaceAll("nbsp", " ");
-		return content;
+		return new HtmlTextExtractor().extract(htmlPage);
+	}
+
+	public static String getPlainText(char [] htmlPage, int offset, int length) {
+		return new HtmlTextExtractor().extract(htmlPage, offset, length);
+	}
+
+	public static String getPlainText(byte [] htmlPage, Charset charset) {
+		return new HtmlTextExtractor().extract(htmlPage, 0, htmlPage.length,
+				charset);
 	}
 
 	public static String reformat(String htmlPage) {
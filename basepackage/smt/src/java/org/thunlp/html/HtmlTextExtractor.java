@@ -0,0 +1,479 @@
+package org.thunlp.html;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import org.htmlparser.util.CharacterReference;
+import org.htmlparser.util.Translate;
+
+/**
+ * Single pass HTML to plain text conversion, the same as the regular
+ * expressions of HtmlReformatter followed by Translate.decode() and the
+ * "nbsp" replacement, but in linear time on any input.
+ *
+ * Each step of the old conversion is a stage here, which reads the output of
+ * the stage before one character at a time: comments, style blocks, script
+ * blocks and tags are removed in that order, then character references are
+ * decoded and "nbsp" is replaced with a space. A stage which has seen the
+ * start of a block keeps the block until its end is found, and gives it to
+ * the next stage unchanged if the page ends first, like the regular
+ * expression which fails to match.
+ *
+ * An extractor can be reused for many pages, but not by several threads at
+ * once.
+ *
+ * @author adam
+ *
+ */
+public class HtmlTextExtractor {
+	private static final int DECODE_BUFFER_SIZE = 8192;
+
+	private StringBuilder text = new StringBuilder();
+	private Stage nbsp = new NbspStage();
+	private Stage entities = new EntityStage(nbsp);
+	private Stage tags = new TagStage(entities);
+	private Stage scripts = new BlockStage("<script", "</script>", true, tags);
+	private Stage styles = new BlockStage("<style", "</style>", true, scripts);
+	private Stage comments = new BlockStage("<!--", "-->", false, styles);
+	private CharBuffer decoded = null;
+
+	public String extract(CharSequence page) {
+		begin(page.length());
+		for (int i = 0; i < page.length(); i++) {
+			comments.push(page.charAt(i));
+		}
+		return end();
+	}
+
+	public String extract(char [] page, int offset, int length) {
+		begin(length);
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			comments.push(page[i]);
+		}
+		return end();
+	}
+
+	/**
+	 * Decode the page with the charset while extracting the text, malformed
+	 * input is replaced like in new String(page, charset).
+	 */
+	public String extract(byte [] page, int offset, int length,
+			Charset charset) {
+		CharsetDecoder decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		if (decoded == null) {
+			decoded = CharBuffer.allocate(DECODE_BUFFER_SIZE);
+		}
+		begin(length);
+		ByteBuffer in = ByteBuffer.wrap(page, offset, length);
+		CoderResult result;
+		do {
+			result = decoder.decode(in, decoded, true);
+			pushDecoded();
+		} while (result.isOverflow());
+		do {
+			result = decoder.flush(decoded);
+			pushDecoded();
+		} while (result.isOverflow());
+		return end();
+	}
+
+	private void pushDecoded() {
+		decoded.flip();
+		char [] chars = decoded.array();
+		int end = decoded.limit();
+		for (int i = decoded.position(); i < end; i++) {
+			comments.push(chars[i]);
+		}
+		decoded.clear();
+	}
+
+	private void begin(int length) {
+		text.setLength(0);
+		text.ensureCapacity(length);
+		comments.reset();
+	}
+
+	private String end() {
+		comments.finish();
+		String result = text.toString();
+		if (text.length() > 1024 * 1024) {
+			text = new StringBuilder();
+		}
+		return result;
+	}
+
+	private static abstract class Stage {
+		abstract void push(char c);
+
+		/**
+		 * Called at the end of the page, flushes what is held back.
+		 */
+		abstract void finish();
+
+		/**
+		 * Forget the last page, before a new one.
+		 */
+		abstract void reset();
+	}
+
+	/**
+	 * Removes blocks from an opening string to the first closing string after
+	 * it, like the regular expression open.*?close with DOTALL. The strings
+	 * are matched with KMP, so no character is looked at twice.
+	 */
+	private static class BlockStage extends Stage {
+		private char [] open;
+		private char [] close;
+		private int [] openFallback;
+		private int [] closeFallback;
+		private boolean ignoreCase;
+		private Stage next;
+
+		// The characters of the page which match the opening string so far.
+		private char [] opening;
+		private int openMatched = 0;
+		private int closeMatched = 0;
+		private boolean inBlock = false;
+		private StringBuilder block = new StringBuilder();
+
+		BlockStage(String open, String close, boolean ignoreCase, Stage next) {
+			this.open = open.toCharArray();
+			this.close = close.toCharArray();
+			this.openFallback = fallback(this.open);
+			this.closeFallback = fallback(this.close);
+			this.opening = new char[this.open.length];
+			this.ignoreCase = ignoreCase;
+			this.next = next;
+		}
+
+		@Override
+		void push(char c) {
+			if (inBlock) {
+				block.append(c);
+				closeMatched = advance(close, closeFallback, closeMatched, c);
+				if (closeMatched == close.length) {
+					block.setLength(0);
+					closeMatched = 0;
+					inBlock = false;
+				}
+			} else {
+				opening[openMatched] = c;
+				int matched = advance(open, openFallback, openMatched, c);
+				// Characters which can no longer start the opening string.
+				int released = openMatched + 1 - matched;
+				for (int i = 0; i < released; i++) {
+					next.push(opening[i]);
+				}
+				System.arraycopy(opening, released, opening, 0, matched);
+				openMatched = matched;
+				if (openMatched == open.length) {
+					block.append(opening);
+					openMatched = 0;
+					inBlock = true;
+				}
+			}
+		}
+
+		@Override
+		void finish() {
+			if (inBlock) {
+				for (int i = 0; i < block.length(); i++) {
+					next.push(block.charAt(i));
+				}
+			}
+			for (int i = 0; i < openMatched; i++) {
+				next.push(opening[i]);
+			}
+			next.finish();
+		}
+
+		@Override
+		void reset() {
+			openMatched = 0;
+			closeMatched = 0;
+			inBlock = false;
+			block.setLength(0);
+			next.reset();
+		}
+
+		private int advance(char [] pattern, int [] fallback, int matched,
+				char c) {
+			c = fold(c);
+			while (matched > 0 && pattern[matched] != c) {
+				matched = fallback[matched - 1];
+			}
+			return pattern[matched] == c ? matched + 1 : 0;
+		}
+
+		private char fold(char c) {
+			if (ignoreCase && c >= 'A' && c <= 'Z') {
+				return (char) (c + ('a' - 'A'));
+			}
+			return c;
+		}
+
+		private static int [] fallback(char [] pattern) {
+			int [] fallback = new int[pattern.length];
+			int k = 0;
+			for (int i = 1; i < pattern.length; i++) {
+				while (k > 0 && pattern[i] != pattern[k]) {
+					k = fallback[k - 1];
+				}
+				if (pattern[i] == pattern[k]) {
+					k++;
+				}
+				fallback[i] = k;
+			}
+			return fallback;
+		}
+	}
+
+	/**
+	 * Removes tags, like the regular expression &lt;[^&lt;&gt;]+&gt;.
+	 */
+	private static class TagStage extends Stage {
+		private Stage next;
+		private boolean inTag = false;
+		private StringBuilder tag = new StringBuilder();
+
+		TagStage(Stage next) {
+			this.next = next;
+		}
+
+		@Override
+		void push(char c) {
+			if (!inTag) {
+				if (c == '<') {
+					inTag = true;
+					tag.append(c);
+				} else {
+					next.push(c);
+				}
+			} else if (c == '>') {
+				if (tag.length() == 1) {
+					next.push('<');
+					next.push('>');
+				}
+				tag.setLength(0);
+				inTag = false;
+			} else if (c == '<') {
+				flush();
+				tag.append(c);
+			} else {
+				tag.append(c);
+			}
+		}
+
+		private void flush() {
+			for (int i = 0; i < tag.length(); i++) {
+				next.push(tag.charAt(i));
+			}
+			tag.setLength(0);
+		}
+
+		@Override
+		void finish() {
+			flush();
+			inTag = false;
+			next.finish();
+		}
+
+		@Override
+		void reset() {
+			tag.setLength(0);
+			inTag = false;
+			next.reset();
+		}
+	}
+
+	/**
+	 * Decodes character references the way Translate.decode() does, including
+	 * its handling of references without the trailing ';'. Named references
+	 * are looked up in the table of Translate.
+	 */
+	private static class EntityStage extends Stage {
+		private static final int TEXT = 0;
+		private static final int AMPERSAND = 1;
+		private static final int NUMBER = 2;
+		private static final int NAME = 3;
+
+		private Stage next;
+		private int state = TEXT;
+		private int radix;
+		private int number;
+		private StringBuilder reference = new StringBuilder();
+
+		EntityStage(Stage next) {
+			this.next = next;
+		}
+
+		@Override
+		void push(char c) {
+			switch (state) {
+			case TEXT:
+				if (c == '&') {
+					state = AMPERSAND;
+				} else {
+					next.push(c);
+				}
+				break;
+			case AMPERSAND:
+				if (c == '#') {
+					state = NUMBER;
+					radix = 0;
+					number = 0;
+					reference.setLength(0);
+				} else if (Character.isLetter(c)) {
+					state = NAME;
+					reference.setLength(0);
+					reference.append(c);
+				} else {
+					state = TEXT;
+					next.push('&');
+					push(c);
+				}
+				break;
+			case NUMBER:
+				pushDigit(c);
+				break;
+			case NAME:
+				if (c == ';') {
+					endName(true);
+				} else if (Character.isLetterOrDigit(c)) {
+					reference.append(c);
+				} else {
+					endName(false);
+					push(c);
+				}
+				break;
+			}
+		}
+
+		private void pushDigit(char c) {
+			if (c >= '0' && c <= '9') {
+				if (radix == 0) {
+					radix = 10;
+				}
+				number = number * radix + (c - '0');
+			} else if (c >= 'A' && c <= 'F' && radix == 16) {
+				number = number * 16 + (c - 'A' + 10);
+			} else if (c >= 'a' && c <= 'f' && radix == 16) {
+				number = number * 16 + (c - 'a' + 10);
+			} else if ((c == 'x' || c == 'X') && radix == 0) {
+				radix = 16;
+			} else if (c == ';') {
+				reference.append(c);
+				endNumber();
+				return;
+			} else {
+				endNumber();
+				push(c);
+				return;
+			}
+			reference.append(c);
+		}
+
+		private void endNumber() {
+			state = TEXT;
+			if (number != 0) {
+				next.push((char) number);
+			} else {
+				next.push('&');
+				next.push('#');
+				pushAll(reference, 0);
+			}
+		}
+
+		private void endName(boolean semicolon) {
+			state = TEXT;
+			CharacterReference ref =
+				Translate.lookup(reference.toString(), 0, reference.length());
+			int rest = 0;
+			if (ref != null) {
+				next.push((char) ref.getCharacter());
+				rest = ref.getKernel().length();
+				if (semicolon && rest == reference.length()) {
+					return;
+				}
+			} else {
+				next.push('&');
+			}
+			pushAll(reference, rest);
+			if (semicolon) {
+				next.push(';');
+			}
+		}
+
+		private void pushAll(CharSequence chars, int start) {
+			for (int i = start; i < chars.length(); i++) {
+				next.push(chars.charAt(i));
+			}
+		}
+
+		@Override
+		void finish() {
+			switch (state) {
+			case AMPERSAND:
+				state = TEXT;
+				next.push('&');
+				break;
+			case NUMBER:
+				endNumber();
+				break;
+			case NAME:
+				endName(false);
+				break;
+			}
+			next.finish();
+		}
+
+		@Override
+		void reset() {
+			state = TEXT;
+			reference.setLength(0);
+			next.reset();
+		}
+	}
+
+	/**
+	 * Replaces "nbsp" with a space and appends to the extracted text.
+	 */
+	private class NbspStage extends Stage {
+		private int matched = 0;
+
+		@Override
+		void push(char c) {
+			if (c == "nbsp".charAt(matched)) {
+				matched++;
+				if (matched == 4) {
+					text.append(' ');
+					matched = 0;
+				}
+				return;
+			}
+			text.append("nbsp", 0, matched);
+			matched = (c == 'n') ? 1 : 0;
+			if (matched == 0) {
+				text.append(c);
+			}
+		}
+
+		@Override
+		void finish() {
+			text.append("nbsp", 0, matched);
+			matched = 0;
+		}
+
+		@Override
+		void reset() {
+			matched = 0;
+		}
+	}
+}
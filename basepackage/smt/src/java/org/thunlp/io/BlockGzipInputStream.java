@@ -0,0 +1,215 @@
+package org.thunlp.io;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Read a file written by BlockGzipOutputStream (or any BGZF file). The raw
+ * blocks are read sequentially, which is cheap, and inflated by a pool of
+ * threads. Up to 2 * numThreads blocks are in flight, and they are returned in
+ * file order.
+ *
+ * @author sixiance
+ *
+ */
+public class BlockGzipInputStream extends InputStream {
+	protected DataInputStream in;
+	protected ExecutorService pool;
+	protected int maxInFlight;
+	protected LinkedList<Future<byte[]>> inFlight = new LinkedList<Future<byte[]>>();
+	protected boolean endOfInput = false;
+	protected byte[] current = new byte[0];
+	protected int position = 0;
+
+	public BlockGzipInputStream(InputStream in) {
+		this(in, Runtime.getRuntime().availableProcessors());
+	}
+
+	public BlockGzipInputStream(InputStream in, int numThreads) {
+		this.in = new DataInputStream(new BufferedInputStream(in, BlockGzipOutputStream.MAX_BLOCK_SIZE));
+		this.maxInFlight = Math.max(2, numThreads * 2);
+		this.pool = Executors.newFixedThreadPool(Math.max(1, numThreads), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "bgzf-inflater");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Check whether the stream starts with a BGZF block header. The stream must
+	 * support mark/reset, and is reset to where it was.
+	 */
+	public static boolean isBlockGzip(InputStream in) throws IOException {
+		byte[] header = new byte[BlockGzipOutputStream.HEADER_SIZE];
+		in.mark(header.length);
+		int n = 0;
+		while (n < header.length) {
+			int r = in.read(header, n, header.length - n);
+			if (r < 0)
+				break;
+			n += r;
+		}
+		in.reset();
+		return n == header.length && (header[0] & 0xff) == 0x1f && (header[1] & 0xff) == 0x8b
+				&& (header[3] & 0x04) != 0 && header[12] == 'B' && header[13] == 'C' && header[14] == 2;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!ensureData())
+			return -1;
+		return current[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (!ensureData())
+			return -1;
+		int n = Math.min(len, current.length - position);
+		System.arraycopy(current, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return current.length - position;
+	}
+
+	@Override
+	public void close() throws IOException {
+		pool.shutdownNow();
+		inFlight.clear();
+		in.close();
+	}
+
+	protected boolean ensureData() throws IOException {
+		while (position == current.length) {
+			fillPipeline();
+			if (inFlight.isEmpty())
+				return false;
+			try {
+				current = inFlight.removeFirst().get();
+			} catch (InterruptedException e) {
+				throw new IOException("interrupted while inflating block");
+			} catch (ExecutionException e) {
+				IOException ioe = new IOException("broken block: " + e.getCause().getMessage());
+				ioe.initCause(e.getCause());
+				throw ioe;
+			}
+			position = 0;
+		}
+		return true;
+	}
+
+	protected void fillPipeline() throws IOException {
+		while (!endOfInput && inFlight.size() < maxInFlight) {
+			final byte[] block = readRawBlock();
+			if (block == null) {
+				endOfInput = true;
+				break;
+			}
+			inFlight.add(pool.submit(new Callable<byte[]>() {
+				public byte[] call() throws IOException {
+					return inflateBlock(block);
+				}
+			}));
+		}
+	}
+
+	/**
+	 * Read one whole gzip member, or null at the end of input.
+	 */
+	protected byte[] readRawBlock() throws IOException {
+		byte[] fixed = new byte[12];
+		int first = in.read();
+		if (first < 0)
+			return null;
+		fixed[0] = (byte) first;
+		in.readFully(fixed, 1, fixed.length - 1);
+		if ((fixed[0] & 0xff) != 0x1f || (fixed[1] & 0xff) != 0x8b || (fixed[3] & 0x04) == 0) {
+			throw new IOException("not a BGZF block");
+		}
+		int xlen = readShort(fixed, 10);
+		byte[] extra = new byte[xlen];
+		in.readFully(extra);
+		int blockSize = -1;
+		for (int i = 0; i + 4 <= xlen;) {
+			int slen = readShort(extra, i + 2);
+			if (extra[i] == 'B' && extra[i + 1] == 'C' && slen == 2) {
+				blockSize = readShort(extra, i + 4) + 1;
+			}
+			i += 4 + slen;
+		}
+		if (blockSize < 0) {
+			throw new IOException("missing BC field in gzip header");
+		}
+		byte[] block = new byte[blockSize];
+		System.arraycopy(fixed, 0, block, 0, fixed.length);
+		System.arraycopy(extra, 0, block, fixed.length, xlen);
+		try {
+			in.readFully(block, fixed.length + xlen, blockSize - fixed.length - xlen);
+		} catch (EOFException e) {
+			throw new IOException("truncated BGZF block");
+		}
+		return block;
+	}
+
+	static byte[] inflateBlock(byte[] block) throws IOException {
+		int xlen = readShort(block, 10);
+		int dataStart = 12 + xlen;
+		int footer = block.length - BlockGzipOutputStream.FOOTER_SIZE;
+		int expectedCrc = readInt(block, footer);
+		int size = readInt(block, footer + 4);
+		byte[] data = new byte[size];
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(block, dataStart, footer - dataStart);
+			int n = 0;
+			while (n < size) {
+				int r = inflater.inflate(data, n, size - n);
+				if (r == 0 && (inflater.finished() || inflater.needsInput()))
+					break;
+				n += r;
+			}
+			if (n != size) {
+				throw new IOException("wrong block size, expect " + size + " got " + n);
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("corrupted block: " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		if ((int) crc.getValue() != expectedCrc) {
+			throw new IOException("CRC mismatch in BGZF block");
+		}
+		return data;
+	}
+
+	static int readShort(byte[] b, int offset) {
+		return (b[offset] & 0xff) | ((b[offset + 1] & 0xff) << 8);
+	}
+
+	static int readInt(byte[] b, int offset) {
+		return readShort(b, offset) | (readShort(b, offset + 2) << 16);
+	}
+}
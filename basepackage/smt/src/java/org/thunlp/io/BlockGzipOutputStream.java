@@ -0,0 +1,168 @@
+package org.thunlp.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Write data as a series of independent gzip members of at most 64KB each, in
+ * the BGZF layout used by samtools/tabix. Every member carries its own
+ * compressed size in a "BC" extra field, so a reader can locate the members
+ * without inflating them and inflate them in parallel. The output is still a
+ * valid multi-member gzip file that any gzip reader can decompress.
+ *
+ * @author sixiance
+ *
+ */
+public class BlockGzipOutputStream extends OutputStream {
+	public static final int MAX_BLOCK_SIZE = 65536;
+	// Uncompressed bytes per block, the same value as BGZF uses.
+	public static final int DEFAULT_BLOCK_DATA_SIZE = 0xff00;
+	static final int HEADER_SIZE = 18;
+	static final int FOOTER_SIZE = 8;
+
+	// An empty block marks the end of file.
+	static final byte[] EOF_BLOCK = { 0x1f, (byte) 0x8b, 0x08, 0x04, 0x00, 0x00, 0x00, 0x00, 0x00, (byte) 0xff, 0x06,
+			0x00, 0x42, 0x43, 0x02, 0x00, 0x1b, 0x00, 0x03, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00 };
+
+	protected OutputStream out;
+	protected byte[] buffer;
+	protected int numBuffered = 0;
+	protected byte[] compressed = new byte[MAX_BLOCK_SIZE];
+	protected Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+	protected CRC32 crc = new CRC32();
+	protected long numBytesWritten = 0;
+	protected boolean closed = false;
+
+	public BlockGzipOutputStream(OutputStream out) {
+		this(out, DEFAULT_BLOCK_DATA_SIZE);
+	}
+
+	public BlockGzipOutputStream(OutputStream out, int blockDataSize) {
+		if (blockDataSize <= 0 || blockDataSize > DEFAULT_BLOCK_DATA_SIZE) {
+			throw new IllegalArgumentException("block data size must be in (0, " + DEFAULT_BLOCK_DATA_SIZE + "]");
+		}
+		this.out = out;
+		this.buffer = new byte[blockDataSize];
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (numBuffered == buffer.length) {
+			flushBlock();
+		}
+		buffer[numBuffered++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (numBuffered == buffer.length) {
+				flushBlock();
+			}
+			int n = Math.min(len, buffer.length - numBuffered);
+			System.arraycopy(b, off, buffer, numBuffered, n);
+			numBuffered += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Flush the buffered data as a complete block. Note that this ends the
+	 * current gzip member, so calling it often hurts the compression ratio.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (numBuffered > 0) {
+			flushBlock();
+		}
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		if (numBuffered > 0) {
+			flushBlock();
+		}
+		out.write(EOF_BLOCK);
+		numBytesWritten += EOF_BLOCK.length;
+		deflater.end();
+		out.close();
+		closed = true;
+	}
+
+	/**
+	 * Number of compressed bytes written so far, i.e. the file offset of the
+	 * next block.
+	 */
+	public long getNumBytesWritten() {
+		return numBytesWritten;
+	}
+
+	protected void flushBlock() throws IOException {
+		int offset = 0;
+		while (offset < numBuffered) {
+			offset += writeBlock(offset, numBuffered - offset);
+		}
+		numBuffered = 0;
+	}
+
+	/**
+	 * Compress up to length bytes from the buffer into one block. Returns the
+	 * number of bytes consumed, which is less than length when the data does
+	 * not compress into a single block.
+	 */
+	protected int writeBlock(int offset, int length) throws IOException {
+		int maxCompressed = MAX_BLOCK_SIZE - HEADER_SIZE - FOOTER_SIZE;
+		int compressedSize;
+		while (true) {
+			deflater.reset();
+			deflater.setInput(buffer, offset, length);
+			deflater.finish();
+			compressedSize = deflater.deflate(compressed, 0, maxCompressed);
+			if (deflater.finished()) {
+				break;
+			}
+			// Incompressible data, retry with less input.
+			length -= Math.max(length / 4, 1024);
+		}
+		crc.reset();
+		crc.update(buffer, offset, length);
+
+		int blockSize = HEADER_SIZE + compressedSize + FOOTER_SIZE;
+		byte[] header = new byte[HEADER_SIZE];
+		header[0] = 0x1f;
+		header[1] = (byte) 0x8b;
+		header[2] = 0x08; // deflate
+		header[3] = 0x04; // FEXTRA
+		header[9] = (byte) 0xff; // unknown OS
+		header[10] = 6; // XLEN
+		header[12] = 'B';
+		header[13] = 'C';
+		header[14] = 2; // SLEN
+		writeShort(header, 16, blockSize - 1);
+		out.write(header);
+		out.write(compressed, 0, compressedSize);
+		byte[] footer = new byte[FOOTER_SIZE];
+		writeInt(footer, 0, (int) crc.getValue());
+		writeInt(footer, 4, length);
+		out.write(footer);
+		numBytesWritten += blockSize;
+		return length;
+	}
+
+	static void writeShort(byte[] b, int offset, int v) {
+		b[offset] = (byte) (v & 0xff);
+		b[offset + 1] = (byte) ((v >>> 8) & 0xff);
+	}
+
+	static void writeInt(byte[] b, int offset, int v) {
+		writeShort(b, offset, v & 0xffff);
+		writeShort(b, offset + 2, (v >>> 16) & 0xffff);
+	}
+}
@@ -0,0 +1,229 @@
+package org.thunlp.io;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * Sidecar index of a record file, stored next to it as "name.idx". It holds
+ * the number of records, checkpoints mapping record numbers to byte offsets
+ * where a reader can start decoding, and the record ranges of each fold. The
+ * index is a plain text file:
+ *
+ * <pre>
+ * records 1000
+ * data 5678900 1290000000000
+ * interval 4096
+ * checkpoint 0 0
+ * checkpoint 500 123456
+ * fold 0 0 500
+ * fold 1 500 1000
+ * </pre>
+ *
+ * The data line is the length and modification time of the record file the
+ * index was written for; an index that does not match them is stale.
+ *
+ * Byte offsets are raw file offsets. For block gzipped files every
+ * checkpoint starts a new gzip block, so decoding can begin right there.
+ *
+ * @author sixiance
+ *
+ */
+public class RecordIndex {
+	public static String SUFFIX = ".idx";
+	public static int DEFAULT_INTERVAL = 4096;
+
+	protected long numRecords = 0;
+	protected int interval = DEFAULT_INTERVAL;
+	protected long dataLength = -1;
+	protected long dataModified = -1;
+	protected List<long[]> checkpoints = new ArrayList<long[]>();
+	protected Map<String, List<long[]>> folds = new LinkedHashMap<String, List<long[]>>();
+
+	public RecordIndex() {
+	}
+
+	public RecordIndex(int interval) {
+		this.interval = interval;
+	}
+
+	public long getNumRecords() {
+		return numRecords;
+	}
+
+	public void setNumRecords(long numRecords) {
+		this.numRecords = numRecords;
+	}
+
+	public void setDataFile(long length, long modified) {
+		dataLength = length;
+		dataModified = modified;
+	}
+
+	/**
+	 * Whether the index was written for a record file of this length and
+	 * modification time. Indexes without them match no file.
+	 */
+	public boolean matches(long length, long modified) {
+		return dataLength >= 0 && dataLength == length && dataModified == modified;
+	}
+
+	/**
+	 * Returns {length, modification time} of the file, or null if there is no
+	 * such file.
+	 */
+	public static long[] stat(String name, boolean onHdfs) throws IOException {
+		if (onHdfs) {
+			FileSystem fs = FileSystem.get(new JobConf());
+			Path path = new Path(name);
+			if (!fs.exists(path))
+				return null;
+			FileStatus status = fs.getFileStatus(path);
+			return new long[] { status.getLen(), status.getModificationTime() };
+		}
+		File file = new File(name);
+		if (!file.exists())
+			return null;
+		return new long[] { file.length(), file.lastModified() };
+	}
+
+	public int getInterval() {
+		return interval;
+	}
+
+	public void addCheckpoint(long record, long offset) {
+		if (checkpoints.size() > 0) {
+			long[] last = checkpoints.get(checkpoints.size() - 1);
+			if (last[0] == record)
+				return;
+		}
+		checkpoints.add(new long[] { record, offset });
+	}
+
+	/**
+	 * Returns the last checkpoint {record, offset} at or before the record.
+	 */
+	public long[] findCheckpoint(long record) {
+		int low = 0;
+		int high = checkpoints.size() - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (checkpoints.get(mid)[0] <= record) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		if (checkpoints.size() == 0 || checkpoints.get(low)[0] > record) {
+			return new long[] { 0, 0 };
+		}
+		return checkpoints.get(low);
+	}
+
+	/**
+	 * Records [start, end) belong to the fold. A fold may have several ranges.
+	 */
+	public void addFoldRange(String fold, long start, long end) {
+		if (start >= end)
+			return;
+		List<long[]> ranges = folds.get(fold);
+		if (ranges == null) {
+			ranges = new ArrayList<long[]>();
+			folds.put(fold, ranges);
+		}
+		long[] last = ranges.size() > 0 ? ranges.get(ranges.size() - 1) : null;
+		if (last != null && last[1] == start) {
+			last[1] = end;
+		} else {
+			ranges.add(new long[] { start, end });
+		}
+	}
+
+	public boolean hasFold(String fold) {
+		return folds.containsKey(fold);
+	}
+
+	/**
+	 * Returns the sorted ranges of the fold, or an empty list if the fold is
+	 * not in the index.
+	 */
+	public List<long[]> getFoldRanges(String fold) {
+		List<long[]> ranges = folds.get(fold);
+		if (ranges == null)
+			return new ArrayList<long[]>();
+		return ranges;
+	}
+
+	/**
+	 * Returns the sorted ranges of all records not in the fold.
+	 */
+	public List<long[]> getRangesWithoutFold(String fold) {
+		List<long[]> result = new ArrayList<long[]>();
+		long start = 0;
+		for (long[] range : getFoldRanges(fold)) {
+			if (range[0] > start)
+				result.add(new long[] { start, range[0] });
+			start = range[1];
+		}
+		if (start < numRecords)
+			result.add(new long[] { start, numRecords });
+		return result;
+	}
+
+	public void write(OutputStream out) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+		writer.write("records " + numRecords + "\n");
+		if (dataLength >= 0)
+			writer.write("data " + dataLength + " " + dataModified + "\n");
+		writer.write("interval " + interval + "\n");
+		for (long[] cp : checkpoints) {
+			writer.write("checkpoint " + cp[0] + " " + cp[1] + "\n");
+		}
+		for (Entry<String, List<long[]>> e : folds.entrySet()) {
+			for (long[] range : e.getValue()) {
+				writer.write("fold " + e.getKey() + " " + range[0] + " " + range[1] + "\n");
+			}
+		}
+		writer.close();
+	}
+
+	public static RecordIndex read(InputStream in) throws IOException {
+		RecordIndex index = new RecordIndex();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			String[] cols = line.split(" ");
+			if (cols[0].equals("records")) {
+				index.numRecords = Long.parseLong(cols[1]);
+			} else if (cols[0].equals("data")) {
+				index.setDataFile(Long.parseLong(cols[1]), Long.parseLong(cols[2]));
+			} else if (cols[0].equals("interval")) {
+				index.interval = Integer.parseInt(cols[1]);
+			} else if (cols[0].equals("checkpoint")) {
+				index.addCheckpoint(Long.parseLong(cols[1]), Long.parseLong(cols[2]));
+			} else if (cols[0].equals("fold")) {
+				index.addFoldRange(cols[1], Long.parseLong(cols[2]), Long.parseLong(cols[3]));
+			} else if (line.length() > 0) {
+				reader.close();
+				throw new IOException("bad index line: " + line);
+			}
+		}
+		reader.close();
+		return index;
+	}
+}
@@ -1,10 +1,17 @@
 package org.thunlp.io;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
@@ -20,6 +27,17 @@ import org.thunlp.hadoop.FolderReader;
  * 1) plain text file, 2) gzipped text file, 3) zip archive with multiple ".txt"
  * files inside. 4) Hadoop sequence file with text key/value.
  * 
+ * Text files can be read in read-ahead mode, where a background thread
+ * decompresses, decodes and splits the lines into batches, handing them over
+ * through a bounded queue. Block gzipped files (see BlockGzipOutputStream) are
+ * also inflated in parallel in this mode. Read-ahead is enabled by the
+ * constructor argument, or for all readers by the system property
+ * "recordreader.readahead=true".
+ * 
+ * Files written with a sidecar RecordIndex can be read partially through
+ * open(name, startRecord, endRecord), openFold() and openWithoutFold(), which
+ * seek to the nearest checkpoint instead of scanning from the beginning.
+ * 
  * @author sixiance
  *
  */
@@ -28,6 +46,11 @@ public class RecordReader {
 	public static int TYPE_ZIPPED_TEXT = 1;
 	public static int TYPE_GZIPPED_TEXT = 2;
 	public static int TYPE_SEQUENCE_FILE = 3;
+	public static int TYPE_BLOCK_GZIPPED_TEXT = 4;
+
+	public static int READ_AHEAD_BATCH_SIZE = 1024;
+	public static int READ_AHEAD_QUEUE_LENGTH = 16;
+	private static final String[] END_OF_BATCHES = new String[0];
 
 	protected BufferedReader reader = null;
 	protected ZipInputStream zipin = null;
@@ -38,6 +61,23 @@ public class RecordReader {
 	protected Text value = new Text();
 	protected String currentKey = null;
 	protected String currentValue = null;
+	protected ReadAheadThread readAhead = null;
+	protected String[] batch = null;
+	protected int batchPosition = 0;
+
+	// Stream state, kept to reopen the stream at a checkpoint.
+	protected String name;
+	protected String charset;
+	protected int type;
+	protected boolean onHdfs;
+	protected boolean parallelInflate;
+	// Record ranges to read, null to read all records.
+	protected RecordIndex index = null;
+	protected List<long[]> ranges = null;
+	protected int rangeIndex = -1;
+	protected long rangeRemaining = 0;
+	// The record number of the next line in the stream.
+	protected long streamRecord = 0;
 
 	// Automatic detect the type and file system of the file.
 	public RecordReader(String name) throws IOException {
@@ -50,24 +90,144 @@ public class RecordReader {
 	}
 
 	public RecordReader(String name, String charset, int type, boolean onHdfs) throws IOException {
+		this(name, charset, type, onHdfs, Boolean.getBoolean("recordreader.readahead"));
+	}
+
+	public RecordReader(String name, String charset, int type, boolean onHdfs, boolean readAhead)
+			throws IOException {
+		this(name, charset, type, onHdfs, readAhead, null, null);
+	}
+
+	protected RecordReader(String name, String charset, int type, boolean onHdfs, boolean readAhead,
+			RecordIndex index, List<long[]> ranges) throws IOException {
 		if (onHdfs && name.startsWith("/hdfs/")) {
 			name = name.substring("/hdfs".length());
 		}
-		if (type == RecordReader.TYPE_PLAIN_TEXT) {
-			reader = new BufferedReader(new InputStreamReader(getInputStream(name, onHdfs), charset));
-			isSequenceFile = false;
-		} else if (type == RecordReader.TYPE_GZIPPED_TEXT) {
-			reader = new BufferedReader(
-					new InputStreamReader(new GZIPInputStream(getInputStream(name, onHdfs)), charset));
+		this.name = name;
+		this.charset = charset;
+		this.type = type;
+		this.onHdfs = onHdfs;
+		this.parallelInflate = readAhead;
+		this.index = index;
+		this.ranges = ranges;
+		if (type == RecordReader.TYPE_SEQUENCE_FILE) {
+			if (ranges != null)
+				throw new IOException("sequence files can not be read by range");
+			sequenceFileReader = new FolderReader(new Path(name));
+			isSequenceFile = true;
+		} else {
+			openText(0);
 			isSequenceFile = false;
+		}
+		if (readAhead && !isSequenceFile) {
+			this.readAhead = new ReadAheadThread(name);
+			this.readAhead.start();
+		}
+	}
+
+	/**
+	 * Read records [startRecord, endRecord) of the file.
+	 */
+	public static RecordReader open(String name, long startRecord, long endRecord) throws IOException {
+		List<long[]> ranges = new ArrayList<long[]>();
+		ranges.add(new long[] { startRecord, endRecord });
+		return openRanges(name, loadIndex(name), ranges);
+	}
+
+	/**
+	 * Read the records of the fold. If the file has no index, the whole file
+	 * is read, so callers should still check the fold of each record.
+	 */
+	public static RecordReader openFold(String name, String fold) throws IOException {
+		RecordIndex index = loadIndex(name);
+		if (index == null)
+			return new RecordReader(name);
+		return openRanges(name, index, index.getFoldRanges(fold));
+	}
+
+	/**
+	 * Read all records except the fold, which is how the training data of a
+	 * cross-validation fold is read. If the file has no index, the whole file
+	 * is read, so callers should still check the fold of each record.
+	 */
+	public static RecordReader openWithoutFold(String name, String fold) throws IOException {
+		RecordIndex index = loadIndex(name);
+		if (index == null)
+			return new RecordReader(name);
+		return openRanges(name, index, index.getRangesWithoutFold(fold));
+	}
+
+	protected static RecordReader openRanges(String name, RecordIndex index, List<long[]> ranges)
+			throws IOException {
+		return new RecordReader(name, "UTF-8", detectType(name), detectFs(name),
+				Boolean.getBoolean("recordreader.readahead"), index, ranges);
+	}
+
+	/**
+	 * Returns the sidecar index of the file, or null if there is none or it
+	 * was written for another file of the same name.
+	 */
+	public static RecordIndex loadIndex(String name) throws IOException {
+		boolean onHdfs = detectFs(name);
+		if (onHdfs && name.startsWith("/hdfs/")) {
+			name = name.substring("/hdfs".length());
+		}
+		String indexName = name + RecordIndex.SUFFIX;
+		RecordIndex index;
+		if (onHdfs) {
+			FileSystem fs = FileSystem.get(new JobConf());
+			if (!fs.exists(new Path(indexName)))
+				return null;
+			index = RecordIndex.read(fs.open(new Path(indexName)));
+		} else {
+			if (!new File(indexName).exists())
+				return null;
+			index = RecordIndex.read(new FileInputStream(indexName));
+		}
+		long[] stat = RecordIndex.stat(name, onHdfs);
+		if (stat == null || !index.matches(stat[0], stat[1]))
+			return null;
+		return index;
+	}
+
+	/**
+	 * (Re)open the text stream at a byte offset, which must be the start of a
+	 * line, and the start of a block for gzipped files.
+	 */
+	protected void openText(long offset) throws IOException {
+		if (reader != null)
+			reader.close();
+		InputStream raw = getInputStream(name, onHdfs);
+		skipFully(raw, offset);
+		if (type == RecordReader.TYPE_PLAIN_TEXT) {
+			reader = new BufferedReader(new InputStreamReader(raw, charset));
+		} else if (type == RecordReader.TYPE_GZIPPED_TEXT || type == RecordReader.TYPE_BLOCK_GZIPPED_TEXT) {
+			// Block gzipped files are valid multi-member gzip files, so the
+			// plain GZIPInputStream reads them sequentially when parallel
+			// inflating is not wanted.
+			InputStream in = new BufferedInputStream(raw);
+			if (parallelInflate && BlockGzipInputStream.isBlockGzip(in)) {
+				in = new BlockGzipInputStream(in);
+			} else {
+				in = new GZIPInputStream(in);
+			}
+			reader = new BufferedReader(new InputStreamReader(in, charset));
 		} else if (type == RecordReader.TYPE_ZIPPED_TEXT) {
-			zipin = new ZipInputStream(getInputStream(name, onHdfs));
+			zipin = new ZipInputStream(raw);
 			reader = new BufferedReader(new InputStreamReader(zipin, charset));
 			zipin.getNextEntry();
-			isSequenceFile = false;
-		} else if (type == RecordReader.TYPE_SEQUENCE_FILE) {
-			sequenceFileReader = new FolderReader(new Path(name));
-			isSequenceFile = true;
+		}
+	}
+
+	private static void skipFully(InputStream in, long n) throws IOException {
+		while (n > 0) {
+			long skipped = in.skip(n);
+			if (skipped <= 0) {
+				if (in.read() < 0)
+					throw new IOException("offset beyond the end of file");
+				skipped = 1;
+			}
+			n -= skipped;
 		}
 	}
 
@@ -75,14 +235,11 @@ public class RecordReader {
 		boolean success = false;
 		if (isSequenceFile) {
 			success = sequenceFileReader.next(key, value);
+		} else if (readAhead != null) {
+			currentValue = nextPrefetched();
+			success = (currentValue != null);
 		} else {
-			currentValue = reader.readLine();
-			if (currentValue == null && zipin != null) {
-				zipin.closeEntry();
-				ZipEntry ze = zipin.getNextEntry();
-				currentValue = reader.readLine();
-				success = (ze != null && currentValue != null);
-			}
+			currentValue = readLine();
 			success = (currentValue != null);
 		}
 		if (success)
@@ -90,6 +247,75 @@ public class RecordReader {
 		return success;
 	}
 
+	protected String readLine() throws IOException {
+		if (ranges == null)
+			return readRawLine();
+		while (rangeRemaining <= 0) {
+			rangeIndex++;
+			if (rangeIndex >= ranges.size())
+				return null;
+			long[] range = ranges.get(rangeIndex);
+			seekToRecord(range[0]);
+			rangeRemaining = range[1] - range[0];
+		}
+		String line = readRawLine();
+		if (line == null) {
+			rangeRemaining = 0;
+			rangeIndex = ranges.size();
+		} else {
+			rangeRemaining--;
+		}
+		return line;
+	}
+
+	protected String readRawLine() throws IOException {
+		String line = reader.readLine();
+		if (line == null && zipin != null) {
+			zipin.closeEntry();
+			ZipEntry ze = zipin.getNextEntry();
+			if (ze != null)
+				line = reader.readLine();
+		}
+		if (line != null)
+			streamRecord++;
+		return line;
+	}
+
+	/**
+	 * Position the stream so that the next line is the given record. Short
+	 * forward jumps skip lines, others reopen the stream at a checkpoint.
+	 */
+	protected void seekToRecord(long record) throws IOException {
+		long[] checkpoint = (index == null) ? new long[] { 0, 0 } : index.findCheckpoint(record);
+		if (record < streamRecord || checkpoint[0] > streamRecord) {
+			openText(checkpoint[1]);
+			streamRecord = checkpoint[0];
+		}
+		while (streamRecord < record) {
+			if (readRawLine() == null)
+				break;
+		}
+	}
+
+	protected String nextPrefetched() throws IOException {
+		while (batch == null || batchPosition == batch.length) {
+			if (batch == END_OF_BATCHES)
+				return null;
+			try {
+				batch = readAhead.queue.take();
+			} catch (InterruptedException e) {
+				throw new IOException("interrupted while waiting for records");
+			}
+			batchPosition = 0;
+			if (batch == END_OF_BATCHES && readAhead.error != null) {
+				IOException e = new IOException("read-ahead failed: " + readAhead.error.getMessage());
+				e.initCause(readAhead.error);
+				throw e;
+			}
+		}
+		return batch[batchPosition++];
+	}
+
 	public int numRead() {
 		return numRead;
 	}
@@ -110,6 +336,10 @@ public class RecordReader {
 		if (isSequenceFile) {
 			sequenceFileReader.close();
 		} else {
+			if (readAhead != null) {
+				readAhead.closing = true;
+				readAhead.interrupt();
+			}
 			if (zipin != null)
 				zipin.closeEntry();
 			reader.close();
@@ -140,10 +370,61 @@ public class RecordReader {
 			return RecordReader.TYPE_GZIPPED_TEXT;
 		} else if (name.endsWith(".zip")) {
 			return RecordReader.TYPE_ZIPPED_TEXT;
+		} else if (name.endsWith(".bgz")) {
+			return RecordReader.TYPE_BLOCK_GZIPPED_TEXT;
 		} else if (name.endsWith(".sf")) {
 			return RecordReader.TYPE_SEQUENCE_FILE;
 		} else {
 			return RecordReader.TYPE_PLAIN_TEXT;
 		}
 	}
+
+	/**
+	 * Reads lines from the underlying reader in batches of
+	 * READ_AHEAD_BATCH_SIZE, at most READ_AHEAD_QUEUE_LENGTH batches ahead of
+	 * the consumer.
+	 */
+	protected class ReadAheadThread extends Thread {
+		protected BlockingQueue<String[]> queue = new ArrayBlockingQueue<String[]>(READ_AHEAD_QUEUE_LENGTH);
+		protected volatile Throwable error = null;
+		protected volatile boolean closing = false;
+
+		public ReadAheadThread(String name) {
+			super("read-ahead " + name);
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					String[] lines = new String[READ_AHEAD_BATCH_SIZE];
+					int n = 0;
+					String line = null;
+					while (n < lines.length && (line = readLine()) != null) {
+						lines[n++] = line;
+					}
+					if (n > 0)
+						queue.put(n == lines.length ? lines : Arrays.copyOf(lines, n));
+					if (line == null)
+						break;
+				}
+			} catch (InterruptedException e) {
+				// The reader is closed.
+			} catch (Throwable e) {
+				// Also runtime errors of the decoders, which next() rethrows.
+				if (!closing)
+					error = e;
+			} finally {
+				// Without the end marker the consumer would wait forever. A closed
+				// reader has no consumer.
+				try {
+					if (!closing)
+						queue.put(END_OF_BATCHES);
+				} catch (InterruptedException e) {
+					// The reader is closed.
+				}
+			}
+		}
+	}
 }
@@ -3,6 +3,7 @@ package org.thunlp.io;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
@@ -18,13 +19,21 @@ import org.thunlp.hadoop.FolderWriter;
 
 /*
  * Write records to the underlying file, which can be plain text file, gzip file
- * zip file or sequence file.
+ * zip file or sequence file. TYPE_BLOCK_GZIPPED_TEXT writes a gzip file made of
+ * independent 64KB blocks (see BlockGzipOutputStream), which RecordReader can
+ * inflate in parallel.
+ *
+ * Plain text and block gzipped files can also be written with a sidecar
+ * RecordIndex ("name.idx"), which lets RecordReader.open() and
+ * RecordReader.openFold() start reading in the middle of the file. Call
+ * setFold() before adding the records of each fold to record fold ranges.
  */
 public class RecordWriter {
 	public static int TYPE_PLAIN_TEXT = 0;
 	public static int TYPE_ZIPPED_TEXT = 1;
 	public static int TYPE_GZIPPED_TEXT = 2;
 	public static int TYPE_SEQUENCE_FILE = 3;
+	public static int TYPE_BLOCK_GZIPPED_TEXT = 4;
 
 	protected boolean isSequenceFile = false;
 	protected BufferedWriter writer = null;
@@ -34,6 +43,15 @@ public class RecordWriter {
 	protected Text value = new Text();
 	protected int numWrote = 0;
 
+	protected String name = null;
+	protected boolean onHdfs = false;
+	// Sidecar index, only when enabled.
+	protected RecordIndex index = null;
+	protected CountingOutputStream counter = null;
+	protected BlockGzipOutputStream blockGzip = null;
+	protected String currentFold = null;
+	protected long foldStart = 0;
+
 	public RecordWriter(String name) throws IOException {
 		this(name, "UTF-8");
 	}
@@ -43,16 +61,46 @@ public class RecordWriter {
 	}
 
 	public RecordWriter(String name, String charset, int type, boolean onHdfs) throws IOException {
+		this(name, charset, type, onHdfs, 0);
+	}
+
+	/**
+	 * Write a sidecar index with a checkpoint every indexInterval records. An
+	 * interval of 0 disables the index. Only plain text and block gzipped text
+	 * files can be indexed.
+	 */
+	public RecordWriter(String name, String charset, int type, boolean onHdfs, int indexInterval)
+			throws IOException {
 		if (onHdfs && name.startsWith("/hdfs/")) {
 			name = name.substring("/hdfs".length());
 		}
+		this.name = name;
+		this.onHdfs = onHdfs;
+		if (indexInterval > 0) {
+			if (type != RecordWriter.TYPE_PLAIN_TEXT && type != RecordWriter.TYPE_BLOCK_GZIPPED_TEXT) {
+				throw new IllegalArgumentException("only plain text and block gzipped files can be indexed");
+			}
+			this.index = new RecordIndex(indexInterval);
+			// Do not leave the index of an earlier file of this name around
+			// while this one is written.
+			deleteIndex();
+		}
 		if (type == RecordWriter.TYPE_PLAIN_TEXT) {
-			writer = new BufferedWriter(new OutputStreamWriter(getOutputStream(name, onHdfs), charset));
+			OutputStream out = getOutputStream(name, onHdfs);
+			if (index != null) {
+				counter = new CountingOutputStream(out);
+				out = counter;
+			}
+			writer = new BufferedWriter(new OutputStreamWriter(out, charset));
 			isSequenceFile = false;
 		} else if (type == RecordWriter.TYPE_GZIPPED_TEXT) {
 			writer = new BufferedWriter(
 					new OutputStreamWriter(new GZIPOutputStream(getOutputStream(name, onHdfs)), charset));
 			isSequenceFile = false;
+		} else if (type == RecordWriter.TYPE_BLOCK_GZIPPED_TEXT) {
+			blockGzip = new BlockGzipOutputStream(getOutputStream(name, onHdfs));
+			writer = new BufferedWriter(new OutputStreamWriter(blockGzip, charset));
+			isSequenceFile = false;
 		} else if (type == RecordWriter.TYPE_ZIPPED_TEXT) {
 			zipout = new ZipOutputStream(getOutputStream(name, onHdfs));
 			writer = new BufferedWriter(new OutputStreamWriter(zipout, charset));
@@ -68,7 +116,29 @@ public class RecordWriter {
 		add(Integer.toString(numWrote), value);
 	}
 
+	/**
+	 * Mark the following records as belonging to the fold, until the next
+	 * call. Only has effect when the index is enabled. Fold ids are stored in
+	 * the space separated index, so they must not be empty or contain
+	 * whitespace.
+	 */
+	public void setFold(String fold) throws IOException {
+		if (!fold.matches("\\S+"))
+			throw new IllegalArgumentException("bad fold id \"" + fold + "\"");
+		if (index == null || fold.equals(currentFold))
+			return;
+		if (currentFold != null)
+			index.addFoldRange(currentFold, foldStart, numWrote);
+		// Make the start of every fold directly seekable.
+		checkpoint();
+		currentFold = fold;
+		foldStart = numWrote;
+	}
+
 	public void add(String key, String value) throws IOException {
+		if (index != null && numWrote % index.getInterval() == 0) {
+			checkpoint();
+		}
 		if (isSequenceFile) {
 			this.key.set(key);
 			this.value.set(value);
@@ -86,6 +156,23 @@ public class RecordWriter {
 		} else {
 			writer.close();
 		}
+		if (index != null) {
+			if (currentFold != null)
+				index.addFoldRange(currentFold, foldStart, numWrote);
+			index.setNumRecords(numWrote);
+			long[] stat = RecordIndex.stat(name, onHdfs);
+			if (stat != null)
+				index.setDataFile(stat[0], stat[1]);
+			index.write(getOutputStream(name + RecordIndex.SUFFIX, onHdfs));
+		}
+	}
+
+	protected void checkpoint() throws IOException {
+		// Flushing ends the current gzip block, so the next record starts at
+		// a block boundary.
+		writer.flush();
+		long offset = (blockGzip != null) ? blockGzip.getNumBytesWritten() : counter.getCount();
+		index.addCheckpoint(numWrote, offset);
 	}
 
 	public void flush() throws IOException {
@@ -95,6 +182,16 @@ public class RecordWriter {
 		}
 	}
 
+	protected void deleteIndex() throws IOException {
+		String indexName = name + RecordIndex.SUFFIX;
+		if (onHdfs) {
+			FileSystem fs = FileSystem.get(new JobConf());
+			fs.delete(new Path(indexName), false);
+		} else {
+			new File(indexName).delete();
+		}
+	}
+
 	protected OutputStream getOutputStream(String path, boolean onHdfs) throws IOException {
 		if (onHdfs) {
 			FileSystem fs = FileSystem.get(new JobConf());
@@ -103,4 +200,28 @@ public class RecordWriter {
 			return new FileOutputStream(new File(path));
 		}
 	}
+
+	protected static class CountingOutputStream extends FilterOutputStream {
+		protected long count = 0;
+
+		public CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		public long getCount() {
+			return count;
+		}
+	}
 }
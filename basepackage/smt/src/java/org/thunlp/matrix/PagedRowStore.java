@@ -0,0 +1,537 @@
+package org.thunlp.matrix;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.thunlp.metrics.Counter;
+import org.thunlp.metrics.Histogram;
+import org.thunlp.metrics.Metrics;
+
+/**
+ * The rows of a large sparse matrix in a file, read on demand, for models
+ * where a request touches only a few rows, like the word to tag tables of
+ * the translation and PMI suggesters.
+ *
+ * The file has a header, an index of (row, offset, length) sorted by row,
+ * and the rows, each as its sorted column ids followed by the values. Only
+ * the index is read into the heap, 16 bytes per row. The rows are memory
+ * mapped, decoded on their first use and kept in an LRU cache bounded by
+ * their size in bytes, so the heap needed does not grow with the model.
+ *
+ * Files are made by Writer, from entries in any order. get() is
+ * thread-safe.
+ *
+ * @author sixiance
+ *
+ */
+public class PagedRowStore {
+	private static final int MAGIC = 0x524f5753; // "ROWS"
+	private static final int VERSION = 1;
+	private static final long SEGMENT_SIZE = 1L << 30;
+	// Estimated heap bytes of a cached row besides its arrays.
+	private static final int ROW_OVERHEAD = 96;
+
+	private static Counter FAULTS = Metrics.counter("rowstore.faults");
+	private static Histogram FAULT_TIME = Metrics
+			.histogram("rowstore.fault_ns");
+
+	private int[] rowIds;
+	private long[] offsets;
+	private int[] lengths;
+	private MappedByteBuffer[] segments;
+	private long dataStart;
+
+	private long cacheCapacity;
+	private long cacheBytes = 0;
+	private LinkedHashMap<Integer, Row> cache = new LinkedHashMap<Integer, Row>(
+			16, 0.75f, true);
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * A row: column ids in increasing order and their values.
+	 */
+	public static class Row {
+		public final int[] cols;
+		public final double[] values;
+
+		public Row(int[] cols, double[] values) {
+			this.cols = cols;
+			this.values = values;
+		}
+
+		/**
+		 * The row of a map from column to value.
+		 */
+		public static Row of(Map<Integer, Double> row) {
+			int[] cols = new int[row.size()];
+			int n = 0;
+			for (int col : row.keySet()) {
+				cols[n++] = col;
+			}
+			Arrays.sort(cols);
+			double[] values = new double[n];
+			for (int i = 0; i < n; i++) {
+				values[i] = row.get(cols[i]);
+			}
+			return new Row(cols, values);
+		}
+
+		public int size() {
+			return cols.length;
+		}
+
+		/**
+		 * The value in the column, or missing.
+		 */
+		public double get(int col, double missing) {
+			int i = Arrays.binarySearch(cols, col);
+			return i >= 0 ? values[i] : missing;
+		}
+
+		long bytes() {
+			return 12L * cols.length + ROW_OVERHEAD;
+		}
+	}
+
+	/**
+	 * Open a file made by Writer, with a row cache of at most cacheCapacity
+	 * bytes.
+	 */
+	public PagedRowStore(File file, long cacheCapacity) throws IOException {
+		this.cacheCapacity = cacheCapacity;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		int numRows;
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException(file + " is not a row store");
+			}
+			numRows = in.readInt();
+			rowIds = new int[numRows];
+			offsets = new long[numRows];
+			lengths = new int[numRows];
+			for (int i = 0; i < numRows; i++) {
+				rowIds[i] = in.readInt();
+				offsets[i] = in.readLong();
+				lengths[i] = in.readInt();
+			}
+		} finally {
+			in.close();
+		}
+		dataStart = 12L + 16L * numRows;
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long dataSize = channel.size() - dataStart;
+			int numSegments = (int) ((dataSize + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+			segments = new MappedByteBuffer[numSegments];
+			for (int i = 0; i < numSegments; i++) {
+				long start = dataStart + i * SEGMENT_SIZE;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+						Math.min(SEGMENT_SIZE, channel.size() - start));
+			}
+		} finally {
+			// The mappings stay valid after the file is closed.
+			raf.close();
+		}
+	}
+
+	public int numRows() {
+		return rowIds.length;
+	}
+
+	public boolean contains(int row) {
+		return Arrays.binarySearch(rowIds, row) >= 0;
+	}
+
+	/**
+	 * The row, or null if the row is not in the file.
+	 */
+	public Row get(int row) {
+		synchronized (cache) {
+			Row r = cache.get(row);
+			if (r != null) {
+				hits++;
+				return r;
+			}
+		}
+		int i = Arrays.binarySearch(rowIds, row);
+		if (i < 0) {
+			return null;
+		}
+		long start = FAULT_TIME.start();
+		Row r = read(offsets[i], lengths[i]);
+		FAULT_TIME.stop(start);
+		FAULTS.inc();
+		synchronized (cache) {
+			misses++;
+			Row old = cache.put(row, r);
+			if (old != null) {
+				cacheBytes -= old.bytes();
+			}
+			cacheBytes += r.bytes();
+			Iterator<Row> eldest = cache.values().iterator();
+			while (cacheBytes > cacheCapacity && eldest.hasNext()) {
+				Row e = eldest.next();
+				if (e == r) {
+					break;
+				}
+				cacheBytes -= e.bytes();
+				eldest.remove();
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * Read the given rows into the cache, e.g. those of the frequent words.
+	 */
+	public void warmUp(int[] rows) {
+		for (int row : rows) {
+			get(row);
+		}
+	}
+
+	public long hits() {
+		synchronized (cache) {
+			return hits;
+		}
+	}
+
+	public long misses() {
+		synchronized (cache) {
+			return misses;
+		}
+	}
+
+	public long cachedBytes() {
+		synchronized (cache) {
+			return cacheBytes;
+		}
+	}
+
+	private Row read(long offset, int length) {
+		byte[] bytes = new byte[12 * length];
+		int done = 0;
+		while (done < bytes.length) {
+			long pos = offset + done;
+			ByteBuffer segment = segments[(int) (pos / SEGMENT_SIZE)].duplicate();
+			segment.position((int) (pos % SEGMENT_SIZE));
+			int n = Math.min(bytes.length - done, segment.remaining());
+			segment.get(bytes, done, n);
+			done += n;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		int[] cols = new int[length];
+		double[] values = new double[length];
+		for (int i = 0; i < length; i++) {
+			cols[i] = buffer.getInt();
+		}
+		for (int i = 0; i < length; i++) {
+			values[i] = buffer.getDouble();
+		}
+		return new Row(cols, values);
+	}
+
+	/**
+	 * Writes a row store from (row, col, value) entries in any order. When
+	 * an entry is added twice the last value is kept, as with Map.put().
+	 * Entries are buffered and sorted in runs of bufferSize, spilled to
+	 * temporary files, and merged in close(), so the memory needed does not
+	 * depend on the number of entries.
+	 */
+	public static class Writer {
+		private File file;
+		private int bufferSize;
+		private long[] keys;
+		private double[] values;
+		private int n = 0;
+		private List<File> runs = new ArrayList<File>();
+
+		public Writer(File file) {
+			this(file, 1 << 20);
+		}
+
+		public Writer(File file, int bufferSize) {
+			this.file = file;
+			this.bufferSize = bufferSize;
+			keys = new long[bufferSize];
+			values = new double[bufferSize];
+		}
+
+		public void add(int row, int col, double value) throws IOException {
+			if (n == bufferSize) {
+				spill();
+			}
+			// Flip the sign bit of col, so that keys sort by signed row and col.
+			keys[n] = ((long) row << 32)
+					| ((col ^ Integer.MIN_VALUE) & 0xffffffffL);
+			values[n] = value;
+			n++;
+		}
+
+		public void close() throws IOException {
+			spill();
+			keys = null;
+			values = null;
+			File data = new File(file.getPath() + ".data");
+			int[] rowIds = new int[1024];
+			long[] offsets = new long[1024];
+			int[] lengths = new int[1024];
+			int numRows = 0;
+
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(data), 1 << 16));
+			Merger merger = new Merger(runs);
+			int[] rowCols = new int[16];
+			double[] rowValues = new double[16];
+			long offset = 0;
+			try {
+				while (merger.hasNext()) {
+					int row = (int) (merger.key >> 32);
+					int length = 0;
+					while (merger.hasNext() && (int) (merger.key >> 32) == row) {
+						if (length == rowCols.length) {
+							rowCols = Arrays.copyOf(rowCols, length * 2);
+							rowValues = Arrays.copyOf(rowValues, length * 2);
+						}
+						rowCols[length] = (int) merger.key ^ Integer.MIN_VALUE;
+						rowValues[length] = merger.value;
+						length++;
+						merger.next();
+					}
+					for (int i = 0; i < length; i++) {
+						out.writeInt(rowCols[i]);
+					}
+					for (int i = 0; i < length; i++) {
+						out.writeDouble(rowValues[i]);
+					}
+					if (numRows == rowIds.length) {
+						rowIds = Arrays.copyOf(rowIds, numRows * 2);
+						offsets = Arrays.copyOf(offsets, numRows * 2);
+						lengths = Arrays.copyOf(lengths, numRows * 2);
+					}
+					rowIds[numRows] = row;
+					offsets[numRows] = offset;
+					lengths[numRows] = length;
+					numRows++;
+					offset += 12L * length;
+				}
+			} finally {
+				merger.close();
+				out.close();
+			}
+
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(file), 1 << 16));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(numRows);
+				for (int i = 0; i < numRows; i++) {
+					out.writeInt(rowIds[i]);
+					out.writeLong(offsets[i]);
+					out.writeInt(lengths[i]);
+				}
+				out.flush();
+				FileInputStream in = new FileInputStream(data);
+				try {
+					byte[] buffer = new byte[1 << 16];
+					int read;
+					while ((read = in.read(buffer)) > 0) {
+						out.write(buffer, 0, read);
+					}
+				} finally {
+					in.close();
+				}
+			} finally {
+				out.close();
+				data.delete();
+			}
+		}
+
+		/**
+		 * Sort the buffer by key, keeping the order of equal keys, drop all
+		 * but the last of equal keys, and write it as a run.
+		 */
+		private void spill() throws IOException {
+			if (n == 0) {
+				return;
+			}
+			sort(keys, values, n);
+			File run = File.createTempFile("rows", ".run", file
+					.getAbsoluteFile().getParentFile());
+			run.deleteOnExit();
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(run), 1 << 16));
+			try {
+				for (int i = 0; i < n; i++) {
+					if (i + 1 < n && keys[i + 1] == keys[i]) {
+						continue;
+					}
+					out.writeLong(keys[i]);
+					out.writeDouble(values[i]);
+				}
+			} finally {
+				out.close();
+			}
+			runs.add(run);
+			n = 0;
+		}
+
+		/**
+		 * Stable merge sort of the first n keys, moving the values along.
+		 */
+		static void sort(long[] keys, double[] values, int n) {
+			long[] k2 = new long[n];
+			double[] v2 = new double[n];
+			long[] srcK = keys, dstK = k2;
+			double[] srcV = values, dstV = v2;
+			for (int width = 1; width < n; width *= 2) {
+				for (int lo = 0; lo < n; lo += 2 * width) {
+					int mid = Math.min(lo + width, n);
+					int hi = Math.min(lo + 2 * width, n);
+					int i = lo, j = mid, k = lo;
+					while (i < mid && j < hi) {
+						if (srcK[j] < srcK[i]) {
+							dstK[k] = srcK[j];
+							dstV[k++] = srcV[j++];
+						} else {
+							dstK[k] = srcK[i];
+							dstV[k++] = srcV[i++];
+						}
+					}
+					while (i < mid) {
+						dstK[k] = srcK[i];
+						dstV[k++] = srcV[i++];
+					}
+					while (j < hi) {
+						dstK[k] = srcK[j];
+						dstV[k++] = srcV[j++];
+					}
+				}
+				long[] tk = srcK;
+				srcK = dstK;
+				dstK = tk;
+				double[] tv = srcV;
+				srcV = dstV;
+				dstV = tv;
+			}
+			if (srcK != keys) {
+				System.arraycopy(srcK, 0, keys, 0, n);
+				System.arraycopy(srcV, 0, values, 0, n);
+			}
+		}
+	}
+
+	/**
+	 * Merges sorted runs; of equal keys, the one of the latest run wins.
+	 */
+	private static class Merger {
+		private PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>();
+		private List<RunReader> readers = new ArrayList<RunReader>();
+		long key;
+		double value;
+		private boolean hasNext = false;
+
+		Merger(List<File> runs) throws IOException {
+			for (int i = 0; i < runs.size(); i++) {
+				RunReader r = new RunReader(runs.get(i), i);
+				readers.add(r);
+				if (r.advance()) {
+					queue.add(r);
+				}
+			}
+			next();
+		}
+
+		boolean hasNext() {
+			return hasNext;
+		}
+
+		void next() throws IOException {
+			if (queue.isEmpty()) {
+				hasNext = false;
+				return;
+			}
+			RunReader r = queue.poll();
+			key = r.key;
+			value = r.value;
+			if (r.advance()) {
+				queue.add(r);
+			}
+			// Equal keys of later runs override.
+			while (!queue.isEmpty() && queue.peek().key == key) {
+				r = queue.poll();
+				value = r.value;
+				if (r.advance()) {
+					queue.add(r);
+				}
+			}
+			hasNext = true;
+		}
+
+		void close() throws IOException {
+			for (RunReader r : readers) {
+				r.close();
+			}
+		}
+	}
+
+	private static class RunReader implements Comparable<RunReader> {
+		private File file;
+		private DataInputStream in;
+		private int index;
+		long key;
+		double value;
+
+		RunReader(File file, int index) throws IOException {
+			this.file = file;
+			this.index = index;
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(
+					file), 1 << 16));
+		}
+
+		boolean advance() throws IOException {
+			try {
+				key = in.readLong();
+				value = in.readDouble();
+				return true;
+			} catch (EOFException e) {
+				return false;
+			}
+		}
+
+		public int compareTo(RunReader o) {
+			if (key != o.key) {
+				return key < o.key ? -1 : 1;
+			}
+			return index - o.index;
+		}
+
+		void close() throws IOException {
+			in.close();
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package org.thunlp.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A monotonic count, like the number of suggested posts. Increments are
+ * dropped while metrics are disabled.
+ * 
+ * @author sixiance
+ * 
+ */
+public class Counter {
+	private final String name;
+	private final AtomicLong value = new AtomicLong();
+
+	Counter(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void inc() {
+		if (Metrics.enabled) {
+			value.incrementAndGet();
+		}
+	}
+
+	public void inc(long delta) {
+		if (Metrics.enabled) {
+			value.addAndGet(delta);
+		}
+	}
+
+	public long get() {
+		return value.get();
+	}
+
+	void reset() {
+		value.set(0);
+	}
+}
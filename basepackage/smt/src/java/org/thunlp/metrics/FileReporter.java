@@ -0,0 +1,150 @@
+package org.thunlp.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Rewrites a file with all metrics, for a monitoring agent to scrape. The
+ * file is written aside and renamed, so readers never see half of it. A
+ * file name ending with ".json" gets
+ * 
+ * <pre>
+ * {"counters":{"suggest.posts":10}, "gauges":{...},
+ *  "histograms":{"extract.segment_ns":{"count":..,"sum":..,"mean":..,
+ *  "p50":..,"p90":..,"p99":..,"max":..}}}
+ * </pre>
+ * 
+ * and other names the Prometheus text format, with histograms as summaries
+ * and the dots of metric names replaced by underscores.
+ * 
+ * @author sixiance
+ * 
+ */
+public class FileReporter extends MetricsReporter {
+	private static double[] QUANTILES = { 0.5, 0.9, 0.99 };
+	private File file;
+	private boolean json;
+
+	public FileReporter(String path) {
+		this.file = new File(path);
+		this.json = path.endsWith(".json");
+	}
+
+	@Override
+	public void report() throws IOException {
+		String content = json ? toJson() : toPrometheus();
+		File tmp = new File(file.getPath() + ".tmp");
+		Writer w = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+		try {
+			w.write(content);
+		} finally {
+			w.close();
+		}
+		if (!tmp.renameTo(file)) {
+			file.delete();
+			if (!tmp.renameTo(file)) {
+				throw new IOException("cannot rename " + tmp + " to " + file);
+			}
+		}
+	}
+
+	public static String toJson() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"counters\":{");
+		boolean first = true;
+		for (Counter c : Metrics.counters()) {
+			first = key(sb, c.getName(), first);
+			sb.append(c.get());
+		}
+		sb.append("},\n\"gauges\":{");
+		first = true;
+		for (Gauge g : Metrics.gauges()) {
+			first = key(sb, g.getName(), first);
+			double v = g.get();
+			sb.append(Double.isNaN(v) || Double.isInfinite(v) ? "null"
+					: format(v));
+		}
+		sb.append("},\n\"histograms\":{");
+		first = true;
+		for (Histogram h : Metrics.histograms()) {
+			first = key(sb, h.getName(), first);
+			sb.append("{\"count\":").append(h.getCount());
+			sb.append(",\"sum\":").append(h.getSum());
+			sb.append(",\"mean\":").append(format(h.getMean()));
+			for (double q : QUANTILES) {
+				sb.append(",\"p").append(format(q * 100)).append("\":").append(
+						h.getPercentile(q * 100));
+			}
+			sb.append(",\"max\":").append(h.getMax()).append("}");
+		}
+		sb.append("}}\n");
+		return sb.toString();
+	}
+
+	public static String toPrometheus() {
+		StringBuilder sb = new StringBuilder();
+		for (Counter c : Metrics.counters()) {
+			String name = promName(c.getName());
+			sb.append("# TYPE ").append(name).append(" counter\n");
+			sb.append(name).append(' ').append(c.get()).append('\n');
+		}
+		for (Gauge g : Metrics.gauges()) {
+			String name = promName(g.getName());
+			sb.append("# TYPE ").append(name).append(" gauge\n");
+			sb.append(name).append(' ').append(promValue(g.get())).append('\n');
+		}
+		for (Histogram h : Metrics.histograms()) {
+			String name = promName(h.getName());
+			sb.append("# TYPE ").append(name).append(" summary\n");
+			for (double q : QUANTILES) {
+				sb.append(name).append("{quantile=\"").append(q).append("\"} ")
+						.append(h.getPercentile(q * 100)).append('\n');
+			}
+			sb.append(name).append("_sum ").append(h.getSum()).append('\n');
+			sb.append(name).append("_count ").append(h.getCount()).append('\n');
+		}
+		return sb.toString();
+	}
+
+	private static boolean key(StringBuilder sb, String name, boolean first) {
+		if (!first) {
+			sb.append(',');
+		}
+		sb.append('"');
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\');
+			}
+			sb.append(c);
+		}
+		sb.append("\":");
+		return false;
+	}
+
+	static String promName(String name) {
+		StringBuilder sb = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_'
+					|| c == ':' || (i > 0 && c >= '0' && c <= '9')) {
+				sb.append(c);
+			} else {
+				sb.append('_');
+			}
+		}
+		return sb.toString();
+	}
+
+	private static String promValue(double v) {
+		if (Double.isNaN(v)) {
+			return "NaN";
+		} else if (Double.isInfinite(v)) {
+			return v > 0 ? "+Inf" : "-Inf";
+		}
+		return format(v);
+	}
+}
@@ -0,0 +1,38 @@
+package org.thunlp.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The last value of a quantity, like the log-likelihood of the last Gibbs
+ * sampling iteration. Updates are dropped while metrics are disabled.
+ * 
+ * @author sixiance
+ * 
+ */
+public class Gauge {
+	private final String name;
+	private final AtomicLong bits = new AtomicLong(Double
+			.doubleToLongBits(0.0));
+
+	Gauge(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void set(double value) {
+		if (Metrics.enabled) {
+			bits.set(Double.doubleToLongBits(value));
+		}
+	}
+
+	public double get() {
+		return Double.longBitsToDouble(bits.get());
+	}
+
+	void reset() {
+		bits.set(Double.doubleToLongBits(0.0));
+	}
+}
@@ -0,0 +1,153 @@
+package org.thunlp.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative long values, usually latencies in nanoseconds,
+ * with the bucket layout of HdrHistogram: values below 128 have their own
+ * buckets, and every power of two above is split into 64 buckets, so any
+ * percentile is within 1/64 of the true value over the whole range of long.
+ * Recording is one atomic increment and needs no lock.
+ * 
+ * Time a stage with:
+ * 
+ * <pre>
+ * long start = h.start();
+ * ...
+ * h.stop(start);
+ * </pre>
+ * 
+ * While metrics are disabled start() does not read the clock and stop()
+ * records nothing.
+ * 
+ * @author sixiance
+ * 
+ */
+public class Histogram {
+	private static final int SUB_BUCKET_BITS = 7;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int HALF = SUB_BUCKETS / 2;
+	private static final int NUM_BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS)
+			* HALF;
+
+	private final String name;
+	private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	Histogram(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long start() {
+		return Metrics.enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Record the nanoseconds since start, which came from start().
+	 */
+	public void stop(long start) {
+		if (Metrics.enabled && start != 0) {
+			record(System.nanoTime() - start);
+		}
+	}
+
+	public void record(long value) {
+		if (!Metrics.enabled) {
+			return;
+		}
+		if (value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(bucket(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long m = max.get();
+		while (value > m && !max.compareAndSet(m, value)) {
+			m = max.get();
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getSum() {
+		return sum.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * The value at the given percentile (0 to 100), as the upper bound of its
+	 * bucket, or 0 if nothing is recorded.
+	 */
+	public long getPercentile(double percentile) {
+		long n = count.get();
+		if (n == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(percentile / 100.0 * n);
+		if (rank < 1) {
+			rank = 1;
+		}
+		long seen = 0;
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(upperBound(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Events per second, for n events in the given duration.
+	 */
+	public static double rate(long n, long duration, TimeUnit unit) {
+		long nanos = unit.toNanos(duration);
+		return nanos == 0 ? 0 : n * 1e9 / nanos;
+	}
+
+	void reset() {
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		// value >>> shift is in [HALF, SUB_BUCKETS).
+		int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+		return SUB_BUCKETS + (shift - 1) * HALF
+				+ (int) ((value >>> shift) - HALF);
+	}
+
+	static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = (bucket - SUB_BUCKETS) / HALF + 1;
+		long mantissa = (bucket - SUB_BUCKETS) % HALF + HALF;
+		return ((mantissa + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,52 @@
+package org.thunlp.metrics;
+
+import java.util.logging.Logger;
+
+/**
+ * Logs one line per metric, like
+ * 
+ * <pre>
+ * extract.segment_ns count=1200 mean=85310 p50=80895 p99=201727 max=350211
+ * </pre>
+ * 
+ * Metrics that were never updated are skipped.
+ * 
+ * @author sixiance
+ * 
+ */
+public class LogReporter extends MetricsReporter {
+	private Logger log;
+
+	public LogReporter() {
+		this(Logger.getAnonymousLogger());
+	}
+
+	public LogReporter(Logger log) {
+		this.log = log;
+	}
+
+	@Override
+	public void report() {
+		for (Counter c : Metrics.counters()) {
+			if (c.get() > 0) {
+				log.info(c.getName() + " " + c.get());
+			}
+		}
+		for (Gauge g : Metrics.gauges()) {
+			if (g.get() != 0) {
+				log.info(g.getName() + " " + format(g.get()));
+			}
+		}
+		for (Histogram h : Metrics.histograms()) {
+			if (h.getCount() > 0) {
+				log.info(line(h));
+			}
+		}
+	}
+
+	static String line(Histogram h) {
+		return h.getName() + " count=" + h.getCount() + " mean="
+				+ Math.round(h.getMean()) + " p50=" + h.getPercentile(50)
+				+ " p99=" + h.getPercentile(99) + " max=" + h.getMax();
+	}
+}
@@ -0,0 +1,189 @@
+package org.thunlp.metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * The registry of counters, gauges and histograms of the process.
+ * 
+ * Metrics are disabled by default, and then every update is one read of a
+ * static field, so instrumented code pays nearly nothing. Classes get their
+ * metrics once, in static fields:
+ * 
+ * <pre>
+ * private static Histogram SEGMENT = Metrics.histogram(&quot;extract.segment_ns&quot;);
+ * </pre>
+ * 
+ * and the program enables them with configure(), which reads these config
+ * entries:
+ * <ul>
+ * <li>metrics: "true" to enable.</li>
+ * <li>metrics_log_interval: seconds between log lines of all metrics, 0 (the
+ * default) for none.</li>
+ * <li>metrics_file: a file rewritten with all metrics every
+ * metrics_file_interval (10) seconds and at exit. A name ending with ".json"
+ * gets JSON, others the Prometheus text format.</li>
+ * </ul>
+ * 
+ * @author sixiance
+ * 
+ */
+public class Metrics {
+	private static Logger LOG = Logger.getAnonymousLogger();
+	static volatile boolean enabled = false;
+
+	private static ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+	private static ConcurrentHashMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+	private static ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+	private static List<MetricsReporter> reporters = new ArrayList<MetricsReporter>();
+	private static Thread shutdownHook = null;
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	public static void setEnabled(boolean b) {
+		enabled = b;
+	}
+
+	public static Counter counter(String name) {
+		Counter c = counters.get(name);
+		if (c == null) {
+			c = new Counter(name);
+			Counter old = counters.putIfAbsent(name, c);
+			if (old != null) {
+				c = old;
+			}
+		}
+		return c;
+	}
+
+	public static Gauge gauge(String name) {
+		Gauge g = gauges.get(name);
+		if (g == null) {
+			g = new Gauge(name);
+			Gauge old = gauges.putIfAbsent(name, g);
+			if (old != null) {
+				g = old;
+			}
+		}
+		return g;
+	}
+
+	public static Histogram histogram(String name) {
+		Histogram h = histograms.get(name);
+		if (h == null) {
+			h = new Histogram(name);
+			Histogram old = histograms.putIfAbsent(name, h);
+			if (old != null) {
+				h = old;
+			}
+		}
+		return h;
+	}
+
+	public static List<Counter> counters() {
+		List<Counter> result = new ArrayList<Counter>(counters.values());
+		Collections.sort(result, new Comparator<Counter>() {
+			public int compare(Counter a, Counter b) {
+				return a.getName().compareTo(b.getName());
+			}
+		});
+		return result;
+	}
+
+	public static List<Gauge> gauges() {
+		List<Gauge> result = new ArrayList<Gauge>(gauges.values());
+		Collections.sort(result, new Comparator<Gauge>() {
+			public int compare(Gauge a, Gauge b) {
+				return a.getName().compareTo(b.getName());
+			}
+		});
+		return result;
+	}
+
+	public static List<Histogram> histograms() {
+		List<Histogram> result = new ArrayList<Histogram>(histograms.values());
+		Collections.sort(result,
+				new Comparator<Histogram>() {
+					public int compare(Histogram a, Histogram b) {
+						return a.getName().compareTo(b.getName());
+					}
+				});
+		return result;
+	}
+
+	/**
+	 * Zero all metrics. The metric objects stay registered.
+	 */
+	public static void reset() {
+		for (Counter c : counters.values()) {
+			c.reset();
+		}
+		for (Gauge g : gauges.values()) {
+			g.reset();
+		}
+		for (Histogram h : histograms.values()) {
+			h.reset();
+		}
+	}
+
+	/**
+	 * Enable metrics and start the reporters of the config, see the class
+	 * comment. Reporters started by an earlier call are stopped first, so
+	 * every component may pass its config here.
+	 */
+	public static synchronized void configure(Properties config) {
+		if (!config.getProperty("metrics", "false").equals("true")) {
+			return;
+		}
+		enabled = true;
+		stopReporters();
+		int logInterval = Integer.parseInt(config.getProperty(
+				"metrics_log_interval", "0"));
+		if (logInterval > 0) {
+			addReporter(new LogReporter(), logInterval, TimeUnit.SECONDS);
+		}
+		String file = config.getProperty("metrics_file", "");
+		if (file.length() > 0) {
+			int fileInterval = Integer.parseInt(config.getProperty(
+					"metrics_file_interval", "10"));
+			addReporter(new FileReporter(file), fileInterval, TimeUnit.SECONDS);
+		}
+		if (shutdownHook == null) {
+			shutdownHook = new Thread() {
+				public void run() {
+					stopReporters();
+				}
+			};
+			Runtime.getRuntime().addShutdownHook(shutdownHook);
+		}
+	}
+
+	public static synchronized void addReporter(MetricsReporter reporter,
+			long period, TimeUnit unit) {
+		reporter.start(period, unit);
+		reporters.add(reporter);
+	}
+
+	/**
+	 * Stop all reporters, after a last report.
+	 */
+	public static synchronized void stopReporters() {
+		for (MetricsReporter r : reporters) {
+			try {
+				r.stop();
+			} catch (IOException e) {
+				LOG.warning("metrics report failed: " + e);
+			}
+		}
+		reporters.clear();
+	}
+}
@@ -0,0 +1,61 @@
+package org.thunlp.metrics;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Reports all metrics periodically, from a daemon thread.
+ * 
+ * @author sixiance
+ * 
+ */
+public abstract class MetricsReporter {
+	private static Logger LOG = Logger.getAnonymousLogger();
+	private ScheduledExecutorService executor = null;
+
+	public abstract void report() throws IOException;
+
+	public synchronized void start(long period, TimeUnit unit) {
+		if (executor != null) {
+			throw new IllegalStateException("reporter already started");
+		}
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "metrics-reporter");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		executor.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				try {
+					report();
+				} catch (Exception e) {
+					LOG.warning("metrics report failed: " + e);
+				}
+			}
+		}, period, period, unit);
+	}
+
+	/**
+	 * Stop the periodic reports and make a last one.
+	 */
+	public synchronized void stop() throws IOException {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+		report();
+	}
+
+	static String format(double v) {
+		if (v == Math.rint(v) && !Double.isInfinite(v) && Math.abs(v) < 1e15) {
+			return Long.toString((long) v);
+		}
+		return Double.toString(v);
+	}
+}
@@ -0,0 +1,113 @@
+package org.thunlp.misc;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Draw indices from a discrete distribution in O(1) per draw, using Vose's
+ * alias method. The table is built in O(n) from non-negative weights that do
+ * not need to sum to one. If all weights are zero, the distribution is
+ * uniform.
+ *
+ * A sampler can be reused for another distribution by calling reset(), which
+ * keeps the arrays when they are large enough. It is not thread-safe; use one
+ * sampler per thread.
+ *
+ * @author sixiance
+ *
+ */
+public class AliasSampler {
+	private double[] prob;
+	private int[] alias;
+	private int[] small;
+	private int[] large;
+	private int n = 0;
+
+	public AliasSampler() {
+		this(16);
+	}
+
+	public AliasSampler(int capacity) {
+		allocate(Math.max(1, capacity));
+	}
+
+	public AliasSampler(double[] weights) {
+		this(weights.length);
+		reset(weights, weights.length);
+	}
+
+	/**
+	 * Build the table for the first n weights.
+	 */
+	public void reset(double[] weights, int n) {
+		if (n <= 0) {
+			throw new IllegalArgumentException("no weights to sample from");
+		}
+		if (n > prob.length) {
+			allocate(Math.max(n, prob.length * 2));
+		}
+		this.n = n;
+		double total = 0.0;
+		for (int i = 0; i < n; i++) {
+			if (weights[i] < 0 || Double.isNaN(weights[i])) {
+				throw new IllegalArgumentException("bad weight " + weights[i] + " at " + i);
+			}
+			total += weights[i];
+		}
+		if (total <= 0 || Double.isInfinite(total)) {
+			Arrays.fill(prob, 0, n, 1.0);
+			for (int i = 0; i < n; i++)
+				alias[i] = i;
+			return;
+		}
+
+		int numSmall = 0;
+		int numLarge = 0;
+		for (int i = 0; i < n; i++) {
+			prob[i] = weights[i] * n / total;
+			if (prob[i] < 1.0) {
+				small[numSmall++] = i;
+			} else {
+				large[numLarge++] = i;
+			}
+		}
+		while (numSmall > 0 && numLarge > 0) {
+			int s = small[--numSmall];
+			int l = large[--numLarge];
+			alias[s] = l;
+			prob[l] = (prob[l] + prob[s]) - 1.0;
+			if (prob[l] < 1.0) {
+				small[numSmall++] = l;
+			} else {
+				large[numLarge++] = l;
+			}
+		}
+		// What is left is 1.0 up to rounding errors.
+		while (numLarge > 0) {
+			int l = large[--numLarge];
+			prob[l] = 1.0;
+			alias[l] = l;
+		}
+		while (numSmall > 0) {
+			int s = small[--numSmall];
+			prob[s] = 1.0;
+			alias[s] = s;
+		}
+	}
+
+	public int size() {
+		return n;
+	}
+
+	public int sample(SplittableRandom random) {
+		int i = random.nextInt(n);
+		return random.nextDouble() < prob[i] ? i : alias[i];
+	}
+
+	private void allocate(int capacity) {
+		prob = new double[capacity];
+		alias = new int[capacity];
+		small = new int[capacity];
+		large = new int[capacity];
+	}
+}
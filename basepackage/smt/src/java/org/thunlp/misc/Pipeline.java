@@ -0,0 +1,286 @@
+package org.thunlp.misc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.thunlp.metrics.Counter;
+import org.thunlp.metrics.Metrics;
+
+/**
+ * Stages connected by bounded queues, each stage run by its own number of
+ * threads. Items are given to the first stage with put(), which waits while
+ * its queue is full, and so does every stage before a slow one: the
+ * pipeline runs at the speed of its slowest stage with a bounded number of
+ * items in memory.
+ *
+ * A stage returns null to drop an item, and an item for which it throws is
+ * counted as failed and dropped, so one bad page does not stop an import.
+ * Items may leave a stage with several threads in another order.
+ *
+ * The items, drops, failures and busy time of each stage are in stats(),
+ * and in the counters "&lt;name&gt;.&lt;stage&gt;.in", ".out", ".dropped" and
+ * ".failed" of Metrics.
+ *
+ * @author sixiance
+ */
+public class Pipeline {
+	private static Logger LOG = Logger.getAnonymousLogger();
+	private static final Object END = new Object();
+
+	public interface Stage<I, O> {
+		O process(I input) throws Exception;
+	}
+
+	/**
+	 * The counters of a stage.
+	 */
+	public static class StageStats {
+		public String name;
+		public int threads;
+		public long in;
+		public long out;
+		public long dropped;
+		public long failed;
+		public long busyNanos;
+		public int queued;
+
+		/**
+		 * Items a second taken from the queue, in the given wall time.
+		 */
+		public double throughput(long elapsedNanos) {
+			return elapsedNanos <= 0 ? 0 : in * 1e9 / elapsedNanos;
+		}
+
+		@Override
+		public String toString() {
+			return name + " threads:" + threads + " in:" + in + " out:" + out
+					+ " dropped:" + dropped + " failed:" + failed + " queued:"
+					+ queued + String.format(" busy:%.1fs", busyNanos / 1e9);
+		}
+	}
+
+	private class StageRunner {
+		String name;
+		int threads;
+		Stage<Object, Object> stage;
+		BlockingQueue<Object> input;
+		StageRunner next = null;
+		AtomicInteger running;
+		AtomicLong in = new AtomicLong();
+		AtomicLong out = new AtomicLong();
+		AtomicLong dropped = new AtomicLong();
+		AtomicLong failed = new AtomicLong();
+		AtomicLong busyNanos = new AtomicLong();
+		Counter inCounter;
+		Counter outCounter;
+		Counter droppedCounter;
+		Counter failedCounter;
+
+		StageRunner(String name, int threads, Stage<Object, Object> stage) {
+			this.name = name;
+			this.threads = threads;
+			this.stage = stage;
+			this.input = new ArrayBlockingQueue<Object>(queueCapacity);
+			this.running = new AtomicInteger(threads);
+			String prefix = Pipeline.this.name + "." + name + ".";
+			inCounter = Metrics.counter(prefix + "in");
+			outCounter = Metrics.counter(prefix + "out");
+			droppedCounter = Metrics.counter(prefix + "dropped");
+			failedCounter = Metrics.counter(prefix + "failed");
+		}
+
+		void work() throws InterruptedException {
+			try {
+				while (true) {
+					Object item = input.take();
+					if (item == END) {
+						break;
+					}
+					in.incrementAndGet();
+					inCounter.inc();
+					long start = System.nanoTime();
+					Object result;
+					try {
+						result = stage.process(item);
+					} catch (InterruptedException e) {
+						throw e;
+					} catch (Exception e) {
+						failed.incrementAndGet();
+						failedCounter.inc();
+						LOG.warning(name + " failed: " + e);
+						continue;
+					} finally {
+						busyNanos.addAndGet(System.nanoTime() - start);
+					}
+					if (result == null) {
+						dropped.incrementAndGet();
+						droppedCounter.inc();
+						continue;
+					}
+					out.incrementAndGet();
+					outCounter.inc();
+					if (next != null) {
+						next.input.put(result);
+					}
+				}
+			} finally {
+				// The last thread of the stage ends the next one.
+				if (running.decrementAndGet() == 0 && next != null) {
+					for (int i = 0; i < next.threads; i++) {
+						next.input.put(END);
+					}
+				}
+			}
+		}
+
+		StageStats stats() {
+			StageStats s = new StageStats();
+			s.name = name;
+			s.threads = threads;
+			s.in = in.get();
+			s.out = out.get();
+			s.dropped = dropped.get();
+			s.failed = failed.get();
+			s.busyNanos = busyNanos.get();
+			s.queued = input.size();
+			return s;
+		}
+	}
+
+	private String name;
+	private int queueCapacity;
+	private List<StageRunner> stages = new ArrayList<StageRunner>();
+	private List<Thread> threads = new ArrayList<Thread>();
+	private long startTime = 0;
+	private long endTime = 0;
+
+	/**
+	 * @param name the prefix of the metrics.
+	 * @param queueCapacity the number of items waiting before each stage.
+	 */
+	public Pipeline(String name, int queueCapacity) {
+		this.name = name;
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Add a stage after the last one. The stage object is shared by its
+	 * threads. The output of the last stage is dropped.
+	 */
+	@SuppressWarnings("unchecked")
+	public <I, O> void addStage(String stageName, int numThreads,
+			Stage<I, O> stage) {
+		if (startTime > 0) {
+			throw new IllegalStateException("pipeline " + name + " is started");
+		}
+		StageRunner runner = new StageRunner(stageName, Math.max(numThreads, 1),
+				(Stage<Object, Object>) stage);
+		if (!stages.isEmpty()) {
+			stages.get(stages.size() - 1).next = runner;
+		}
+		stages.add(runner);
+	}
+
+	public void start() {
+		startTime = System.nanoTime();
+		for (final StageRunner stage : stages) {
+			for (int i = 0; i < stage.threads; i++) {
+				Thread t = new Thread(name + "-" + stage.name + "-" + i) {
+					public void run() {
+						try {
+							stage.work();
+						} catch (InterruptedException e) {
+							LOG.warning(getName() + " interrupted");
+						}
+					}
+				};
+				t.setDaemon(true);
+				threads.add(t);
+				t.start();
+			}
+		}
+	}
+
+	/**
+	 * Give an item to the first stage, waiting while its queue is full.
+	 */
+	public void put(Object item) throws InterruptedException {
+		stages.get(0).input.put(item);
+	}
+
+	/**
+	 * End the input and wait until every stage is done.
+	 */
+	public void finish() throws InterruptedException {
+		StageRunner first = stages.get(0);
+		for (int i = 0; i < first.threads; i++) {
+			first.input.put(END);
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		endTime = System.nanoTime();
+		for (StageStats s : stats()) {
+			LOG.info(name + " " + s + String.format(" %.1f/s",
+					s.throughput(endTime - startTime)));
+		}
+	}
+
+	/**
+	 * Stop all stages now, items in the queues are lost. Returns when every
+	 * thread has ended, so what the stages write to can be closed.
+	 */
+	public void abort() {
+		for (Thread t : threads) {
+			t.interrupt();
+		}
+		boolean interrupted = false;
+		for (Thread t : threads) {
+			while (t.isAlive()) {
+				try {
+					t.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * The counters of one stage, or null if there is no such stage.
+	 */
+	public StageStats stats(String stageName) {
+		for (StageRunner stage : stages) {
+			if (stage.name.equals(stageName)) {
+				return stage.stats();
+			}
+		}
+		return null;
+	}
+
+	public List<StageStats> stats() {
+		List<StageStats> stats = new ArrayList<StageStats>();
+		for (StageRunner stage : stages) {
+			stats.add(stage.stats());
+		}
+		return stats;
+	}
+
+	/**
+	 * Nanoseconds since start(), until finish() returns.
+	 */
+	public long elapsedNanos() {
+		if (startTime == 0) {
+			return 0;
+		}
+		return (endTime > 0 ? endTime : System.nanoTime()) - startTime;
+	}
+}
@@ -0,0 +1,99 @@
+package org.thunlp.misc;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache with segmented LRU eviction. New entries enter a probation
+ * segment; an entry that is hit again moves to the protected segment, which
+ * holds at most protectedRatio of the capacity. Entries pushed out of the
+ * protected segment go back to probation, and the cache evicts from the
+ * least recently used end of probation. So entries that were used once, like
+ * a scan over a large input, cannot push out the entries that are used
+ * often.
+ *
+ * All methods are synchronized; keep the cached computation outside of the
+ * cache.
+ *
+ * @author sixiance
+ *
+ */
+public class SegmentedLruCache<K, V> {
+	private int capacity;
+	private int protectedCapacity;
+	private LinkedHashMap<K, V> probation = new LinkedHashMap<K, V>(16, 0.75f,
+			true);
+	private LinkedHashMap<K, V> protect = new LinkedHashMap<K, V>(16, 0.75f,
+			true);
+	private long evictions = 0;
+
+	public SegmentedLruCache(int capacity) {
+		this(capacity, 0.8);
+	}
+
+	public SegmentedLruCache(int capacity, double protectedRatio) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		this.capacity = capacity;
+		this.protectedCapacity = (int) (capacity * protectedRatio);
+	}
+
+	/**
+	 * Return the cached value or null.
+	 */
+	public synchronized V get(K key) {
+		V value = protect.get(key);
+		if (value != null) {
+			return value;
+		}
+		value = probation.remove(key);
+		if (value == null) {
+			return null;
+		}
+		protect.put(key, value);
+		while (protect.size() > protectedCapacity && protect.size() > 0) {
+			Iterator<Map.Entry<K, V>> oldest = protect.entrySet().iterator();
+			Map.Entry<K, V> e = oldest.next();
+			oldest.remove();
+			probation.put(e.getKey(), e.getValue());
+		}
+		evict();
+		return value;
+	}
+
+	public synchronized void put(K key, V value) {
+		if (protect.containsKey(key)) {
+			protect.put(key, value);
+			return;
+		}
+		probation.put(key, value);
+		evict();
+	}
+
+	public synchronized void clear() {
+		probation.clear();
+		protect.clear();
+	}
+
+	public synchronized int size() {
+		return probation.size() + protect.size();
+	}
+
+	/**
+	 * Number of entries evicted because the cache was full.
+	 */
+	public synchronized long evictions() {
+		return evictions;
+	}
+
+	private void evict() {
+		Iterator<K> oldest = probation.keySet().iterator();
+		while (probation.size() + protect.size() > capacity && oldest.hasNext()) {
+			oldest.next();
+			oldest.remove();
+			evictions++;
+		}
+	}
+}
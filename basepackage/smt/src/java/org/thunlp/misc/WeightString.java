@@ -1,9 +1,31 @@
 package org.thunlp.misc;
 
+import java.util.Comparator;
+
 public class WeightString implements Comparable<WeightString> {
 	public String text = null;
 	public double weight = 0.0;
 
+	/**
+	 * By weight, lowest first.
+	 */
+	public static Comparator<WeightString> COMPARATOR =
+		new Comparator<WeightString>() {
+			public int compare(WeightString a, WeightString b) {
+				return Double.compare(a.weight, b.weight);
+			}
+		};
+
+	/**
+	 * By weight, highest first.
+	 */
+	public static Comparator<WeightString> REVERSE_COMPARATOR =
+		new Comparator<WeightString>() {
+			public int compare(WeightString a, WeightString b) {
+				return Double.compare(b.weight, a.weight);
+			}
+		};
+
 	public WeightString() {
 		this.text = null;
 		this.weight = 0.0;
@@ -22,6 +44,22 @@ public class WeightString implements Comparable<WeightString> {
 		return 0;
 	}
 
+	public String getText() {
+		return text;
+	}
+
+	public void setText(String text) {
+		this.text = text;
+	}
+
+	public double getWeight() {
+		return weight;
+	}
+
+	public void setWeight(double weight) {
+		this.weight = weight;
+	}
+
 	public String toString() {
 		return text + ":" + weight;
 	}
@@ -0,0 +1,432 @@
+package org.thunlp.text;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * An immutable map between strings and dense int ids, for the vocabularies
+ * that a model loads once and only reads afterwards, like the tags of a
+ * suggester.
+ *
+ * Strings are kept as UTF-8 in one byte array, and found by a minimal
+ * perfect hash built in the CHD (hash, displace) way: the keys are hashed
+ * into buckets of about three keys, and from the largest bucket down each
+ * bucket gets the first displacement pair (d0, d1) that sends all of its
+ * keys to free slots, slot = (f1 + d0 * f2 + d1) mod n. A lookup hashes the
+ * UTF-8 bytes of the string once, reads one displacement and compares the
+ * bytes of one entry, without creating any object. Besides the strings, an
+ * entry costs about 10 bytes and no object,
+ * against more than 100 bytes for an entry of a HashMap of Strings.
+ *
+ * Ids are given by the caller: the string at index i of the array given to
+ * the constructor gets id i, and null elements leave holes, so the ids of
+ * vocabulary files and Lexicons can be kept.
+ *
+ * Thread-safe, as it never changes.
+ *
+ * @author sixiance
+ *
+ */
+public class FrozenVocabulary {
+	private static final int BUCKET_SIZE = 3;
+	private static final int MAX_SEEDS = 32;
+
+	// The strings by id, as UTF-8: id i is pool[offsets[i] .. offsets[i+1]).
+	private byte[] pool;
+	private int[] offsets;
+	// Holes in the ids.
+	private boolean[] missing;
+	private int size;
+
+	private long seed;
+	// Per bucket: the displacement d0 * n + d1, or -(slot + 1) for a single
+	// key.
+	private int[] displacements;
+	// Id of the key in every slot.
+	private int[] ids;
+
+	/**
+	 * Strings in id order; null elements are ids without a string. Throws
+	 * IllegalArgumentException if a string appears twice.
+	 */
+	public FrozenVocabulary(String[] names) {
+		int numBytes = 0;
+		byte[][] encoded = new byte[names.length][];
+		missing = new boolean[names.length];
+		for (int i = 0; i < names.length; i++) {
+			if (names[i] == null) {
+				missing[i] = true;
+				continue;
+			}
+			encoded[i] = utf8(names[i]);
+			numBytes += encoded[i].length;
+			size++;
+		}
+		pool = new byte[numBytes];
+		offsets = new int[names.length + 1];
+		int offset = 0;
+		for (int i = 0; i < names.length; i++) {
+			offsets[i] = offset;
+			if (encoded[i] != null) {
+				System.arraycopy(encoded[i], 0, pool, offset, encoded[i].length);
+				offset += encoded[i].length;
+			}
+		}
+		offsets[names.length] = offset;
+		build();
+	}
+
+	/**
+	 * Ids in the iteration order of the collection.
+	 */
+	public FrozenVocabulary(Collection<String> names) {
+		this(names.toArray(new String[names.size()]));
+	}
+
+	/**
+	 * The strings of a lexicon, with the lexicon's ids.
+	 */
+	public static FrozenVocabulary fromLexicon(Lexicon lexicon) {
+		int maxId = -1;
+		for (Lexicon.Word w : lexicon.idHash.values()) {
+			maxId = Math.max(maxId, w.getId());
+		}
+		String[] names = new String[maxId + 1];
+		for (Lexicon.Word w : lexicon.idHash.values()) {
+			names[w.getId()] = w.getName();
+		}
+		return new FrozenVocabulary(names);
+	}
+
+	/**
+	 * Number of strings.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * One more than the largest id.
+	 */
+	public int maxId() {
+		return missing.length;
+	}
+
+	/**
+	 * The id of the string, or -1.
+	 */
+	public int getId(String name) {
+		if (size == 0) {
+			return -1;
+		}
+		int id = ids[slot(hash(name, seed))];
+		return equals(id, name) ? id : -1;
+	}
+
+	/**
+	 * The id of the UTF-8 string in bytes[offset .. offset+length), or -1.
+	 */
+	public int getId(byte[] bytes, int offset, int length) {
+		if (size == 0) {
+			return -1;
+		}
+		int id = ids[slot(hash(bytes, offset, length, seed))];
+		int start = offsets[id];
+		if (missing[id] || offsets[id + 1] - start != length) {
+			return -1;
+		}
+		for (int i = 0; i < length; i++) {
+			if (pool[start + i] != bytes[offset + i]) {
+				return -1;
+			}
+		}
+		return id;
+	}
+
+	public boolean contains(String name) {
+		return getId(name) >= 0;
+	}
+
+	/**
+	 * The string of the id, or null. Decodes a new String from the pool.
+	 */
+	public String get(int id) {
+		if (id < 0 || id >= missing.length || missing[id]) {
+			return null;
+		}
+		try {
+			return new String(pool, offsets[id], offsets[id + 1] - offsets[id],
+					"UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Bytes used by the arrays.
+	 */
+	public long memoryUsage() {
+		return pool.length + 4L * offsets.length + missing.length + 4L
+				* displacements.length + 4L * ids.length;
+	}
+
+	private int slot(long h) {
+		int d = displacements[bucket(h, displacements.length)];
+		if (d < 0) {
+			return -d - 1;
+		}
+		return position(h, d, size);
+	}
+
+	private static int bucket(long h, int numBuckets) {
+		return (int) ((h >>> 33) % numBuckets);
+	}
+
+	private static int position(long h, int d, int numSlots) {
+		long f1 = h & 0xffffffffL;
+		long f2 = mix(h) & 0x7fffffffL;
+		return (int) ((f1 + (d / numSlots) * f2 + d % numSlots) % numSlots);
+	}
+
+	private void build() {
+		if (size == 0) {
+			displacements = new int[1];
+			ids = new int[0];
+			return;
+		}
+		int numBuckets = (size + BUCKET_SIZE - 1) / BUCKET_SIZE;
+		long[] hashes = new long[size];
+		int[] keyIds = new int[size];
+		for (int s = 0; s < MAX_SEEDS; s++) {
+			seed = 0x9E3779B97F4A7C15L * (s + 1);
+			int n = 0;
+			for (int id = 0; id < missing.length; id++) {
+				if (!missing[id]) {
+					hashes[n] = hash(pool, offsets[id], offsets[id + 1]
+							- offsets[id], seed);
+					keyIds[n] = id;
+					n++;
+				}
+			}
+			if (place(hashes, keyIds, numBuckets)) {
+				return;
+			}
+		}
+		throw new IllegalArgumentException(
+				"cannot build the perfect hash, are the strings distinct?");
+	}
+
+	/**
+	 * Displace the buckets from the largest down; false if some bucket cannot
+	 * be placed with this seed.
+	 */
+	private boolean place(long[] hashes, int[] keyIds, int numBuckets) {
+		// Keys sorted by bucket, as start..end ranges of order[].
+		int[] bucketStart = new int[numBuckets + 1];
+		for (long h : hashes) {
+			bucketStart[bucket(h, numBuckets) + 1]++;
+		}
+		for (int b = 0; b < numBuckets; b++) {
+			bucketStart[b + 1] += bucketStart[b];
+		}
+		int[] fill = Arrays.copyOf(bucketStart, numBuckets);
+		int[] order = new int[size];
+		for (int k = 0; k < size; k++) {
+			order[fill[bucket(hashes[k], numBuckets)]++] = k;
+		}
+		// Buckets by decreasing size, with a counting sort.
+		int maxBucket = 0;
+		for (int b = 0; b < numBuckets; b++) {
+			maxBucket = Math.max(maxBucket, bucketStart[b + 1] - bucketStart[b]);
+		}
+		int[] bySize = new int[maxBucket + 2];
+		for (int b = 0; b < numBuckets; b++) {
+			bySize[maxBucket - (bucketStart[b + 1] - bucketStart[b]) + 1]++;
+		}
+		for (int i = 0; i <= maxBucket; i++) {
+			bySize[i + 1] += bySize[i];
+		}
+		int[] buckets = new int[numBuckets];
+		for (int b = 0; b < numBuckets; b++) {
+			buckets[bySize[maxBucket - (bucketStart[b + 1] - bucketStart[b])]++] = b;
+		}
+
+		displacements = new int[numBuckets];
+		ids = new int[size];
+		boolean[] taken = new boolean[size];
+		int[] slots = new int[maxBucket];
+		int nextFree = 0;
+		long maxTries = Math.min((long) size * size, 1 << 24);
+		for (int b : buckets) {
+			int start = bucketStart[b];
+			int length = bucketStart[b + 1] - start;
+			if (length == 0) {
+				break;
+			}
+			if (length == 1) {
+				// Any free slot will do, and it is stored directly.
+				while (taken[nextFree]) {
+					nextFree++;
+				}
+				taken[nextFree] = true;
+				ids[nextFree] = keyIds[order[start]];
+				displacements[b] = -nextFree - 1;
+				continue;
+			}
+			for (int i = 1; i < length; i++) {
+				for (int j = 0; j < i; j++) {
+					int a = order[start + i];
+					int c = order[start + j];
+					if (hashes[a] == hashes[c]) {
+						if (sameBytes(keyIds[a], keyIds[c])) {
+							throw new IllegalArgumentException("duplicate string "
+									+ get(keyIds[a]));
+						}
+						// A full collision, try another seed.
+						return false;
+					}
+				}
+			}
+			boolean placed = false;
+			for (int d = 0; d < maxTries && !placed; d++) {
+				placed = true;
+				for (int i = 0; i < length; i++) {
+					int p = position(hashes[order[start + i]], d, size);
+					for (int j = 0; j < i && placed; j++) {
+						placed = slots[j] != p;
+					}
+					if (!placed || taken[p]) {
+						placed = false;
+						break;
+					}
+					slots[i] = p;
+				}
+				if (placed) {
+					for (int i = 0; i < length; i++) {
+						taken[slots[i]] = true;
+						ids[slots[i]] = keyIds[order[start + i]];
+					}
+					displacements[b] = d;
+				}
+			}
+			if (!placed) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean sameBytes(int a, int b) {
+		int length = offsets[a + 1] - offsets[a];
+		if (offsets[b + 1] - offsets[b] != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (pool[offsets[a] + i] != pool[offsets[b] + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean equals(int id, String name) {
+		if (missing[id]) {
+			return false;
+		}
+		int p = offsets[id];
+		int end = offsets[id + 1];
+		for (int i = 0; i < name.length(); i++) {
+			int c = name.charAt(i);
+			if (Character.isHighSurrogate((char) c) && i + 1 < name.length()
+					&& Character.isLowSurrogate(name.charAt(i + 1))) {
+				c = Character.toCodePoint((char) c, name.charAt(++i));
+			} else if (Character.isSurrogate((char) c)) {
+				// As String.getBytes() encodes unpaired surrogates.
+				c = '?';
+			}
+			int n = utf8Length(c);
+			if (p + n > end) {
+				return false;
+			}
+			for (int k = 0; k < n; k++) {
+				if (pool[p++] != utf8Byte(c, n, k)) {
+					return false;
+				}
+			}
+		}
+		return p == end;
+	}
+
+	/**
+	 * Hash of the UTF-8 bytes of the string, the same as hash() of the
+	 * encoded bytes, computed without encoding.
+	 */
+	static long hash(String s, long seed) {
+		long h = seed;
+		int length = 0;
+		for (int i = 0; i < s.length(); i++) {
+			int c = s.charAt(i);
+			if (Character.isHighSurrogate((char) c) && i + 1 < s.length()
+					&& Character.isLowSurrogate(s.charAt(i + 1))) {
+				c = Character.toCodePoint((char) c, s.charAt(++i));
+			} else if (Character.isSurrogate((char) c)) {
+				// As String.getBytes() encodes unpaired surrogates.
+				c = '?';
+			}
+			int n = utf8Length(c);
+			for (int k = 0; k < n; k++) {
+				h = (h ^ (utf8Byte(c, n, k) & 0xff)) * 0x100000001b3L;
+			}
+			length += n;
+		}
+		return mix(h ^ length);
+	}
+
+	static long hash(byte[] bytes, int offset, int length, long seed) {
+		long h = seed;
+		for (int i = offset; i < offset + length; i++) {
+			h = (h ^ (bytes[i] & 0xff)) * 0x100000001b3L;
+		}
+		return mix(h ^ length);
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private static int utf8Length(int c) {
+		if (c < 0x80) {
+			return 1;
+		} else if (c < 0x800) {
+			return 2;
+		} else if (c < 0x10000) {
+			return 3;
+		}
+		return 4;
+	}
+
+	private static byte utf8Byte(int c, int n, int k) {
+		if (n == 1) {
+			return (byte) c;
+		}
+		if (k == 0) {
+			int lead = n == 2 ? 0xC0 : (n == 3 ? 0xE0 : 0xF0);
+			return (byte) (lead | (c >> (6 * (n - 1))));
+		}
+		return (byte) (0x80 | ((c >> (6 * (n - 1 - k))) & 0x3F));
+	}
+
+	private static byte[] utf8(String s) {
+		try {
+			return s.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
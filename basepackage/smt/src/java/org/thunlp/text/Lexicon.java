@@ -8,12 +8,14 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
-import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
@@ -22,6 +24,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
@@ -38,23 +41,33 @@ public class Lexicon implements Serializable {
 
 	protected static String COLON_REPLACER = "~CLN~";
 
-	protected Hashtable<Integer, Word> idHash;
-	protected Hashtable<String, Word> nameHash;
+	// Concurrent maps, so that readers never wait for a lock.
+	protected ConcurrentHashMap<Integer, Word> idHash;
+	protected ConcurrentHashMap<String, Word> nameHash;
 	protected boolean locked;
-	protected long numDocs;
+	protected volatile long numDocs;
 
 	public static String NUM_DOCS_STR = "";
 
+	// Serialized with Hashtables as before, so that classifiers saved by
+	// saveToString() can still be loaded.
+	private static final ObjectStreamField[] serialPersistentFields = {
+			new ObjectStreamField("idHash", Hashtable.class),
+			new ObjectStreamField("nameHash", Hashtable.class),
+			new ObjectStreamField("locked", boolean.class),
+			new ObjectStreamField("numDocs", long.class),
+			new ObjectStreamField("termSet", Set.class) };
+
 	public Lexicon() {
-		idHash = new Hashtable<Integer, Word>(50000);
-		nameHash = new Hashtable<String, Word>(50000);
+		idHash = new ConcurrentHashMap<Integer, Word>(50000);
+		nameHash = new ConcurrentHashMap<String, Word>(50000);
 		locked = false;
 		numDocs = 0;
 	}
 
 	public Lexicon(File f) {
-		idHash = new Hashtable<Integer, Word>(50000);
-		nameHash = new Hashtable<String, Word>(50000);
+		idHash = new ConcurrentHashMap<Integer, Word>(50000);
+		nameHash = new ConcurrentHashMap<String, Word>(50000);
 		locked = false;
 		numDocs = 0;
 		loadFromFile(f);
@@ -78,7 +91,12 @@ public class Lexicon implements Serializable {
 
 	private Set<Integer> termSet = new HashSet<Integer>(256);
 
-	public void addDocument(String[] doc) {
+	/**
+	 * Count a document. Writers are serialized, and readers may call
+	 * getWord() and getNumDocs() at the same time: a new word is only
+	 * published once its counts are set.
+	 */
+	public synchronized void addDocument(String[] doc) {
 		termSet.clear();
 		for (String token : doc) {
 			Word t = nameHash.get(token);
@@ -88,10 +106,12 @@ public class Lexicon implements Serializable {
 				t = new Word();
 				t.name = token;
 				t.id = nameHash.size();
-				t.tf = 0;
-				t.df = 0;
-				nameHash.put(t.name, t);
+				t.tf = 1;
+				t.df = 1;
+				termSet.add(t.id);
 				idHash.put(t.id, t);
+				nameHash.put(t.name, t);
+				continue;
 			}
 			t.tf += 1;
 			if (!termSet.contains(t.id)) {
@@ -102,6 +122,11 @@ public class Lexicon implements Serializable {
 		numDocs++;
 	}
 
+	/**
+	 * Look up the words of a document. Known words are read without locking,
+	 * so many threads can convert documents at once; a new word of an
+	 * unlocked lexicon is added under the writer lock.
+	 */
 	public Word[] convertDocument(String[] doc) {
 		Word[] terms = new Word[doc.length];
 		int n = 0;
@@ -111,26 +136,50 @@ public class Lexicon implements Serializable {
 			if (t == null) {
 				if (locked)
 					continue;
-				t = new Word();
-				t.name = token;
-				t.tf = 1;
-				t.df = 1;
-				t.id = nameHash.size();
-				nameHash.put(t.name, t);
-				idHash.put(t.id, t);
+				t = addWord(token);
 			}
 			terms[n++] = t;
 		}
 		if (n < terms.length) {
-			Word[] finalterms = new Word[n];
-			for (int i = 0; i < n; i++) {
-				finalterms[i] = terms[i];
-			}
-			terms = finalterms;
+			terms = Arrays.copyOf(terms, n);
 		}
 		return terms;
 	}
 
+	private synchronized Word addWord(String token) {
+		Word t = nameHash.get(token);
+		if (t == null) {
+			t = new Word();
+			t.name = token;
+			t.tf = 1;
+			t.df = 1;
+			t.id = nameHash.size();
+			idHash.put(t.id, t);
+			nameHash.put(t.name, t);
+		}
+		return t;
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("idHash", new Hashtable<Integer, Word>(idHash));
+		fields.put("nameHash", new Hashtable<String, Word>(nameHash));
+		fields.put("locked", locked);
+		fields.put("numDocs", numDocs);
+		fields.put("termSet", new HashSet<Integer>());
+		out.writeFields();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+		idHash = new ConcurrentHashMap<Integer, Word>((Map<Integer, Word>) fields.get("idHash", null));
+		nameHash = new ConcurrentHashMap<String, Word>((Map<String, Word>) fields.get("nameHash", null));
+		locked = fields.get("locked", false);
+		numDocs = fields.get("numDocs", 0L);
+		termSet = new HashSet<Integer>(256);
+	}
+
 	public int getSize() {
 		return idHash.size();
 	}
@@ -139,14 +188,12 @@ public class Lexicon implements Serializable {
 		return numDocs;
 	}
 
-	public boolean saveToFile(File f) {
+	public synchronized boolean saveToFile(File f) {
 		try {
 			FileOutputStream fos = new FileOutputStream(f);
-			Enumeration<Word> e = nameHash.elements();
 			String numDocsStr = numDocs + "\n";
 			fos.write(numDocsStr.getBytes());
-			while (e.hasMoreElements()) {
-				Word t = e.nextElement();
+			for (Word t : nameHash.values()) {
 				String termString = t.toString() + "\n";
 				fos.write(termString.getBytes("utf8"));
 			}
@@ -208,7 +255,7 @@ public class Lexicon implements Serializable {
 		return t;
 	}
 
-	public void mergeFrom(Lexicon another) {
+	public synchronized void mergeFrom(Lexicon another) {
 		for (int i = 0; i < another.getSize(); i++) {
 			Word other = another.getWord(i);
 			Word local = this.getWord(other.name);
@@ -236,8 +283,8 @@ public class Lexicon implements Serializable {
 	 */
 	public Lexicon map(Map<Integer, Integer> translation) {
 		Lexicon newlex = new Lexicon();
-		Hashtable<Integer, Word> newIdHash = new Hashtable<Integer, Word>();
-		Hashtable<String, Word> newNameHash = new Hashtable<String, Word>();
+		ConcurrentHashMap<Integer, Word> newIdHash = new ConcurrentHashMap<Integer, Word>();
+		ConcurrentHashMap<String, Word> newNameHash = new ConcurrentHashMap<String, Word>();
 
 		for (Entry<Integer, Integer> e : translation.entrySet()) {
 			Word w = idHash.get(e.getKey());
@@ -0,0 +1,269 @@
+package org.thunlp.text;
+
+import java.util.Arrays;
+
+/**
+ * Find near-duplicate documents with MinHash and locality sensitive hashing.
+ * A document is a sequence of tokens; its shingles are the hashes of k
+ * consecutive tokens, and its signature holds bands * rows MinHash values of
+ * the shingle set. Two documents share a band bucket with high probability
+ * if their Jaccard similarity is above about (1 / bands) ^ (1 / rows), and
+ * the candidates from the buckets are checked by the fraction of equal
+ * MinHash values.
+ *
+ * The index keeps only the lowest byte of each MinHash value and two ints
+ * per band for every added document, so millions of documents fit in memory
+ * and can be checked in one streaming pass: compute the signature, look for
+ * a duplicate, and add the document if there is none. Unlike FuzzyHash,
+ * documents do not need to collide exactly.
+ *
+ * Not thread-safe.
+ *
+ * @author sixiance
+ *
+ */
+public class NearDuplicateIndex {
+	private static final long EMPTY = 0L;
+
+	private int bands;
+	private int rows;
+	private int shingleSize;
+	private double threshold;
+	private long[] seeds;
+
+	// Lowest byte of every MinHash value of every document, bands * rows
+	// bytes per document.
+	private byte[] signatures;
+	private int numDocs = 0;
+
+	// Band buckets: an open addressing table from band key to the last entry
+	// in the bucket, and the entries chained by next. Entry e is band
+	// e % bands of document e / bands.
+	private long[] bucketKeys;
+	private int[] bucketHeads;
+	private int numBuckets = 0;
+	private int[] next;
+
+	public NearDuplicateIndex() {
+		this(16, 6, 3, 0.8);
+	}
+
+	/**
+	 * @param bands
+	 *            number of bands.
+	 * @param rows
+	 *            MinHash values per band.
+	 * @param shingleSize
+	 *            number of consecutive tokens in a shingle.
+	 * @param threshold
+	 *            estimated Jaccard similarity from which two documents are
+	 *            near-duplicates.
+	 */
+	public NearDuplicateIndex(int bands, int rows, int shingleSize,
+			double threshold) {
+		if (bands <= 0 || rows <= 0 || shingleSize <= 0) {
+			throw new IllegalArgumentException("bands, rows and shingle size "
+					+ "must be positive");
+		}
+		this.bands = bands;
+		this.rows = rows;
+		this.shingleSize = shingleSize;
+		this.threshold = threshold;
+		seeds = new long[bands * rows];
+		long s = 0x5DEECE66DL;
+		for (int i = 0; i < seeds.length; i++) {
+			s = mix(s + 0x9E3779B97F4A7C15L);
+			seeds[i] = s;
+		}
+		signatures = new byte[1024 * seeds.length];
+		next = new int[1024 * bands];
+		bucketKeys = new long[2048];
+		bucketHeads = new int[2048];
+	}
+
+	/**
+	 * The MinHash signature of a token sequence. Documents with fewer tokens
+	 * than the shingle size have one shingle of all tokens. An empty document
+	 * has no shingle to compare and no signature: null, which is never a
+	 * duplicate and cannot be added.
+	 */
+	public int[] signature(String[] tokens) {
+		if (tokens.length == 0) {
+			return null;
+		}
+		int[] sig = new int[seeds.length];
+		Arrays.fill(sig, -1);
+		int numShingles = Math.max(1, tokens.length - shingleSize + 1);
+		long[] tokenHashes = new long[tokens.length];
+		for (int i = 0; i < tokens.length; i++) {
+			tokenHashes[i] = mix(tokens[i].hashCode() * 0xC2B2AE3D27D4EB4FL);
+		}
+		for (int i = 0; i < numShingles; i++) {
+			long shingle = 0;
+			for (int j = i; j < i + shingleSize && j < tokens.length; j++) {
+				shingle = mix(shingle ^ tokenHashes[j]) + j - i;
+			}
+			for (int h = 0; h < seeds.length; h++) {
+				// Unsigned minimum of the upper 32 bits.
+				int v = (int) (mix(shingle ^ seeds[h]) >>> 32);
+				if ((v ^ Integer.MIN_VALUE) < (sig[h] ^ Integer.MIN_VALUE)) {
+					sig[h] = v;
+				}
+			}
+		}
+		return sig;
+	}
+
+	/**
+	 * Add a document by its signature, and return its id in the index. Ids
+	 * are given in order from 0.
+	 */
+	public int add(int[] signature) {
+		if (signature == null) {
+			throw new IllegalArgumentException("empty documents are not indexed");
+		}
+		checkSignature(signature);
+		int doc = numDocs;
+		if ((doc + 1) * seeds.length > signatures.length) {
+			signatures = Arrays.copyOf(signatures, signatures.length * 2);
+			next = Arrays.copyOf(next, next.length * 2);
+		}
+		for (int i = 0; i < seeds.length; i++) {
+			signatures[doc * seeds.length + i] = (byte) signature[i];
+		}
+		for (int b = 0; b < bands; b++) {
+			int entry = doc * bands + b;
+			int slot = slot(bandKey(signature, b));
+			if (bucketKeys[slot] == EMPTY) {
+				bucketKeys[slot] = bandKey(signature, b);
+				next[entry] = -1;
+				numBuckets++;
+			} else {
+				next[entry] = bucketHeads[slot];
+			}
+			bucketHeads[slot] = entry;
+			if (numBuckets * 2 > bucketKeys.length) {
+				rehash();
+			}
+		}
+		numDocs++;
+		return doc;
+	}
+
+	/**
+	 * Return the id of the earliest added document that is a near-duplicate
+	 * of the given signature, or -1 if there is none or the signature is
+	 * null.
+	 */
+	public int findDuplicate(int[] signature) {
+		if (signature == null) {
+			return -1;
+		}
+		checkSignature(signature);
+		int best = -1;
+		for (int b = 0; b < bands; b++) {
+			int slot = slot(bandKey(signature, b));
+			if (bucketKeys[slot] == EMPTY) {
+				continue;
+			}
+			// Entries are chained from the latest, so the earliest candidate
+			// of the bucket is found last.
+			for (int e = bucketHeads[slot]; e >= 0; e = next[e]) {
+				int doc = e / bands;
+				if (best >= 0 && doc >= best) {
+					continue;
+				}
+				if (similarity(signature, doc) >= threshold) {
+					best = doc;
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Estimated Jaccard similarity between a signature and an added document.
+	 * Only the lowest byte of the document's MinHash values is stored, and
+	 * those bytes also match by chance with probability 1 / 256, which the
+	 * estimate corrects for.
+	 */
+	public double similarity(int[] signature, int doc) {
+		int matches = 0;
+		int offset = doc * seeds.length;
+		for (int i = 0; i < seeds.length; i++) {
+			if (signatures[offset + i] == (byte) signature[i]) {
+				matches++;
+			}
+		}
+		double p = (double) matches / seeds.length;
+		return Math.max(0.0, (p - 1.0 / 256) / (1.0 - 1.0 / 256));
+	}
+
+	/**
+	 * Estimated Jaccard similarity between two signatures.
+	 */
+	public static double similarity(int[] a, int[] b) {
+		int matches = 0;
+		for (int i = 0; i < a.length; i++) {
+			if (a[i] == b[i]) {
+				matches++;
+			}
+		}
+		return (double) matches / a.length;
+	}
+
+	public int size() {
+		return numDocs;
+	}
+
+	private void checkSignature(int[] signature) {
+		if (signature.length != seeds.length) {
+			throw new IllegalArgumentException("signature of length "
+					+ signature.length + ", expected " + seeds.length);
+		}
+	}
+
+	private long bandKey(int[] signature, int band) {
+		long h = mix(band + 1);
+		for (int i = band * rows; i < (band + 1) * rows; i++) {
+			h = mix(h ^ (signature[i] & 0xffffffffL));
+		}
+		// Zero marks an empty slot.
+		return h == EMPTY ? 1 : h;
+	}
+
+	private int slot(long key) {
+		int mask = bucketKeys.length - 1;
+		int i = (int) (key >>> 32) & mask;
+		while (bucketKeys[i] != EMPTY && bucketKeys[i] != key) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private void rehash() {
+		long[] oldKeys = bucketKeys;
+		int[] oldHeads = bucketHeads;
+		bucketKeys = new long[oldKeys.length * 2];
+		bucketHeads = new int[oldKeys.length * 2];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				int j = slot(oldKeys[i]);
+				bucketKeys[j] = oldKeys[i];
+				bucketHeads[j] = oldHeads[i];
+			}
+		}
+	}
+
+	/**
+	 * The 64 bit finalizer of MurmurHash3.
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
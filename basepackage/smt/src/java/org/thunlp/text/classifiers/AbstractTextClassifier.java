@@ -15,17 +15,13 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.Hashtable;
 import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
 
 import libsvm.svm;
 import libsvm.svm_model;
 import libsvm.svm_node;
-import libsvm.svm_parameter;
-import libsvm.svm_problem;
 
 import org.apache.commons.codec.binary.Base64;
 import org.thunlp.language.chinese.LangUtils;
@@ -42,7 +38,10 @@ public abstract class AbstractTextClassifier implements TextClassifier {
 	private DocumentVector trainingVectorBuilder; // 用来构造训练特征向量
 	private DocumentVector testVectorBuilder; // 用来构造待分类文本的特征向量
 	private WordSegment seg;
-	private svm_model model; // 训练好的模型
+	private LinearModel linearModel; // 训练好的模型
+	private svm_model model; // 用libsvm训练的旧模型，只用于载入旧的模型文件
+	private LinearModel.Solver solver = LinearModel.Solver.L2LOSS_SVM;
+	private double cost = 1; // 惩罚系数C
 	private int maxFeatures = 5000; // 默认的最大特征数
 	private int nclasses; // 类别数
 	private int longestDoc; // 最长的文档向量长度，决定读取临时文件时缓冲大小
@@ -56,6 +55,7 @@ public abstract class AbstractTextClassifier implements TextClassifier {
 		lexicon = new Lexicon();
 		trainingVectorBuilder = new DocumentVector(lexicon, new TfOnlyTermWeighter());
 		testVectorBuilder = null;
+		linearModel = null;
 		model = null;
 		this.nclasses = nclasses;
 		ndocs = 0;
@@ -102,68 +102,30 @@ public abstract class AbstractTextClassifier implements TextClassifier {
 
 		// lamda初始值
 		double lamda = 0.5;
-		int[][] featureStats = new int[featureSize][nclasses];
-		int[] featureFreq = new int[featureSize];
-		double[] prValues = new double[featureSize];
-		PriorityQueue<Term> selectedFeatures;
-		int[] classSize = new int[nclasses];
+		final double[] prValues = new double[featureSize];
+		final int[] lexiconDf = lexiconDf(featureSize, null);
+		ForkJoinPool pool = ForkJoinPool.commonPool();
 
 		// 统计chi-square需要的计数
-		int label = 0;
-		int nterms = 0;
-		double sum = 0;
-		Term[] terms = new Term[longestDoc + 1];
-		for (int i = 0; i < terms.length; i++) {
-			terms[i] = new Term();
-		}
-		int ndocsread = 0;
+		TrainingSetStatistics stats;
 		try {
-			DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
-			while (true) {
-				int ncut = 0;
-				try {
-					label = dis.readInt();
-					nterms = dis.readInt();
-					sum += nterms;
-					for (int i = 0; i < nterms; i++) {
-						terms[i].id = dis.readInt();
-						terms[i].weight = dis.readDouble();
-						if (lexicon.getWord(terms[i].id).getDocumentFrequency() == 1)
-							ncut++;
-					}
-				} catch (EOFException e) {
-					break;
-				}
-				sum -= ncut;
-
-				classSize[label]++;
-				for (int i = 0; i < nterms; i++) {
-					Term t = terms[i];
-					featureStats[t.id][label]++;
-					featureFreq[t.id]++;
-				}
-			}
-			dis.close();
+			stats = TrainingSetStatistics.read(cacheFile, featureSize, nclasses, lexiconDf, pool);
 		} catch (IOException e) {
 			return null;
 		}
+		final int[] featureFreq = stats.featureFreq;
+		int[] classSize = stats.classSize;
+		double sum = stats.sum;
 
 		System.err.println("start STS calculation");
 
-		// 计算chi^2_avg(t)，这里利用一个优先级队列来选择chi^2最高的特征
-		selectedFeatures = new PriorityQueue<Term>(kept + 1, new Comparator<Term>() {
-			public int compare(Term t0, Term t1) {
-				return Double.compare(t0.weight, t1.weight);
-			}
-		});
-
 		long A, B, C, D;
 
 		for (int i = 0; i < featureSize; i++) {
 			double pr = -1;
 			double prmax = -1;
 			for (int j = 0; j < nclasses; j++) {
-				A = featureStats[i][j];
+				A = stats.count(i, j);
 				B = featureFreq[i] - A;
 				C = classSize[j];
 				D = ndocs - C;
@@ -183,33 +145,27 @@ public abstract class AbstractTextClassifier implements TextClassifier {
 
 		double targetAVL = Math.pow(sum / ndocs, 0.085 * Math.log(kept));
 
-		Term[] featuresToSort = new Term[kept];
+		int[] selected;
 
 		double first = 0;
 		double second = 1;
 		int iteration = 1;
 		while (true) {
-			selectedFeatures.clear();
-			for (int i = 0; i < featureSize; i++) {
-				if (lexicon.getWord(i).getDocumentFrequency() == 1)
-					continue;
-				Term t = new Term();
-				t.id = i;
-				t.weight = 1.0 / (lamda / Math.log(prValues[i]) + (1 - lamda) / Math.log(featureFreq[i]));
-				selectedFeatures.add(t);
-				if (selectedFeatures.size() > kept) {
-					selectedFeatures.poll();
+			final double l = lamda;
+			// 每轮只有lamda不同，用并行的前k个选择代替优先级队列
+			selected = TrainingSetStatistics.selectTop(featureSize, kept, new TrainingSetStatistics.Scorer() {
+				boolean accept(int i) {
+					return lexiconDf[i] != 1;
 				}
-			}
+
+				double score(int i) {
+					return 1.0 / (l / Math.log(prValues[i]) + (1 - l) / Math.log(featureFreq[i]));
+				}
+			}, pool);
 			double AVL = 0;
-			int n = 0;
-			while (selectedFeatures.size() > 0) {
-				Term t = selectedFeatures.poll();
-				featuresToSort[n] = t;
-				n++;
-				AVL += featureFreq[t.id];
+			for (int id : selected) {
+				AVL += featureFreq[id];
 			}
-			Arrays.sort(featuresToSort, new Term.TermIdComparator());
 			AVL /= ndocs;
 
 			System.out.println(
@@ -235,8 +191,8 @@ public abstract class AbstractTextClassifier implements TextClassifier {
 		// 生成旧id和新选择的id的对应表
 		Map<Integer, Integer> fidmap = new Hashtable<Integer, Integer>(kept);
 
-		for (int i = 0; i < featuresToSort.length; i++) {
-			fidmap.put(featuresToSort[i].id, i);
+		for (int i = 0; i < selected.length; i++) {
+			fidmap.put(selected[i], i);
 
 		}
 		return fidmap;
@@ -268,125 +224,95 @@ public abstract class AbstractTextClassifier implements TextClassifier {
 	 *            每个特征的chimax值，如果为null则不记录
 	 * @return
 	 */
-	public Map<Integer, Integer> selectFeaturesByChiSquare(File cacheFile, int featureSize, int kept, int ndocs,
-			int nclasses, int longestDoc, double[] chimaxValues) {
+	public Map<Integer, Integer> selectFeaturesByChiSquare(File cacheFile, int featureSize, int kept, final int ndocs,
+			final int nclasses, int longestDoc, final double[] chimaxValues) {
 
-		int[][] featureStats = new int[featureSize][nclasses];
-		int[] featureFreq = new int[featureSize];
-		PriorityQueue<Term> selectedFeatures;
-		int[] classSize = new int[nclasses];
+		final boolean[] skipped = new boolean[featureSize];
+		final int[] lexiconDf = lexiconDf(featureSize, skipped);
 
 		// 统计chi-square需要的计数
-		int label = 0;
-		int nterms = 0;
-		Term[] terms = new Term[longestDoc + 1];
-		for (int i = 0; i < terms.length; i++) {
-			terms[i] = new Term();
-		}
-		int ndocsread = 0;
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		final TrainingSetStatistics stats;
 		try {
-			DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
-			while (true) {
-				try {
-					label = dis.readInt();
-					nterms = dis.readInt();
-					for (int i = 0; i < nterms; i++) {
-						terms[i].id = dis.readInt();
-						terms[i].weight = dis.readDouble();
-					}
-				} catch (EOFException e) {
-					break;
-				}
-
-				classSize[label]++;
-				for (int i = 0; i < nterms; i++) {
-					Term t = terms[i];
-					featureStats[t.id][label]++;
-					featureFreq[t.id]++;
-				}
-				if (ndocsread++ % 1000 == 0) {
-					System.err.println("scanned " + ndocsread);
-				}
-			}
-			dis.close();
+			stats = TrainingSetStatistics.read(cacheFile, featureSize, nclasses, null, pool);
 		} catch (IOException e) {
 			return null;
 		}
+		System.err.println("scanned " + stats.ndocs);
 
 		System.err.println("start chi-square calculation");
 
-		// 计算chi^2_avg(t)，这里利用一个优先级队列来选择chi^2最高的特征
-		selectedFeatures = new PriorityQueue<Term>(kept + 1, new Comparator<Term>() {
-			public int compare(Term t0, Term t1) {
-				return Double.compare(t0.weight, t1.weight);
+		// 计算chi^2_avg(t)，并行地选出chi^2最高的特征
+		int[] selected = TrainingSetStatistics.selectTop(featureSize, kept, new TrainingSetStatistics.Scorer() {
+			boolean accept(int i) {
+				return lexiconDf[i] != 1 && !skipped[i];
 			}
-		});
 
-		long A, B, C, D;
-
-		for (int i = 0; i < featureSize; i++) {
-			Word w = lexicon.getWord(i);
-			if (w != null) {
-				if (w.getDocumentFrequency() == 1 || w.getName().length() > 50)
-					continue;
-			}
-			double chisqr = -1;
-			double chimax = -1;
-			for (int j = 0; j < nclasses; j++) {
-				A = featureStats[i][j];
-				B = featureFreq[i] - A;
-				C = classSize[j] - A;
-				D = ndocs - A - B - C;
+			double score(int i) {
+				long A, B, C, D;
+				double chisqr = -1;
+				double chimax = -1;
+				for (int j = 0; j < nclasses; j++) {
+					A = stats.count(i, j);
+					B = stats.featureFreq[i] - A;
+					C = stats.classSize[j] - A;
+					D = ndocs - A - B - C;
+
+					double fractorBase = (double) ((A + C) * (B + D) * (A + B) * (C + D));
+					if (Double.compare(fractorBase, 0.0) == 0) {
+						chisqr = 0;
+					} else {
+						// 我们不用ndocs，因为所有特征的ndocs都一样
+						// chisqr = ndocs * ( A*D -B*C) * (A*D - B*C) / fractorBase
+						// ;
+						chisqr = (A * D - B * C) / fractorBase * (A * D - B * C);
+					}
+					if (chisqr > chimax) {
+						chimax = chisqr;
+					}
 
-				// System.out.println("A:"+A+" B:"+B+" C:"+C+" D:"+D);
-				double fractorBase = (double) ((A + C) * (B + D) * (A + B) * (C + D));
-				if (Double.compare(fractorBase, 0.0) == 0) {
-					chisqr = 0;
-				} else {
-					// 我们不用ndocs，因为所有特征的ndocs都一样
-					// chisqr = ndocs * ( A*D -B*C) * (A*D - B*C) / fractorBase
-					// ;
-					chisqr = (A * D - B * C) / fractorBase * (A * D - B * C);
+					// 被注释的方法是计算chi^2_avg即概率加权平均的卡方值。我们实际用的是chimax
+					// chisqr += (classSize[j] / (double) ndocs) *
+					// ndocs * ( A*D -B*C) * (A*D - B*C)
+					// / (double)( (A+C) * (B+D) * (A+B) * (C+D) ) ;
 				}
-				if (chisqr > chimax) {
-					chimax = chisqr;
+				if (chimaxValues != null) {
+					chimaxValues[i] = chimax;
 				}
-
-				// 被注释的方法是计算chi^2_avg即概率加权平均的卡方值。我们实际用的是chimax
-				// chisqr += (classSize[j] / (double) ndocs) *
-				// ndocs * ( A*D -B*C) * (A*D - B*C)
-				// / (double)( (A+C) * (B+D) * (A+B) * (C+D) ) ;
-			}
-			if (chimaxValues != null) {
-				chimaxValues[i] = chimax;
-			}
-			Term t = new Term();
-			t.id = i;
-			t.weight = chimax;
-			selectedFeatures.add(t);
-			if (selectedFeatures.size() > kept) {
-				selectedFeatures.poll();
+				return chimax;
 			}
-		}
+		}, pool);
 
 		System.err.println("generating feature map");
 
 		// 生成旧id和新选择的id的对应表
 		Map<Integer, Integer> fidmap = new Hashtable<Integer, Integer>(kept);
-		Term[] featuresToSort = new Term[selectedFeatures.size()];
-		int n = 0;
-		while (selectedFeatures.size() > 0) {
-			Term t = selectedFeatures.poll();
-			featuresToSort[n] = t;
-			n++;
-		}
-		Arrays.sort(featuresToSort, new Term.TermIdComparator());
-		for (int i = 0; i < featuresToSort.length; i++) {
-			fidmap.put(featuresToSort[i].id, i);
+		for (int i = 0; i < selected.length; i++) {
+			fidmap.put(selected[i], i);
 		}
 		return fidmap;
 	}
 
+	/**
+	 * 把词典中每个特征的df取到数组中，避免在并行的循环中查词典。不在词典中的特征df为0。
+	 * 
+	 * @param longNames
+	 *            不为null时，记录名字长于50的特征
+	 */
+	private int[] lexiconDf(int featureSize, boolean[] longNames) {
+		int[] df = new int[featureSize];
+		for (int i = 0; i < featureSize; i++) {
+			Word w = lexicon.getWord(i);
+			if (w != null) {
+				df[i] = w.getDocumentFrequency();
+				if (longNames != null) {
+					longNames[i] = w.getName().length() > 50;
+				}
+			}
+		}
+		return df;
+	}
+
 	public void setMaxFeatures(int max) {
 		maxFeatures = max;
 	}
@@ -458,16 +384,26 @@ public abstract class AbstractTextClassifier implements TextClassifier {
 		Term[] terms = testVectorBuilder.build(words, true);
 
 		int m = terms.length;
-		svm_node[] x = new svm_node[m];
-		for (int j = 0; j < m; j++) {
-			x[j] = new svm_node();
-			x[j].index = terms[j].id + 1;
-			x[j].value = terms[j].weight;
-		}
-
 		ClassifyResult cr = new ClassifyResult();
-		double[] probs = new double[svm.svm_get_nr_class(model)];
-		svm.svm_predict_probability(model, x, probs);
+		double[] probs;
+		if (linearModel != null) {
+			int[] ids = new int[m];
+			double[] values = new double[m];
+			for (int j = 0; j < m; j++) {
+				ids[j] = terms[j].id;
+				values[j] = terms[j].weight;
+			}
+			probs = linearModel.probabilities(linearModel.decisionValues(ids, values, m));
+		} else {
+			svm_node[] x = new svm_node[m];
+			for (int j = 0; j < m; j++) {
+				x[j] = new svm_node();
+				x[j].index = terms[j].id + 1;
+				x[j].value = terms[j].weight;
+			}
+			probs = new double[svm.svm_get_nr_class(model)];
+			svm.svm_predict_probability(model, x, probs);
+		}
 		cr.prob = 0.0;
 		for (int i = 0; i < probs.length; i++) {
 			if (probs[i] > cr.prob) {
@@ -500,10 +436,15 @@ public abstract class AbstractTextClassifier implements TextClassifier {
 				return false;
 			}
 
-			if (modelFile.exists()) {
-				this.model = svm.svm_load_model(modelFile.getAbsolutePath());
-			} else {
+			if (!modelFile.exists()) {
 				return false;
+			} else if (LinearModel.isLinearModel(modelFile)) {
+				this.linearModel = LinearModel.load(modelFile);
+				this.model = null;
+			} else {
+				// 用libsvm训练的旧模型
+				this.model = svm.svm_load_model(modelFile.getAbsolutePath());
+				this.linearModel = null;
 			}
 		} catch (Exception e) {
 			return false;
@@ -532,7 +473,11 @@ public abstract class AbstractTextClassifier implements TextClassifier {
 
 		try {
 			lexicon.saveToFile(lexiconFile);
-			svm.svm_save_model(modelFile.getAbsolutePath(), model);
+			if (linearModel != null) {
+				linearModel.save(modelFile);
+			} else {
+				svm.svm_save_model(modelFile.getAbsolutePath(), model);
+			}
 		} catch (IOException e) {
 			return false;
 		}
@@ -561,78 +506,67 @@ public abstract class AbstractTextClassifier implements TextClassifier {
 			return false;
 		}
 		System.err.println("feature selection complete");
-		svm_problem problem = createLibSVMProblem(tsCacheFile, selectedFeatures);
+		SparseMatrix problem = createTrainingMatrix(tsCacheFile, selectedFeatures);
+		if (problem == null) {
+			return false;
+		}
 		System.err.println("problem created");
 
 		lexicon = lexicon.map(selectedFeatures);
 		lexicon.setLock(true);
-		tsCacheFile.delete();
+		// 映射过的文件在某些系统上要等映射被回收后才能删除
+		if (!tsCacheFile.delete()) {
+			tsCacheFile.deleteOnExit();
+		}
 		trainingVectorBuilder = null;
 		testVectorBuilder = new DocumentVector(lexicon, new TfIdfTermWeighter(lexicon));
 
-		svm_parameter param = new svm_parameter();
-
-		// default values
-		param.svm_type = svm_parameter.C_SVC;
-		param.kernel_type = svm_parameter.LINEAR;
-		param.degree = 3;
-		param.gamma = 0; // 1/k
-		param.coef0 = 0;
-		param.nu = 0.5;
-		param.cache_size = 100;
-		param.C = 1;
-		param.eps = 1e-3;
-		param.p = 0.1;
-		param.shrinking = 1;
-		param.probability = 1; // Enable probability estimation.
-		param.nr_weight = 0;
-		param.weight_label = new int[0];
-		param.weight = new double[0];
-
-		String error_msg = svm.svm_check_parameter(problem, param);
-
-		if (error_msg != null) {
-			System.err.print("Error: " + error_msg + "\n");
-			return false;
-		}
-
-		svm_model classifier = svm.svm_train(problem, param);
-		this.model = classifier;
+		// 与LIBLINEAR的默认参数相同，每个类别对其他类别的模型并行训练
+		linearModel = LinearModel.train(problem, nclasses, selectedFeatures.size(), solver, cost, 0.1, 1.0,
+				ForkJoinPool.commonPool());
+		model = null;
 		return true;
 	}
 
-	private static class DataNode implements Comparable {
-		int label;
-		svm_node[] nodes;
+	/**
+	 * 设置训练线性模型的方法，默认是L2损失的线性SVM
+	 */
+	public void setSolver(LinearModel.Solver solver) {
+		this.solver = solver;
+	}
 
-		public int compareTo(Object o) {
-			DataNode other = (DataNode) o;
-			return label - other.label;
-		}
+	/**
+	 * 设置线性模型的惩罚系数C，默认是1
+	 */
+	public void setCost(double cost) {
+		this.cost = cost;
 	}
 
 	/**
-	 * 根据特征选择的结果来生成一个用于训练的SVM problem
+	 * 根据特征选择的结果来生成CSR格式的训练矩阵
 	 * 
 	 * @param cacheFile
 	 *            存放训练集的缓存文件
 	 * @param selectedFeatures
 	 *            特征选择的结果
-	 * @return 构造好的svm_problem数据结构
+	 * @return 构造好的训练矩阵，特征的值是归一化的tf-idf
 	 */
-	private svm_problem createLibSVMProblem(File cacheFile, Map<Integer, Integer> selectedFeatures) {
-
-		Vector<Double> vy = new Vector<Double>();
-		Vector<svm_node[]> vx = new Vector<svm_node[]>();
-
-		DataNode[] datanodes = new DataNode[this.ndocs];
+	private SparseMatrix createTrainingMatrix(File cacheFile, Map<Integer, Integer> selectedFeatures) {
+		// 把特征的新id和idf取到数组中，避免在循环中查表
+		int featureSize = lexicon.getSize();
+		int[] newIds = new int[featureSize];
+		double[] idf = new double[featureSize];
+		Arrays.fill(newIds, -1);
+		for (Map.Entry<Integer, Integer> e : selectedFeatures.entrySet()) {
+			int tid = e.getKey();
+			newIds[tid] = e.getValue();
+			idf[tid] = Math.log((double) (ndocs + 1) / lexicon.getWord(tid).getDocumentFrequency());
+		}
 
+		SparseMatrix matrix = new SparseMatrix();
+		int[] ids = new int[longestDoc + 1];
+		double[] weights = new double[longestDoc + 1];
 		int label, nterms;
-		Term[] terms = new Term[longestDoc + 1];
-		for (int i = 0; i < terms.length; i++) {
-			terms[i] = new Term();
-		}
-		int ndocsread = 0;
 		try {
 			DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
 			while (true) {
@@ -643,14 +577,10 @@ public abstract class AbstractTextClassifier implements TextClassifier {
 					for (int i = 0; i < nterms; i++) {
 						int tid = dis.readInt();
 						double tweight = dis.readDouble();
-						Integer id = selectedFeatures.get(tid);
-						if (id != null) {
-							terms[n].id = id;
-							Word w = lexicon.getWord(tid);
-							int df = w.getDocumentFrequency();
-							terms[n].weight = Math.log(tweight + 1) * (Math.log((double) (ndocs + 1) / df));
+						if (tid < featureSize && newIds[tid] >= 0) {
+							ids[n] = newIds[tid];
+							weights[n] = Math.log(tweight + 1) * idf[tid];
 							n++;
-							// System.err.println("doc " + id + " " + w);
 						}
 					}
 				} catch (EOFException e) {
@@ -660,27 +590,16 @@ public abstract class AbstractTextClassifier implements TextClassifier {
 				// 归一化向量
 				double normalizer = 0;
 				for (int i = 0; i < n; i++) {
-					normalizer += terms[i].weight * terms[i].weight;
+					normalizer += weights[i] * weights[i];
 				}
 				normalizer = Math.sqrt(normalizer);
 				for (int i = 0; i < n; i++) {
-					terms[i].weight /= normalizer;
-				}
-
-				datanodes[ndocsread] = new DataNode();
-				// 放入svm problem中
-				datanodes[ndocsread].label = label;
-
-				svm_node[] x = new svm_node[n];
-				for (int i = 0; i < n; i++) {
-					x[i] = new svm_node();
-					x[i].index = terms[i].id + 1;
-					x[i].value = terms[i].weight;
+					weights[i] /= normalizer;
 				}
-				datanodes[ndocsread].nodes = x;
+				matrix.addRow(label, ids, weights, n);
 
-				if (ndocsread++ % 1000 == 0) {
-					System.err.println("scanned " + ndocsread);
+				if (matrix.rows % 1000 == 1) {
+					System.err.println("scanned " + matrix.rows);
 				}
 			}
 			dis.close();
@@ -688,20 +607,8 @@ public abstract class AbstractTextClassifier implements TextClassifier {
 			return null;
 		}
 
-		assert(this.ndocs == ndocsread);
-
-		Arrays.sort(datanodes);
-
-		svm_problem prob = new svm_problem();
-		prob.l = datanodes.length;
-		prob.x = new svm_node[prob.l][];
-		for (int i = 0; i < prob.l; i++)
-			prob.x[i] = datanodes[i].nodes;
-		prob.y = new double[prob.l];
-		for (int i = 0; i < prob.l; i++)
-			prob.y[i] = (double) datanodes[i].label;
-
-		return prob;
+		assert(this.ndocs == matrix.rows);
+		return matrix;
 	}
 
 	public String saveToString() {
@@ -709,7 +616,7 @@ public abstract class AbstractTextClassifier implements TextClassifier {
 		try {
 			ObjectOutputStream oos = new ObjectOutputStream(baos);
 			oos.writeObject(this.lexicon);
-			oos.writeObject(this.model);
+			oos.writeObject(linearModel != null ? linearModel : this.model);
 			oos.close();
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -725,7 +632,14 @@ public abstract class AbstractTextClassifier implements TextClassifier {
 		try {
 			ois = new ObjectInputStream(bais);
 			this.lexicon = (Lexicon) ois.readObject();
-			this.model = (svm_model) ois.readObject();
+			Object m = ois.readObject();
+			if (m instanceof LinearModel) {
+				this.linearModel = (LinearModel) m;
+				this.model = null;
+			} else {
+				this.model = (svm_model) m;
+				this.linearModel = null;
+			}
 			ois.close();
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
@@ -0,0 +1,421 @@
+package org.thunlp.text.classifiers;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 线性分类模型，用对偶坐标下降法训练(Hsieh et al., A Dual Coordinate Descent
+ * Method for Large-scale Linear SVM, ICML 2008；Yu et al., Dual Coordinate
+ * Descent Methods for Logistic Regression, 2011)，与LIBLINEAR的
+ * L2R_L2LOSS_SVC_DUAL和L2R_LR_DUAL相同。多类用one-vs-rest，每个类别的
+ * 二类问题在ForkJoinPool中并行训练。
+ *
+ * 权重按特征存放，weights[f * nclasses + k]是特征f在类别k上的权重，最后一行是
+ * 偏置。预测时每个非零特征只访问一段连续的权重，复杂度为O(nnz * nclasses)。
+ *
+ * @author adam
+ */
+public class LinearModel implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private static final int MAX_ITERATIONS = 1000;
+	private static final int MAX_INNER_ITERATIONS = 100;
+
+	public enum Solver {
+		L2LOSS_SVM, LOGISTIC_REGRESSION
+	}
+
+	private Solver solver;
+	private int nclasses;
+	private int nfeatures;
+	private double bias;
+	private double[] weights;
+
+	private LinearModel(Solver solver, int nclasses, int nfeatures, double bias) {
+		this.solver = solver;
+		this.nclasses = nclasses;
+		this.nfeatures = nfeatures;
+		this.bias = bias;
+		this.weights = new double[(nfeatures + 1) * nclasses];
+	}
+
+	public int getNumClasses() {
+		return nclasses;
+	}
+
+	public int getNumFeatures() {
+		return nfeatures;
+	}
+
+	public Solver getSolver() {
+		return solver;
+	}
+
+	/**
+	 * 训练一个模型，类别是0到nclasses - 1。
+	 *
+	 * @param C
+	 *            惩罚系数
+	 * @param eps
+	 *            停止条件，LIBLINEAR对这两种方法默认用0.1
+	 * @param bias
+	 *            偏置特征的值，小于等于0时不用偏置
+	 */
+	static LinearModel train(final SparseMatrix data, int nclasses,
+			int nfeatures, Solver solver, final double C, final double eps,
+			double bias, ForkJoinPool pool) {
+		final LinearModel model = new LinearModel(solver, nclasses, nfeatures,
+				bias);
+		final double[] xTx = new double[data.rows];
+		for (int i = 0; i < data.rows; i++) {
+			double sum = bias > 0 ? bias * bias : 0;
+			for (int p = data.rowStart[i]; p < data.rowStart[i + 1]; p++) {
+				sum += data.values[p] * data.values[p];
+			}
+			xTx[i] = sum;
+		}
+		final List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+		for (int k = 0; k < nclasses; k++) {
+			final int label = k;
+			tasks.add(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					model.trainClass(data, xTx, label, C, eps);
+				}
+			});
+		}
+		pool.invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+		return model;
+	}
+
+	/**
+	 * 训练类别label对其他类别的二类问题，写入weights中的一列。
+	 */
+	private void trainClass(SparseMatrix data, double[] xTx, int label,
+			double C, double eps) {
+		byte[] y = new byte[data.rows];
+		for (int i = 0; i < data.rows; i++) {
+			y[i] = (byte) (data.labels[i] == label ? 1 : -1);
+		}
+		double[] w = new double[nfeatures + 1];
+		Random random = new Random(label);
+		if (solver == Solver.LOGISTIC_REGRESSION) {
+			solveLogisticDual(data, xTx, y, w, C, eps, random);
+		} else {
+			solveL2LossDual(data, xTx, y, w, C, eps, random);
+		}
+		for (int f = 0; f <= nfeatures; f++) {
+			weights[f * nclasses + label] = w[f];
+		}
+	}
+
+	private double dot(double[] w, SparseMatrix data, int i) {
+		double sum = bias > 0 ? w[nfeatures] * bias : 0;
+		for (int p = data.rowStart[i]; p < data.rowStart[i + 1]; p++) {
+			sum += w[data.columns[p]] * data.values[p];
+		}
+		return sum;
+	}
+
+	private void axpy(double d, SparseMatrix data, int i, double[] w) {
+		if (bias > 0) {
+			w[nfeatures] += d * bias;
+		}
+		for (int p = data.rowStart[i]; p < data.rowStart[i + 1]; p++) {
+			w[data.columns[p]] += d * data.values[p];
+		}
+	}
+
+	private static void shuffle(int[] index, int n, Random random) {
+		for (int i = 0; i < n; i++) {
+			int j = i + random.nextInt(n - i);
+			int t = index[i];
+			index[i] = index[j];
+			index[j] = t;
+		}
+	}
+
+	/**
+	 * L2正则、L2损失的SVM对偶问题，带shrinking。
+	 */
+	private void solveL2LossDual(SparseMatrix data, double[] xTx, byte[] y,
+			double[] w, double C, double eps, Random random) {
+		int l = data.rows;
+		double diag = 0.5 / C;
+		double[] alpha = new double[l];
+		double[] QD = new double[l];
+		int[] index = new int[l];
+		for (int i = 0; i < l; i++) {
+			QD[i] = diag + xTx[i];
+			index[i] = i;
+		}
+		int activeSize = l;
+		double PGmaxOld = Double.POSITIVE_INFINITY;
+		double PGminOld = Double.NEGATIVE_INFINITY;
+		int iter = 0;
+		while (iter < MAX_ITERATIONS) {
+			double PGmaxNew = Double.NEGATIVE_INFINITY;
+			double PGminNew = Double.POSITIVE_INFINITY;
+			shuffle(index, activeSize, random);
+			for (int s = 0; s < activeSize; s++) {
+				int i = index[s];
+				double G = y[i] * dot(w, data, i) - 1 + alpha[i] * diag;
+				double PG = 0;
+				if (alpha[i] == 0) {
+					if (G > PGmaxOld) {
+						activeSize--;
+						index[s] = index[activeSize];
+						index[activeSize] = i;
+						s--;
+						continue;
+					} else if (G < 0) {
+						PG = G;
+					}
+				} else {
+					PG = G;
+				}
+				PGmaxNew = Math.max(PGmaxNew, PG);
+				PGminNew = Math.min(PGminNew, PG);
+				if (Math.abs(PG) > 1.0e-12) {
+					double alphaOld = alpha[i];
+					alpha[i] = Math.max(alpha[i] - G / QD[i], 0);
+					axpy((alpha[i] - alphaOld) * y[i], data, i, w);
+				}
+			}
+			iter++;
+			if (PGmaxNew - PGminNew <= eps) {
+				if (activeSize == l) {
+					break;
+				}
+				activeSize = l;
+				PGmaxOld = Double.POSITIVE_INFINITY;
+				PGminOld = Double.NEGATIVE_INFINITY;
+				continue;
+			}
+			PGmaxOld = PGmaxNew <= 0 ? Double.POSITIVE_INFINITY : PGmaxNew;
+			PGminOld = PGminNew >= 0 ? Double.NEGATIVE_INFINITY : PGminNew;
+		}
+	}
+
+	/**
+	 * L2正则的logistic regression对偶问题，每个坐标用牛顿法求解。
+	 */
+	private void solveLogisticDual(SparseMatrix data, double[] xTx, byte[] y,
+			double[] w, double C, double eps, Random random) {
+		int l = data.rows;
+		double[] alpha = new double[2 * l];
+		int[] index = new int[l];
+		double innerEps = 1e-2;
+		double innerEpsMin = Math.min(1e-8, eps);
+		for (int i = 0; i < l; i++) {
+			alpha[2 * i] = Math.min(0.001 * C, 1e-8);
+			alpha[2 * i + 1] = C - alpha[2 * i];
+			axpy(y[i] * alpha[2 * i], data, i, w);
+			index[i] = i;
+		}
+		int iter = 0;
+		while (iter < MAX_ITERATIONS) {
+			shuffle(index, l, random);
+			int newtonIter = 0;
+			double Gmax = 0;
+			for (int s = 0; s < l; s++) {
+				int i = index[s];
+				double a = xTx[i];
+				double b = y[i] * dot(w, data, i);
+				int ind1 = 2 * i;
+				int ind2 = 2 * i + 1;
+				int sign = 1;
+				if (0.5 * a * (alpha[ind2] - alpha[ind1]) + b < 0) {
+					ind1 = 2 * i + 1;
+					ind2 = 2 * i;
+					sign = -1;
+				}
+				double alphaOld = alpha[ind1];
+				double z = alphaOld;
+				if (C - z < 0.5 * C) {
+					z = 0.1 * z;
+				}
+				double gp = a * (z - alphaOld) + sign * b + Math.log(z / (C - z));
+				Gmax = Math.max(Gmax, Math.abs(gp));
+
+				int innerIter = 0;
+				while (innerIter <= MAX_INNER_ITERATIONS) {
+					if (Math.abs(gp) < innerEps) {
+						break;
+					}
+					double gpp = a + C / (C - z) / z;
+					double tmpz = z - gp / gpp;
+					if (tmpz <= 0) {
+						z *= 0.1;
+					} else {
+						z = tmpz;
+					}
+					gp = a * (z - alphaOld) + sign * b + Math.log(z / (C - z));
+					newtonIter++;
+					innerIter++;
+				}
+				if (innerIter > 0) {
+					alpha[ind1] = z;
+					alpha[ind2] = C - z;
+					axpy(sign * (z - alphaOld) * y[i], data, i, w);
+				}
+			}
+			iter++;
+			if (Gmax < eps) {
+				break;
+			}
+			if (newtonIter <= l / 10) {
+				innerEps = Math.max(innerEpsMin, 0.1 * innerEps);
+			}
+		}
+	}
+
+	/**
+	 * 计算各个类别的决策值。
+	 *
+	 * @param ids
+	 *            特征，大于等于nfeatures的特征被忽略
+	 */
+	public double[] decisionValues(int[] ids, double[] values, int n) {
+		double[] dec = new double[nclasses];
+		if (bias > 0) {
+			int base = nfeatures * nclasses;
+			for (int k = 0; k < nclasses; k++) {
+				dec[k] = weights[base + k] * bias;
+			}
+		}
+		for (int j = 0; j < n; j++) {
+			if (ids[j] < 0 || ids[j] >= nfeatures) {
+				continue;
+			}
+			int base = ids[j] * nclasses;
+			double v = values[j];
+			for (int k = 0; k < nclasses; k++) {
+				dec[k] += weights[base + k] * v;
+			}
+		}
+		return dec;
+	}
+
+	/**
+	 * 把决策值换成各类别的概率估计：对每个one-vs-rest模型取sigmoid再归一化，与
+	 * LIBLINEAR的logistic regression一样。对SVM这只是一个单调的分数。
+	 */
+	public double[] probabilities(double[] dec) {
+		double[] probs = new double[dec.length];
+		double sum = 0;
+		for (int k = 0; k < dec.length; k++) {
+			probs[k] = 1 / (1 + Math.exp(-dec[k]));
+			sum += probs[k];
+		}
+		if (sum > 0) {
+			for (int k = 0; k < dec.length; k++) {
+				probs[k] /= sum;
+			}
+		}
+		return probs;
+	}
+
+	/**
+	 * 以与LIBLINEAR相近的文本格式保存模型，每行是一个特征在各类别上的权重。
+	 */
+	public void save(File file) throws IOException {
+		BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(file), "UTF-8"));
+		try {
+			out.write("solver_type " + solver + "\n");
+			out.write("nr_class " + nclasses + "\n");
+			out.write("nr_feature " + nfeatures + "\n");
+			out.write("bias " + bias + "\n");
+			out.write("w\n");
+			StringBuilder line = new StringBuilder();
+			for (int f = 0; f <= nfeatures; f++) {
+				line.setLength(0);
+				for (int k = 0; k < nclasses; k++) {
+					if (k > 0) {
+						line.append(' ');
+					}
+					line.append(weights[f * nclasses + k]);
+				}
+				line.append('\n');
+				out.write(line.toString());
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * 文件是否是save()写出的模型。
+	 */
+	public static boolean isLinearModel(File file) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), "UTF-8"));
+		try {
+			String line = in.readLine();
+			return line != null && line.startsWith("solver_type ");
+		} finally {
+			in.close();
+		}
+	}
+
+	public static LinearModel load(File file) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), "UTF-8"));
+		try {
+			Solver solver = Solver.valueOf(header(in, "solver_type"));
+			int nclasses = Integer.parseInt(header(in, "nr_class"));
+			int nfeatures = Integer.parseInt(header(in, "nr_feature"));
+			double bias = Double.parseDouble(header(in, "bias"));
+			if (!"w".equals(in.readLine())) {
+				throw new IOException("no weights in " + file);
+			}
+			LinearModel model = new LinearModel(solver, nclasses, nfeatures, bias);
+			for (int f = 0; f <= nfeatures; f++) {
+				String line = in.readLine();
+				if (line == null) {
+					throw new IOException("truncated model " + file);
+				}
+				String[] cols = line.split(" ");
+				if (cols.length != nclasses) {
+					throw new IOException("bad weights of feature " + f + " in " + file);
+				}
+				for (int k = 0; k < nclasses; k++) {
+					model.weights[f * nclasses + k] = Double.parseDouble(cols[k]);
+				}
+			}
+			return model;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static String header(BufferedReader in, String name)
+			throws IOException {
+		String line = in.readLine();
+		if (line == null || !line.startsWith(name + " ")) {
+			throw new IOException("expect " + name + ", got " + line);
+		}
+		return line.substring(name.length() + 1);
+	}
+}
@@ -0,0 +1,42 @@
+package org.thunlp.text.classifiers;
+
+import java.util.Arrays;
+
+/**
+ * 按行压缩(CSR)存放的稀疏训练矩阵，每行是一篇文档。第i行的特征位于
+ * columns[rowStart[i]]到columns[rowStart[i + 1] - 1]，对应的值在values中。
+ *
+ * @author adam
+ */
+class SparseMatrix {
+	int rows = 0;
+	int[] rowStart = new int[1025];
+	int[] columns = new int[16384];
+	double[] values = new double[16384];
+	int[] labels = new int[1024];
+
+	/**
+	 * 在末尾加入一行。
+	 */
+	void addRow(int label, int[] ids, double[] weights, int n) {
+		if (rows == labels.length) {
+			labels = Arrays.copyOf(labels, labels.length * 2);
+			rowStart = Arrays.copyOf(rowStart, labels.length + 1);
+		}
+		int start = rowStart[rows];
+		if (start + n > columns.length) {
+			int capacity = Math.max(columns.length * 2, start + n);
+			columns = Arrays.copyOf(columns, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+		System.arraycopy(ids, 0, columns, start, n);
+		System.arraycopy(weights, 0, values, start, n);
+		labels[rows] = label;
+		rows++;
+		rowStart[rows] = start + n;
+	}
+
+	int nonZeros() {
+		return rowStart[rows];
+	}
+}
@@ -0,0 +1,332 @@
+package org.thunlp.text.classifiers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 训练集cache文件上的特征选择统计量。cache文件由AbstractTextClassifier写出，
+ * 每篇文档是label、nterms和nterms个(id, weight)。
+ *
+ * 文件用内存映射读入，先扫描记录头把文件切成若干分片，每个分片在ForkJoinPool中
+ * 统计自己的计数，再两两合并。特征打分和选出前k个特征也在ForkJoinPool中并行完成。
+ *
+ * @author adam
+ */
+class TrainingSetStatistics {
+	// 一个分片最多映射的字节数
+	private static final long MAX_SHARD_BYTES = 1L << 28;
+	// 每个打分任务至少处理的特征数
+	private static final int MIN_FEATURES_PER_TASK = 4096;
+
+	int nclasses;
+	int featureSize;
+	// 第i个特征在第j类中出现的文档数，位于featureStats[i * nclasses + j]
+	int[] featureStats;
+	// 第i个特征出现的文档数
+	int[] featureFreq;
+	int[] classSize;
+	int ndocs = 0;
+	// 所有文档的特征数之和，不计词典中df为1的特征，用于STS
+	double sum = 0;
+
+	TrainingSetStatistics(int featureSize, int nclasses) {
+		this.featureSize = featureSize;
+		this.nclasses = nclasses;
+		featureStats = new int[featureSize * nclasses];
+		featureFreq = new int[featureSize];
+		classSize = new int[nclasses];
+	}
+
+	int count(int feature, int label) {
+		return featureStats[feature * nclasses + label];
+	}
+
+	private void add(TrainingSetStatistics other) {
+		for (int i = 0; i < featureStats.length; i++) {
+			featureStats[i] += other.featureStats[i];
+		}
+		for (int i = 0; i < featureSize; i++) {
+			featureFreq[i] += other.featureFreq[i];
+		}
+		for (int i = 0; i < nclasses; i++) {
+			classSize[i] += other.classSize[i];
+		}
+		ndocs += other.ndocs;
+		sum += other.sum;
+	}
+
+	/**
+	 * 并行统计cache文件。
+	 *
+	 * @param lexiconDf
+	 *            词典中每个特征的df，为null时sum不扣除df为1的特征
+	 */
+	static TrainingSetStatistics read(File cacheFile, int featureSize,
+			int nclasses, int[] lexiconDf, ForkJoinPool pool) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(cacheFile, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			long[] bounds = findShards(channel, pool.getParallelism());
+			return pool.invoke(new ReadTask(channel, bounds, 0, bounds.length - 1,
+					featureSize, nclasses, lexiconDf));
+		} catch (RuntimeException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw e;
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * 只读记录头，把文件切成大小相近的分片，返回分片边界。文件末尾不完整的记录被忽略。
+	 */
+	private static long[] findShards(FileChannel channel, int parallelism)
+			throws IOException {
+		long size = channel.size();
+		long nshards = Math.max(parallelism, (size + MAX_SHARD_BYTES - 1)
+				/ MAX_SHARD_BYTES);
+		long target = Math.max(size / nshards, 1);
+		List<Long> bounds = new ArrayList<Long>();
+		bounds.add(0L);
+		MappedByteBuffer window = null;
+		long windowStart = 0;
+		long pos = 0;
+		long last = 0;
+		while (pos + 8 <= size) {
+			if (window == null || pos + 8 > windowStart + window.limit()) {
+				windowStart = pos;
+				window = channel.map(FileChannel.MapMode.READ_ONLY, pos,
+						Math.min(MAX_SHARD_BYTES, size - pos));
+			}
+			int nterms = window.getInt((int) (pos - windowStart) + 4);
+			long next = pos + 8 + 12L * nterms;
+			if (nterms < 0 || next > size) {
+				break;
+			}
+			pos = next;
+			if (pos - last >= target) {
+				bounds.add(pos);
+				last = pos;
+			}
+		}
+		if (last < pos) {
+			bounds.add(pos);
+		}
+		long[] result = new long[bounds.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = bounds.get(i);
+		}
+		return result;
+	}
+
+	private static class ReadTask extends RecursiveTask<TrainingSetStatistics> {
+		private static final long serialVersionUID = 1L;
+		FileChannel channel;
+		long[] bounds;
+		int from;
+		int to;
+		int featureSize;
+		int nclasses;
+		int[] lexiconDf;
+
+		ReadTask(FileChannel channel, long[] bounds, int from, int to,
+				int featureSize, int nclasses, int[] lexiconDf) {
+			this.channel = channel;
+			this.bounds = bounds;
+			this.from = from;
+			this.to = to;
+			this.featureSize = featureSize;
+			this.nclasses = nclasses;
+			this.lexiconDf = lexiconDf;
+		}
+
+		@Override
+		protected TrainingSetStatistics compute() {
+			if (to - from > 1) {
+				int mid = (from + to) >>> 1;
+				ReadTask left = new ReadTask(channel, bounds, from, mid,
+						featureSize, nclasses, lexiconDf);
+				ReadTask right = new ReadTask(channel, bounds, mid, to,
+						featureSize, nclasses, lexiconDf);
+				left.fork();
+				TrainingSetStatistics stats = right.compute();
+				stats.add(left.join());
+				return stats;
+			}
+			TrainingSetStatistics stats = new TrainingSetStatistics(featureSize,
+					nclasses);
+			if (to > from) {
+				try {
+					readShard(stats, channel.map(FileChannel.MapMode.READ_ONLY,
+							bounds[from], bounds[to] - bounds[from]));
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			return stats;
+		}
+
+		private void readShard(TrainingSetStatistics stats,
+				MappedByteBuffer buffer) {
+			int[] featureStats = stats.featureStats;
+			int[] featureFreq = stats.featureFreq;
+			while (buffer.remaining() >= 8) {
+				int label = buffer.getInt();
+				int nterms = buffer.getInt();
+				int ncut = 0;
+				for (int i = 0; i < nterms; i++) {
+					int id = buffer.getInt();
+					buffer.position(buffer.position() + 8);
+					featureStats[id * nclasses + label]++;
+					featureFreq[id]++;
+					if (lexiconDf != null && lexiconDf[id] == 1) {
+						ncut++;
+					}
+				}
+				stats.classSize[label]++;
+				stats.ndocs++;
+				stats.sum += nterms - ncut;
+			}
+		}
+	}
+
+	/**
+	 * 特征的打分函数，会被多个线程同时调用。
+	 */
+	static abstract class Scorer {
+		/**
+		 * 特征是否参与选择。
+		 */
+		boolean accept(int feature) {
+			return true;
+		}
+
+		abstract double score(int feature);
+	}
+
+	/**
+	 * 并行地给所有特征打分，选出分数最高的kept个特征，返回按id排序的特征。分数相同时
+	 * 保留id较小的特征。
+	 */
+	static int[] selectTop(int featureSize, int kept, Scorer scorer,
+			ForkJoinPool pool) {
+		int chunk = Math.max(MIN_FEATURES_PER_TASK,
+				featureSize / (pool.getParallelism() * 4) + 1);
+		TopFeatures top = pool.invoke(new SelectTask(scorer, 0, featureSize,
+				kept, chunk));
+		int[] ids = Arrays.copyOf(top.ids, top.size);
+		Arrays.sort(ids);
+		return ids;
+	}
+
+	private static class SelectTask extends RecursiveTask<TopFeatures> {
+		private static final long serialVersionUID = 1L;
+		Scorer scorer;
+		int from;
+		int to;
+		int kept;
+		int chunk;
+
+		SelectTask(Scorer scorer, int from, int to, int kept, int chunk) {
+			this.scorer = scorer;
+			this.from = from;
+			this.to = to;
+			this.kept = kept;
+			this.chunk = chunk;
+		}
+
+		@Override
+		protected TopFeatures compute() {
+			if (to - from > chunk) {
+				int mid = (from + to) >>> 1;
+				SelectTask left = new SelectTask(scorer, from, mid, kept, chunk);
+				left.fork();
+				TopFeatures top = new SelectTask(scorer, mid, to, kept, chunk)
+						.compute();
+				top.addAll(left.join());
+				return top;
+			}
+			TopFeatures top = new TopFeatures(kept);
+			for (int i = from; i < to; i++) {
+				if (scorer.accept(i)) {
+					top.add(i, scorer.score(i));
+				}
+			}
+			return top;
+		}
+	}
+
+	/**
+	 * 保留分数最高的特征的小顶堆。
+	 */
+	private static class TopFeatures {
+		int[] ids;
+		double[] scores;
+		int size = 0;
+
+		TopFeatures(int capacity) {
+			ids = new int[capacity];
+			scores = new double[capacity];
+		}
+
+		// a是否排在b之后，即更应该被淘汰
+		private boolean less(double sa, int ia, double sb, int ib) {
+			int c = Double.compare(sa, sb);
+			return c < 0 || (c == 0 && ia > ib);
+		}
+
+		void add(int id, double score) {
+			if (size < ids.length) {
+				int i = size++;
+				while (i > 0) {
+					int parent = (i - 1) >>> 1;
+					if (!less(score, id, scores[parent], ids[parent])) {
+						break;
+					}
+					ids[i] = ids[parent];
+					scores[i] = scores[parent];
+					i = parent;
+				}
+				ids[i] = id;
+				scores[i] = score;
+			} else if (size > 0 && less(scores[0], ids[0], score, id)) {
+				int i = 0;
+				while (true) {
+					int child = 2 * i + 1;
+					if (child >= size) {
+						break;
+					}
+					if (child + 1 < size
+							&& less(scores[child + 1], ids[child + 1], scores[child],
+									ids[child])) {
+						child++;
+					}
+					if (!less(scores[child], ids[child], score, id)) {
+						break;
+					}
+					ids[i] = ids[child];
+					scores[i] = scores[child];
+					i = child;
+				}
+				ids[i] = id;
+				scores[i] = score;
+			}
+		}
+
+		void addAll(TopFeatures other) {
+			for (int i = 0; i < other.size; i++) {
+				add(other.ids[i], other.scores[i]);
+			}
+		}
+	}
+}
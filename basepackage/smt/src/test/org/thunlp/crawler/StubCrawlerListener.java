@@ -17,11 +17,11 @@ public class StubCrawlerListener implements CrawlerListener {
 
 	}
 
-	public void handleFailed(String url, String ip, int httpStatusCode, Object customData) {
+	public synchronized void handleFailed(String url, String ip, int httpStatusCode, Object customData) {
 		nFailed++;
 	}
 
-	public void handleSuccess(String url, String ip, byte[] content, String[] responseHeaders, Object customData) {
+	public synchronized void handleSuccess(String url, String ip, byte[] content, String[] responseHeaders, Object customData) {
 		nSuccess++;
 		crawledContent = content;
 		crawledUrl = url;
@@ -30,11 +30,11 @@ public class StubCrawlerListener implements CrawlerListener {
 		this.customData = customData;
 	}
 
-	public void workerQueueAvailable(int hashcode, int capacity) {
+	public synchronized void workerQueueAvailable(int hashcode, int capacity) {
 		nWorkerQueue++;
 	}
 
-	public void workersAvailable(int capacity) {
+	public synchronized void workersAvailable(int capacity) {
 		workersCapacity = capacity;
 	}
 
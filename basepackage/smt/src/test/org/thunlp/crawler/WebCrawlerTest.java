@@ -1,57 +1,295 @@
 package org.thunlp.crawler;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
 import junit.framework.Assert;
 import junit.framework.TestCase;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
 public class WebCrawlerTest extends TestCase {
+	private HttpServer server;
+	private ExecutorService serverThreads;
+	private String base;
+	private List<String> requests;
+	private List<Long> requestTimes;
+	private CountDownLatch slowPages;
 
 	protected void setUp() throws Exception {
 		super.setUp();
+		requests = Collections.synchronizedList(new ArrayList<String>());
+		requestTimes = Collections.synchronizedList(new ArrayList<Long>());
+		slowPages = new CountDownLatch(0);
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				String path = exchange.getRequestURI().getPath();
+				requests.add(path);
+				requestTimes.add(System.currentTimeMillis());
+				if (path.startsWith("/slow")) {
+					try {
+						slowPages.await(10, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				byte[] body;
+				if (path.startsWith("/gb")) {
+					body = "<html><title>百度一下</title></html>".getBytes("gb2312");
+					exchange.getResponseHeaders().add("Content-Type", "text/html; charset=gb2312");
+				} else {
+					body = ("<html>Google " + path + "</html>").getBytes("UTF-8");
+					exchange.getResponseHeaders().add("Content-Type", "text/html; charset=utf-8");
+				}
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream os = exchange.getResponseBody();
+				os.write(body);
+				os.close();
+			}
+		});
+		serverThreads = Executors.newCachedThreadPool();
+		server.setExecutor(serverThreads);
+		server.start();
+		base = "http://127.0.0.1:" + server.getAddress().getPort();
 	}
 
 	protected void tearDown() throws Exception {
+		slowPages.countDown();
+		server.stop(0);
+		serverThreads.shutdownNow();
 		super.tearDown();
 	}
 
+	/**
+	 * Hosts by the first part of the path, the stub server has one address.
+	 */
+	private static class PathHashMethod implements HashMethod {
+		public int hash(String url, String ip) {
+			String path = url.substring(url.indexOf('/', "http://".length()) + 1);
+			return path.substring(0, Math.max(path.indexOf('/'), 0)).hashCode();
+		}
+	}
+
+	private WebCrawler crawler(CrawlerListener listener, int siteInterval) {
+		WebCrawler wc = new WebCrawler(listener);
+		wc.setSiteInterval(siteInterval);
+		wc.setHashMethod(new PathHashMethod());
+		return wc;
+	}
+
 	public void testBasicCrawling() throws UnsupportedEncodingException {
 		StubCrawlerListener listener = new StubCrawlerListener();
-		WebCrawler wc = new WebCrawler(listener);
-		String[] urls = { "http://www.baidu.com", "http://www.google.cn" };
+		WebCrawler wc = crawler(listener, 10);
+		String[] urls = { base + "/gb/index.html", base + "/utf8/index.html" };
 		wc.start();
 		String shit = "shit";
 		wc.schedule(urls[0], null, (Object) shit);
 		wc.schedule(urls[1], null, (Object) shit);
-		wc.waitForAll(300 * 1000);
+		wc.waitForAll(30 * 1000);
 		Assert.assertEquals(2, listener.nSuccess);
 		Assert.assertNotNull(listener.crawledContent);
 		Assert.assertNotNull(listener.crawledUrl);
-		Assert.assertNotNull(listener.crawledIp);
+		Assert.assertEquals("127.0.0.1", listener.crawledIp);
 		String pageContent = null;
 		if (listener.crawledUrl.equals(urls[0])) {
 			pageContent = new String(listener.crawledContent, "gb2312");
 			Assert.assertTrue(pageContent.contains("百度"));
 		} else if (listener.crawledUrl.equals(urls[1])) {
 			pageContent = new String(listener.crawledContent, "utf8");
-			System.out.println(pageContent);
 			Assert.assertTrue(pageContent.contains("Google"));
 		} else {
 			Assert.fail("page not crawled correctly");
 		}
 		Assert.assertNotNull(listener.customData);
 		Assert.assertEquals(String.class, listener.customData.getClass());
+		wc.shutdown();
 	}
 
 	public void testWaitCrawling() throws UnsupportedEncodingException {
 		StubCrawlerListener listener = new StubCrawlerListener();
-		WebCrawler wc = new WebCrawler(listener);
-		String url = "http://www.baidu.com";
-		// String url = "http://localhost/test.html";
+		WebCrawler wc = crawler(listener, 10);
 		wc.start();
-		byte[] data = wc.scheduleAndWait(url, null);
+		byte[] data = wc.scheduleAndWait(base + "/gb/index.html", null);
 		Assert.assertNotNull(data);
 		String pageContent = new String(data, "gb2312");
 		Assert.assertTrue(pageContent.contains("百度"));
-		wc.waitForAll(300 * 1000);
+		wc.waitForAll(30 * 1000);
+		Assert.assertEquals(0, listener.nSuccess);
+		wc.shutdown();
+	}
+
+	public void testFetchHeaders() throws Exception {
+		WebCrawler wc = crawler(new StubCrawlerListener(), 10);
+		wc.start();
+		WebCrawler.Response page = wc.fetch(base + "/gb/index.html", null).get();
+		Assert.assertTrue(new String(page.content, "gb2312").contains("百度"));
+		boolean found = false;
+		for (String header : page.headers) {
+			if (header.toLowerCase().startsWith("content-type:")) {
+				Assert.assertTrue(header.endsWith("charset=gb2312"));
+				found = true;
+			}
+		}
+		Assert.assertTrue(found);
+		wc.shutdown();
+	}
+
+	public void testFailedFetch() throws Exception {
+		ServerSocket closed = new ServerSocket(0);
+		int port = closed.getLocalPort();
+		closed.close();
+		StubCrawlerListener listener = new StubCrawlerListener();
+		WebCrawler wc = crawler(listener, 10);
+		wc.start();
+		String url = "http://127.0.0.1:" + port + "/a/index.html";
+		Assert.assertNull(wc.scheduleAndWait(url, null, 10000));
+		CompletableFuture<WebCrawler.Response> result = wc.fetch(url, null);
+		try {
+			result.get();
+			Assert.fail("fetched from a closed port");
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof IOException);
+		}
+		wc.schedule(url, null, null);
+		// No address, failed without a connection.
+		wc.schedule(base + "/a/index.html", "", null);
+		wc.waitForAll(30 * 1000);
+		Assert.assertEquals(2, listener.nFailed);
+		Assert.assertEquals(0, listener.nSuccess);
+		wc.shutdown();
+	}
+
+	public void testPoliteness() throws Exception {
+		StubCrawlerListener listener = new StubCrawlerListener();
+		WebCrawler wc = crawler(listener, 300);
+		wc.start();
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 3; i++) {
+			wc.schedule(base + "/a/" + i, null, null);
+			wc.schedule(base + "/b/" + i, null, null);
+		}
+		wc.waitForAll(30 * 1000);
+		long elapsed = System.currentTimeMillis() - start;
+		Assert.assertEquals(6, listener.nSuccess);
+		List<Long> aTimes = new ArrayList<Long>();
+		synchronized (requests) {
+			for (int i = 0; i < requests.size(); i++) {
+				if (requests.get(i).startsWith("/a/")) {
+					aTimes.add(requestTimes.get(i));
+				}
+			}
+		}
+		Assert.assertEquals(3, aTimes.size());
+		for (int i = 1; i < aTimes.size(); i++) {
+			Assert.assertTrue(aTimes.get(i) - aTimes.get(i - 1) >= 280);
+		}
+		// The hosts wait in parallel, not one after the other.
+		Assert.assertTrue("took " + elapsed, elapsed < 6 * 300);
+		wc.shutdown();
+	}
+
+	public void testBackPressure() throws Exception {
+		slowPages = new CountDownLatch(1);
+		StubCrawlerListener listener = new StubCrawlerListener();
+		WebCrawler wc = crawler(listener, 0);
+		wc.setMaxConcurrency(1);
+		wc.setQueueLength(2);
+		wc.start();
+		// The first is taken by the fetcher, two wait in the queue.
+		Assert.assertTrue(wc.scheduleNonBlock(base + "/slow/0", null, null));
+		while (requests.isEmpty()) {
+			Thread.sleep(10);
+		}
+		Assert.assertTrue(wc.scheduleNonBlock(base + "/slow/1", null, null));
+		Assert.assertTrue(wc.scheduleNonBlock(base + "/slow/2", null, null));
+		Assert.assertFalse(wc.scheduleNonBlock(base + "/slow/3", null, null));
+		Assert.assertFalse(wc.scheduleNonBlock(base + "/other/0", null, null));
+
+		List<WebCrawler.WorkerStat> stats = wc.getWorkerStats();
+		Assert.assertEquals(1, stats.size());
+		Assert.assertEquals(2, stats.get(0).numWaitingTask);
+		Assert.assertEquals(0, stats.get(0).numFetched);
+
+		final WebCrawler blocked = wc;
+		Thread scheduler = new Thread() {
+			public void run() {
+				blocked.schedule(base + "/slow/3", null, null);
+			}
+		};
+		scheduler.start();
+		scheduler.join(200);
+		Assert.assertTrue("schedule() waits for room", scheduler.isAlive());
+		slowPages.countDown();
+		scheduler.join(10000);
+		Assert.assertFalse(scheduler.isAlive());
+		wc.waitForAll(30 * 1000);
+		Assert.assertEquals(4, listener.nSuccess);
+		Assert.assertEquals(0, wc.getCurrentConcurrency());
+		wc.shutdown();
+	}
+
+	public void testWorkerStats() throws Exception {
+		StubCrawlerListener listener = new StubCrawlerListener();
+		WebCrawler wc = crawler(listener, 2000);
+		wc.start();
+		byte[] data = wc.scheduleAndWait(base + "/a/0", null);
+		Assert.assertNotNull(data);
+		// The host is kept until its interval is over.
+		List<WebCrawler.WorkerStat> stats = wc.getWorkerStats();
+		Assert.assertEquals(1, stats.size());
+		WebCrawler.WorkerStat stat = stats.get(0);
+		Assert.assertEquals("a".hashCode(), stat.hashId);
+		Assert.assertEquals(1, stat.numFetched);
+		Assert.assertEquals(0, stat.numWaitingTask);
+		Assert.assertTrue(stat.meanConnTime >= 0);
+		Assert.assertTrue(stat.lifetime >= 0);
+		wc.shutdown();
+	}
+
+	public void testDnsCache() {
+		final List<String> lookups = new ArrayList<String>();
+		DnsCache cache = new DnsCache(2, 60000) {
+			@Override
+			protected String lookup(String host) throws UnknownHostException {
+				lookups.add(host);
+				if (host.equals("unknown")) {
+					throw new UnknownHostException(host);
+				}
+				return "10.0.0." + lookups.size();
+			}
+		};
+		Assert.assertEquals("10.0.0.1", cache.resolve("a"));
+		Assert.assertEquals("10.0.0.2", cache.resolve("b"));
+		Assert.assertEquals("10.0.0.1", cache.resolve("a"));
+		// b is the least recently used.
+		Assert.assertEquals("10.0.0.3", cache.resolve("c"));
+		Assert.assertEquals(2, cache.size());
+		Assert.assertEquals("10.0.0.1", cache.resolve("a"));
+		Assert.assertEquals("10.0.0.4", cache.resolve("b"));
+		Assert.assertEquals("", cache.resolve("unknown"));
+		Assert.assertEquals("", cache.resolve("unknown"));
+		Assert.assertEquals(5, lookups.size());
+		Assert.assertEquals(3, cache.getHits());
+
+		WebCrawler wc = new WebCrawler(new StubCrawlerListener());
+		wc.setDnsCache(cache);
+		Assert.assertEquals("10.0.0.4", wc.getIpByUrl("http://b/index.html"));
+		Assert.assertEquals("", wc.getIpByUrl("not a url"));
 	}
 }
@@ -2,6 +2,8 @@ package org.thunlp.html;
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
 
 import junit.framework.Assert;
 import junit.framework.TestCase;
@@ -15,4 +17,76 @@ public class EncodingDetectorTest extends TestCase {
 		String charset = EncodingDetector.detect(page);
 		Assert.assertEquals("gb2312", charset);
 	}
+
+	private static final String TEXT = "社会化标注系统中，用户为图书、电影和网页添加标签，"
+		+ "标签推荐系统根据资源的文本内容，自动为新的资源推荐合适的标签。";
+
+	private static byte [] bytes(String text, String charset) throws IOException {
+		return text.getBytes(charset);
+	}
+
+	private static Charset detect(byte [] page, String ... headers) {
+		return EncodingDetector.detect(page, 0, page.length,
+				headers.length == 0 ? null : headers);
+	}
+
+	public void testHints() throws IOException {
+		byte [] page = bytes("<html><head><meta charset=\"UTF-8\"><title>"
+				+ TEXT + "</title>", "UTF-8");
+		Assert.assertEquals(EncodingDetector.UTF8, detect(page));
+		page = bytes("<meta http-equiv='Content-Type' content='text/html; "
+				+ "charset=gb2312'>" + TEXT, "GBK");
+		Assert.assertEquals(EncodingDetector.GBK, detect(page));
+		Assert.assertEquals("gb2312", EncodingDetector.detect(page));
+		// The header wins over the page, and the byte order mark over both.
+		Assert.assertEquals(EncodingDetector.GB18030,
+				detect(page, "Server:test", "Content-Type:text/html; charset=GB18030"));
+		byte [] bom = bytes("\ufeff" + TEXT, "UTF-8");
+		Assert.assertEquals(EncodingDetector.UTF8,
+				detect(bom, "Content-Type:text/html; charset=gbk"));
+		// Unknown labels are ignored.
+		page = bytes("<meta charset=\"x-unknown\">" + TEXT, "UTF-8");
+		Assert.assertEquals(EncodingDetector.UTF8, detect(page));
+	}
+
+	public void testGuess() throws IOException {
+		Assert.assertEquals(EncodingDetector.UTF8, detect(bytes(TEXT, "UTF-8")));
+		Assert.assertEquals(EncodingDetector.GBK, detect(bytes(TEXT, "GBK")));
+		Assert.assertEquals(EncodingDetector.BIG5,
+				detect(bytes("社會化標註系統中，用戶為圖書、電影和網頁添加標籤，"
+						+ "標籤推薦系統根據資源的文本內容，自動為新的資源推薦合適的標籤。",
+						"Big5")));
+		Assert.assertEquals(EncodingDetector.GB18030,
+				detect(bytes(TEXT + "\u1820\u1821", "GB18030")));
+		Assert.assertEquals(EncodingDetector.GBK,
+				detect(bytes("<html>ascii only</html>", "UTF-8")));
+	}
+
+	public void testSamplePageGuess() throws IOException {
+		FileInputStream is = new FileInputStream("src/test/org/thunlp/html/sample-page.html");
+		byte[] page = new byte[40 * 1024];
+		int length = is.read(page);
+		is.close();
+		// Hide the declared charset, the bytes alone are GBK.
+		String declared = "charset=gb2312";
+		String preview = new String(page, 0, 1024, "ISO-8859-1");
+		int at = preview.indexOf(declared);
+		Assert.assertTrue(at > 0);
+		page[at] = 'X';
+		Assert.assertEquals(EncodingDetector.GBK,
+				EncodingDetector.detect(page, 0, length));
+	}
+
+	public void testDecode() throws IOException {
+		byte [] page = bytes("\ufeff" + TEXT, "UTF-8");
+		CharBuffer buffer = CharBuffer.allocate(4);
+		buffer = EncodingDetector.decode(page, 0, page.length,
+				EncodingDetector.UTF8, buffer);
+		Assert.assertEquals(TEXT, buffer.toString());
+		page = bytes("xx" + TEXT, "GBK");
+		CharBuffer reused = EncodingDetector.decode(page, 2, page.length - 2,
+				EncodingDetector.GBK, buffer);
+		Assert.assertSame(buffer, reused);
+		Assert.assertEquals(TEXT, reused.toString());
+	}
 }
@@ -0,0 +1,119 @@
+package org.thunlp.html;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.htmlparser.util.Translate;
+
+/**
+ * Compares HtmlTextExtractor with the regular expressions it replaces.
+ */
+public class HtmlTextExtractorTest extends TestCase {
+	private static final String [] PIECES = {
+		"<", ">", "<>", "<!--", "-->", "--", "-", "!", "<!-->", "<style>",
+		"<STYLE type='text/css'>", "</style>", "</Style>", "<sty", "le>",
+		"<script>", "<SCRIPT>", "</script>", "</sCRIPT>", "</scr", "ipt>",
+		"<p>", "</p>", "<br/>", "&", "&amp;", "&amp", "&ampx", "&lt;", "&gt",
+		"&#", "&#65;", "&#x4e2d;", "&#X4E2D", "&#0;", "&#;", "&#65536;", "&#x",
+		"&nbsp;", "&nbsp", "&NBSP;", "nbsp", "nbs", "n", "bsp", "&thetasym",
+		"&theta;", "&copy2", "&ldquo;", "&rdquo;", "&中", ";", "#", "x", "X",
+		"a", "F", "0", "9", "６", " ", "\n", "\t", "中文", "标签", "=", "'",
+		"\"",
+	};
+
+	static String regexPlainText(String htmlPage) {
+		String content = htmlPage;
+		content = HtmlReformatter.commentBlockRE.matcher(content).replaceAll("");
+		content = HtmlReformatter.styleBlockRE.matcher(content).replaceAll("");
+		content = HtmlReformatter.scriptBlockRE.matcher(content).replaceAll("");
+		content = HtmlReformatter.htmlTagRE.matcher(content).replaceAll("");
+		content = Translate.decode(content);
+		content = content.replaceAll("nbsp", " ");
+		return content;
+	}
+
+	private void assertSame(String page) {
+		Assert.assertEquals(page, regexPlainText(page),
+				new HtmlTextExtractor().extract(page));
+	}
+
+	public void testMarkup() {
+		assertSame("<p>a<!-- <b> -->b<style>p {}</style>c<script>x</script></p>");
+		assertSame("<!-- <script> -->text</script>");
+		assertSame("<script>var s = '<!--';</script>text -->");
+		assertSame("<sty<!-- -->le>p {}</style>text");
+		assertSame("<scr<b>ipt>x</script>");
+		assertSame("a < b > c <> d << e >>");
+		assertSame("<!-- unterminated <style> <p>text");
+		assertSame("<STYLE>unterminated <script>x</script>");
+		assertSame("<!--->--->");
+		assertSame("<p");
+	}
+
+	public void testEntities() {
+		assertSame("&amp;&lt;&gt;&quot;&nbsp;&copy2&ampx&thetasymx&NBSP;");
+		assertSame("&#65;&#x41;&#X4e2d&#0;&#;&#65536;&#x;&#1x2;&#６５;");
+		assertSame("&&amp;&#&&#38;amp;&中文;&a1b2;&");
+		assertSame("&am<b>p;&n<i>bsp;n<u>bsp nbspnbsp nnbsp");
+		assertSame("&lt;p&gt;nbsp&amp;nbsp;");
+	}
+
+	public void testRandomPages() {
+		Random random = new Random(20100301);
+		HtmlTextExtractor extractor = new HtmlTextExtractor();
+		for (int i = 0; i < 5000; i++) {
+			StringBuilder page = new StringBuilder();
+			int length = random.nextInt(40);
+			for (int j = 0; j < length; j++) {
+				page.append(PIECES[random.nextInt(PIECES.length)]);
+			}
+			String html = page.toString();
+			Assert.assertEquals(html, regexPlainText(html),
+					extractor.extract(html));
+		}
+	}
+
+	public void testSamplePage() throws IOException {
+		byte [] page = readSamplePage();
+		Charset gb2312 = Charset.forName("gb2312");
+		String html = new String(page, gb2312);
+		String expected = regexPlainText(html);
+		HtmlTextExtractor extractor = new HtmlTextExtractor();
+		Assert.assertEquals(expected, extractor.extract(html));
+		char [] chars = ("xx" + html + "yy").toCharArray();
+		Assert.assertEquals(expected,
+				extractor.extract(chars, 2, html.length()));
+		Assert.assertEquals(expected,
+				extractor.extract(page, 0, page.length, gb2312));
+		Assert.assertEquals(expected, HtmlReformatter.getPlainText(html));
+	}
+
+	public void testUnterminatedBlocks() {
+		StringBuilder page = new StringBuilder();
+		for (int i = 0; i < 100000; i++) {
+			page.append("<script <!-- <style &#");
+		}
+		String html = page.toString();
+		// Nothing is closed, so everything is text.
+		Assert.assertEquals(html, new HtmlTextExtractor().extract(html));
+	}
+
+	private byte [] readSamplePage() throws IOException {
+		FileInputStream is =
+			new FileInputStream("src/test/org/thunlp/html/sample-page.html");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte [] buffer = new byte[4096];
+		int n;
+		while ((n = is.read(buffer)) > 0) {
+			bytes.write(buffer, 0, n);
+		}
+		is.close();
+		return bytes.toByteArray();
+	}
+}
@@ -37,6 +37,10 @@ public class RecordReaderTest extends TestCase {
 		gzipped.delete();
 		File zipped = new File(filename + ".zip");
 		zipped.delete();
+		File blockGzipped = new File(filename + ".bgz");
+		blockGzipped.delete();
+		new File(filename + RecordIndex.SUFFIX).delete();
+		new File(filename + ".bgz" + RecordIndex.SUFFIX).delete();
 		Path p = new Path(filename + ".sf");
 		FileSystem.get(new JobConf()).delete(p, true);
 	}
@@ -77,6 +81,197 @@ public class RecordReaderTest extends TestCase {
 		reader.close();
 	}
 
+	public void testReadAheadGzippedText() throws IOException {
+		OutputStreamWriter writer = new OutputStreamWriter(
+				new GZIPOutputStream(new FileOutputStream(new File(filename + ".gz"))));
+		for (int i = 0; i < values.length; i++) {
+			writer.write(values[i] + "\n");
+		}
+		writer.close();
+
+		RecordReader reader = new RecordReader(filename + ".gz", "UTF-8", RecordWriter.TYPE_GZIPPED_TEXT, false, true);
+		for (int i = 0; i < values.length; i++) {
+			Assert.assertTrue(reader.next());
+			Assert.assertEquals(values[i], reader.value());
+			Assert.assertEquals(i + 1, reader.numRead());
+		}
+		Assert.assertTrue(!reader.next());
+		Assert.assertTrue(!reader.next());
+		reader.close();
+	}
+
+	public void testReadAheadBlockGzippedText() throws IOException {
+		// Enough records to span many blocks and read-ahead batches.
+		int numRecords = 50000;
+		RecordWriter writer = new RecordWriter(filename + ".bgz");
+		for (int i = 0; i < numRecords; i++) {
+			writer.add(values[i % values.length] + i);
+		}
+		writer.close();
+
+		RecordReader reader = new RecordReader(filename + ".bgz", "UTF-8", RecordWriter.TYPE_BLOCK_GZIPPED_TEXT,
+				false, true);
+		for (int i = 0; i < numRecords; i++) {
+			Assert.assertTrue(reader.next());
+			Assert.assertEquals(values[i % values.length] + i, reader.value());
+		}
+		Assert.assertTrue(!reader.next());
+		Assert.assertEquals(numRecords, reader.numRead());
+		reader.close();
+
+		// Closing in the middle must not hang.
+		reader = new RecordReader(filename + ".bgz", "UTF-8", RecordWriter.TYPE_BLOCK_GZIPPED_TEXT, false, true);
+		Assert.assertTrue(reader.next());
+		reader.close();
+	}
+
+	public void testReadAheadRuntimeError() throws IOException {
+		FileWriter writer = new FileWriter(filename);
+		for (int i = 0; i < values.length; i++) {
+			writer.write(values[i] + "\n");
+		}
+		writer.close();
+
+		// A decoder failing with a runtime error must fail next(), not hang it.
+		RecordReader reader = new RecordReader(filename, "UTF-8", RecordWriter.TYPE_PLAIN_TEXT, false, true) {
+			@Override
+			protected String readLine() throws IOException {
+				String line = super.readLine();
+				if (values[1].equals(line))
+					throw new IllegalStateException("corrupt block");
+				return line;
+			}
+		};
+		try {
+			reader.next();
+			fail("the read-ahead error was not rethrown");
+		} catch (IOException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		reader.close();
+	}
+
+	public void testReadRange() throws IOException {
+		int numRecords = 1000;
+		for (String name : new String[] { filename, filename + ".bgz" }) {
+			RecordWriter writer = new RecordWriter(name, "UTF-8", RecordReader.detectType(name), false, 64);
+			for (int i = 0; i < numRecords; i++) {
+				writer.add(Integer.toString(i));
+			}
+			writer.close();
+
+			RecordReader reader = RecordReader.open(name, 130, 300);
+			for (int i = 130; i < 300; i++) {
+				Assert.assertTrue(reader.next());
+				Assert.assertEquals(Integer.toString(i), reader.value());
+			}
+			Assert.assertTrue(!reader.next());
+			Assert.assertEquals(170, reader.numRead());
+			reader.close();
+
+			reader = RecordReader.open(name, 990, 2000);
+			for (int i = 990; i < numRecords; i++) {
+				Assert.assertTrue(reader.next());
+				Assert.assertEquals(Integer.toString(i), reader.value());
+			}
+			Assert.assertTrue(!reader.next());
+			reader.close();
+		}
+	}
+
+	public void testReadFold() throws IOException {
+		String[] folds = { "0", "1", "2" };
+		int perFold = 100;
+		RecordWriter writer = new RecordWriter(filename + ".bgz", "UTF-8", RecordWriter.TYPE_BLOCK_GZIPPED_TEXT,
+				false, 32);
+		for (String fold : folds) {
+			writer.setFold(fold);
+			for (int i = 0; i < perFold; i++) {
+				writer.add(fold + ":" + i);
+			}
+		}
+		writer.close();
+
+		RecordIndex index = RecordReader.loadIndex(filename + ".bgz");
+		Assert.assertEquals(folds.length * perFold, index.getNumRecords());
+		Assert.assertEquals(100, index.getFoldRanges("1").get(0)[0]);
+		Assert.assertEquals(200, index.getFoldRanges("1").get(0)[1]);
+
+		RecordReader reader = RecordReader.openFold(filename + ".bgz", "1");
+		for (int i = 0; i < perFold; i++) {
+			Assert.assertTrue(reader.next());
+			Assert.assertEquals("1:" + i, reader.value());
+		}
+		Assert.assertTrue(!reader.next());
+		reader.close();
+
+		reader = RecordReader.openWithoutFold(filename + ".bgz", "1");
+		for (String fold : new String[] { "0", "2" }) {
+			for (int i = 0; i < perFold; i++) {
+				Assert.assertTrue(reader.next());
+				Assert.assertEquals(fold + ":" + i, reader.value());
+			}
+		}
+		Assert.assertTrue(!reader.next());
+		reader.close();
+
+		// Unknown folds read nothing, or everything when excluded.
+		reader = RecordReader.openFold(filename + ".bgz", "9");
+		Assert.assertTrue(!reader.next());
+		reader.close();
+		reader = RecordReader.openWithoutFold(filename + ".bgz", "9");
+		int n = 0;
+		while (reader.next())
+			n++;
+		Assert.assertEquals(folds.length * perFold, n);
+		reader.close();
+	}
+
+	public void testStaleIndex() throws IOException {
+		RecordWriter writer = new RecordWriter(filename, "UTF-8", RecordWriter.TYPE_PLAIN_TEXT, false, 4);
+		writer.setFold("0");
+		for (int i = 0; i < 10; i++) {
+			writer.add("old" + i);
+		}
+		writer.close();
+		Assert.assertNotNull(RecordReader.loadIndex(filename));
+
+		// Unindexed output leaves the index of the earlier file, which no
+		// longer matches.
+		writer = new RecordWriter(filename);
+		for (int i = 0; i < 20; i++) {
+			writer.add("new" + i);
+		}
+		writer.close();
+		Assert.assertNull(RecordReader.loadIndex(filename));
+
+		// An index left from another file is not trusted.
+		RecordIndex index = new RecordIndex(4);
+		index.setNumRecords(10);
+		index.addFoldRange("0", 0, 10);
+		index.setDataFile(new File(filename).length() + 1, new File(filename).lastModified());
+		index.write(new FileOutputStream(filename + RecordIndex.SUFFIX));
+		Assert.assertNull(RecordReader.loadIndex(filename));
+		RecordReader reader = RecordReader.openFold(filename, "0");
+		int n = 0;
+		while (reader.next())
+			n++;
+		Assert.assertEquals(20, n);
+		reader.close();
+	}
+
+	public void testBadFoldId() throws IOException {
+		RecordWriter writer = new RecordWriter(filename, "UTF-8", RecordWriter.TYPE_PLAIN_TEXT, false, 4);
+		for (String fold : new String[] { "", "a b", "a\tb" }) {
+			try {
+				writer.setFold(fold);
+				Assert.fail("accepted fold id \"" + fold + "\"");
+			} catch (IllegalArgumentException e) {
+			}
+		}
+		writer.close();
+	}
+
 	public void testReadZippedText() throws IOException {
 		ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(new File(filename + ".zip")));
 		zos.putNextEntry(new ZipEntry("part-00000"));
@@ -136,6 +331,7 @@ public class RecordReaderTest extends TestCase {
 	public void testDetectType() {
 		Assert.assertEquals(RecordReader.TYPE_GZIPPED_TEXT, RecordReader.detectType("a.txt.gz"));
 		Assert.assertEquals(RecordReader.TYPE_ZIPPED_TEXT, RecordReader.detectType("a.txt.zip"));
+		Assert.assertEquals(RecordReader.TYPE_BLOCK_GZIPPED_TEXT, RecordReader.detectType("a.txt.bgz"));
 		Assert.assertEquals(RecordReader.TYPE_SEQUENCE_FILE, RecordReader.detectType("a.sf"));
 		Assert.assertEquals(RecordReader.TYPE_PLAIN_TEXT, RecordReader.detectType("a.txt"));
 		Assert.assertEquals(RecordReader.TYPE_PLAIN_TEXT, RecordReader.detectType("file-name-without-extension"));
@@ -37,6 +37,8 @@ public class RecordWriterTest extends TestCase {
 		gzipped.delete();
 		File zipped = new File(filename + ".zip");
 		zipped.delete();
+		File blockGzipped = new File(filename + ".bgz");
+		blockGzipped.delete();
 		Path p = new Path(filename + ".sf");
 		FileSystem.get(new JobConf()).delete(p, true);
 	}
@@ -80,6 +82,27 @@ public class RecordWriterTest extends TestCase {
 		reader.close();
 	}
 
+	public void testWriteBlockGzippedText() throws IOException {
+		RecordWriter writer = new RecordWriter(filename + ".bgz", "UTF-8", RecordWriter.TYPE_BLOCK_GZIPPED_TEXT, false);
+		int numRecords = 30000;
+		for (int i = 0; i < numRecords; i++) {
+			writer.add(values[i % values.length] + i);
+		}
+		writer.close();
+
+		// The output must be readable by a plain gzip reader.
+		BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new GZIPInputStream(new FileInputStream(filename + ".bgz")), "UTF-8"));
+		int n = 0;
+		String line;
+		while ((line = reader.readLine()) != null) {
+			Assert.assertEquals(values[n % values.length] + n, line);
+			n++;
+		}
+		Assert.assertEquals(numRecords, n);
+		reader.close();
+	}
+
 	public void testWriteZipText() throws IOException {
 		RecordWriter writer = new RecordWriter(filename + ".zip", "UTF-8", RecordWriter.TYPE_ZIPPED_TEXT, false);
 		for (int i = 0; i < values.length; i++) {
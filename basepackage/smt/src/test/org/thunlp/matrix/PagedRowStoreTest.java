@@ -0,0 +1,78 @@
+package org.thunlp.matrix;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class PagedRowStoreTest extends TestCase {
+	private File file;
+
+	@Override
+	protected void setUp() throws Exception {
+		file = File.createTempFile("rowstore", ".rows");
+	}
+
+	@Override
+	protected void tearDown() {
+		file.delete();
+	}
+
+	public void testWriteAndRead() throws Exception {
+		// A small buffer, so that the entries are merged from many runs.
+		PagedRowStore.Writer writer = new PagedRowStore.Writer(file, 100);
+		Map<Integer, Map<Integer, Double>> expected = new HashMap<Integer, Map<Integer, Double>>();
+		Random random = new Random(1);
+		for (int i = 0; i < 5000; i++) {
+			int row = random.nextInt(200) - 10;
+			int col = random.nextInt(50) - 5;
+			double value = random.nextDouble();
+			writer.add(row, col, value);
+			Map<Integer, Double> r = expected.get(row);
+			if (r == null) {
+				r = new HashMap<Integer, Double>();
+				expected.put(row, r);
+			}
+			r.put(col, value);
+		}
+		writer.close();
+
+		PagedRowStore store = new PagedRowStore(file, 1 << 20);
+		Assert.assertEquals(expected.size(), store.numRows());
+		for (Map.Entry<Integer, Map<Integer, Double>> e : expected.entrySet()) {
+			PagedRowStore.Row row = store.get(e.getKey());
+			Assert.assertEquals(e.getValue().size(), row.size());
+			for (Map.Entry<Integer, Double> c : e.getValue().entrySet()) {
+				Assert.assertEquals(c.getValue(), row.get(c.getKey(), -1), 0);
+			}
+			for (int i = 1; i < row.size(); i++) {
+				Assert.assertTrue(row.cols[i - 1] < row.cols[i]);
+			}
+		}
+		Assert.assertNull(store.get(1000));
+	}
+
+	public void testCacheIsBounded() throws Exception {
+		PagedRowStore.Writer writer = new PagedRowStore.Writer(file);
+		for (int row = 0; row < 100; row++) {
+			for (int col = 0; col < 100; col++) {
+				writer.add(row, col, row * col);
+			}
+		}
+		writer.close();
+		// Room for about 10 rows of 100 entries.
+		PagedRowStore store = new PagedRowStore(file, 12000);
+		store.warmUp(new int[] { 1, 2 });
+		for (int row = 0; row < 100; row++) {
+			Assert.assertEquals(row * 7.0, store.get(row).get(7, -1), 0);
+		}
+		Assert.assertTrue(store.cachedBytes() <= 12000);
+		store.get(99);
+		// Rows 1 and 2 were warmed up.
+		Assert.assertEquals(3, store.hits());
+		Assert.assertEquals(100, store.misses());
+	}
+}
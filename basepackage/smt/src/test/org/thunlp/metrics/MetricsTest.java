@@ -0,0 +1,76 @@
+package org.thunlp.metrics;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class MetricsTest extends TestCase {
+	@Override
+	protected void tearDown() {
+		Metrics.setEnabled(false);
+		Metrics.reset();
+	}
+
+	public void testDisabledIsNoop() {
+		Metrics.setEnabled(false);
+		Counter c = Metrics.counter("test.noop_count");
+		Histogram h = Metrics.histogram("test.noop_ns");
+		c.inc();
+		long start = h.start();
+		Assert.assertEquals(0, start);
+		h.stop(start);
+		h.record(10);
+		Assert.assertEquals(0, c.get());
+		Assert.assertEquals(0, h.getCount());
+		Assert.assertSame(c, Metrics.counter("test.noop_count"));
+	}
+
+	public void testHistogramPercentiles() {
+		Metrics.setEnabled(true);
+		Histogram h = Metrics.histogram("test.latency_ns");
+		Random random = new Random(1);
+		long[] values = new long[10000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (long) Math.exp(random.nextDouble() * 30);
+			h.record(values[i]);
+		}
+		Arrays.sort(values);
+		Assert.assertEquals(values.length, h.getCount());
+		Assert.assertEquals(values[values.length - 1], h.getMax());
+		for (double p : new double[] { 1, 50, 90, 99, 100 }) {
+			long expected = values[(int) Math.ceil(p / 100 * values.length) - 1];
+			long got = h.getPercentile(p);
+			Assert.assertTrue(p + ": " + got + " vs " + expected,
+					got >= expected && got <= expected + expected / 64 + 1);
+		}
+	}
+
+	public void testBucketsCoverLong() {
+		for (long v : new long[] { 0, 1, 127, 128, 129, 1000, 1L << 40,
+				Long.MAX_VALUE }) {
+			int b = Histogram.bucket(v);
+			Assert.assertTrue(v + " > " + Histogram.upperBound(b), v <= Histogram
+					.upperBound(b));
+			if (b > 0) {
+				Assert.assertTrue(v > Histogram.upperBound(b - 1));
+			}
+		}
+	}
+
+	public void testFormats() {
+		Metrics.setEnabled(true);
+		Metrics.counter("test.posts").inc(3);
+		Metrics.gauge("test.loglikelihood").set(-12.5);
+		Metrics.histogram("test.suggest_ns").record(100);
+		String json = FileReporter.toJson();
+		Assert.assertTrue(json, json.contains("\"test.posts\":3"));
+		Assert.assertTrue(json, json.contains("\"test.loglikelihood\":-12.5"));
+		Assert.assertTrue(json, json.contains("\"test.suggest_ns\":{\"count\":1"));
+		String prom = FileReporter.toPrometheus();
+		Assert.assertTrue(prom, prom.contains("# TYPE test_posts counter\ntest_posts 3\n"));
+		Assert.assertTrue(prom, prom.contains("test_suggest_ns{quantile=\"0.5\"} 100\n"));
+		Assert.assertTrue(prom, prom.contains("test_suggest_ns_count 1\n"));
+	}
+}
@@ -0,0 +1,49 @@
+package org.thunlp.misc;
+
+import java.util.SplittableRandom;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class AliasSamplerTest extends TestCase {
+	public void testDistribution() {
+		double[] weights = { 1, 0, 3, 6 };
+		AliasSampler sampler = new AliasSampler(weights);
+		SplittableRandom random = new SplittableRandom(42);
+		int[] counts = new int[weights.length];
+		int n = 100000;
+		for (int i = 0; i < n; i++) {
+			counts[sampler.sample(random)]++;
+		}
+		Assert.assertEquals(0, counts[1]);
+		Assert.assertEquals(0.1, counts[0] / (double) n, 0.01);
+		Assert.assertEquals(0.3, counts[2] / (double) n, 0.01);
+		Assert.assertEquals(0.6, counts[3] / (double) n, 0.01);
+	}
+
+	public void testReset() {
+		AliasSampler sampler = new AliasSampler(2);
+		sampler.reset(new double[] { 0, 0, 5, 0, 0 }, 5);
+		Assert.assertEquals(5, sampler.size());
+		SplittableRandom random = new SplittableRandom(1);
+		for (int i = 0; i < 100; i++) {
+			Assert.assertEquals(2, sampler.sample(random));
+		}
+		// All zero weights fall back to uniform.
+		sampler.reset(new double[] { 0, 0 }, 2);
+		int[] counts = new int[2];
+		for (int i = 0; i < 1000; i++) {
+			counts[sampler.sample(random)]++;
+		}
+		Assert.assertTrue(counts[0] > 0 && counts[1] > 0);
+	}
+
+	public void testReproducible() {
+		AliasSampler sampler = new AliasSampler(new double[] { 0.2, 0.5, 0.3 });
+		SplittableRandom a = new SplittableRandom(7);
+		SplittableRandom b = new SplittableRandom(7);
+		for (int i = 0; i < 100; i++) {
+			Assert.assertEquals(sampler.sample(a), sampler.sample(b));
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package org.thunlp.misc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class PipelineTest extends TestCase {
+
+	public void testStages() throws InterruptedException {
+		final List<Integer> results = Collections.synchronizedList(new ArrayList<Integer>());
+		Pipeline pipeline = new Pipeline("test", 10);
+		pipeline.addStage("double", 4, new Pipeline.Stage<Integer, Integer>() {
+			public Integer process(Integer input) {
+				return input * 2;
+			}
+		});
+		pipeline.addStage("filter", 3, new Pipeline.Stage<Integer, Integer>() {
+			public Integer process(Integer input) {
+				if (input % 7 == 0) {
+					throw new IllegalArgumentException("bad item " + input);
+				}
+				return (input % 3 == 0) ? null : input;
+			}
+		});
+		pipeline.addStage("collect", 1, new Pipeline.Stage<Integer, Integer>() {
+			public Integer process(Integer input) {
+				results.add(input);
+				return input;
+			}
+		});
+		pipeline.start();
+		int expected = 0;
+		for (int i = 0; i < 1000; i++) {
+			pipeline.put(i);
+			if ((i * 2) % 7 != 0 && (i * 2) % 3 != 0) {
+				expected++;
+			}
+		}
+		pipeline.finish();
+		Assert.assertEquals(expected, results.size());
+
+		List<Pipeline.StageStats> stats = pipeline.stats();
+		Assert.assertEquals(3, stats.size());
+		Assert.assertEquals("double", stats.get(0).name);
+		Assert.assertEquals(1000, stats.get(0).in);
+		Assert.assertEquals(1000, stats.get(0).out);
+		Pipeline.StageStats filter = stats.get(1);
+		Assert.assertEquals(1000, filter.in);
+		Assert.assertEquals(143, filter.failed);
+		Assert.assertEquals(1000 - 143 - expected, filter.dropped);
+		Assert.assertEquals(expected, filter.out);
+		Assert.assertEquals(expected, stats.get(2).in);
+		Assert.assertEquals(0, stats.get(2).queued);
+		Assert.assertTrue(pipeline.elapsedNanos() > 0);
+	}
+
+	public void testBackPressure() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final Pipeline pipeline = new Pipeline("test", 2);
+		pipeline.addStage("pass", 1, new Pipeline.Stage<Integer, Integer>() {
+			public Integer process(Integer input) {
+				return input;
+			}
+		});
+		pipeline.addStage("slow", 1, new Pipeline.Stage<Integer, Integer>() {
+			public Integer process(Integer input) throws InterruptedException {
+				release.await();
+				return input;
+			}
+		});
+		pipeline.start();
+		final CountDownLatch produced = new CountDownLatch(1);
+		Thread producer = new Thread() {
+			public void run() {
+				try {
+					for (int i = 0; i < 20; i++) {
+						pipeline.put(i);
+					}
+					produced.countDown();
+				} catch (InterruptedException e) {
+					// Ends the test with a failure below.
+				}
+			}
+		};
+		producer.start();
+		// At most one item in each stage and two in each queue.
+		Assert.assertFalse(produced.await(300, TimeUnit.MILLISECONDS));
+		long taken = 0;
+		for (Pipeline.StageStats s : pipeline.stats()) {
+			taken += s.queued;
+		}
+		Assert.assertTrue(taken <= 4);
+		release.countDown();
+		Assert.assertTrue(produced.await(10, TimeUnit.SECONDS));
+		pipeline.finish();
+		Assert.assertEquals(20, pipeline.stats().get(1).out);
+	}
+
+	public void testAbortWaitsForStages() throws InterruptedException {
+		final CountDownLatch started = new CountDownLatch(1);
+		final AtomicBoolean done = new AtomicBoolean(false);
+		Pipeline pipeline = new Pipeline("test", 2);
+		pipeline.addStage("write", 1, new Pipeline.Stage<Integer, Integer>() {
+			public Integer process(Integer input) {
+				started.countDown();
+				// Like a blocking write, which does not see the interrupt.
+				long end = System.currentTimeMillis() + 200;
+				while (System.currentTimeMillis() < end) {
+					Thread.yield();
+				}
+				done.set(true);
+				return input;
+			}
+		});
+		pipeline.start();
+		pipeline.put(1);
+		Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+		pipeline.abort();
+		Assert.assertTrue(done.get());
+		Assert.assertEquals(1, pipeline.stats("write").out);
+		Assert.assertNull(pipeline.stats("none"));
+	}
+}
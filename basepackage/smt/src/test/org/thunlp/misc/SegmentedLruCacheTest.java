@@ -0,0 +1,46 @@
+package org.thunlp.misc;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class SegmentedLruCacheTest extends TestCase {
+	public void testBounded() {
+		SegmentedLruCache<Integer, String> cache = new SegmentedLruCache<Integer, String>(
+				10);
+		for (int i = 0; i < 100; i++) {
+			cache.put(i, "v" + i);
+		}
+		Assert.assertEquals(10, cache.size());
+		Assert.assertEquals(90, cache.evictions());
+		Assert.assertNull(cache.get(0));
+		Assert.assertEquals("v99", cache.get(99));
+	}
+
+	public void testScanResistant() {
+		SegmentedLruCache<Integer, String> cache = new SegmentedLruCache<Integer, String>(
+				10, 0.5);
+		for (int i = 0; i < 5; i++) {
+			cache.put(i, "hot" + i);
+			cache.get(i);
+		}
+		// A scan of entries used once does not evict the hot entries.
+		for (int i = 100; i < 200; i++) {
+			cache.put(i, "cold" + i);
+		}
+		for (int i = 0; i < 5; i++) {
+			Assert.assertEquals("hot" + i, cache.get(i));
+		}
+		Assert.assertEquals(10, cache.size());
+	}
+
+	public void testClear() {
+		SegmentedLruCache<String, String> cache = new SegmentedLruCache<String, String>(
+				4);
+		cache.put("a", "1");
+		cache.get("a");
+		cache.put("b", "2");
+		cache.clear();
+		Assert.assertEquals(0, cache.size());
+		Assert.assertNull(cache.get("a"));
+	}
+}
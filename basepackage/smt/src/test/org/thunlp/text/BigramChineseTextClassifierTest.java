@@ -8,6 +8,7 @@ import java.util.Map;
 
 import org.thunlp.text.classifiers.BigramChineseTextClassifier;
 import org.thunlp.text.classifiers.ClassifyResult;
+import org.thunlp.text.classifiers.LinearModel;
 import org.thunlp.text.classifiers.TextClassifier;
 
 import junit.framework.Assert;
@@ -53,6 +54,27 @@ public class BigramChineseTextClassifierTest extends TestCase {
 		}
 	}
 
+	public void testLogisticRegression() {
+		BigramChineseTextClassifier tc = new BigramChineseTextClassifier(2);
+		tc.setSolver(LinearModel.Solver.LOGISTIC_REGRESSION);
+		for (int i = 0; i < trainingSet.length; i++)
+			tc.addTrainingText(trainingSet[i], labels[i]);
+
+		Assert.assertTrue(tc.train());
+		for (int i = 0; i < testSet.length; i++) {
+			ClassifyResult cr = tc.classify(testSet[i]);
+			Assert.assertEquals(answers[i], cr.label);
+			Assert.assertTrue(cr.prob > 0.5 && cr.prob < 1);
+		}
+
+		// 序列化后的模型给出同样的结果
+		TextClassifier loaded = new BigramChineseTextClassifier(2);
+		loaded.loadFromString(tc.saveToString());
+		for (int i = 0; i < testSet.length; i++) {
+			Assert.assertEquals(tc.classify(testSet[i]).prob, loaded.classify(testSet[i]).prob);
+		}
+	}
+
 	public void testModelSaveLoad() {
 		TextClassifier tc = new BigramChineseTextClassifier(2);
 		for (int i = 0; i < trainingSet.length; i++)
@@ -121,6 +143,34 @@ public class BigramChineseTextClassifierTest extends TestCase {
 		}
 	}
 
+	public void testChiSquareSelectTruncatedCache() throws IOException {
+		File vectorFile = File.createTempFile("testcase", ".dat");
+		vectorFile.deleteOnExit();
+
+		// 与testChiSquareSelect相同的4篇文档，最后一篇只写了一半
+		DataOutputStream dos = new DataOutputStream(new FileOutputStream(vectorFile));
+		int[][] docs = { { 0, 1, 3 }, { 0, 3 }, { 0, 2 }, { 0, 2, 4 }, { 1, 2, 3 } };
+		int[] docLabels = { 0, 0, 1, 1, 0 };
+		for (int doc = 0; doc < docs.length; doc++) {
+			dos.writeInt(docLabels[doc]);
+			dos.writeInt(docs[doc].length);
+			int written = (doc == docs.length - 1) ? 1 : docs[doc].length;
+			for (int t = 0; t < written; t++) {
+				dos.writeInt(docs[doc][t]);
+				dos.writeDouble(1.0);
+			}
+		}
+		dos.close();
+
+		BigramChineseTextClassifier tc = new BigramChineseTextClassifier(2);
+		double[] chimax = new double[5];
+		Map<Integer, Integer> selected = tc.selectFeaturesByChiSquare(vectorFile, 5, 2, 4, 2, 4, chimax);
+		Assert.assertEquals(2, selected.size());
+		Assert.assertEquals(0, (int) selected.get(2));
+		Assert.assertEquals(1, (int) selected.get(3));
+		Assert.assertEquals(1.0 / 3.0, chimax[1]);
+	}
+
 	public void tearDown() {
 		File model = new File("tmp-model-for-test");
 		if (model.exists()) {
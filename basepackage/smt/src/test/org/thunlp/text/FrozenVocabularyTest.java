@@ -0,0 +1,60 @@
+package org.thunlp.text;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class FrozenVocabularyTest extends TestCase {
+	public void testLookup() throws Exception {
+		List<String> names = new ArrayList<String>();
+		for (int i = 0; i < 20000; i++) {
+			names.add("tag" + i);
+		}
+		names.add("北京");
+		names.add("😀smile");
+		names.add("");
+		FrozenVocabulary v = new FrozenVocabulary(names);
+		Assert.assertEquals(names.size(), v.size());
+		for (int i = 0; i < names.size(); i++) {
+			Assert.assertEquals(i, v.getId(names.get(i)));
+			Assert.assertEquals(names.get(i), v.get(i));
+			byte[] utf8 = names.get(i).getBytes("UTF-8");
+			Assert.assertEquals(i, v.getId(utf8, 0, utf8.length));
+		}
+		Assert.assertEquals(-1, v.getId("tag20000"));
+		Assert.assertEquals(-1, v.getId("北"));
+		Assert.assertEquals(-1, v.getId("\uD83D"));
+		Assert.assertNull(v.get(names.size()));
+	}
+
+	public void testHoles() {
+		FrozenVocabulary v = new FrozenVocabulary(new String[] { null, "a",
+				null, "b" });
+		Assert.assertEquals(2, v.size());
+		Assert.assertEquals(4, v.maxId());
+		Assert.assertEquals(1, v.getId("a"));
+		Assert.assertEquals(3, v.getId("b"));
+		Assert.assertNull(v.get(0));
+		Assert.assertNull(v.get(2));
+		Assert.assertEquals(-1, new FrozenVocabulary(new String[0]).getId("a"));
+	}
+
+	public void testDuplicate() {
+		try {
+			new FrozenVocabulary(new String[] { "a", "b", "a" });
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	public void testFromLexicon() {
+		Lexicon l = new Lexicon();
+		l.addDocument(new String[] { "x", "y", "z" });
+		FrozenVocabulary v = FrozenVocabulary.fromLexicon(l);
+		for (String w : new String[] { "x", "y", "z" }) {
+			Assert.assertEquals(l.getWord(w).getId(), v.getId(w));
+		}
+	}
+}
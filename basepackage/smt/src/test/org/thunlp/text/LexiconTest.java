@@ -143,4 +143,34 @@ public class LexiconTest extends TestCase {
 		Assert.assertEquals("a", newdoc1[0]);
 		Assert.assertEquals("c", newdoc1[1]);
 	}
+
+	public void testConcurrentAddDocument() throws InterruptedException {
+		final Lexicon l = new Lexicon();
+		final String[] doc = { "a", "b", "a", "c" };
+		Thread[] writers = new Thread[4];
+		for (int i = 0; i < writers.length; i++) {
+			writers[i] = new Thread() {
+				public void run() {
+					for (int j = 0; j < 1000; j++) {
+						l.addDocument(doc);
+					}
+				}
+			};
+			writers[i].start();
+		}
+		// Readers never see a word with a zero document frequency.
+		while (writers[writers.length - 1].isAlive()) {
+			Word w = l.getWord("c");
+			if (w != null) {
+				Assert.assertTrue(w.getDocumentFrequency() > 0);
+			}
+		}
+		for (Thread t : writers) {
+			t.join();
+		}
+		Assert.assertEquals(4000, l.getNumDocs());
+		Assert.assertEquals(3, l.getSize());
+		Assert.assertEquals(8000, l.getWord("a").getFrequency());
+		Assert.assertEquals(4000, l.getWord("a").getDocumentFrequency());
+	}
 }
@@ -0,0 +1,84 @@
+package org.thunlp.text;
+
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class NearDuplicateIndexTest extends TestCase {
+	private String[] randomDoc(Random random, int length) {
+		String[] doc = new String[length];
+		for (int i = 0; i < length; i++) {
+			doc[i] = "w" + random.nextInt(5000);
+		}
+		return doc;
+	}
+
+	public void testFindDuplicate() {
+		Random random = new Random(0);
+		NearDuplicateIndex index = new NearDuplicateIndex();
+		String[][] docs = new String[200][];
+		for (int i = 0; i < docs.length; i++) {
+			docs[i] = randomDoc(random, 100);
+			Assert.assertEquals(-1, index.findDuplicate(index.signature(docs[i])));
+			Assert.assertEquals(i, index.add(index.signature(docs[i])));
+		}
+		Assert.assertEquals(docs.length, index.size());
+
+		// A repost with one word changed.
+		String[] repost = docs[42].clone();
+		repost[50] = "changed";
+		Assert.assertEquals(42, index.findDuplicate(index.signature(repost)));
+
+		// The earliest of several duplicates is returned.
+		index.add(index.signature(docs[7]));
+		Assert.assertEquals(7, index.findDuplicate(index.signature(docs[7])));
+
+		// Half of the words replaced.
+		String[] rewritten = docs[3].clone();
+		for (int i = 0; i < rewritten.length; i += 2) {
+			rewritten[i] = "new" + i;
+		}
+		Assert.assertEquals(-1, index.findDuplicate(index.signature(rewritten)));
+	}
+
+	public void testSimilarity() {
+		Random random = new Random(1);
+		NearDuplicateIndex index = new NearDuplicateIndex(32, 4, 1, 0.8);
+		String[] a = randomDoc(random, 300);
+		String[] b = a.clone();
+		for (int i = 0; i < 60; i++) {
+			b[i] = "other" + i;
+		}
+		int[] sa = index.signature(a);
+		int[] sb = index.signature(b);
+		Assert.assertEquals(1.0, NearDuplicateIndex.similarity(sa, sa), 0.0);
+		// About 240 of 360 distinct words are shared.
+		Assert.assertEquals(0.67, NearDuplicateIndex.similarity(sa, sb), 0.15);
+		int doc = index.add(sa);
+		Assert.assertEquals(NearDuplicateIndex.similarity(sa, sb), index
+				.similarity(sb, doc), 0.05);
+	}
+
+	public void testShortDocuments() {
+		NearDuplicateIndex index = new NearDuplicateIndex();
+		String[] doc = { "only", "two" };
+		index.add(index.signature(doc));
+		Assert.assertEquals(0, index.findDuplicate(index.signature(doc)));
+		Assert.assertEquals(-1, index.findDuplicate(index
+				.signature(new String[] { "two", "only" })));
+	}
+
+	public void testEmptyDocuments() {
+		NearDuplicateIndex index = new NearDuplicateIndex();
+		Assert.assertNull(index.signature(new String[0]));
+		Assert.assertEquals(-1, index.findDuplicate(null));
+		try {
+			index.add(null);
+			Assert.fail("added an empty document");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+		Assert.assertEquals(0, index.size());
+	}
+}
@@ -0,0 +1,65 @@
+package org.thunlp.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thunlp.tagsuggest.common.Post;
+import org.thunlp.tagsuggest.common.WordFeatureExtractor;
+
+/**
+ * WordFeatureExtractor.extract() on synthetic posts, and on Chinese posts of
+ * about 2KB.
+ *
+ * @author sixiance
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FeatureExtractorBenchmark {
+  @Param({"synthetic", "chinese"})
+  public String input;
+
+  private WordFeatureExtractor extractor;
+  private List<Post> posts;
+  private int next = 0;
+
+  @Setup
+  public void setup() throws Exception {
+    extractor = new WordFeatureExtractor(SyntheticModels.config("Post"));
+    if (input.equals("synthetic")) {
+      posts = SyntheticModels.queries(1000);
+    } else {
+      posts = new ArrayList<Post>();
+      String text = Texts.chinese(2000);
+      for (int i = 0; i < 100; i++) {
+        Post p = new Post();
+        int split = i % 50;
+        p.setTitle(text.substring(split, split + 20));
+        p.setContent(text.substring(split));
+        posts.add(p);
+      }
+    }
+  }
+
+  @Benchmark
+  public String [] extract() {
+    Post p = posts.get(next);
+    next = (next + 1) % posts.size();
+    return extractor.extract(p);
+  }
+}
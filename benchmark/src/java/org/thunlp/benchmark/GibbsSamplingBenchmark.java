@@ -0,0 +1,90 @@
+package org.thunlp.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thunlp.io.JsonUtil;
+import org.thunlp.io.RecordReader;
+import org.thunlp.tagsuggest.common.ListDataSource;
+import org.thunlp.tagsuggest.common.Post;
+import org.thunlp.tagsuggest.contentbase.NoiseTagLdaModel;
+import org.thunlp.tagsuggest.contentbase.TagAllocationModel;
+
+/**
+ * One Gibbs sampling sweep over the synthetic dataset, for the models that
+ * TrainNoiseTagLdaModel and TrainTAM train. The documents are the white
+ * space separated words of the posts, so that only sampling is measured.
+ *
+ * @author sixiance
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class GibbsSamplingBenchmark {
+  private NoiseTagLdaModel lda;
+  private List<NoiseTagLdaModel.Document> ldaDocs =
+    new ArrayList<NoiseTagLdaModel.Document>();
+  private double [] pzd;
+  private TagAllocationModel tam;
+  private List<TagAllocationModel.Document> tamDocs =
+    new ArrayList<TagAllocationModel.Document>();
+
+  @Setup
+  public void setup() throws Exception {
+    JsonUtil J = new JsonUtil();
+    RecordReader reader = new RecordReader(SyntheticModels.dataset("Post"));
+    while (reader.next()) {
+      Post p = J.fromJson(reader.value(), Post.class);
+      String [] words = (p.getTitle() + " " + p.getContent()).split(" ");
+      String [] tags = p.getTags().toArray(new String[p.getTags().size()]);
+      ldaDocs.add(new NoiseTagLdaModel.Document(words, tags));
+      TagAllocationModel.Document d = new TagAllocationModel.Document();
+      d.words = words;
+      d.tags = tags;
+      d.reason = new String[tags.length];
+      tamDocs.add(d);
+    }
+    reader.close();
+
+    // Initialize the assignments and run one sweep.
+    lda = new NoiseTagLdaModel(20);
+    lda.train(ldaDocs, 2);
+    lda.setLocked(false);
+    pzd = new double[lda.getNumTopics()];
+    tam = new TagAllocationModel();
+    tam.train(new ListDataSource<TagAllocationModel.Document>(tamDocs), 2, 0);
+    tam.setLocked(false);
+  }
+
+  @Benchmark
+  public double noiseTagLdaSweep() {
+    double loglikelihood = 0;
+    for (NoiseTagLdaModel.Document d : ldaDocs) {
+      loglikelihood += lda.inferenceByGibbsSampling(d, pzd, 0, 1);
+    }
+    return loglikelihood;
+  }
+
+  @Benchmark
+  public double tagAllocationSweep() {
+    double loglikelihood = 0;
+    for (TagAllocationModel.Document d : tamDocs) {
+      loglikelihood += tam.inference(d);
+    }
+    return loglikelihood;
+  }
+}
@@ -0,0 +1,117 @@
+package org.thunlp.benchmark;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.htmlparser.util.Translate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thunlp.html.HtmlTextExtractor;
+
+/**
+ * HTML to plain text with HtmlTextExtractor, against the regular expressions
+ * HtmlReformatter.getPlainText() used before. "article" is a 20KB page,
+ * "large" a 500KB one, and "malformed" 50KB of script and comment openers
+ * which are never closed.
+ *
+ * @author sixiance
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class HtmlBenchmark {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static Pattern commentBlockRE = Pattern.compile("<!--.*?-->",
+      Pattern.MULTILINE | Pattern.DOTALL);
+  private static Pattern scriptBlockRE = Pattern.compile("<script.*?</script>",
+      Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL);
+  private static Pattern styleBlockRE = Pattern.compile("<style.*?</style>",
+      Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL);
+  private static Pattern htmlTagRE = Pattern.compile("<[^<>]+>",
+      Pattern.MULTILINE);
+
+  @Param({"article", "large", "malformed"})
+  public String page;
+
+  private String html;
+  private char [] chars;
+  private byte [] bytes;
+  private HtmlTextExtractor extractor = new HtmlTextExtractor();
+
+  @Setup
+  public void setup() {
+    if (page.equals("malformed")) {
+      html = malformed(50000);
+    } else {
+      html = article(page.equals("large") ? 500000 : 20000);
+    }
+    chars = html.toCharArray();
+    bytes = html.getBytes(UTF8);
+  }
+
+  private static String article(int bytes) {
+    String text = Texts.chinese(2000);
+    StringBuilder sb = new StringBuilder();
+    sb.append("<html><head><style type=\"text/css\">p { margin: 0; }</style>");
+    sb.append("<script type=\"text/javascript\">var a = 1 < 2;</script>");
+    sb.append("</head><body>\n");
+    while (sb.length() * 2 < bytes) {
+      sb.append("<div class=\"post\"><!-- post -->\n<p>");
+      sb.append(text, 0, 300);
+      sb.append("&nbsp;&ldquo;<a href=\"/tag/1\">标签</a>&rdquo;&amp;");
+      sb.append(text, 300, 600);
+      sb.append("</p><script>document.write('<b>' + 1 + '</b>');</script>");
+      sb.append("</div>\n");
+    }
+    sb.append("</body></html>");
+    return sb.toString();
+  }
+
+  private static String malformed(int length) {
+    StringBuilder sb = new StringBuilder();
+    while (sb.length() < length) {
+      sb.append("<script a <!-- b < c ");
+    }
+    return sb.toString();
+  }
+
+  @Benchmark
+  public String regex() {
+    String content = html;
+    content = commentBlockRE.matcher(content).replaceAll("");
+    content = styleBlockRE.matcher(content).replaceAll("");
+    content = scriptBlockRE.matcher(content).replaceAll("");
+    content = htmlTagRE.matcher(content).replaceAll("");
+    content = Translate.decode(content);
+    content = content.replaceAll("nbsp", " ");
+    return content;
+  }
+
+  @Benchmark
+  public String extractString() {
+    return extractor.extract(html);
+  }
+
+  @Benchmark
+  public String extractChars() {
+    return extractor.extract(chars, 0, chars.length);
+  }
+
+  @Benchmark
+  public String extractBytes() {
+    return extractor.extract(bytes, 0, bytes.length, UTF8);
+  }
+}
@@ -0,0 +1,89 @@
+package org.thunlp.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thunlp.language.chinese.LangUtils;
+
+/**
+ * The LangUtils normalizations, one by one and chained the way PostCleaner
+ * and WordFeatureExtractor use them.
+ *
+ * @author sixiance
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class LangUtilsBenchmark {
+  @Param({"1000", "100000"})
+  public int textBytes;
+
+  private String text;
+
+  @Setup
+  public void setup() {
+    text = Texts.mixed(textBytes);
+  }
+
+  @Benchmark
+  public String removePunctuationMarks() {
+    return LangUtils.removePunctuationMarks(text);
+  }
+
+  @Benchmark
+  public String removeExtraSpaces() {
+    return LangUtils.removeExtraSpaces(text);
+  }
+
+  @Benchmark
+  public String removeLineEnds() {
+    return LangUtils.removeLineEnds(text);
+  }
+
+  @Benchmark
+  public String mapFullWidthLetterToHalfWidth() {
+    return LangUtils.mapFullWidthLetterToHalfWidth(text);
+  }
+
+  @Benchmark
+  public String mapFullWidthNumberToHalfWidth() {
+    return LangUtils.mapFullWidthNumberToHalfWidth(text);
+  }
+
+  @Benchmark
+  public String mapChineseMarksToAnsi() {
+    return LangUtils.mapChineseMarksToAnsi(text);
+  }
+
+  @Benchmark
+  public String t2s() {
+    return LangUtils.T2S(text);
+  }
+
+  /**
+   * The chain of PostCleaner.clean() after the HTML is removed.
+   */
+  @Benchmark
+  public String cleanChain() {
+    String content = LangUtils.mapChineseMarksToAnsi(text);
+    content = LangUtils.mapFullWidthLetterToHalfWidth(content);
+    content = LangUtils.mapFullWidthNumberToHalfWidth(content);
+    content = LangUtils.T2S(content);
+    content = LangUtils.removeExtraSpaces(content);
+    content = LangUtils.removeEmptyLines(content);
+    return content;
+  }
+}
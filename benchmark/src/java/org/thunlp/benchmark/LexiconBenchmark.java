@@ -0,0 +1,82 @@
+package org.thunlp.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thunlp.text.Lexicon;
+
+/**
+ * Loading a lexicon file, and looking words up by name and by id.
+ *
+ * @author sixiance
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class LexiconBenchmark {
+  @Param({"10000", "1000000"})
+  public int numWords;
+
+  private File file;
+  private Lexicon lexicon;
+  private String [] lookups;
+  private int next = 0;
+
+  @Setup
+  public void setup() throws IOException {
+    lexicon = new Lexicon();
+    Random random = new Random(0);
+    String [] doc = new String[100];
+    for (int n = 0; n < numWords / 10; n++) {
+      for (int i = 0; i < doc.length; i++) {
+        // Zipf-like: low ids are much more frequent.
+        doc[i] = "w" + (int) (numWords * Math.pow(random.nextDouble(), 3));
+      }
+      lexicon.addDocument(doc);
+    }
+    file = new File(SyntheticModels.workDir(), "lexicon." + numWords);
+    if (!lexicon.saveToFile(file)) {
+      throw new IOException("cannot write " + file);
+    }
+    lookups = new String[4096];
+    for (int i = 0; i < lookups.length; i++) {
+      lookups[i] = "w" + (int) (numWords * Math.pow(random.nextDouble(), 3));
+    }
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public Lexicon load() {
+    Lexicon l = new Lexicon();
+    l.loadFromFile(file);
+    return l;
+  }
+
+  @Benchmark
+  public Lexicon.Word getWordByName() {
+    next = (next + 1) & (lookups.length - 1);
+    return lexicon.getWord(lookups[next]);
+  }
+
+  @Benchmark
+  public Lexicon.Word getWordById() {
+    next = (next + 1) % lexicon.getSize();
+    return lexicon.getWord(next);
+  }
+}
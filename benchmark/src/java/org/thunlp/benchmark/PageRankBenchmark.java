@@ -0,0 +1,57 @@
+package org.thunlp.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thunlp.matrix.SparseMatrix;
+import org.thunlp.matrix.pagerank.PageRank;
+
+/**
+ * 20 iterations of PageRank on random sparse graphs, from the size of the
+ * word graph of one post (TextRank) to the size of a word-tag graph.
+ *
+ * @author sixiance
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PageRankBenchmark {
+  @Param({"100", "10000", "100000"})
+  public int numNodes;
+
+  @Param({"10"})
+  public int degree;
+
+  private SparseMatrix matrix;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(0);
+    matrix = new SparseMatrix(numNodes, numNodes);
+    for (int i = 0; i < numNodes; i++) {
+      for (int j = 0; j < degree; j++) {
+        matrix.inc(i, random.nextInt(numNodes), 1.0);
+      }
+    }
+    PageRank.prepareMatrix(matrix);
+  }
+
+  @Benchmark
+  public double [] pageRank() {
+    return PageRank.pageRank(matrix, 20);
+  }
+}
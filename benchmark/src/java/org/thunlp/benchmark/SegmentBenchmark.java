@@ -0,0 +1,49 @@
+package org.thunlp.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thunlp.language.chinese.ForwardMaxWordSegment;
+
+/**
+ * Forward maximum matching segmentation with the default dictionary. The
+ * score is the time to segment textBytes bytes of UTF-8 text, so MB per
+ * second is textBytes / score.
+ *
+ * @author sixiance
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SegmentBenchmark {
+  @Param({"1000", "100000"})
+  public int textBytes;
+
+  private ForwardMaxWordSegment ws;
+  private String text;
+
+  @Setup
+  public void setup() throws IOException {
+    ws = new ForwardMaxWordSegment();
+    text = Texts.chinese(textBytes);
+  }
+
+  @Benchmark
+  public String [] segment() {
+    return ws.segment(text);
+  }
+}
@@ -0,0 +1,55 @@
+package org.thunlp.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thunlp.misc.WeightString;
+import org.thunlp.tagsuggest.common.Post;
+import org.thunlp.tagsuggest.common.TagSuggest;
+
+/**
+ * suggest() of each contentbase suggester, on a model trained from the
+ * synthetic dataset. The first run trains the models, see SyntheticModels.
+ *
+ * @author sixiance
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SuggestBenchmark {
+  @Param({"TFIDFTagSuggest", "NaiveBayesTagSuggest", "KnnTagSuggest",
+    "PMITagSuggest", "SMTTagSuggest", "TAMTagSuggest",
+    "NoiseTagLdaTagSuggest"})
+  public String suggester;
+
+  private TagSuggest ts;
+  private List<Post> posts;
+  private int next = 0;
+
+  @Setup
+  public void setup() throws Exception {
+    ts = SyntheticModels.suggester(suggester);
+    posts = SyntheticModels.queries(1000);
+  }
+
+  @Benchmark
+  public List<WeightString> suggest() {
+    Post p = posts.get(next);
+    next = (next + 1) % posts.size();
+    return ts.suggest(p, null);
+  }
+}
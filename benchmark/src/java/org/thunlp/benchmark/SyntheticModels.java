@@ -0,0 +1,157 @@
+package org.thunlp.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.thunlp.io.JsonUtil;
+import org.thunlp.io.RecordReader;
+import org.thunlp.tagsuggest.common.ConfigIO;
+import org.thunlp.tagsuggest.common.KeywordPost;
+import org.thunlp.tagsuggest.common.ModelTrainer;
+import org.thunlp.tagsuggest.common.Post;
+import org.thunlp.tagsuggest.common.TagSuggest;
+import org.thunlp.tagsuggest.dataset.MakeSyntheticData;
+
+/**
+ * Synthetic datasets and trained models for the benchmarks. Data comes from
+ * MakeSyntheticData with a fixed seed, and every model is trained once into
+ * the work directory and reused by later runs.
+ *
+ * The work directory is "benchmark.work_dir" (build/benchmark/work), and the
+ * segmenter model and stop words are read from "benchmark.model_dir" (demo).
+ *
+ * @author sixiance
+ */
+public class SyntheticModels {
+  public static final String [] SUGGESTERS = {
+    "TFIDFTagSuggest", "NaiveBayesTagSuggest", "KnnTagSuggest",
+    "PMITagSuggest", "SMTTagSuggest", "TAMTagSuggest", "NoiseTagLdaTagSuggest"
+  };
+
+  public static final int NUM_POSTS = 5000;
+
+  public static File workDir() {
+    File dir = new File(System.getProperty("benchmark.work_dir",
+        "build/benchmark/work"));
+    if (!dir.exists()) {
+      dir.mkdirs();
+    }
+    return dir;
+  }
+
+  public static String modelDir() {
+    return new File(System.getProperty("benchmark.model_dir", "demo"))
+      .getAbsolutePath();
+  }
+
+  public static Properties config(String dataType) {
+    Properties config = ConfigIO.configFromString(
+        "dataType=" + dataType + ";model=" + modelDir()
+        + ";num_threads=1;niter=10;burnin=5;numtopics=20;commonLimit=3");
+    return config;
+  }
+
+  /**
+   * The synthetic dataset of the given type, made on first use.
+   */
+  public static synchronized String dataset(String dataType)
+  throws IOException {
+    File data = new File(workDir(), "synthetic." + dataType + ".txt");
+    if (!data.exists()) {
+      new MakeSyntheticData().make(data.getAbsolutePath(), NUM_POSTS, 20,
+          5000, 200, 50, dataType, 0);
+    }
+    return data.getAbsolutePath();
+  }
+
+  /**
+   * Posts to call suggest() with, from a dataset with another seed. They
+   * are KeywordPosts, which all suggesters accept.
+   */
+  public static List<Post> queries(int n) throws IOException {
+    File data = new File(workDir(), "queries.txt");
+    if (!data.exists()) {
+      new MakeSyntheticData().make(data.getAbsolutePath(), n, 20, 5000, 200,
+          50, "Post", 1);
+    }
+    JsonUtil J = new JsonUtil();
+    List<Post> posts = new ArrayList<Post>();
+    RecordReader reader = new RecordReader(data.getAbsolutePath());
+    while (reader.next() && posts.size() < n) {
+      Post p = J.fromJson(reader.value(), Post.class);
+      KeywordPost kp = new KeywordPost();
+      kp.setId(p.getId());
+      kp.setTitle(p.getTitle());
+      kp.setContent(p.getContent());
+      kp.setSummary("");
+      kp.setTags(p.getTags());
+      posts.add(kp);
+    }
+    reader.close();
+    return posts;
+  }
+
+  /**
+   * Train the model of a suggester unless it is in the work directory, and
+   * return the suggester with the model loaded.
+   */
+  public static TagSuggest suggester(String name) throws Exception {
+    String trainer;
+    String dataType = "Post";
+    boolean directory = true;
+    if (name.equals("TFIDFTagSuggest")) {
+      trainer = "TrainTFIDF";
+    } else if (name.equals("NaiveBayesTagSuggest")) {
+      trainer = "TrainNaiveBayes";
+      directory = false;
+    } else if (name.equals("KnnTagSuggest")) {
+      trainer = "TrainKnn";
+    } else if (name.equals("PMITagSuggest")) {
+      trainer = "TrainPMI";
+      dataType = "DoubanPost";
+    } else if (name.equals("SMTTagSuggest")) {
+      trainer = "TrainWTM";
+      dataType = "DoubanPost";
+    } else if (name.equals("TAMTagSuggest")) {
+      trainer = "TrainTAM";
+    } else if (name.equals("NoiseTagLdaTagSuggest")) {
+      trainer = "TrainNoiseTagLdaModel";
+      directory = false;
+    } else {
+      throw new IllegalArgumentException("no synthetic model for " + name);
+    }
+    Properties config = config(dataType);
+    File model = new File(workDir(), "model." + name);
+    synchronized (SyntheticModels.class) {
+      if (!model.exists()) {
+        if (directory) {
+          model.mkdirs();
+        }
+        ModelTrainer t = (ModelTrainer) Class.forName(
+            "org.thunlp.tagsuggest.train." + trainer).newInstance();
+        t.train(dataset(dataType), model.getAbsolutePath(), config);
+      }
+    }
+    TagSuggest ts = (TagSuggest) Class.forName(
+        "org.thunlp.tagsuggest.contentbase." + name).newInstance();
+    ts.setConfig(config);
+    ts.loadModel(model.getAbsolutePath());
+    return ts;
+  }
+
+  /**
+   * Train all models and print one suggestion of each, to check the setup
+   * without running the benchmarks.
+   */
+  public static void main(String [] args) throws Exception {
+    Post p = queries(1).get(0);
+    for (String name : SUGGESTERS) {
+      TagSuggest ts = suggester(name);
+      System.out.println(name + " " + p.getTags() + " -> "
+          + ts.suggest(p, new StringBuilder()));
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package org.thunlp.benchmark;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Fixed input texts for the benchmarks.
+ *
+ * @author sixiance
+ */
+public class Texts {
+  private static final String CHINESE =
+    "中文信息处理是计算机科学与语言学的交叉领域，研究如何让计算机理解和生成"
+    + "人类语言。在社会化标注系统中，用户为图书、电影和网页添加标签，这些标签"
+    + "可以帮助其他用户发现感兴趣的内容。标签推荐系统根据资源的文本内容，自动"
+    + "为新的资源推荐合适的标签，减轻用户的负担，也提高了标签的质量。";
+
+  private static final String MIXED =
+    "《機器學習》是一本介紹ＡＩ與統計方法的書，２０１０年出版。作者：張三、"
+    + "李四！  價格：３５元。\r\n\r\n  書中包括：神經網絡、支持向量機、"
+    + "決策樹…… 等內容；適合本科生閱讀？  ";
+
+  /**
+   * Simplified Chinese text of about the given number of UTF-8 bytes.
+   */
+  public static String chinese(int bytes) {
+    return repeat(CHINESE, bytes);
+  }
+
+  /**
+   * Traditional Chinese with full-width letters, numbers, Chinese marks and
+   * extra spaces, the input of the LangUtils normalizations.
+   */
+  public static String mixed(int bytes) {
+    return repeat(MIXED, bytes);
+  }
+
+  private static String repeat(String unit, int bytes) {
+    int unitBytes;
+    try {
+      unitBytes = unit.getBytes("UTF-8").length;
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+    StringBuilder sb = new StringBuilder();
+    int n = Math.max(1, bytes / unitBytes);
+    for (int i = 0; i < n; i++) {
+      sb.append(unit);
+    }
+    int extra = (bytes - n * unitBytes) / 3;
+    if (extra > 0) {
+      sb.append(unit, 0, Math.min(extra, unit.length()));
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,309 @@
+package org.thunlp.tagsuggest.common;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.thunlp.misc.SegmentedLruCache;
+import org.thunlp.misc.WeightString;
+
+/**
+ * Cache the suggestions of another tagger, for inputs where the same text is
+ * suggested for again and again, like syndicated news.
+ *
+ * The key is a 128 bit hash of the post's normalized text (lower case,
+ * collapsed white spaces) and user id, since some taggers suggest by user,
+ * together with a model version, which is bumped when the model is loaded,
+ * the config changes, or feedback updates are applied; the entries of old
+ * versions are dropped at once. Concurrent misses of the same key run the
+ * tagger once and share its result. Entries are evicted by segmented LRU.
+ *
+ * The tagger to wrap is given to the constructor, or by the "cache_class"
+ * config when this class is created by name. Other config: "cache_size"
+ * (number of posts, 10000 by default) and "update_batch" (feedback posts
+ * after which the results are considered stale, 1000 by default, as in the
+ * updatable taggers).
+ *
+ * @author sixiance
+ */
+public class CachingTagSuggest implements UpdatableTagSuggest {
+  private static Logger LOG = Logger.getAnonymousLogger();
+  private TagSuggest inner = null;
+  private String pendingModelPath = null;
+  private SegmentedLruCache<Key, Value> cache =
+    new SegmentedLruCache<Key, Value>(10000);
+  private ConcurrentHashMap<Key, FutureTask<Value>> inFlight =
+    new ConcurrentHashMap<Key, FutureTask<Value>>();
+  private volatile long version = 0;
+  private int updateBatch = 1000;
+  private AtomicLong numFeedback = new AtomicLong();
+  private AtomicLong hits = new AtomicLong();
+  private AtomicLong misses = new AtomicLong();
+
+  public CachingTagSuggest() {
+  }
+
+  public CachingTagSuggest(TagSuggest inner) {
+    this.inner = inner;
+  }
+
+  @Override
+  public void setConfig(Properties config) {
+    int size = Integer.parseInt(config.getProperty("cache_size", "10000"));
+    updateBatch = Integer.parseInt(config.getProperty("update_batch", "1000"));
+    String className = config.getProperty("cache_class", "");
+    if (inner == null) {
+      if (className.length() == 0) {
+        throw new IllegalArgumentException(
+            "cache_class is needed to create the cached tagger");
+      }
+      if (!className.startsWith("org")) {
+        className = "org.thunlp.tagsuggest.contentbase." + className;
+      }
+      try {
+        inner = (TagSuggest) Class.forName(className).newInstance();
+      } catch (Exception e) {
+        throw new IllegalArgumentException("cannot create " + className, e);
+      }
+    }
+    inner.setConfig(config);
+    synchronized (this) {
+      cache = new SegmentedLruCache<Key, Value>(size);
+      invalidate();
+    }
+    if (pendingModelPath != null) {
+      try {
+        loadModel(pendingModelPath);
+      } catch (IOException e) {
+        throw new IllegalStateException("cannot load " + pendingModelPath, e);
+      }
+      pendingModelPath = null;
+    }
+  }
+
+  @Override
+  public void loadModel(String modelPath) throws IOException {
+    if (inner == null) {
+      // Created by name and loaded before setConfig().
+      pendingModelPath = modelPath;
+      return;
+    }
+    inner.loadModel(modelPath);
+    invalidate();
+  }
+
+  @Override
+  public List<WeightString> suggest(final Post p, StringBuilder explain) {
+    final Key key = new Key(p, version);
+    Value value = cache.get(key);
+    if (value != null) {
+      hits.incrementAndGet();
+    } else {
+      FutureTask<Value> task = new FutureTask<Value>(new Callable<Value>() {
+        public Value call() {
+          StringBuilder sb = new StringBuilder();
+          Value v = new Value();
+          v.tags = copy(inner.suggest(p, sb));
+          v.explain = sb.toString();
+          return v;
+        }
+      });
+      FutureTask<Value> running = inFlight.putIfAbsent(key, task);
+      if (running == null) {
+        misses.incrementAndGet();
+        running = task;
+        try {
+          task.run();
+        } finally {
+          inFlight.remove(key, task);
+        }
+      } else {
+        hits.incrementAndGet();
+      }
+      value = waitFor(running);
+      if (running == task && key.version == version) {
+        cache.put(key, value);
+      }
+    }
+    if (explain != null) {
+      explain.append(value.explain);
+    }
+    return copy(value.tags);
+  }
+
+  @Override
+  public void feedback(Post p) {
+    inner.feedback(p);
+    if (numFeedback.incrementAndGet() % updateBatch == 0) {
+      invalidate();
+    }
+  }
+
+  @Override
+  public void applyUpdates() throws IOException {
+    if (inner instanceof UpdatableTagSuggest) {
+      ((UpdatableTagSuggest) inner).applyUpdates();
+      invalidate();
+    }
+  }
+
+  @Override
+  public void saveModel(String modelPath) throws IOException {
+    if (!(inner instanceof UpdatableTagSuggest)) {
+      throw new UnsupportedOperationException(
+          inner.getClass().getName() + " cannot save its model");
+    }
+    ((UpdatableTagSuggest) inner).saveModel(modelPath);
+    invalidate();
+  }
+
+  public TagSuggest getInner() {
+    return inner;
+  }
+
+  public long hits() {
+    return hits.get();
+  }
+
+  public long misses() {
+    return misses.get();
+  }
+
+  public long evictions() {
+    return cache.evictions();
+  }
+
+  public String stats() {
+    long h = hits.get();
+    long m = misses.get();
+    return String.format("hits %d misses %d (%.1f%% hit) evictions %d size %d",
+        h, m, (h + m) == 0 ? 0.0 : 100.0 * h / (h + m), cache.evictions(),
+        cache.size());
+  }
+
+  private synchronized void invalidate() {
+    version++;
+    cache.clear();
+    LOG.fine("suggestion cache invalidated, " + stats());
+  }
+
+  private static Value waitFor(FutureTask<Value> task) {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return task.get();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof RuntimeException) {
+            throw (RuntimeException) e.getCause();
+          }
+          if (e.getCause() instanceof Error) {
+            throw (Error) e.getCause();
+          }
+          throw new IllegalStateException(e.getCause());
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Callers may sort or change the weights of the returned list.
+   */
+  private static List<WeightString> copy(List<WeightString> tags) {
+    List<WeightString> result = new ArrayList<WeightString>(tags.size());
+    for (WeightString ws : tags) {
+      result.add(new WeightString(ws.text, ws.weight));
+    }
+    return result;
+  }
+
+  private static class Value {
+    List<WeightString> tags;
+    String explain;
+  }
+
+  /**
+   * Two 64 bit hashes of the post type, user and normalized text, computed
+   * in one pass, and the model version.
+   */
+  static class Key {
+    long h1 = 0xcbf29ce484222325L;
+    long h2 = 0x9E3779B97F4A7C15L;
+    long version;
+
+    Key(Post p, long version) {
+      this.version = version;
+      add(p.getClass().getName());
+      addExact(p.getUserId());
+      add(p.getTitle());
+      add(p.getContent());
+      if (p instanceof KeywordPost) {
+        add(((KeywordPost) p).getSummary());
+      } else if (p instanceof SinaPost) {
+        add(((SinaPost) p).getDescription());
+      }
+    }
+
+    private void add(String s) {
+      boolean space = true;
+      if (s != null) {
+        for (int i = 0; i < s.length(); i++) {
+          char c = s.charAt(i);
+          if (Character.isWhitespace(c)) {
+            space = true;
+            continue;
+          }
+          if (space) {
+            addChar(' ');
+            space = false;
+          }
+          addChar(Character.toLowerCase(c));
+        }
+      }
+      // Field separator.
+      addChar('\u0000');
+    }
+
+    private void addExact(String s) {
+      if (s != null) {
+        for (int i = 0; i < s.length(); i++) {
+          addChar(s.charAt(i));
+        }
+      }
+      addChar('\u0000');
+    }
+
+    private void addChar(char c) {
+      h1 = (h1 ^ c) * 0x100000001b3L;
+      h2 = Long.rotateLeft(h2 ^ (c * 0xc4ceb9fe1a85ec53L), 31)
+        * 0xff51afd7ed558ccdL;
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) (h1 ^ (h1 >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key k = (Key) o;
+      return h1 == k.h1 && h2 == k.h2 && version == k.version;
+    }
+  }
+}
@@ -2,11 +2,14 @@ package org.thunlp.tagsuggest.common;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * 类Filter用于作为以extent为后缀名的文件的过滤器
  */
 public class Filter implements FilenameFilter {
+	private static Pattern TRANSLATION_TABLE = Pattern.compile(".*\\.t1\\.(\\d+)$");
 	private String extent;
 
 	public Filter(String extent) {
@@ -16,4 +19,23 @@ public class Filter implements FilenameFilter {
 	public boolean accept(File dir, String name) {
 		return name.endsWith("." + extent);
 	}
+
+	/**
+	 * The extension of the translation tables after the last EM iteration in
+	 * dir, "t1.<n>" for the largest n, as GIZA++ and IbmModel1 write them.
+	 * "t1.5" if there is none.
+	 */
+	public static String lastTranslationTables(File dir) {
+		int last = -1;
+		String[] names = dir.list();
+		if (names != null) {
+			for (String name : names) {
+				Matcher m = TRANSLATION_TABLE.matcher(name);
+				if (m.matches()) {
+					last = Math.max(last, Integer.parseInt(m.group(1)));
+				}
+			}
+		}
+		return last < 0 ? "t1.5" : "t1." + last;
+	}
 }
\ No newline at end of file
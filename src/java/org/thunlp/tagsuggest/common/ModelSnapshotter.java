@@ -0,0 +1,91 @@
+package org.thunlp.tagsuggest.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Save an updatable model periodically on a daemon thread. Configured by
+ * "snapshot_interval" (seconds, 0 disables it, the default) and
+ * "snapshot_path" (defaults to the path the model was loaded from).
+ *
+ * @author sixiance
+ */
+public class ModelSnapshotter {
+  private static Logger LOG = Logger.getAnonymousLogger();
+  private ScheduledExecutorService timer;
+
+  private ModelSnapshotter(final UpdatableTagSuggest model,
+      final String path, long intervalSeconds) {
+    timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "model-snapshot");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    timer.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        try {
+          long start = System.currentTimeMillis();
+          model.saveModel(path);
+          LOG.info("snapshot saved to " + path + " in "
+              + (System.currentTimeMillis() - start) + "ms");
+        } catch (Exception e) {
+          LOG.warning("cannot save snapshot to " + path + ": " + e);
+        }
+      }
+    }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Stop the old snapshotter, if any, and start a new one if the config asks
+   * for it. Returns the new snapshotter or null.
+   */
+  public static ModelSnapshotter restart(ModelSnapshotter old,
+      UpdatableTagSuggest model, Properties config, String modelPath) {
+    if (old != null) {
+      old.stop();
+    }
+    if (config == null || modelPath == null) {
+      return null;
+    }
+    long interval =
+      Long.parseLong(config.getProperty("snapshot_interval", "0"));
+    if (interval <= 0) {
+      return null;
+    }
+    String path = config.getProperty("snapshot_path", modelPath);
+    LOG.info("save snapshots to " + path + " every " + interval + "s");
+    return new ModelSnapshotter(model, path, interval);
+  }
+
+  public void stop() {
+    timer.shutdown();
+  }
+
+  /**
+   * Replace target with a file written completely, so readers of the model
+   * never see a half written file.
+   */
+  public static void replace(File written, File target) throws IOException {
+    Files.move(written.toPath(), target.toPath(),
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * The temporary file to write before replace(). It is in the same
+   * directory, and keeps the suffix that tells RecordWriter the file type.
+   */
+  public static File temporary(File target) {
+    File abs = target.getAbsoluteFile();
+    return new File(abs.getParentFile(), ".tmp-" + abs.getName());
+  }
+}
@@ -0,0 +1,182 @@
+package org.thunlp.tagsuggest.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The documents of an in-memory trainer, packed into a few int arrays
+ * instead of a String [] per field of every document:
+ *
+ *   tokens:     word ids of all documents, one after another,
+ *   offsets:    document d has tokens[offsets[d]] .. tokens[offsets[d + 1]],
+ *   tags:       tag ids of all documents,
+ *   tagOffsets: document d has tags[tagOffsets[d]] .. tags[tagOffsets[d + 1]].
+ *
+ * Every distinct word and tag is a single String in the vocabularies, so a
+ * corpus of millions of posts costs 4 bytes per token and per tag.
+ * Documents are read through a Cursor. Per token or per tag state of a
+ * model, like topic or reason assignments, belongs in arrays of
+ * numTokens() or numTagTokens() elements indexed by tokenStart() and
+ * tagStart() of the cursor.
+ *
+ * @author sixiance
+ */
+public class PackedCorpus {
+  private int numDocs = 0;
+  private int [] tokens = new int[1 << 16];
+  private int [] offsets = new int[1 << 10];
+  private int [] tags = new int[1 << 12];
+  private int [] tagOffsets = new int[1 << 10];
+  private Map<String, Integer> wordIds = new HashMap<String, Integer>();
+  private List<String> words = new ArrayList<String>();
+  private Map<String, Integer> tagIds = new HashMap<String, Integer>();
+  private List<String> tagNames = new ArrayList<String>();
+
+  public void add(String [] docWords, Collection<String> docTags) {
+    int start = offsets[numDocs];
+    int tagStart = tagOffsets[numDocs];
+    if (numDocs + 2 > offsets.length) {
+      offsets = Arrays.copyOf(offsets, offsets.length * 2);
+      tagOffsets = Arrays.copyOf(tagOffsets, tagOffsets.length * 2);
+    }
+    tokens = ensure(tokens, start + docWords.length);
+    tags = ensure(tags, tagStart + docTags.size());
+    for (String word : docWords) {
+      tokens[start++] = id(word, wordIds, words);
+    }
+    for (String tag : docTags) {
+      tags[tagStart++] = id(tag, tagIds, tagNames);
+    }
+    numDocs++;
+    offsets[numDocs] = start;
+    tagOffsets[numDocs] = tagStart;
+  }
+
+  private static int [] ensure(int [] array, int length) {
+    if (length <= array.length) {
+      return array;
+    }
+    return Arrays.copyOf(array, Math.max(array.length * 2, length));
+  }
+
+  private static int id(
+      String name, Map<String, Integer> ids, List<String> names) {
+    Integer id = ids.get(name);
+    if (id == null) {
+      id = names.size();
+      ids.put(name, id);
+      names.add(name);
+    }
+    return id;
+  }
+
+  /**
+   * Trim the arrays to their content and drop the name to id maps. No
+   * document can be added afterwards.
+   */
+  public void freeze() {
+    tokens = Arrays.copyOf(tokens, offsets[numDocs]);
+    offsets = Arrays.copyOf(offsets, numDocs + 1);
+    tags = Arrays.copyOf(tags, tagOffsets[numDocs]);
+    tagOffsets = Arrays.copyOf(tagOffsets, numDocs + 1);
+    wordIds = null;
+    tagIds = null;
+  }
+
+  public int numDocs() {
+    return numDocs;
+  }
+
+  public int numTokens() {
+    return offsets[numDocs];
+  }
+
+  public int numTagTokens() {
+    return tagOffsets[numDocs];
+  }
+
+  public String word(int wordId) {
+    return words.get(wordId);
+  }
+
+  public int numWords() {
+    return words.size();
+  }
+
+  public String tag(int tagId) {
+    return tagNames.get(tagId);
+  }
+
+  public int numTags() {
+    return tagNames.size();
+  }
+
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  /**
+   * Walks the documents in order; a corpus can have any number of cursors.
+   */
+  public class Cursor {
+    private int doc = -1;
+
+    public boolean next() {
+      if (doc + 1 >= numDocs) {
+        return false;
+      }
+      doc++;
+      return true;
+    }
+
+    public void rewind() {
+      doc = -1;
+    }
+
+    public int doc() {
+      return doc;
+    }
+
+    public int numWords() {
+      return offsets[doc + 1] - offsets[doc];
+    }
+
+    public int wordId(int i) {
+      return tokens[offsets[doc] + i];
+    }
+
+    public String word(int i) {
+      return words.get(wordId(i));
+    }
+
+    public int numTags() {
+      return tagOffsets[doc + 1] - tagOffsets[doc];
+    }
+
+    public int tagId(int i) {
+      return tags[tagOffsets[doc] + i];
+    }
+
+    public String tag(int i) {
+      return tagNames.get(tagId(i));
+    }
+
+    /**
+     * Position of the first word of the document among all tokens.
+     */
+    public int tokenStart() {
+      return offsets[doc];
+    }
+
+    /**
+     * Position of the first tag of the document among all tag tokens.
+     */
+    public int tagStart() {
+      return tagOffsets[doc];
+    }
+  }
+}
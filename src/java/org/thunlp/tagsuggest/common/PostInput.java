@@ -0,0 +1,120 @@
+package org.thunlp.tagsuggest.common;
+
+import java.io.IOException;
+
+import org.thunlp.io.JsonUtil;
+import org.thunlp.io.RecordReader;
+
+/**
+ * Posts from either a PostStore file or Post@json lines, so that a tool
+ * reads both formats with the same loop:
+ *
+ *   PostInput input = PostInput.open(path, PostStore.TAGS);
+ *   while (input.next()) {
+ *     Post p = input.get(Post.class);
+ *   }
+ *
+ * The columns are a projection for PostStore files, fields not in it are
+ * empty in the posts; json lines are always parsed entirely.
+ *
+ * @author sixiance
+ */
+public abstract class PostInput {
+
+  public static PostInput open(String path, int columns) throws IOException {
+    return open(path, columns, Boolean.getBoolean("recordreader.readahead"));
+  }
+
+  /**
+   * @param readAhead parse json lines in the read-ahead mode of RecordReader.
+   */
+  public static PostInput open(String path, int columns, boolean readAhead)
+  throws IOException {
+    if (PostStore.isPostStore(path)) {
+      return new StoreInput(new PostStoreReader(path, columns));
+    }
+    return new JsonInput(new RecordReader(path, "UTF-8",
+        RecordReader.detectType(path), RecordReader.detectFs(path),
+        readAhead));
+  }
+
+  public abstract boolean next() throws IOException;
+
+  /**
+   * The current post as Post or DoubanPost.
+   */
+  public abstract <T extends Post> T get(Class<T> type) throws IOException;
+
+  /**
+   * The key of the record for json lines, the post id for PostStore files.
+   */
+  public abstract String key();
+
+  public abstract int numRead();
+
+  public abstract void close() throws IOException;
+
+  private static class JsonInput extends PostInput {
+    private RecordReader reader;
+    private JsonUtil J = new JsonUtil();
+
+    JsonInput(RecordReader reader) {
+      this.reader = reader;
+    }
+
+    public boolean next() throws IOException {
+      return reader.next();
+    }
+
+    public <T extends Post> T get(Class<T> type) throws IOException {
+      return J.fromJson(reader.value(), type);
+    }
+
+    public String key() {
+      return reader.key();
+    }
+
+    public int numRead() {
+      return reader.numRead();
+    }
+
+    public void close() throws IOException {
+      reader.close();
+    }
+  }
+
+  private static class StoreInput extends PostInput {
+    private PostStoreReader reader;
+
+    StoreInput(PostStoreReader reader) {
+      this.reader = reader;
+    }
+
+    public boolean next() throws IOException {
+      return reader.next();
+    }
+
+    public <T extends Post> T get(Class<T> type) {
+      if (type == DoubanPost.class) {
+        return type.cast(reader.doubanPost());
+      }
+      if (type != Post.class) {
+        throw new IllegalArgumentException(
+            "post stores only hold Post and DoubanPost");
+      }
+      return type.cast(reader.post());
+    }
+
+    public String key() {
+      return reader.id();
+    }
+
+    public int numRead() {
+      return reader.numRead();
+    }
+
+    public void close() throws IOException {
+      reader.close();
+    }
+  }
+}
@@ -0,0 +1,146 @@
+package org.thunlp.tagsuggest.common;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+/**
+ * Columnar binary container of posts, an alternative to Post@json lines for
+ * datasets that are read many times. Files are recognized by the ".posts"
+ * extension.
+ *
+ * Posts are stored in row groups of ROWS_PER_GROUP posts. Every column of a
+ * row group is a separately deflated chunk, so a PostStoreReader inflates and
+ * decodes only the columns it was asked for: counting tags reads the TAGS
+ * chunks and skips the text entirely. Users, folds, tags and tokens are
+ * dictionary encoded; the dictionaries are in the footer.
+ *
+ * Layout:
+ *   magic, version,
+ *   row groups: one deflated chunk per column,
+ *   footer: #groups, per group #rows and per column (offset, compressed
+ *     length, raw length), then the user, fold, tag and word dictionaries,
+ *   footer offset, magic.
+ *
+ * Inside a chunk integers are variable length and strings are a length and
+ * UTF-8 bytes. TOKENS are the whitespace separated words of the content,
+ * which is already segmented in our datasets; TAGS are Post.getTags() and
+ * DOUBAN_TAGS the tag counts of a DoubanPost, with the same tag dictionary.
+ *
+ * @author sixiance
+ */
+public class PostStore {
+  public static final int ID = 1;
+  public static final int RESOURCE = 1 << 1;
+  public static final int USER = 1 << 2;
+  public static final int TIMESTAMP = 1 << 3;
+  public static final int FOLD = 1 << 4;
+  public static final int TAGS = 1 << 5;
+  public static final int DOUBAN_TAGS = 1 << 6;
+  public static final int TOKENS = 1 << 7;
+  public static final int TITLE = 1 << 8;
+  public static final int CONTENT = 1 << 9;
+  public static final int ALL = (1 << 10) - 1;
+  static final int NUM_COLUMNS = 10;
+
+  static final int MAGIC = 0x50535452;
+  static final int VERSION = 1;
+  static final int ROWS_PER_GROUP = 4096;
+  public static final String EXTENSION = ".posts";
+
+  public static boolean isPostStore(String path) {
+    return path.endsWith(EXTENSION);
+  }
+
+  /**
+   * Growable byte buffer of one column chunk, written while a row group
+   * fills up and read back after it is inflated.
+   */
+  static class Chunk {
+    byte [] data;
+    int length = 0;
+    int position = 0;
+
+    Chunk(int capacity) {
+      data = new byte[capacity];
+    }
+
+    void clear() {
+      length = 0;
+      position = 0;
+    }
+
+    void reset(int length) {
+      if (data.length < length) {
+        data = new byte[length];
+      }
+      this.length = length;
+      position = 0;
+    }
+
+    private void ensure(int n) {
+      if (length + n > data.length) {
+        data = Arrays.copyOf(data, Math.max(data.length * 2, length + n));
+      }
+    }
+
+    void writeVarLong(long v) {
+      ensure(10);
+      while ((v & ~0x7fL) != 0) {
+        data[length++] = (byte) ((v & 0x7f) | 0x80);
+        v >>>= 7;
+      }
+      data[length++] = (byte) v;
+    }
+
+    void writeVarInt(int v) {
+      writeVarLong(v & 0xffffffffL);
+    }
+
+    void writeString(String s) {
+      byte [] bytes = encode(s == null ? "" : s);
+      writeVarInt(bytes.length);
+      ensure(bytes.length);
+      System.arraycopy(bytes, 0, data, length, bytes.length);
+      length += bytes.length;
+    }
+
+    long readVarLong() {
+      long v = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = data[position++];
+        v |= (long) (b & 0x7f) << shift;
+        shift += 7;
+      } while (b < 0);
+      return v;
+    }
+
+    int readVarInt() {
+      return (int) readVarLong();
+    }
+
+    String readString() {
+      int n = readVarInt();
+      String s = decode(data, position, n);
+      position += n;
+      return s;
+    }
+  }
+
+  static byte [] encode(String s) {
+    try {
+      return s.getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  static String decode(byte [] data, int offset, int length) {
+    try {
+      return new String(data, offset, length, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,396 @@
+package org.thunlp.tagsuggest.common;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.thunlp.tagsuggest.common.PostStore.Chunk;
+
+/**
+ * Read posts from a PostStore file, inflating and decoding only the
+ * projected columns, e.g. PostStore.TAGS | PostStore.FOLD. The accessors
+ * of columns not in the projection return empty values.
+ *
+ * The fields of the current post are available as dictionary ids through
+ * tagIds(), tokenIds() etc., which do not create any object, or as a Post
+ * through post() and doubanPost().
+ *
+ * @author sixiance
+ */
+public class PostStoreReader {
+  private RandomAccessFile file;
+  private int columns;
+  // Only posts of this fold, or of any other fold when excludeFold is set.
+  // A fold not in the file is -1, which matches no post.
+  private boolean filterFold = false;
+  private int fold = -1;
+  private boolean excludeFold = false;
+
+  private int numGroups;
+  private int [] groupRows;
+  private long [][] chunkOffsets;
+  private int [][] compressedLengths;
+  private int [][] rawLengths;
+  private String [] users;
+  private String [] folds;
+  private String [] tags;
+  private String [] words;
+
+  private Chunk [] chunks = new Chunk[PostStore.NUM_COLUMNS];
+  private byte [] compressed = new byte[1 << 16];
+  private Inflater inflater = new Inflater();
+  private int group = -1;
+  private int rowInGroup = 0;
+  private int numRead = 0;
+
+  // The current post.
+  private String id = "";
+  private String resourceKey = "";
+  private int user = -1;
+  private long timestamp = 0;
+  private int postFold = -1;
+  private int numTags = 0;
+  private int [] tagIds = new int[16];
+  private int numDoubanTags = 0;
+  private int [] doubanTagIds = new int[16];
+  private int [] doubanTagCounts = new int[16];
+  private int numTokens = 0;
+  private int [] tokenIds = new int[256];
+  private String title = "";
+  private String content = "";
+
+  public PostStoreReader(String path, int columns) throws IOException {
+    file = new RandomAccessFile(path, "r");
+    this.columns = columns;
+    for (int c = 0; c < chunks.length; c++) {
+      chunks[c] = new Chunk(0);
+    }
+    readFooter(path);
+  }
+
+  public static PostStoreReader openFold(String path, String fold,
+      int columns) throws IOException {
+    PostStoreReader reader = new PostStoreReader(path,
+        columns | PostStore.FOLD);
+    reader.setFold(fold, false);
+    return reader;
+  }
+
+  public static PostStoreReader openWithoutFold(String path, String fold,
+      int columns) throws IOException {
+    PostStoreReader reader = new PostStoreReader(path,
+        columns | PostStore.FOLD);
+    reader.setFold(fold, true);
+    return reader;
+  }
+
+  private void setFold(String name, boolean exclude) {
+    fold = -1;
+    for (int i = 0; i < folds.length; i++) {
+      if (folds[i].equals(name)) {
+        fold = i;
+      }
+    }
+    excludeFold = exclude;
+    filterFold = true;
+  }
+
+  private void readFooter(String path) throws IOException {
+    long length = file.length();
+    if (length < 20) {
+      throw new IOException("not a post store: " + path);
+    }
+    file.seek(length - 12);
+    long footer = file.readLong();
+    if (file.readInt() != PostStore.MAGIC) {
+      throw new IOException("not a post store: " + path);
+    }
+    file.seek(footer);
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        Channels.newInputStream(file.getChannel()), 1 << 16));
+    numGroups = in.readInt();
+    groupRows = new int[numGroups];
+    chunkOffsets = new long[numGroups][PostStore.NUM_COLUMNS];
+    compressedLengths = new int[numGroups][PostStore.NUM_COLUMNS];
+    rawLengths = new int[numGroups][PostStore.NUM_COLUMNS];
+    for (int g = 0; g < numGroups; g++) {
+      groupRows[g] = in.readInt();
+      for (int c = 0; c < PostStore.NUM_COLUMNS; c++) {
+        chunkOffsets[g][c] = in.readLong();
+        compressedLengths[g][c] = in.readInt();
+        rawLengths[g][c] = in.readInt();
+      }
+    }
+    users = readDictionary(in);
+    folds = readDictionary(in);
+    tags = readDictionary(in);
+    words = readDictionary(in);
+  }
+
+  private String [] readDictionary(DataInputStream in) throws IOException {
+    String [] names = new String[in.readInt()];
+    byte [] buffer = new byte[256];
+    for (int i = 0; i < names.length; i++) {
+      int n = in.readInt();
+      if (n > buffer.length) {
+        buffer = new byte[n * 2];
+      }
+      in.readFully(buffer, 0, n);
+      names[i] = PostStore.decode(buffer, 0, n);
+    }
+    return names;
+  }
+
+  /**
+   * Total number of posts in the file, of all folds.
+   */
+  public int numPosts() {
+    int n = 0;
+    for (int rows : groupRows) {
+      n += rows;
+    }
+    return n;
+  }
+
+  public boolean next() throws IOException {
+    while (true) {
+      while (group < 0 || rowInGroup == groupRows[group]) {
+        if (group + 1 >= numGroups) {
+          return false;
+        }
+        loadGroup(group + 1);
+      }
+      rowInGroup++;
+      decodeRow();
+      if (!filterFold || (postFold == fold) != excludeFold) {
+        numRead++;
+        return true;
+      }
+    }
+  }
+
+  private void loadGroup(int g) throws IOException {
+    group = g;
+    rowInGroup = 0;
+    for (int c = 0; c < PostStore.NUM_COLUMNS; c++) {
+      if ((columns & (1 << c)) == 0) {
+        continue;
+      }
+      int n = compressedLengths[g][c];
+      if (compressed.length < n) {
+        compressed = new byte[n];
+      }
+      file.seek(chunkOffsets[g][c]);
+      file.readFully(compressed, 0, n);
+      Chunk chunk = chunks[c];
+      chunk.reset(rawLengths[g][c]);
+      inflater.reset();
+      inflater.setInput(compressed, 0, n);
+      try {
+        int done = 0;
+        while (done < chunk.length) {
+          int m = inflater.inflate(chunk.data, done, chunk.length - done);
+          if (m == 0 && (inflater.finished() || inflater.needsInput())) {
+            throw new IOException("truncated column chunk");
+          }
+          done += m;
+        }
+      } catch (DataFormatException e) {
+        throw new IOException("broken column chunk: " + e.getMessage());
+      }
+    }
+  }
+
+  private boolean has(int column) {
+    return (columns & column) != 0;
+  }
+
+  private Chunk chunk(int column) {
+    return chunks[Integer.numberOfTrailingZeros(column)];
+  }
+
+  private void decodeRow() {
+    if (has(PostStore.ID)) {
+      id = chunk(PostStore.ID).readString();
+    }
+    if (has(PostStore.RESOURCE)) {
+      resourceKey = chunk(PostStore.RESOURCE).readString();
+    }
+    if (has(PostStore.USER)) {
+      user = chunk(PostStore.USER).readVarInt();
+    }
+    if (has(PostStore.TIMESTAMP)) {
+      timestamp = chunk(PostStore.TIMESTAMP).readVarLong();
+    }
+    if (has(PostStore.FOLD)) {
+      postFold = chunk(PostStore.FOLD).readVarInt();
+    }
+    if (has(PostStore.TAGS)) {
+      Chunk c = chunk(PostStore.TAGS);
+      numTags = c.readVarInt();
+      if (numTags > tagIds.length) {
+        tagIds = new int[numTags * 2];
+      }
+      for (int i = 0; i < numTags; i++) {
+        tagIds[i] = c.readVarInt();
+      }
+    }
+    if (has(PostStore.DOUBAN_TAGS)) {
+      Chunk c = chunk(PostStore.DOUBAN_TAGS);
+      numDoubanTags = c.readVarInt();
+      if (numDoubanTags > doubanTagIds.length) {
+        doubanTagIds = new int[numDoubanTags * 2];
+        doubanTagCounts = new int[numDoubanTags * 2];
+      }
+      for (int i = 0; i < numDoubanTags; i++) {
+        doubanTagIds[i] = c.readVarInt();
+        doubanTagCounts[i] = c.readVarInt();
+      }
+    }
+    if (has(PostStore.TOKENS)) {
+      Chunk c = chunk(PostStore.TOKENS);
+      numTokens = c.readVarInt();
+      if (numTokens > tokenIds.length) {
+        tokenIds = new int[numTokens * 2];
+      }
+      for (int i = 0; i < numTokens; i++) {
+        tokenIds[i] = c.readVarInt();
+      }
+    }
+    if (has(PostStore.TITLE)) {
+      title = chunk(PostStore.TITLE).readString();
+    }
+    if (has(PostStore.CONTENT)) {
+      content = chunk(PostStore.CONTENT).readString();
+    }
+  }
+
+  public String id() {
+    return id;
+  }
+
+  public String resourceKey() {
+    return resourceKey;
+  }
+
+  public String userId() {
+    return user < 0 ? "" : users[user];
+  }
+
+  public long timestamp() {
+    return timestamp;
+  }
+
+  public String fold() {
+    return postFold < 0 ? "" : folds[postFold];
+  }
+
+  public int numTags() {
+    return numTags;
+  }
+
+  /**
+   * Ids of the tags of the current post, the first numTags() are valid.
+   */
+  public int [] tagIds() {
+    return tagIds;
+  }
+
+  public int numDoubanTags() {
+    return numDoubanTags;
+  }
+
+  public int [] doubanTagIds() {
+    return doubanTagIds;
+  }
+
+  public int [] doubanTagCounts() {
+    return doubanTagCounts;
+  }
+
+  public int numTokens() {
+    return numTokens;
+  }
+
+  /**
+   * Ids of the words of the content, the first numTokens() are valid.
+   */
+  public int [] tokenIds() {
+    return tokenIds;
+  }
+
+  public String title() {
+    return title;
+  }
+
+  public String content() {
+    return content;
+  }
+
+  public String tag(int tagId) {
+    return tags[tagId];
+  }
+
+  public int numTagsInDictionary() {
+    return tags.length;
+  }
+
+  public String word(int wordId) {
+    return words[wordId];
+  }
+
+  public int numWordsInDictionary() {
+    return words.length;
+  }
+
+  public int numRead() {
+    return numRead;
+  }
+
+  /**
+   * The current post as a Post, with the projected fields set.
+   */
+  public Post post() {
+    Post p = new Post();
+    fill(p);
+    return p;
+  }
+
+  public DoubanPost doubanPost() {
+    DoubanPost p = new DoubanPost();
+    fill(p);
+    HashMap<String, Integer> counts = new HashMap<String, Integer>();
+    for (int i = 0; i < numDoubanTags; i++) {
+      counts.put(tags[doubanTagIds[i]], doubanTagCounts[i]);
+    }
+    p.setDoubanTags(counts);
+    return p;
+  }
+
+  private void fill(Post p) {
+    p.setId(id);
+    p.setResourceKey(resourceKey);
+    p.setUserId(userId());
+    p.setTimestamp(timestamp);
+    p.setExtras(fold());
+    Set<String> postTags = new HashSet<String>();
+    for (int i = 0; i < numTags; i++) {
+      postTags.add(tags[tagIds[i]]);
+    }
+    p.setTags(postTags);
+    p.setTitle(title);
+    p.setContent(content);
+  }
+
+  public void close() throws IOException {
+    inflater.end();
+    file.close();
+  }
+}
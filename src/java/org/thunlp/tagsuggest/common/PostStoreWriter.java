@@ -0,0 +1,172 @@
+package org.thunlp.tagsuggest.common;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+
+import org.thunlp.tagsuggest.common.PostStore.Chunk;
+
+/**
+ * Write posts to a PostStore file. Posts are buffered until a row group is
+ * full, then every column of the group is deflated and written.
+ *
+ * @author sixiance
+ */
+public class PostStoreWriter {
+  private static Pattern SPACES = Pattern.compile("\\s+");
+
+  private DataOutputStream out;
+  private long offset = 0;
+  private Chunk [] columns = new Chunk[PostStore.NUM_COLUMNS];
+  private int rows = 0;
+  private Deflater deflater = new Deflater();
+  private byte [] compressed = new byte[1 << 16];
+
+  // Per group: #rows, then (offset, compressed length, raw length) per column.
+  private List<long[]> groups = new ArrayList<long[]>();
+  private Dictionary users = new Dictionary();
+  private Dictionary folds = new Dictionary();
+  private Dictionary tags = new Dictionary();
+  private Dictionary words = new Dictionary();
+
+  private static class Dictionary {
+    Map<String, Integer> ids = new HashMap<String, Integer>();
+    List<String> names = new ArrayList<String>();
+
+    int get(String name) {
+      if (name == null) {
+        name = "";
+      }
+      Integer id = ids.get(name);
+      if (id == null) {
+        id = names.size();
+        ids.put(name, id);
+        names.add(name);
+      }
+      return id;
+    }
+  }
+
+  public PostStoreWriter(String path) throws IOException {
+    out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(path), 1 << 16));
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = new Chunk(1 << 12);
+    }
+    out.writeInt(PostStore.MAGIC);
+    out.writeInt(PostStore.VERSION);
+    offset = 8;
+  }
+
+  public void add(Post p) throws IOException {
+    column(PostStore.ID).writeString(p.getId());
+    column(PostStore.RESOURCE).writeString(p.getResourceKey());
+    column(PostStore.USER).writeVarInt(users.get(p.getUserId()));
+    column(PostStore.TIMESTAMP).writeVarLong(p.getTimestamp());
+    column(PostStore.FOLD).writeVarInt(folds.get(p.getExtras()));
+
+    Chunk tagColumn = column(PostStore.TAGS);
+    if (p.getTags() == null) {
+      tagColumn.writeVarInt(0);
+    } else {
+      tagColumn.writeVarInt(p.getTags().size());
+      for (String tag : p.getTags()) {
+        tagColumn.writeVarInt(tags.get(tag));
+      }
+    }
+    Chunk doubanColumn = column(PostStore.DOUBAN_TAGS);
+    if (p instanceof DoubanPost
+        && ((DoubanPost) p).getDoubanTags() != null) {
+      Map<String, Integer> counts = ((DoubanPost) p).getDoubanTags();
+      doubanColumn.writeVarInt(counts.size());
+      for (Map.Entry<String, Integer> e : counts.entrySet()) {
+        doubanColumn.writeVarInt(tags.get(e.getKey()));
+        doubanColumn.writeVarInt(e.getValue());
+      }
+    } else {
+      doubanColumn.writeVarInt(0);
+    }
+
+    String content = p.getContent() == null ? "" : p.getContent();
+    Chunk tokenColumn = column(PostStore.TOKENS);
+    String [] tokens = SPACES.split(content.trim());
+    if (tokens.length == 1 && tokens[0].length() == 0) {
+      tokenColumn.writeVarInt(0);
+    } else {
+      tokenColumn.writeVarInt(tokens.length);
+      for (String token : tokens) {
+        tokenColumn.writeVarInt(words.get(token));
+      }
+    }
+    column(PostStore.TITLE).writeString(p.getTitle());
+    column(PostStore.CONTENT).writeString(content);
+
+    rows++;
+    if (rows == PostStore.ROWS_PER_GROUP) {
+      flushGroup();
+    }
+  }
+
+  private Chunk column(int flag) {
+    return columns[Integer.numberOfTrailingZeros(flag)];
+  }
+
+  private void flushGroup() throws IOException {
+    if (rows == 0) {
+      return;
+    }
+    long [] group = new long[1 + 3 * columns.length];
+    group[0] = rows;
+    for (int c = 0; c < columns.length; c++) {
+      Chunk chunk = columns[c];
+      deflater.reset();
+      deflater.setInput(chunk.data, 0, chunk.length);
+      deflater.finish();
+      long start = offset;
+      while (!deflater.finished()) {
+        int n = deflater.deflate(compressed);
+        out.write(compressed, 0, n);
+        offset += n;
+      }
+      group[1 + 3 * c] = start;
+      group[2 + 3 * c] = offset - start;
+      group[3 + 3 * c] = chunk.length;
+      chunk.clear();
+    }
+    groups.add(group);
+    rows = 0;
+  }
+
+  public void close() throws IOException {
+    flushGroup();
+    deflater.end();
+    long footer = offset;
+    out.writeInt(groups.size());
+    for (long [] group : groups) {
+      out.writeInt((int) group[0]);
+      for (int c = 0; c < columns.length; c++) {
+        out.writeLong(group[1 + 3 * c]);
+        out.writeInt((int) group[2 + 3 * c]);
+        out.writeInt((int) group[3 + 3 * c]);
+      }
+    }
+    for (Dictionary dict : new Dictionary[] {users, folds, tags, words}) {
+      out.writeInt(dict.names.size());
+      for (String name : dict.names) {
+        byte [] bytes = PostStore.encode(name);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+    }
+    out.writeLong(footer);
+    out.writeInt(PostStore.MAGIC);
+    out.close();
+  }
+}
@@ -0,0 +1,94 @@
+package org.thunlp.tagsuggest.common;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Features of a post shared by the extractors of several suggesters, so
+ * that a post given to all of them, like in an evaluation which compares
+ * suggesters, is segmented once for each distinct extractor setting.
+ *
+ * Features are only kept for the posts between share() and release(), and
+ * looked up by the identity of the post. Concurrent extractions of the same
+ * post and setting run once and share the result.
+ *
+ * @author sixiance
+ */
+public class SharedFeatures {
+  private static ConcurrentHashMap<PostKey,
+      ConcurrentHashMap<Object, FutureTask<String []>>> shared =
+        new ConcurrentHashMap<PostKey,
+          ConcurrentHashMap<Object, FutureTask<String []>>>();
+
+  public static void share(Post p) {
+    shared.put(new PostKey(p),
+        new ConcurrentHashMap<Object, FutureTask<String []>>());
+  }
+
+  public static void release(Post p) {
+    shared.remove(new PostKey(p));
+  }
+
+  public static boolean isShared(Post p) {
+    return !shared.isEmpty() && shared.containsKey(new PostKey(p));
+  }
+
+  /**
+   * The features of the post for the given extractor setting, extracted on
+   * the first call. Callers get their own copy.
+   */
+  public static String [] get(Post p, Object setting,
+      Callable<String []> extract) {
+    ConcurrentHashMap<Object, FutureTask<String []>> features =
+      shared.get(new PostKey(p));
+    FutureTask<String []> task = new FutureTask<String []>(extract);
+    FutureTask<String []> running = (features == null) ? null
+        : features.putIfAbsent(setting, task);
+    if (running == null) {
+      running = task;
+      task.run();
+    }
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return running.get().clone();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof RuntimeException) {
+            throw (RuntimeException) e.getCause();
+          }
+          if (e.getCause() instanceof Error) {
+            throw (Error) e.getCause();
+          }
+          throw new IllegalStateException(e.getCause());
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private static class PostKey {
+    Post post;
+
+    PostKey(Post post) {
+      this.post = post;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(post);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return (o instanceof PostKey) && ((PostKey) o).post == post;
+    }
+  }
+}
@@ -0,0 +1,221 @@
+package org.thunlp.tagsuggest.common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.logging.Logger;
+
+import org.thunlp.text.FrozenVocabulary;
+
+/**
+ * Read-only undirected tag-user-word graph in compressed sparse row (CSR)
+ * layout. Nodes have int ids: the tags come first, then the users, then the
+ * words, so the type of a node is known from its id. The neighbours of node
+ * i are cols[rowStart[i] .. rowStart[i+1]) with the weights in the same
+ * positions of weights; every edge is stored in both directions.
+ *
+ * The binary file written by save() is:
+ *   magic, version, #tags, #users, #words, #edges,
+ *   rowStart, cols, weights, then the names of all nodes in id order.
+ *
+ * @author sixiance
+ */
+public class TagGraph {
+  private static Logger LOG = Logger.getAnonymousLogger();
+  private static int MAGIC = 0x54475246;
+  private static int VERSION = 1;
+  private static int BUFFER_SIZE = 1 << 16;
+
+  public static final int TAG = 0;
+  public static final int USER = 1;
+  public static final int WORD = 2;
+
+  // First id of each type, and the number of nodes at the end.
+  private int [] typeStart = new int[4];
+  private int [] rowStart;
+  private int [] cols;
+  private float [] weights;
+  // Sum of the weights of the edges of each node.
+  private float [] degrees;
+  private FrozenVocabulary [] names = new FrozenVocabulary[3];
+
+  /**
+   * Build a graph from edges already sorted by (from, to), each in both
+   * directions. The names are by type and local id.
+   */
+  public TagGraph(String [] tags, String [] users, String [] words,
+      int [] rowStart, int [] cols, float [] weights) {
+    this.rowStart = rowStart;
+    this.cols = cols;
+    this.weights = weights;
+    setNames(tags, users, words);
+    computeDegrees();
+  }
+
+  private TagGraph() {
+  }
+
+  private void setNames(String [] tags, String [] users, String [] words) {
+    String [][] byType = {tags, users, words};
+    for (int t = 0; t < 3; t++) {
+      typeStart[t + 1] = typeStart[t] + byType[t].length;
+      names[t] = new FrozenVocabulary(byType[t]);
+    }
+  }
+
+  private void computeDegrees() {
+    degrees = new float[numNodes()];
+    for (int i = 0; i < degrees.length; i++) {
+      float sum = 0;
+      for (int e = rowStart[i]; e < rowStart[i + 1]; e++) {
+        sum += weights[e];
+      }
+      degrees[i] = sum;
+    }
+  }
+
+  public int numNodes() {
+    return typeStart[3];
+  }
+
+  public int numEdges() {
+    return cols.length;
+  }
+
+  public int numNodes(int type) {
+    return typeStart[type + 1] - typeStart[type];
+  }
+
+  /**
+   * The id of the node of the given type, or -1.
+   */
+  public int nodeId(int type, String name) {
+    int id = names[type].getId(name);
+    return id < 0 ? -1 : typeStart[type] + id;
+  }
+
+  public int type(int node) {
+    return node < typeStart[USER] ? TAG : node < typeStart[WORD] ? USER : WORD;
+  }
+
+  public String name(int node) {
+    int type = type(node);
+    return names[type].get(node - typeStart[type]);
+  }
+
+  public boolean isTag(int node) {
+    return node < typeStart[USER];
+  }
+
+  public int rowStart(int node) {
+    return rowStart[node];
+  }
+
+  public int rowEnd(int node) {
+    return rowStart[node + 1];
+  }
+
+  public int neighbourAt(int e) {
+    return cols[e];
+  }
+
+  public float weightAt(int e) {
+    return weights[e];
+  }
+
+  public float degree(int node) {
+    return degrees[node];
+  }
+
+  public void save(File file) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(file), BUFFER_SIZE));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      for (int t = 0; t < 3; t++) {
+        out.writeInt(numNodes(t));
+      }
+      out.writeInt(cols.length);
+      for (int v : rowStart) {
+        out.writeInt(v);
+      }
+      for (int v : cols) {
+        out.writeInt(v);
+      }
+      for (float v : weights) {
+        out.writeFloat(v);
+      }
+      for (int i = 0; i < numNodes(); i++) {
+        out.writeUTF(name(i));
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  public static TagGraph load(File file) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(file), BUFFER_SIZE));
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("not a tag graph: " + file);
+      }
+      String [][] byType = new String[3][];
+      int numNodes = 0;
+      for (int t = 0; t < 3; t++) {
+        byType[t] = new String[in.readInt()];
+        numNodes += byType[t].length;
+      }
+      TagGraph g = new TagGraph();
+      g.rowStart = new int[numNodes + 1];
+      g.cols = new int[in.readInt()];
+      g.weights = new float[g.cols.length];
+      byte [] buffer = new byte[BUFFER_SIZE];
+      readInts(in, buffer, g.rowStart);
+      readInts(in, buffer, g.cols);
+      readFloats(in, buffer, g.weights);
+      for (String [] names : byType) {
+        for (int i = 0; i < names.length; i++) {
+          names[i] = in.readUTF();
+        }
+      }
+      g.setNames(byType[TAG], byType[USER], byType[WORD]);
+      g.computeDegrees();
+      LOG.info("load " + byType[TAG].length + " tags, " + byType[USER].length
+          + " users, " + byType[WORD].length + " words and "
+          + g.cols.length / 2 + " edges");
+      return g;
+    } finally {
+      in.close();
+    }
+  }
+
+  // The arrays are read through a byte buffer, readInt() per element is
+  // several times slower on large graphs.
+  private static void readInts(DataInputStream in, byte [] buffer, int [] a)
+  throws IOException {
+    int perRead = buffer.length / 4;
+    for (int i = 0; i < a.length; i += perRead) {
+      int n = Math.min(perRead, a.length - i);
+      in.readFully(buffer, 0, n * 4);
+      ByteBuffer.wrap(buffer, 0, n * 4).asIntBuffer().get(a, i, n);
+    }
+  }
+
+  private static void readFloats(DataInputStream in, byte [] buffer,
+      float [] a) throws IOException {
+    int perRead = buffer.length / 4;
+    for (int i = 0; i < a.length; i += perRead) {
+      int n = Math.min(perRead, a.length - i);
+      in.readFully(buffer, 0, n * 4);
+      ByteBuffer.wrap(buffer, 0, n * 4).asFloatBuffer().get(a, i, n);
+    }
+  }
+}
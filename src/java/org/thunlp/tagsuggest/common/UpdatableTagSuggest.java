@@ -0,0 +1,20 @@
+package org.thunlp.tagsuggest.common;
+
+import java.io.IOException;
+
+/**
+ * A tagger whose model absorbs new posts through feedback() while it keeps
+ * serving suggest(), and can write its current state back in the same format
+ * that loadModel() reads.
+ */
+public interface UpdatableTagSuggest extends TagSuggest {
+  /**
+   * Make the posts given to feedback() so far visible to suggest().
+   */
+  public void applyUpdates() throws IOException;
+
+  /**
+   * Apply pending updates and save the model to modelPath.
+   */
+  public void saveModel(String modelPath) throws IOException;
+}
@@ -9,22 +9,24 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
 import org.thunlp.html.HtmlReformatter;
-import org.thunlp.io.JsonUtil;
-import org.thunlp.io.RecordReader;
 import org.thunlp.language.chinese.ForwardMaxWordSegment;
 import org.thunlp.language.chinese.LangUtils;
 import org.thunlp.language.chinese.Stopwords;
 import org.thunlp.language.chinese.WordSegment;
+import org.thunlp.metrics.Histogram;
+import org.thunlp.metrics.Metrics;
 import org.thunlp.text.Lexicon;
 import org.thunlp.text.Lexicon.Word;
 
@@ -33,6 +35,8 @@ public class WordFeatureExtractor implements FeatureExtractor {
 	public static int CHINESE = 1;
 	private Properties config = null;
 	private static Logger LOG = Logger.getAnonymousLogger();
+	private static Histogram SEGMENT = Metrics.histogram("extract.segment_ns");
+	private static Histogram EXTRACT = Metrics.histogram("extract.total_ns");
 	WordSegment ws = null;
 	boolean useContent = true;
 	boolean useTitle = true;
@@ -74,8 +78,9 @@ public class WordFeatureExtractor implements FeatureExtractor {
 		}
 
 		WordFeatureExtractor extractor = new WordFeatureExtractor(config);
-		JsonUtil J = new JsonUtil();
-		RecordReader reader = new RecordReader(input);
+		// Post stores are read without the columns the features do not use.
+		PostInput reader = PostInput.open(input, PostStore.TITLE
+				| PostStore.CONTENT | PostStore.TAGS | PostStore.DOUBAN_TAGS);
 		Set<String> filtered = new HashSet<String>();
 		TagFilter tagFilter = new TagFilter(config, null);
 
@@ -87,7 +92,7 @@ public class WordFeatureExtractor implements FeatureExtractor {
 
 		if (dataType.equals("DoubanPost") ){
 				while (reader.next()) {
-					DoubanPost p = J.fromJson(reader.value(), DoubanPost.class);
+					DoubanPost p = reader.get(DoubanPost.class);
 					String[] features = extractor.extract(p);
 					localWordLex.addDocument(features);
 					tagFilter.filterMapWithNorm(p.getDoubanTags(), filtered);
@@ -106,7 +111,7 @@ public class WordFeatureExtractor implements FeatureExtractor {
 				if (config.getProperty("isSegmented", "false").equals("true")) {
 					if (config.getProperty("useLda", "false").equals("true")) {
 						while (reader.next()) {
-							Post p = J.fromJson(reader.value(), Post.class);
+							Post p = reader.get(Post.class);
 							String[] features = extractor.extractPostLda(p);
 							localWordLex.addDocument(features);
 							tagFilter.filterWithNorm(p.getTags(), filtered);
@@ -123,7 +128,7 @@ public class WordFeatureExtractor implements FeatureExtractor {
 						reader.close();
 					}else{
 						while (reader.next()) {
-							Post p = J.fromJson(reader.value(), Post.class);
+							Post p = reader.get(Post.class);
 							String[] features = extractor.extractPostSegmented(p);
 							localWordLex.addDocument(features);
 							tagFilter.filterWithNorm(p.getTags(), filtered);
@@ -141,7 +146,7 @@ public class WordFeatureExtractor implements FeatureExtractor {
 					}
 				}else{
 					while (reader.next()) {
-						Post p = J.fromJson(reader.value(), Post.class);
+						Post p = reader.get(Post.class);
 						String[] features = extractor.extract(p);
 						localWordLex.addDocument(features);
 						tagFilter.filterWithNorm(p.getTags(), filtered);
@@ -162,7 +167,7 @@ public class WordFeatureExtractor implements FeatureExtractor {
 			if (config.getProperty("isSegmented", "false").equals("true")) {
 				if (config.getProperty("useLda", "false").equals("true")) {
 					while (reader.next()) {
-						KeywordPost p = J.fromJson(reader.value(), KeywordPost.class);
+						KeywordPost p = reader.get(KeywordPost.class);
 						String[] features = extractor.extractKeywordLda(p, true, true,
 								true);
 						localWordLex.addDocument(features);
@@ -180,7 +185,7 @@ public class WordFeatureExtractor implements FeatureExtractor {
 					reader.close();
 				}else{
 					while (reader.next()) {
-						KeywordPost p = J.fromJson(reader.value(), KeywordPost.class);
+						KeywordPost p = reader.get(KeywordPost.class);
 						String[] features = extractor.extractKeywordSegmented(p, true, true,
 								true);
 						localWordLex.addDocument(features);
@@ -199,7 +204,7 @@ public class WordFeatureExtractor implements FeatureExtractor {
 				}
 			}else{
 				while (reader.next()) {
-					KeywordPost p = J.fromJson(reader.value(), KeywordPost.class);
+					KeywordPost p = reader.get(KeywordPost.class);
 					String[] features = extractor.extractKeyword(p, true, true,
 							true);
 					localWordLex.addDocument(features);
@@ -225,6 +230,41 @@ public class WordFeatureExtractor implements FeatureExtractor {
 				+ " tags.");
 	}
 
+	/**
+	 * Build only the tag lexicon of buildLexicons(), without extracting the
+	 * words of the posts. The cached tag lexicon is used if it exists.
+	 */
+	public static void buildTagLexicon(String input, Lexicon taglex,
+			Properties config) throws IOException {
+		File cachedTagLexFile = new File(input + ".taglex");
+		if (cachedTagLexFile.exists()) {
+			LOG.info("Use cached tag lexicon");
+			taglex.loadFromFile(cachedTagLexFile);
+			return;
+		}
+
+		PostInput reader = PostInput.open(input,
+				PostStore.TAGS | PostStore.DOUBAN_TAGS);
+		Set<String> filtered = new HashSet<String>();
+		TagFilter tagFilter = new TagFilter(config, null);
+		String dataType = config.getProperty("dataType", "Post");
+		while (reader.next()) {
+			if (dataType.equals("DoubanPost")) {
+				DoubanPost p = reader.get(DoubanPost.class);
+				tagFilter.filterMapWithNorm(p.getDoubanTags(), filtered);
+			} else if (dataType.equals("KeywordPost")) {
+				KeywordPost p = reader.get(KeywordPost.class);
+				tagFilter.filterWithNorm(p.getTags(), filtered);
+			} else {
+				Post p = reader.get(Post.class);
+				tagFilter.filterWithNorm(p.getTags(), filtered);
+			}
+			taglex.addDocument(filtered.toArray(new String[filtered.size()]));
+		}
+		reader.close();
+		LOG.info("done. " + taglex.getSize() + " tags.");
+	}
+
 	public WordFeatureExtractor() {
 		
 		stopwords = new HashSet<String>();
@@ -371,7 +411,29 @@ public class WordFeatureExtractor implements FeatureExtractor {
 	}
 
 	@Override
-	public String[] extract(Post p) {
+	public String[] extract(final Post p) {
+		if (!SharedFeatures.isShared(p)) {
+			return extractWords(p);
+		}
+		return SharedFeatures.get(p, setting(), new Callable<String[]>() {
+			public String[] call() {
+				return extractWords(p);
+			}
+		});
+	}
+
+	/**
+	 * What the features of a post depend on besides the post.
+	 */
+	private List<Object> setting() {
+		return Arrays.asList(new Object[] {
+				config == null ? null : config.getProperty("model"), useTitle,
+				useContent, useBigram, useSingleChineseChar, useChineseOnly,
+				lang, minWordCount, wordLex });
+	}
+
+	private String[] extractWords(Post p) {
+		long start = EXTRACT.start();
 		String content = "";
 		if (useTitle) {
 			content += " " + p.getTitle();
@@ -383,7 +445,9 @@ public class WordFeatureExtractor implements FeatureExtractor {
 		content = LangUtils.removeLineEnds(content);
 		content = LangUtils.removeExtraSpaces(content);
 		content = content.toLowerCase();
+		long segmentStart = SEGMENT.start();
 		String[] words = ws.segment(content);
+		SEGMENT.stop(segmentStart);
 
 		List<String> filtered = new LinkedList<String>();
 		for (String word : words) {
@@ -431,11 +495,13 @@ public class WordFeatureExtractor implements FeatureExtractor {
 			}
 		}
 
+		EXTRACT.stop(start);
 		return filtered.toArray(new String[filtered.size()]);
 	}
 
 	public String[] extractKeyword(KeywordPost p, boolean containTitle,
 			boolean containSummary, boolean containContent) {
+		long start = EXTRACT.start();
 		String content = "";
 		if (containTitle)
 			content += p.getTitle();
@@ -448,7 +514,9 @@ public class WordFeatureExtractor implements FeatureExtractor {
 		content = LangUtils.removeLineEnds(content);
 		content = LangUtils.removeExtraSpaces(content);
 		content = content.toLowerCase();
+		long segmentStart = SEGMENT.start();
 		String[] words = ws.segment(content);
+		SEGMENT.stop(segmentStart);
 
 		List<String> filtered = new LinkedList<String>();
 		for (String word : words) {
@@ -496,6 +564,7 @@ public class WordFeatureExtractor implements FeatureExtractor {
 			}
 		}
 
+		EXTRACT.stop(start);
 		return filtered.toArray(new String[filtered.size()]);
 	}
 	
@@ -796,11 +865,14 @@ public class WordFeatureExtractor implements FeatureExtractor {
 	}
 	
 	public String[] getWords(String content) {
+		long start = EXTRACT.start();
 		content = LangUtils.removePunctuationMarks(content);
 		content = LangUtils.removeLineEnds(content);
 		content = LangUtils.removeExtraSpaces(content);
 		content = content.toLowerCase();
+		long segmentStart = SEGMENT.start();
 		String[] words = ws.segment(content);
+		SEGMENT.stop(segmentStart);
 
 		List<String> filtered = new LinkedList<String>();
 		for (String word : words) {
@@ -848,6 +920,7 @@ public class WordFeatureExtractor implements FeatureExtractor {
 			}
 		}
 
+		EXTRACT.stop(start);
 		return filtered.toArray(new String[filtered.size()]);
 	}
 
@@ -0,0 +1,302 @@
+package org.thunlp.tagsuggest.contentbase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import org.thunlp.metrics.Histogram;
+import org.thunlp.metrics.Metrics;
+import org.thunlp.misc.WeightString;
+import org.thunlp.tagsuggest.common.Post;
+import org.thunlp.tagsuggest.common.TagGraph;
+import org.thunlp.tagsuggest.common.TagSuggest;
+import org.thunlp.tagsuggest.common.WordFeatureExtractor;
+import org.thunlp.tagsuggest.train.TagUserGraphBuilder;
+
+/**
+ * FolkRank on the tag-user-word graph written by TagUserGraphBuilder. The
+ * preference is put on the user of the post (folkrank_user_weight) and on its
+ * words (by term frequency, 1 in total), and the weight of a tag is its
+ * personalized PageRank minus its PageRank under a uniform preference, which
+ * is what FolkRank's difference of the two rankings comes down to, as
+ * PageRank is linear in the preference.
+ *
+ * The personalized PageRank is approximated by pushing residual mass from
+ * the seeds (Andersen, Chung and Lang): a node is pushed only while its
+ * residual is at least folkrank_epsilon times its degree, so the work of a
+ * post is bounded by 1 / (epsilon * (1 - damping)) edges, however large the
+ * graph is. The uniform PageRank is computed once, by power iteration, when
+ * the model is loaded.
+ *
+ * Config: "num_tags" (5), "folkrank_damping" (0.7), "folkrank_epsilon"
+ * (1e-5), "folkrank_user_weight" (1), "folkrank_baseline" (true) and
+ * "folkrank_iterations" (30).
+ * @author sixiance
+ *
+ */
+public class FolkRankTagSuggest implements TagSuggest {
+  private static Logger LOG = Logger.getAnonymousLogger();
+  private static Histogram PUSH = Metrics.histogram("folkrank.push_ns");
+  private static Histogram RANK = Metrics.histogram("folkrank.rank_ns");
+  private TagGraph graph = null;
+  private WordFeatureExtractor fe = new WordFeatureExtractor();
+  private int numTags = 5;
+  private float damping = 0.7f;
+  private float epsilon = 1e-5f;
+  private float userWeight = 1.0f;
+  private boolean useBaseline = true;
+  private int iterations = 30;
+  // PageRank of the tags under a uniform preference.
+  private float [] baseline = null;
+
+  /**
+   * Per-thread dense state of the push over all nodes. Only the touched
+   * nodes are reset after a post, so a post costs what it touches.
+   */
+  private ThreadLocal<PushState> states = new ThreadLocal<PushState>() {
+    @Override
+    protected PushState initialValue() {
+      return new PushState(graph.numNodes());
+    }
+  };
+
+  @Override
+  public void feedback(Post p) {
+  }
+
+  @Override
+  public void loadModel(String modelPath) throws IOException {
+    graph = TagGraph.load(
+        new File(modelPath, TagUserGraphBuilder.GRAPH_FILE));
+    states.remove();
+    baseline = useBaseline ? uniformPageRank() : null;
+  }
+
+  @Override
+  public void setConfig(Properties config) {
+    fe = new WordFeatureExtractor(config);
+    numTags = Integer.parseInt(config.getProperty("num_tags", "5"));
+    damping = Float.parseFloat(config.getProperty("folkrank_damping", "0.7"));
+    epsilon = Float.parseFloat(config.getProperty("folkrank_epsilon", "1e-5"));
+    userWeight = Float.parseFloat(
+        config.getProperty("folkrank_user_weight", "1"));
+    useBaseline =
+      config.getProperty("folkrank_baseline", "true").equals("true");
+    iterations = Integer.parseInt(
+        config.getProperty("folkrank_iterations", "30"));
+    if (graph != null) {
+      baseline = useBaseline ? uniformPageRank() : null;
+    }
+  }
+
+  @Override
+  public List<WeightString> suggest(Post p, StringBuilder explain) {
+    return rank(fe.extract(p), p.getUserId(), explain);
+  }
+
+  /**
+   * The tags of the given words and user, user may be null.
+   */
+  List<WeightString> rank(String [] words, String userId,
+      StringBuilder explain) {
+    TagGraph graph = this.graph;
+    float [] baseline = this.baseline;
+    PushState state = states.get();
+    if (state.pagerank.length != graph.numNodes()) {
+      state = new PushState(graph.numNodes());
+      states.set(state);
+    }
+
+    long start = PUSH.start();
+    int numSeeds = 0;
+    for (String word : words) {
+      int w = graph.nodeId(TagGraph.WORD, word);
+      if (w >= 0) {
+        state.addResidual(w, 1.0f / words.length);
+        numSeeds++;
+      }
+    }
+    int user = userId == null ? -1 : graph.nodeId(TagGraph.USER, userId);
+    if (user >= 0) {
+      state.addResidual(user, userWeight);
+    }
+    int numPushes = push(graph, state);
+    PUSH.stop(start);
+
+    start = RANK.start();
+    List<WeightString> tags = new ArrayList<WeightString>();
+    for (int i = 0; i < state.numTouched; i++) {
+      int node = state.touched[i];
+      if (graph.isTag(node)) {
+        // The residual not pushed yet would mostly stay at the node.
+        double weight = state.pagerank[node]
+            + (1 - damping) * state.residual[node];
+        if (baseline != null) {
+          weight -= baseline[node];
+        }
+        tags.add(new WeightString(graph.name(node), weight));
+      }
+    }
+    if (explain != null) {
+      explain.append("<div>seeds:" + numSeeds + (user >= 0 ? " user" : "")
+          + " pushes:" + numPushes + " touched:" + state.numTouched
+          + "</div>");
+    }
+    state.reset();
+    Collections.sort(tags, WeightString.REVERSE_COMPARATOR);
+    if (tags.size() > numTags) {
+      tags = tags.subList(0, numTags);
+    }
+    RANK.stop(start);
+    return tags;
+  }
+
+  /**
+   * Push the residuals of the queued nodes until no node has a residual of
+   * epsilon times its degree. The seeds are scaled to a total of 1 first.
+   * Returns the number of pushes.
+   */
+  private int push(TagGraph graph, PushState state) {
+    float total = 0;
+    for (int i = 0; i < state.numTouched; i++) {
+      total += state.residual[state.touched[i]];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    for (int i = 0; i < state.numTouched; i++) {
+      int node = state.touched[i];
+      state.residual[node] /= total;
+      state.offer(node, epsilon * graph.degree(node));
+    }
+    float restart = 1 - damping;
+    int numPushes = 0;
+    while (state.queueSize > 0) {
+      int u = state.poll();
+      float r = state.residual[u];
+      state.residual[u] = 0;
+      state.pagerank[u] += restart * r;
+      numPushes++;
+      float degree = graph.degree(u);
+      if (degree == 0) {
+        continue;
+      }
+      float spread = damping * r / degree;
+      for (int e = graph.rowStart(u); e < graph.rowEnd(u); e++) {
+        int v = graph.neighbourAt(e);
+        state.addResidual(v, spread * graph.weightAt(e));
+        state.offer(v, epsilon * graph.degree(v));
+      }
+    }
+    return numPushes;
+  }
+
+  /**
+   * PageRank of the tags with a uniform preference, by power iteration over
+   * the whole graph. The mass of nodes without edges goes back to the
+   * preference.
+   */
+  private float [] uniformPageRank() {
+    int n = graph.numNodes();
+    if (n == 0) {
+      return new float[0];
+    }
+    double [] rank = new double[n];
+    double [] next = new double[n];
+    Arrays.fill(rank, 1.0 / n);
+    for (int it = 0; it < iterations; it++) {
+      double dangling = 0;
+      Arrays.fill(next, 0);
+      for (int u = 0; u < n; u++) {
+        float degree = graph.degree(u);
+        if (degree == 0) {
+          dangling += rank[u];
+          continue;
+        }
+        double spread = damping * rank[u] / degree;
+        for (int e = graph.rowStart(u); e < graph.rowEnd(u); e++) {
+          next[graph.neighbourAt(e)] += spread * graph.weightAt(e);
+        }
+      }
+      double teleport = ((1 - damping) + damping * dangling) / n;
+      for (int u = 0; u < n; u++) {
+        next[u] += teleport;
+      }
+      double [] tmp = rank;
+      rank = next;
+      next = tmp;
+    }
+    float [] tagRank = new float[graph.numNodes(TagGraph.TAG)];
+    for (int t = 0; t < tagRank.length; t++) {
+      tagRank[t] = (float) rank[t];
+    }
+    LOG.info("uniform pagerank of " + tagRank.length + " tags in "
+        + iterations + " iterations");
+    return tagRank;
+  }
+
+  private static class PushState {
+    float [] pagerank;
+    float [] residual;
+    // Residuals can be 0 after a node is touched, so they cannot tell.
+    boolean [] isTouched;
+    int [] touched;
+    int numTouched = 0;
+    boolean [] queued;
+    // Circular queue; a node is in it at most once.
+    int [] queue;
+    int head = 0;
+    int queueSize = 0;
+
+    PushState(int numNodes) {
+      pagerank = new float[numNodes];
+      residual = new float[numNodes];
+      isTouched = new boolean[numNodes];
+      touched = new int[numNodes];
+      queued = new boolean[numNodes];
+      queue = new int[numNodes];
+    }
+
+    void addResidual(int node, float delta) {
+      if (!isTouched[node]) {
+        isTouched[node] = true;
+        touched[numTouched++] = node;
+      }
+      residual[node] += delta;
+    }
+
+    void offer(int node, float threshold) {
+      if (!queued[node] && residual[node] > 0 && residual[node] >= threshold) {
+        queued[node] = true;
+        queue[(head + queueSize) % queue.length] = node;
+        queueSize++;
+      }
+    }
+
+    int poll() {
+      int node = queue[head];
+      head = (head + 1) % queue.length;
+      queueSize--;
+      queued[node] = false;
+      return node;
+    }
+
+    void reset() {
+      for (int i = 0; i < numTouched; i++) {
+        int node = touched[i];
+        pagerank[node] = 0.0f;
+        residual[node] = 0.0f;
+        isTouched[node] = false;
+        queued[node] = false;
+      }
+      numTouched = 0;
+      head = 0;
+      queueSize = 0;
+    }
+  }
+}
@@ -2,21 +2,27 @@ package org.thunlp.tagsuggest.contentbase;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.Map.Entry;
 import java.util.logging.Logger;
 
 import org.apache.lucene.analysis.WhitespaceAnalyzer;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
 import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryParser.MultiFieldQueryParser;
 import org.apache.lucene.queryParser.ParseException;
@@ -25,14 +31,32 @@ import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TopDocs;
 import org.thunlp.misc.Counter;
+import org.thunlp.misc.StringUtil;
 import org.thunlp.misc.WeightString;
 import org.thunlp.tagsuggest.common.LegacyFeatureExtractor;
+import org.thunlp.tagsuggest.common.ModelSnapshotter;
 import org.thunlp.tagsuggest.common.Post;
-import org.thunlp.tagsuggest.common.TagSuggest;
+import org.thunlp.tagsuggest.common.TagFilter;
+import org.thunlp.tagsuggest.common.UpdatableTagSuggest;
 
-public class KnnTagSuggest implements TagSuggest {
+/**
+ * Suggest the tags of the k most similar posts in a Lucene index.
+ * 
+ * Feedback posts are added to the index through an IndexWriter opened on
+ * the model. Every "update_batch" posts (1000 by default) the writer is
+ * flushed and a new searcher is swapped in; the old one is closed at the
+ * next swap, after the searches running on it are done.
+ */
+public class KnnTagSuggest implements UpdatableTagSuggest {
   private static Logger LOG = Logger.getAnonymousLogger();
-  private IndexSearcher docsSearcher = null;
+  private volatile IndexSearcher docsSearcher = null;
+  private IndexSearcher retiredSearcher = null;
+  private IndexWriter docsWriter = null;
+  private String modelPath = null;
+  private TagFilter tagFilter = new TagFilter(new Properties(), null);
+  private ModelSnapshotter snapshotter = null;
+  private int updateBatch = 1000;
+  private int numPendingPosts = 0;
   private QueryParser queryParser = null;
   private LegacyFeatureExtractor extractor = new LegacyFeatureExtractor();
   private Properties config = new Properties();
@@ -41,16 +65,102 @@ public class KnnTagSuggest implements TagSuggest {
   private int k = 1;
   private int numKeywords = 10;
   
+  /**
+   * Index the post with the same fields as TrainKnn. The content is
+   * segmented the same way as the queries of suggest().
+   */
   @Override
   public void feedback(Post p) {
-    // Do nothing.
+    String content = extractor.clean(p.getTitle() + " " + p.getContent());
+    String [] words = extractor.getWords(content);
+    Set<String> tags = new HashSet<String>();
+    tagFilter.filter(p.getTags(), tags);
+    if (words.length == 0 || tags.size() == 0) {
+      return;
+    }
+    Document d = new Document();
+    d.add(new Field("doc_id", p.getId(),
+        Field.Store.YES, Field.Index.UN_TOKENIZED));
+    d.add(new Field("content", StringUtil.join(words, " "),
+        Field.Store.YES, Field.Index.TOKENIZED));
+    d.add(new Field("tags", StringUtil.join(tags, " "),
+        Field.Store.YES, Field.Index.TOKENIZED));
+    d.add(new Field("user_id", p.getUserId(),
+        Field.Store.YES, Field.Index.UN_TOKENIZED));
+    boolean apply = false;
+    try {
+      synchronized (this) {
+        if (docsWriter == null) {
+          docsWriter = new IndexWriter(new File(modelPath, "docs"),
+              new WhitespaceAnalyzer(), false);
+        }
+        docsWriter.addDocument(d);
+        numPendingPosts++;
+        apply = numPendingPosts >= updateBatch;
+      }
+      if (apply) {
+        applyUpdates();
+      }
+    } catch (IOException e) {
+      LOG.warning("cannot index feedback post " + p.getId() + ": " + e);
+    }
+  }
+
+  @Override
+  public synchronized void applyUpdates() throws IOException {
+    numPendingPosts = 0;
+    if (docsWriter == null) {
+      return;
+    }
+    docsWriter.flush();
+    IndexSearcher searcher = new IndexSearcher(
+        (new File(modelPath, "docs")).getAbsolutePath());
+    if (retiredSearcher != null) {
+      retiredSearcher.close();
+    }
+    retiredSearcher = docsSearcher;
+    docsSearcher = searcher;
+  }
+
+  @Override
+  public synchronized void saveModel(String path) throws IOException {
+    applyUpdates();
+    File from = new File(modelPath, "docs").getCanonicalFile();
+    File to = new File(path, "docs").getCanonicalFile();
+    if (from.equals(to)) {
+      // The writer has committed everything into the model.
+      return;
+    }
+    if (!to.exists()) {
+      to.mkdirs();
+    }
+    // No merge can run while we hold the lock, so the files are stable.
+    for (File f : from.listFiles()) {
+      if (f.getName().equals("write.lock")) {
+        continue;
+      }
+      File target = new File(to, f.getName());
+      File tmp = ModelSnapshotter.temporary(target);
+      Files.copy(f.toPath(), tmp.toPath(),
+          StandardCopyOption.REPLACE_EXISTING);
+      ModelSnapshotter.replace(tmp, target);
+    }
   }
 
   @Override
   public void loadModel(String modelPath) throws IOException {
+    synchronized (this) {
+      if (docsWriter != null) {
+        docsWriter.close();
+        docsWriter = null;
+      }
+      numPendingPosts = 0;
+    }
+    this.modelPath = modelPath;
     docsSearcher =  new IndexSearcher((new File(modelPath, "docs")).getAbsolutePath());
     String [] fields = {"doc_id", "content", "user_id", "tag"};
     queryParser = new MultiFieldQueryParser(fields, new WhitespaceAnalyzer());
+    snapshotter = ModelSnapshotter.restart(snapshotter, this, config, modelPath);
   }
 
 
@@ -59,6 +169,10 @@ public class KnnTagSuggest implements TagSuggest {
     this.config = config;
     this.k = Integer.parseInt(config.getProperty("k", "1"));
     this.numKeywords = Integer.parseInt(config.getProperty("keywords", "10"));
+    this.updateBatch =
+      Integer.parseInt(config.getProperty("update_batch", "1000"));
+    this.tagFilter = new TagFilter(config, null);
+    snapshotter = ModelSnapshotter.restart(snapshotter, this, config, modelPath);
   }
 
   @Override
@@ -78,9 +192,10 @@ public class KnnTagSuggest implements TagSuggest {
       LOG.warning("Cannot make query from " + p.getId());
       return EMPTY_SUGGESTION;
     }
+    IndexSearcher searcher = docsSearcher;
     TopDocs topDocs;
     try {
-      topDocs = docsSearcher.search(q, null, k);
+      topDocs = searcher.search(q, null, k);
     } catch (IOException e1) {
       LOG.warning("IOException when search for " + p.getId());
       return EMPTY_SUGGESTION;
@@ -93,7 +208,7 @@ public class KnnTagSuggest implements TagSuggest {
       double score = topDocs.scoreDocs[i].score;
       Document doc;
       try {
-        doc = docsSearcher.doc(resultId);
+        doc = searcher.doc(resultId);
       } catch (CorruptIndexException e1) {
         LOG.warning("Corrupted index when searching for " + p.getId());
         return EMPTY_SUGGESTION;
@@ -148,13 +263,14 @@ public class KnnTagSuggest implements TagSuggest {
 
   public List<WeightString> extractKeywords(String content) {
     String [] words = extractor.getWords(content);
+    IndexSearcher searcher = docsSearcher;
     Counter<String> termFreq = new Counter<String>();
     for (String word : words) {
       termFreq.inc(word, 1);
     }
     double maxDocs = 100000;
     try {
-      maxDocs = (double) docsSearcher.maxDoc();
+      maxDocs = (double) searcher.maxDoc();
     } catch (IOException e1) {
       LOG.warning("Cannot query the total number of docs.");
       e1.printStackTrace();
@@ -166,7 +282,7 @@ public class KnnTagSuggest implements TagSuggest {
       double tf = (double) e.getValue() / (double) words.length;
       double df = 1;
       try {
-        df = docsSearcher.docFreq(new Term("content", e.getKey()));
+        df = searcher.docFreq(new Term("content", e.getKey()));
       } catch (IOException e1) {
         LOG.warning("Cannot query document frequency for " + e.getKey());
         e1.printStackTrace();
@@ -0,0 +1,410 @@
+package org.thunlp.tagsuggest.contentbase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import org.thunlp.io.RecordReader;
+import org.thunlp.io.RecordWriter;
+
+/**
+ * Read-only word-tag model of Naive Bayes, stored in compressed sparse row
+ * (CSR) layout. Row w holds the tags observed with word w as
+ * (tagId, n(t,w), p(t|w)) entries, where p(t|w) = n(t,w) / n(w) is
+ * normalized once at load time. Rows are sorted by tag id so a single
+ * entry can be found by binary search.
+ *
+ * The model is converted from the plain text output of TrainNaiveBayes:
+ *   word tag1 count1 tag2 count2 ...
+ *
+ * A model is never modified. merge() returns a new model with more counts,
+ * so readers can keep using the old one while it is built; only the rows of
+ * the updated words are rebuilt.
+ *
+ * @author sixiance
+ */
+public class NaiveBayesModel {
+  private static Logger LOG = Logger.getAnonymousLogger();
+
+  private Map<String, Integer> wordIds;
+  private Map<String, Integer> tagIdMap;
+  private String [] tags;
+  private int [] rowOffsets;
+  private int [] tagIds;
+  private float [] probs;
+  private int [] counts;
+  private long [] wordFreq;
+
+  private NaiveBayesModel() {
+  }
+
+  public static NaiveBayesModel load(String modelPath) throws IOException {
+    Map<String, Integer> wordIds = new ConcurrentHashMap<String, Integer>();
+    Map<String, Integer> tagIdMap = new ConcurrentHashMap<String, Integer>();
+    IntArray rows = new IntArray();
+    IntArray cols = new IntArray();
+    IntArray values = new IntArray();
+
+    RecordReader reader = new RecordReader(modelPath);
+    while (reader.next()) {
+      String [] fields = reader.value().split(" ");
+      if (fields.length < 3 || fields.length % 2 == 0) {
+        LOG.warning("wrong number of columns " + fields.length
+            + ":" + reader.value());
+        continue;
+      }
+      Integer wordId = wordIds.get(fields[0]);
+      if (wordId == null) {
+        wordId = wordIds.size();
+        wordIds.put(fields[0], wordId);
+      }
+      for (int i = 1; i < fields.length; i += 2) {
+        Integer tagId = tagIdMap.get(fields[i]);
+        if (tagId == null) {
+          tagId = tagIdMap.size();
+          tagIdMap.put(fields[i], tagId);
+        }
+        rows.add(wordId);
+        cols.add(tagId);
+        values.add(Integer.parseInt(fields[i + 1]));
+      }
+    }
+    reader.close();
+
+    NaiveBayesModel model = create(wordIds, tagIdMap, rows, cols, values);
+    LOG.info("load " + model.numWords() + " words and " +
+        model.numTags() + " tags, " + model.tagIds.length + " entries");
+    return model;
+  }
+
+  private static NaiveBayesModel create(Map<String, Integer> wordIds,
+      Map<String, Integer> tagIdMap, IntArray rows, IntArray cols,
+      IntArray values) {
+    NaiveBayesModel model = new NaiveBayesModel();
+    model.wordIds = wordIds;
+    model.tagIdMap = tagIdMap;
+    model.tags = new String[tagIdMap.size()];
+    for (Map.Entry<String, Integer> e : tagIdMap.entrySet()) {
+      model.tags[e.getValue()] = e.getKey();
+    }
+    model.build(wordIds.size(), rows, cols, values);
+    return model;
+  }
+
+  /**
+   * Returns a new model with the counts of this one plus the given
+   * word -> tag -> count increments. The rows of the words in the delta are
+   * merged, all other rows are copied as they are. Word and tag ids are only
+   * added, so the newest model shares its id maps with the older ones,
+   * which ignore the ids they do not have rows or tags for. Not
+   * thread-safe: merge one model at a time.
+   */
+  public NaiveBayesModel merge(Map<String, Map<String, Long>> delta) {
+    NaiveBayesModel model = new NaiveBayesModel();
+    model.wordIds = (wordIds.size() == numWords())
+      ? wordIds : idsBelow(wordIds, numWords());
+    model.tagIdMap = (tagIdMap.size() == numTags())
+      ? tagIdMap : idsBelow(tagIdMap, numTags());
+    List<String> newTags = new ArrayList<String>();
+
+    // The merged rows of the touched words, by word id.
+    TreeMap<Integer, long []> rows = new TreeMap<Integer, long []>();
+    for (Map.Entry<String, Map<String, Long>> e : delta.entrySet()) {
+      int wordId = addId(model.wordIds, e.getKey(), null);
+      long [] keys = new long[e.getValue().size()];
+      int n = 0;
+      for (Map.Entry<String, Long> t : e.getValue().entrySet()) {
+        int tagId = addId(model.tagIdMap, t.getKey(), newTags);
+        keys[n++] = ((long) tagId << 32) | (t.getValue() & 0xffffffffL);
+      }
+      rows.put(wordId, mergeRow(wordId, keys));
+    }
+    model.tags = Arrays.copyOf(tags, tags.length + newTags.size());
+    for (int i = 0; i < newTags.size(); i++) {
+      model.tags[tags.length + i] = newTags.get(i);
+    }
+
+    int numWords = model.wordIds.size();
+    int numEntries = tagIds.length;
+    for (Map.Entry<Integer, long []> e : rows.entrySet()) {
+      int w = e.getKey();
+      numEntries += e.getValue().length;
+      if (w < numWords()) {
+        numEntries -= rowEnd(w) - rowStart(w);
+      }
+    }
+    model.rowOffsets = new int[numWords + 1];
+    model.tagIds = new int[numEntries];
+    model.counts = new int[numEntries];
+    model.probs = new float[numEntries];
+    model.wordFreq = Arrays.copyOf(wordFreq, numWords);
+    int out = 0;
+    int next = 0;
+    for (Map.Entry<Integer, long []> e : rows.entrySet()) {
+      int w = e.getKey();
+      out = copyRows(model, next, Math.min(w, numWords()), out);
+      model.rowOffsets[w] = out;
+      long freq = 0;
+      for (long key : e.getValue()) {
+        model.tagIds[out] = (int) (key >>> 32);
+        model.counts[out] = (int) key;
+        freq += (int) key;
+        out++;
+      }
+      for (int i = model.rowOffsets[w]; i < out; i++) {
+        model.probs[i] = (float) (model.counts[i] / (double) freq);
+      }
+      model.wordFreq[w] = freq;
+      next = w + 1;
+    }
+    out = copyRows(model, next, numWords(), out);
+    model.rowOffsets[numWords] = out;
+    return model;
+  }
+
+  /**
+   * Sort the (tag id, count) keys of a word and add them to its row.
+   */
+  private long [] mergeRow(int wordId, long [] keys) {
+    Arrays.sort(keys);
+    int start = wordId < numWords() ? rowStart(wordId) : 0;
+    int end = wordId < numWords() ? rowEnd(wordId) : 0;
+    long [] row = new long[end - start + keys.length];
+    int n = 0;
+    int i = start;
+    for (long key : keys) {
+      int tagId = (int) (key >>> 32);
+      while (i < end && tagIds[i] < tagId) {
+        row[n++] = ((long) tagIds[i] << 32) | (counts[i] & 0xffffffffL);
+        i++;
+      }
+      long count = (int) key;
+      if (i < end && tagIds[i] == tagId) {
+        count += counts[i];
+        i++;
+      }
+      row[n++] = ((long) tagId << 32) | (count & 0xffffffffL);
+    }
+    while (i < end) {
+      row[n++] = ((long) tagIds[i] << 32) | (counts[i] & 0xffffffffL);
+      i++;
+    }
+    return Arrays.copyOf(row, n);
+  }
+
+  /**
+   * Copy the rows [from, to) into the model from entry out on, returns the
+   * entry after them.
+   */
+  private int copyRows(NaiveBayesModel model, int from, int to, int out) {
+    if (from >= to) {
+      return out;
+    }
+    int start = rowOffsets[from];
+    int length = rowOffsets[to] - start;
+    System.arraycopy(tagIds, start, model.tagIds, out, length);
+    System.arraycopy(counts, start, model.counts, out, length);
+    System.arraycopy(probs, start, model.probs, out, length);
+    for (int w = from; w < to; w++) {
+      model.rowOffsets[w] = rowOffsets[w] - start + out;
+    }
+    return out + length;
+  }
+
+  private static int addId(Map<String, Integer> ids, String name,
+      List<String> added) {
+    Integer id = ids.get(name);
+    if (id == null) {
+      id = ids.size();
+      ids.put(name, id);
+      if (added != null) {
+        added.add(name);
+      }
+    }
+    return id;
+  }
+
+  private static Map<String, Integer> idsBelow(Map<String, Integer> ids,
+      int limit) {
+    Map<String, Integer> result = new ConcurrentHashMap<String, Integer>();
+    for (Map.Entry<String, Integer> e : ids.entrySet()) {
+      if (e.getValue() < limit) {
+        result.put(e.getKey(), e.getValue());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Write the model in the format load() reads.
+   */
+  public void save(String modelPath) throws IOException {
+    String [] words = new String[numWords()];
+    for (Map.Entry<String, Integer> e : wordIds.entrySet()) {
+      if (e.getValue() < words.length) {
+        words[e.getValue()] = e.getKey();
+      }
+    }
+    RecordWriter writer = new RecordWriter(modelPath);
+    StringBuilder sb = new StringBuilder();
+    for (int w = 0; w < words.length; w++) {
+      if (rowOffsets[w] == rowOffsets[w + 1])
+        continue;
+      sb.setLength(0);
+      sb.append(words[w]);
+      for (int e = rowOffsets[w]; e < rowOffsets[w + 1]; e++) {
+        sb.append(' ');
+        sb.append(tags[tagIds[e]]);
+        sb.append(' ');
+        sb.append(counts[e]);
+      }
+      writer.add(sb.toString());
+    }
+    writer.close();
+  }
+
+  /**
+   * Counting-sort the (word, tag, count) triples into rows, merge duplicated
+   * tags in a row and normalize each row by n(w).
+   */
+  private void build(int numWords, IntArray rows, IntArray cols,
+      IntArray values) {
+    int [] start = new int[numWords + 1];
+    for (int i = 0; i < rows.size; i++) {
+      start[rows.data[i] + 1]++;
+    }
+    for (int w = 0; w < numWords; w++) {
+      start[w + 1] += start[w];
+    }
+    int [] fill = Arrays.copyOf(start, numWords);
+    long [] sortedKeys = new long[rows.size];
+    for (int i = 0; i < rows.size; i++) {
+      // Pack tag id and count into one key so a row sorts by tag id.
+      sortedKeys[fill[rows.data[i]]++] =
+        ((long) cols.data[i] << 32) | (values.data[i] & 0xffffffffL);
+    }
+
+    rowOffsets = new int[numWords + 1];
+    wordFreq = new long[numWords];
+    IntArray outTags = new IntArray();
+    long [] outCounts = new long[rows.size];
+    for (int w = 0; w < numWords; w++) {
+      Arrays.sort(sortedKeys, start[w], start[w + 1]);
+      rowOffsets[w] = outTags.size;
+      for (int i = start[w]; i < start[w + 1]; i++) {
+        int tagId = (int) (sortedKeys[i] >>> 32);
+        long count = (int) sortedKeys[i];
+        if (outTags.size > rowOffsets[w]
+            && outTags.data[outTags.size - 1] == tagId) {
+          outCounts[outTags.size - 1] += count;
+        } else {
+          outCounts[outTags.size] = count;
+          outTags.add(tagId);
+        }
+        wordFreq[w] += count;
+      }
+    }
+    rowOffsets[numWords] = outTags.size;
+
+    tagIds = Arrays.copyOf(outTags.data, outTags.size);
+    counts = new int[tagIds.length];
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = (int) outCounts[i];
+    }
+    probs = new float[tagIds.length];
+    for (int w = 0; w < numWords; w++) {
+      for (int i = rowOffsets[w]; i < rowOffsets[w + 1]; i++) {
+        probs[i] = (float) (outCounts[i] / (double) wordFreq[w]);
+      }
+    }
+  }
+
+  /**
+   * Returns the row id of a word, or -1 if the word is unknown.
+   */
+  public int wordId(String word) {
+    Integer id = wordIds.get(word);
+    return id == null || id >= numWords() ? -1 : id;
+  }
+
+  public int numWords() {
+    return wordFreq.length;
+  }
+
+  public int numTags() {
+    return tags.length;
+  }
+
+  public String tag(int tagId) {
+    return tags[tagId];
+  }
+
+  public int rowStart(int wordId) {
+    return rowOffsets[wordId];
+  }
+
+  public int rowEnd(int wordId) {
+    return rowOffsets[wordId + 1];
+  }
+
+  public int tagIdAt(int entry) {
+    return tagIds[entry];
+  }
+
+  public float probAt(int entry) {
+    return probs[entry];
+  }
+
+  /**
+   * n(w), the total number of tag occurrences seen with the word.
+   */
+  public long wordFreq(int wordId) {
+    return wordFreq[wordId];
+  }
+
+  /**
+   * Returns p(t|w), or 0 if the tag never occurs with the word.
+   */
+  public float prob(int wordId, int tagId) {
+    int i = Arrays.binarySearch(tagIds, rowOffsets[wordId],
+        rowOffsets[wordId + 1], tagId);
+    return i < 0 ? 0.0f : probs[i];
+  }
+
+  /**
+   * Returns n(t,w), or 0 if the tag never occurs with the word.
+   */
+  public int count(int wordId, int tagId) {
+    int i = Arrays.binarySearch(tagIds, rowOffsets[wordId],
+        rowOffsets[wordId + 1], tagId);
+    return i < 0 ? 0 : counts[i];
+  }
+
+  /**
+   * Returns the id of a tag, or -1 if the tag is unknown.
+   */
+  public int tagId(String tag) {
+    Integer id = tagIdMap.get(tag);
+    return id == null || id >= numTags() ? -1 : id;
+  }
+
+  /**
+   * Minimal growable int array, to avoid boxing while loading.
+   */
+  static class IntArray {
+    int [] data = new int[1024];
+    int size = 0;
+
+    void add(int v) {
+      if (size == data.length) {
+        data = Arrays.copyOf(data, data.length * 2);
+      }
+      data[size++] = v;
+    }
+  }
+}
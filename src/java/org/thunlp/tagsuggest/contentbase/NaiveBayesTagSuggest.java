@@ -1,98 +1,171 @@
 package org.thunlp.tagsuggest.contentbase;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Hashtable;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.Map.Entry;
 import java.util.logging.Logger;
 
-import org.thunlp.io.RecordReader;
 import org.thunlp.misc.Counter;
 import org.thunlp.misc.WeightString;
 import org.thunlp.tagsuggest.common.FeatureExtractor;
 import org.thunlp.tagsuggest.common.GenerativeTagSuggest;
+import org.thunlp.tagsuggest.common.ModelSnapshotter;
 import org.thunlp.tagsuggest.common.Post;
+import org.thunlp.tagsuggest.common.TagFilter;
+import org.thunlp.tagsuggest.common.UpdatableTagSuggest;
 import org.thunlp.tagsuggest.common.WordFeatureExtractor;
 
-public class NaiveBayesTagSuggest implements GenerativeTagSuggest {
+public class NaiveBayesTagSuggest
+  implements GenerativeTagSuggest, UpdatableTagSuggest {
   private static Logger LOG = Logger.getAnonymousLogger();
-  private Map<String, Counter<String>> counts;
+  // Replaced as a whole when updates are merged; readers take one reference
+  // and use it for the whole call.
+  private volatile NaiveBayesModel model = null;
   private FeatureExtractor fe = new WordFeatureExtractor();
-  private Counter<String> nw = new Counter<String>();
-  private Counter<String> tagfreq = new Counter<String>();
+  private TagFilter tagFilter = new TagFilter(new Properties(), null);
+  private Properties config = null;
+  private String modelPath = null;
+  private ModelSnapshotter snapshotter = null;
   private double alpha = 0.01;
 
+  // Word-tag counts from feedback() not merged into the model yet, guarded
+  // by pendingLock; the map itself is replaced at every merge.
+  private Object pendingLock = new Object();
+  private Map<String, Map<String, Long>> pendingCounts =
+    new HashMap<String, Map<String, Long>>();
+  private int numPendingPosts = 0;
+  private int updateBatch = 1000;
+  private Object mergeLock = new Object();
+
+  /**
+   * Per-thread dense accumulator over tag ids. Only the touched entries are
+   * visited when the result is collected, and they are reset afterwards, so
+   * the array is reused across calls without clearing it entirely.
+   */
+  private ThreadLocal<Accumulator> accumulators =
+    new ThreadLocal<Accumulator>() {
+    @Override
+    protected Accumulator initialValue() {
+      return new Accumulator(model.numTags());
+    }
+  };
+
+  /**
+   * Count the post the way TrainNaiveBayes does: every word occurrence with
+   * every tag. The counts are merged into a new model every update_batch
+   * posts, or by applyUpdates(); the merge rebuilds only the rows of the
+   * counted words.
+   */
   @Override
   public void feedback(Post p) {
-    // Not supported.
+    String [] words = fe.extract(p);
+    Set<String> filtered = new HashSet<String>();
+    tagFilter.filter(p.getTags(), filtered);
+    if (words.length == 0 || filtered.size() == 0) {
+      return;
+    }
+    boolean full;
+    synchronized (pendingLock) {
+      for (String w : words) {
+        Map<String, Long> row = pendingCounts.get(w);
+        if (row == null) {
+          row = new HashMap<String, Long>();
+          pendingCounts.put(w, row);
+        }
+        for (String tag : filtered) {
+          Long count = row.get(tag);
+          row.put(tag, count == null ? 1L : count + 1);
+        }
+      }
+      numPendingPosts++;
+      full = numPendingPosts >= updateBatch;
+    }
+    if (full) {
+      applyUpdates();
+    }
   }
 
   @Override
-  public void loadModel(String modelPath) throws IOException {
-    counts = new Hashtable<String, Counter<String>>();
-    RecordReader reader = new RecordReader(modelPath);
-    while (reader.next()) {
-      String [] cols = reader.value().split(" ");
-      if (cols.length < 3 || cols.length % 2 == 0) {
-        LOG.warning("wrong number of columns " + cols.length 
-            + ":" + reader.value());
-        continue;
-      }
-      Counter<String> count = counts.get(cols[0]);
-      if (count == null) {
-        count = new Counter<String>();
-        counts.put(cols[0], count);
-      }
-      for (int i = 1; i < cols.length; i += 2) {
-        int n = Integer.parseInt(cols[i+1]);
-        count.inc(cols[i], n);
-        tagfreq.inc(cols[i], n);
-        nw.inc(cols[0], n);
+  public void applyUpdates() {
+    synchronized (mergeLock) {
+      Map<String, Map<String, Long>> delta;
+      synchronized (pendingLock) {
+        if (numPendingPosts == 0) {
+          return;
+        }
+        delta = pendingCounts;
+        pendingCounts = new HashMap<String, Map<String, Long>>();
+        numPendingPosts = 0;
       }
+      model = model.merge(delta);
     }
-    reader.close();
-    LOG.info("load " + nw.size() + " words and " +
-        tagfreq.size() + " tags");
+  }
 
+  @Override
+  public void saveModel(String modelPath) throws IOException {
+    applyUpdates();
+    File target = new File(modelPath);
+    File tmp = ModelSnapshotter.temporary(target);
+    model.save(tmp.getPath());
+    ModelSnapshotter.replace(tmp, target);
+  }
+
+  @Override
+  public void loadModel(String modelPath) throws IOException {
+    this.modelPath = modelPath;
+    model = NaiveBayesModel.load(modelPath);
+    accumulators.remove();
+    snapshotter = ModelSnapshotter.restart(snapshotter, this, config, modelPath);
   }
 
   @Override
   public void setConfig(Properties config) {
+    this.config = config;
     fe = new WordFeatureExtractor(config);
+    tagFilter = new TagFilter(config, null);
+    updateBatch = Integer.parseInt(config.getProperty("update_batch", "1000"));
+    snapshotter = ModelSnapshotter.restart(snapshotter, this, config, modelPath);
   }
 
   @Override
   public List<WeightString> suggest(Post p, StringBuilder explain) {
+    NaiveBayesModel model = this.model;
     String [] words = fe.extract(p);
-    Map<String, Double> ptds = new Hashtable<String, Double>();
-    Counter<String> nwd = new Counter<String>();
-    for (String w : words) {
-      nwd.inc(w, 1);
+    int [] wordIds = knownWordIds(model, words);
+    Accumulator acc = accumulators.get();
+    if (acc.scores.length != model.numTags()) {
+      acc = new Accumulator(model.numTags());
+      accumulators.set(acc);
     }
-    for (Entry<String, Long> w : nwd) {
-      Counter<String> count = counts.get(w.getKey());
-      if (count == null)
-        continue;
-      for (Entry<String, Long> ntw : count) {
-        double ptw = ntw.getValue() / (double) nw.get(w.getKey());
-        double pwd = w.getValue() / (double) words.length;
-        Double ptd = ptds.get(ntw.getKey());
-        if (ptd == null)
-          ptd = 0.0;
-        ptds.put(ntw.getKey(), ptd + ptw * pwd);
+    for (int i = 0; i < wordIds.length; ) {
+      int w = wordIds[i];
+      int tf = 0;
+      while (i < wordIds.length && wordIds[i] == w) {
+        tf++;
+        i++;
+      }
+      float pwd = tf / (float) words.length;
+      for (int e = model.rowStart(w); e < model.rowEnd(w); e++) {
+        acc.add(model.tagIdAt(e), model.probAt(e) * pwd);
       }
     }
 
-    List<WeightString> tags = new ArrayList<WeightString>();
-    for (Entry<String, Double> e : ptds.entrySet()) {
-      tags.add(new WeightString(e.getKey(), e.getValue()));
+    List<WeightString> tags = new ArrayList<WeightString>(acc.numTouched);
+    for (int i = 0; i < acc.numTouched; i++) {
+      int t = acc.touched[i];
+      tags.add(new WeightString(model.tag(t), acc.scores[t]));
     }
+    acc.reset();
     Collections.sort(tags, new Comparator<WeightString>() {
 
       @Override
@@ -106,25 +179,91 @@ public class NaiveBayesTagSuggest implements GenerativeTagSuggest {
 
   @Override
   public void likelihood(Post p, List<Double> likelihoods) {
-    Counter<String> nwd = new Counter<String>();
+    NaiveBayesModel model = this.model;
+    double tagAlpha = model.numTags() * alpha;
+    double wordAlpha = model.numWords() * alpha;
     String [] doc = fe.extract(p);
+    int [] wordIds = knownWordIds(model, doc);
+    // Words unseen in training contribute alpha / (0 + T * alpha) to p(t|w)
+    // regardless of the tag, so they are folded into one term.
+    Counter<String> unknown = new Counter<String>();
     for (String w : doc) {
-      nwd.inc(w, 1);
+      if (model.wordId(w) < 0) {
+        unknown.inc(w, 1);
+      }
+    }
+    double unknownTerm = 0;
+    for (Entry<String, Long> w : unknown) {
+      unknownTerm += (alpha / tagAlpha) *
+        ((w.getValue() + alpha) / (doc.length + wordAlpha));
     }
+
     for (String tag : p.getTags()) {
-      double likelihood = 0;
-      for (Entry<String, Long> w : nwd) {
-        Counter<String> count = counts.get(w.getKey());
-        double ntw = 0;
-        if (count != null)
-          ntw = count.get(tag);
-        double ptw = (ntw + alpha) / 
-          (double) (nw.get(w.getKey()) + tagfreq.size() * alpha);
-        double pwd = (w.getValue() + alpha) /
-          ((double) doc.length + nw.size() * alpha);
+      int t = model.tagId(tag);
+      double likelihood = unknownTerm;
+      for (int i = 0; i < wordIds.length; ) {
+        int w = wordIds[i];
+        int tf = 0;
+        while (i < wordIds.length && wordIds[i] == w) {
+          tf++;
+          i++;
+        }
+        long nw = model.wordFreq(w);
+        int ntw = t < 0 ? 0 : model.count(w, t);
+        double ptw = (ntw + alpha) / (nw + tagAlpha);
+        double pwd = (tf + alpha) / (doc.length + wordAlpha);
         likelihood += ptw * pwd;
       }
       likelihoods.add(likelihood);
     }  
   }
+
+  /**
+   * Maps the words to model row ids, dropping unknown words. The result is
+   * sorted, so equal ids are adjacent and term frequencies are run lengths.
+   */
+  private static int [] knownWordIds(NaiveBayesModel model,
+      String [] words) {
+    int [] ids = new int[words.length];
+    int n = 0;
+    for (String w : words) {
+      int id = model.wordId(w);
+      if (id >= 0) {
+        ids[n++] = id;
+      }
+    }
+    ids = Arrays.copyOf(ids, n);
+    Arrays.sort(ids);
+    return ids;
+  }
+
+  private static class Accumulator {
+    float [] scores;
+    // A score can be 0 after it is touched, so it cannot tell by itself.
+    boolean [] isTouched;
+    int [] touched;
+    int numTouched = 0;
+
+    Accumulator(int numTags) {
+      scores = new float[numTags];
+      isTouched = new boolean[numTags];
+      touched = new int[numTags];
+    }
+
+    void add(int tagId, float delta) {
+      if (!isTouched[tagId]) {
+        isTouched[tagId] = true;
+        touched[numTouched++] = tagId;
+      }
+      scores[tagId] += delta;
+    }
+
+    void reset() {
+      for (int i = 0; i < numTouched; i++) {
+        scores[touched[i]] = 0.0f;
+        isTouched[touched[i]] = false;
+      }
+      numTouched = 0;
+    }
+  }
 }
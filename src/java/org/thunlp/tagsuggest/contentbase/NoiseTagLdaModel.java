@@ -21,7 +21,11 @@ import java.util.logging.Logger;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
+import org.thunlp.metrics.Counter;
+import org.thunlp.metrics.Gauge;
+import org.thunlp.metrics.Metrics;
 import org.thunlp.misc.WeightString;
+import org.thunlp.tagsuggest.common.PackedCorpus;
 
 /**
  * This is a LDA model. It holds all parameters, namely the n(w,z) matrix. It is
@@ -31,6 +35,9 @@ import org.thunlp.misc.WeightString;
  */
 public class NoiseTagLdaModel {
   private static Logger LOG = Logger.getAnonymousLogger();
+  private static Gauge LL = Metrics.gauge("noisetaglda.loglikelihood");
+  private static Gauge SPEED = Metrics.gauge("noisetaglda.tokens_per_sec");
+  private static Counter ITERATIONS = Metrics.counter("noisetaglda.iterations");
   public static int NO_TOPIC = -2;
 
   //////////////////////////////////////////////////////////////////////////////
@@ -217,8 +224,13 @@ public class NoiseTagLdaModel {
     // Training for 100 iterations.
     setLocked(false);
     double [] pzd = new double[numTopics];
+    long numTokens = 0;
+    for (Document d : docs) {
+      numTokens += d.words.length + d.tags.length;
+    }
     for (int i = 0; i < numIterations; i++) {
       double loglikelihood = 0;
+      long start = System.nanoTime();
       for (Document d : docs) {
         if (i == 0) {
           initializeTopics(d);
@@ -227,12 +239,75 @@ public class NoiseTagLdaModel {
             inferenceByGibbsSampling(d, pzd, 0, 1);
         } 
       }
+      double speed = numTokens * 1e9 / Math.max(1, System.nanoTime() - start);
       LOG.info(i + " LL: " + loglikelihood +
-          " NR: " + pnoise() );
+          " NR: " + pnoise() + " tokens/s: " + Math.round(speed));
+      if (i > 0) {
+        LL.set(loglikelihood);
+        SPEED.set(speed);
+      }
+      ITERATIONS.inc();
     }
     setLocked(true);
   }
 
+  /**
+   * Train with a packed corpus. The topics and reasons of all documents are
+   * two int arrays, and a document is turned into a Document only while it
+   * is sampled.
+   */
+  public void train(PackedCorpus corpus, int numIterations) {
+    setLocked(false);
+    double [] pzd = new double[numTopics];
+    int [] topics = new int[corpus.numTokens()];
+    int [] reasons = new int[corpus.numTagTokens()];
+    long numTokens = corpus.numTokens() + corpus.numTagTokens();
+    PackedCorpus.Cursor cursor = corpus.cursor();
+    for (int i = 0; i < numIterations; i++) {
+      double loglikelihood = 0;
+      long start = System.nanoTime();
+      cursor.rewind();
+      while (cursor.next()) {
+        Document d = toDocument(cursor);
+        if (i == 0) {
+          initializeTopics(d);
+        } else {
+          System.arraycopy(
+              topics, cursor.tokenStart(), d.topics, 0, d.topics.length);
+          System.arraycopy(
+              reasons, cursor.tagStart(), d.reasons, 0, d.reasons.length);
+          loglikelihood += 
+            inferenceByGibbsSampling(d, pzd, 0, 1);
+        }
+        System.arraycopy(
+            d.topics, 0, topics, cursor.tokenStart(), d.topics.length);
+        System.arraycopy(
+            d.reasons, 0, reasons, cursor.tagStart(), d.reasons.length);
+      }
+      double speed = numTokens * 1e9 / Math.max(1, System.nanoTime() - start);
+      LOG.info(i + " LL: " + loglikelihood +
+          " NR: " + pnoise() + " tokens/s: " + Math.round(speed));
+      if (i > 0) {
+        LL.set(loglikelihood);
+        SPEED.set(speed);
+      }
+      ITERATIONS.inc();
+    }
+    setLocked(true);
+  }
+
+  private Document toDocument(PackedCorpus.Cursor cursor) {
+    String [] words = new String[cursor.numWords()];
+    for (int i = 0; i < words.length; i++) {
+      words[i] = cursor.word(i);
+    }
+    String [] tags = new String[cursor.numTags()];
+    for (int i = 0; i < tags.length; i++) {
+      tags[i] = cursor.tag(i);
+    }
+    return new Document(words, tags);
+  }
+
   //////////////////////////////////////////////////////////////////////////////
   // Inference methods.
 
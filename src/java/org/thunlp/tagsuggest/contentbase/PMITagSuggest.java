@@ -1,70 +1,389 @@
 package org.thunlp.tagsuggest.contentbase;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 import java.util.Properties;
 
+import org.thunlp.matrix.PagedRowStore;
+import org.thunlp.metrics.Histogram;
+import org.thunlp.metrics.Metrics;
 import org.thunlp.misc.Counter;
 import org.thunlp.misc.WeightString;
+import org.thunlp.tagsuggest.common.DoubanPost;
+import org.thunlp.tagsuggest.common.ModelSnapshotter;
 import org.thunlp.tagsuggest.common.Post;
-import org.thunlp.tagsuggest.common.TagSuggest;
+import org.thunlp.tagsuggest.common.TagFilter;
+import org.thunlp.tagsuggest.common.UpdatableTagSuggest;
 import org.thunlp.tagsuggest.common.WordFeatureExtractor;
+import org.thunlp.tagsuggest.train.TrainPMI;
 import org.thunlp.text.Lexicon;
 import org.thunlp.text.Lexicon.Word;
 
-public class PMITagSuggest implements TagSuggest {
+public class PMITagSuggest implements UpdatableTagSuggest {
 	private static Logger LOG = Logger.getAnonymousLogger();
+	private static Histogram LOOKUP = Metrics.histogram("pmi.lookup_ns");
+	private static Histogram RANK = Metrics.histogram("pmi.rank_ns");
 	private Lexicon wordLex = null;
 	private Lexicon tagLex = null;
 	private WordFeatureExtractor fe = null;
-	private Properties config = null;
+	private TagFilter tagFilter = new TagFilter(new Properties(), null);
+	private Properties config = new Properties();
 	private int numTags = 5;
+	private String modelPath = null;
+	private ModelSnapshotter snapshotter = null;
 
-	private HashMap<Integer, HashMap<Integer, Double>> pmiMap = new HashMap<Integer, HashMap<Integer, Double>>();
-	
+	private volatile PmiRows pmi = new PmiRows(null,
+			new ConcurrentHashMap<Integer, PagedRowStore.Row>());
+	private static PagedRowStore.Row REMOVED = new PagedRowStore.Row(
+			new int[0], new double[0]);
+
+	/**
+	 * The rows of the model. Rows are never modified once they are in the
+	 * map, only replaced. If "paged_model" is true, the rows of pmi.txt are
+	 * paged from the store and the map holds only rows rescored by
+	 * applyUpdates() since, with empty rows for removed. The store and the
+	 * map are published together, so suggest() never pairs a store with the
+	 * map of another.
+	 */
+	private static class PmiRows {
+		final PagedRowStore store;
+		final Map<Integer, PagedRowStore.Row> map;
+
+		PmiRows(PagedRowStore store, Map<Integer, PagedRowStore.Row> map) {
+			this.store = store;
+			this.map = map;
+		}
+	}
+
+	// Co-occurrence counts added by feedback() since the model was loaded,
+	// on top of the counts in cooccur.txt.
+	private HashMap<Integer, HashMap<Integer, Integer>> feedbackCounts = new HashMap<Integer, HashMap<Integer, Integer>>();
+	// Words whose rows need to be rescored.
+	private Set<Integer> dirtyWords = new HashSet<Integer>();
+	private int numPendingPosts = 0;
+	private int updateBatch = 1000;
+	private Object mergeLock = new Object();
+
+	/**
+	 * Count the post in the lexicons and its word-tag co-occurrences, the
+	 * way TrainPMI does. The rows of the words in the post are rescored every
+	 * update_batch posts, or by applyUpdates(); saveModel() rescores all rows
+	 * since the document frequencies of all words and tags change with N.
+	 */
 	@Override
 	public void feedback(Post p) {
+		String[] features = fe.extract(p);
+		if (features.length <= 0) {
+			return;
+		}
+		Set<String> filtered = new HashSet<String>();
+		if (p instanceof DoubanPost) {
+			tagFilter.filterMapWithNorm(((DoubanPost) p).getDoubanTags(),
+					filtered);
+		} else {
+			tagFilter.filterWithNorm(p.getTags(), filtered);
+		}
+		// TrainPMI filters tags with a lexicon of normalized tags, which
+		// drops every tag that is not written in its normalized form.
+		Set<String> raw = (p instanceof DoubanPost) ? ((DoubanPost) p)
+				.getDoubanTags().keySet() : p.getTags();
+		filtered.retainAll(raw);
+		boolean full;
+		synchronized (feedbackCounts) {
+			wordLex.addDocument(features);
+			tagLex.addDocument(filtered.toArray(new String[filtered.size()]));
+			Set<Integer> wordIds = new HashSet<Integer>();
+			for (String word : features) {
+				wordIds.add(wordLex.getWord(word).getId());
+			}
+			for (int wordId : wordIds) {
+				HashMap<Integer, Integer> row = feedbackCounts.get(wordId);
+				if (row == null) {
+					row = new HashMap<Integer, Integer>();
+					feedbackCounts.put(wordId, row);
+				}
+				for (String tag : filtered) {
+					int tagId = tagLex.getWord(tag).getId();
+					Integer count = row.get(tagId);
+					row.put(tagId, count == null ? 1 : count + 1);
+				}
+				dirtyWords.add(wordId);
+			}
+			numPendingPosts++;
+			full = numPendingPosts >= updateBatch;
+		}
+		if (full) {
+			try {
+				applyUpdates();
+			} catch (IOException e) {
+				LOG.warning("cannot apply updates: " + e);
+			}
+		}
+	}
 
+	/**
+	 * Rescore the rows of the words seen by feedback() since the last call.
+	 */
+	@Override
+	public void applyUpdates() throws IOException {
+		synchronized (mergeLock) {
+			Set<Integer> dirty;
+			synchronized (feedbackCounts) {
+				if (dirtyWords.isEmpty()) {
+					return;
+				}
+				dirty = dirtyWords;
+				dirtyWords = new HashSet<Integer>();
+				numPendingPosts = 0;
+			}
+			rescore(dirty, copyFeedbackCounts(dirty), null, true);
+		}
 	}
 
+	/**
+	 * Rescore all rows and write pmi.txt, wordlex, taglex and cooccur.txt.
+	 * With a paged model the rows are paged from the new pmi.txt afterwards,
+	 * instead of all being kept in the map.
+	 */
 	@Override
-	public void loadModel(String modelPath) throws IOException {
-		
-		
-		BufferedReader pro = new BufferedReader(new InputStreamReader(
-				new FileInputStream(modelPath + File.separator +  "pmi.txt"),
-				"UTF-8"));
-		String proLine;
-		while ((proLine = pro.readLine()) != null) {
-			String[] data = proLine.split(" ");
-			if (data.length != 3){
+	public void saveModel(String path) throws IOException {
+		synchronized (mergeLock) {
+			File dir = new File(path);
+			if (!dir.exists()) {
+				dir.mkdirs();
+			}
+			File cooccur = new File(dir, TrainPMI.COOCCUR_FILE);
+			File pmiFile = new File(dir, "pmi.txt");
+			File wordLexFile = new File(dir, "wordlex");
+			File tagLexFile = new File(dir, "taglex");
+
+			// The lexicons and the counts are taken at the same point.
+			HashMap<Integer, HashMap<Integer, Integer>> counts;
+			synchronized (feedbackCounts) {
+				if (!wordLex.saveToFile(ModelSnapshotter.temporary(wordLexFile))
+						|| !tagLex.saveToFile(ModelSnapshotter
+								.temporary(tagLexFile))) {
+					throw new IOException("cannot write lexicons to " + dir);
+				}
+				counts = copyFeedbackCounts(null);
+				dirtyWords.clear();
+				numPendingPosts = 0;
+			}
+			BufferedWriter outCount = new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(ModelSnapshotter.temporary(cooccur)),
+					"UTF-8"));
+			BufferedWriter outPmi = new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(ModelSnapshotter.temporary(pmiFile)),
+					"UTF-8"));
+			boolean paged = pmi.store != null;
+			rescore(null, counts, new BufferedWriter[] { outCount, outPmi },
+					!paged);
+			outCount.close();
+			outPmi.close();
+			ModelSnapshotter.replace(ModelSnapshotter.temporary(cooccur),
+					cooccur);
+			ModelSnapshotter.replace(ModelSnapshotter.temporary(pmiFile),
+					pmiFile);
+			ModelSnapshotter.replace(ModelSnapshotter.temporary(wordLexFile),
+					wordLexFile);
+			ModelSnapshotter.replace(ModelSnapshotter.temporary(tagLexFile),
+					tagLexFile);
+			if (paged) {
+				// Rows rescored by applyUpdates() are in the new pmi.txt too.
+				pmi = new PmiRows(pageRows(pmiFile, true),
+						new ConcurrentHashMap<Integer, PagedRowStore.Row>());
+			}
+			if (dir.getCanonicalFile().equals(
+					new File(modelPath).getCanonicalFile())) {
+				// The saved counts are in cooccur.txt now, keep only the newer.
+				synchronized (feedbackCounts) {
+					subtractFeedbackCounts(counts);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copy the feedback counts of the given words, or of all words if words
+	 * is null.
+	 */
+	private HashMap<Integer, HashMap<Integer, Integer>> copyFeedbackCounts(
+			Set<Integer> words) {
+		HashMap<Integer, HashMap<Integer, Integer>> copy = new HashMap<Integer, HashMap<Integer, Integer>>();
+		synchronized (feedbackCounts) {
+			for (Entry<Integer, HashMap<Integer, Integer>> e : feedbackCounts
+					.entrySet()) {
+				if (words == null || words.contains(e.getKey())) {
+					copy.put(e.getKey(), new HashMap<Integer, Integer>(e
+							.getValue()));
+				}
+			}
+		}
+		return copy;
+	}
+
+	private void subtractFeedbackCounts(
+			HashMap<Integer, HashMap<Integer, Integer>> saved) {
+		for (Entry<Integer, HashMap<Integer, Integer>> e : saved.entrySet()) {
+			HashMap<Integer, Integer> row = feedbackCounts.get(e.getKey());
+			for (Entry<Integer, Integer> c : e.getValue().entrySet()) {
+				int left = row.get(c.getKey()) - c.getValue();
+				if (left == 0) {
+					row.remove(c.getKey());
+				} else {
+					row.put(c.getKey(), left);
+				}
+			}
+			if (row.isEmpty()) {
+				feedbackCounts.remove(e.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Merge the counts in cooccur.txt with the given feedback counts, and
+	 * rescore the rows of the given words, or of all words if words is null.
+	 * If out is given, the merged counts and the new rows are written to it.
+	 * The new rows are put in the map of the model if keep is set.
+	 */
+	private void rescore(Set<Integer> words,
+			HashMap<Integer, HashMap<Integer, Integer>> feedback,
+			BufferedWriter[] out, boolean keep) throws IOException {
+		PmiRows rows = pmi;
+		int commonLimit = Integer.parseInt(config.getProperty("commonLimit",
+				"5"));
+		double selfTrans = Double.parseDouble(config.getProperty("selfTrans",
+				"0.0"));
+		int minTagFreq = Integer.parseInt(config.getProperty("mintagfreq", "1"));
+		double N = wordLex.getNumDocs();
+
+		// Merged counts of one word at a time, the base file is sorted by word.
+		TreeMap<Integer, HashMap<Integer, Integer>> merged = new TreeMap<Integer, HashMap<Integer, Integer>>(
+				feedback);
+		File base = new File(modelPath, TrainPMI.COOCCUR_FILE);
+		BufferedReader in = null;
+		if (base.exists()) {
+			in = new BufferedReader(new InputStreamReader(new FileInputStream(
+					base), "UTF-8"));
+		} else {
+			LOG.warning(base + " not found, only counts from feedback are used");
+		}
+		String line = (in == null) ? null : in.readLine();
+		int[] tagIds = new int[16];
+		int[] counts = new int[16];
+		StringBuilder sb = new StringBuilder();
+		while (line != null || !merged.isEmpty()) {
+			// Next word, either from the file or from the feedback counts.
+			int wordId = Integer.MAX_VALUE;
+			if (line != null) {
+				wordId = Integer.parseInt(line.substring(0, line.indexOf(' ')));
+			}
+			if (!merged.isEmpty() && merged.firstKey() < wordId) {
+				wordId = merged.firstKey();
+			}
+			HashMap<Integer, Integer> row = merged.remove(wordId);
+			if (row == null) {
+				row = new HashMap<Integer, Integer>();
+			}
+			boolean wanted = words == null || words.contains(wordId);
+			while (line != null) {
+				String[] data = line.split(" ");
+				if (Integer.parseInt(data[0]) != wordId)
+					break;
+				if (wanted) {
+					int tagId = Integer.parseInt(data[1]);
+					Integer count = row.get(tagId);
+					row.put(tagId, Integer.parseInt(data[2])
+							+ (count == null ? 0 : count));
+				}
+				line = in.readLine();
+			}
+			if (!wanted) {
 				continue;
 			}
-			int first = Integer.parseInt(data[0]);
-			int second = Integer.parseInt(data[1]);
-			double probability = Double.parseDouble(data[2]);
-			/*
-			if(probability<0.01){
+
+			int n = 0;
+			for (Entry<Integer, Integer> e : new TreeMap<Integer, Integer>(row)
+					.entrySet()) {
+				if (n == tagIds.length) {
+					tagIds = Arrays.copyOf(tagIds, n * 2);
+					counts = Arrays.copyOf(counts, n * 2);
+				}
+				tagIds[n] = e.getKey();
+				counts[n] = e.getValue();
+				if (out != null) {
+					out[0].write(wordId + " " + tagIds[n] + " " + counts[n]);
+					out[0].newLine();
+				}
+				n++;
+			}
+			HashMap<Integer, Double> scores = TrainPMI.scoreRow(wordId,
+					tagIds, counts, n, N, commonLimit, selfTrans, minTagFreq,
+					wordLex, tagLex);
+			if (scores == null) {
+				if (keep && rows.store != null) {
+					rows.map.put(wordId, REMOVED);
+				} else if (keep) {
+					rows.map.remove(wordId);
+				}
 				continue;
 			}
-			*/
-			if(!pmiMap.containsKey(first)){
-				pmiMap.put(first, new HashMap<Integer, Double>());
+			if (keep) {
+				rows.map.put(wordId, PagedRowStore.Row.of(scores));
+			}
+			if (out != null) {
+				sb.setLength(0);
+				TrainPMI.writeRow(wordId, scores, wordLex, tagLex, sb,
+						new StringBuilder());
+				out[1].write(sb.toString());
 			}
-			pmiMap.get(first).put(second, probability);
 		}
-		pro.close();
+		if (in != null) {
+			in.close();
+		}
+	}
+
+	@Override
+	public void loadModel(String modelPath) throws IOException {
+		this.modelPath = modelPath;
+		File pmiFile = new File(modelPath, "pmi.txt");
+		if (config.getProperty("paged_model", "false").equals("true")) {
+			pmi = new PmiRows(pageRows(pmiFile, false),
+					new ConcurrentHashMap<Integer, PagedRowStore.Row>());
+		} else {
+			HashMap<Integer, HashMap<Integer, Double>> loaded = new HashMap<Integer, HashMap<Integer, Double>>();
+			readPmi(pmiFile, loaded, null);
+			Map<Integer, PagedRowStore.Row> rows = new ConcurrentHashMap<Integer, PagedRowStore.Row>();
+			for (Entry<Integer, HashMap<Integer, Double>> e : loaded.entrySet()) {
+				rows.put(e.getKey(), PagedRowStore.Row.of(e.getValue()));
+			}
+			pmi = new PmiRows(null, rows);
+		}
+		synchronized (feedbackCounts) {
+			feedbackCounts.clear();
+			dirtyWords.clear();
+			numPendingPosts = 0;
+		}
 		
 		wordLex = new Lexicon();
 		String input = modelPath+"/wordlex";
@@ -81,14 +400,80 @@ public class PMITagSuggest implements TagSuggest {
 			LOG.info("Use cached lexicons");
 			tagLex.loadFromFile(cachedTagLexFile);
 		}
-		
+		snapshotter = ModelSnapshotter.restart(snapshotter, this, config, modelPath);
+	}
+
+	/**
+	 * Open the row store of pmi.txt, "pmi.txt.rows", writing it first if it
+	 * is older than pmi.txt or rebuild is set.
+	 */
+	private PagedRowStore pageRows(File pmiFile, boolean rebuild)
+			throws IOException {
+		long cacheBytes = Long.parseLong(config.getProperty("row_cache_mb",
+				"64")) << 20;
+		File rows = new File(pmiFile.getPath() + ".rows");
+		if (rebuild || !rows.exists()
+				|| rows.lastModified() < pmiFile.lastModified()) {
+			LOG.info("paging " + pmiFile + " to " + rows);
+			File tmp = ModelSnapshotter.temporary(rows);
+			PagedRowStore.Writer writer = new PagedRowStore.Writer(tmp);
+			readPmi(pmiFile, null, writer);
+			writer.close();
+			ModelSnapshotter.replace(tmp, rows);
+		}
+		return new PagedRowStore(rows, cacheBytes);
+	}
+
+	/**
+	 * Read the "word tag score" lines of pmi.txt into rows, or into writer if
+	 * it is not null.
+	 */
+	private static void readPmi(File file,
+			HashMap<Integer, HashMap<Integer, Double>> rows,
+			PagedRowStore.Writer writer) throws IOException {
+		BufferedReader pro = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), "UTF-8"));
+		String proLine;
+		while ((proLine = pro.readLine()) != null) {
+			String[] data = proLine.split(" ");
+			if (data.length != 3){
+				continue;
+			}
+			int first = Integer.parseInt(data[0]);
+			int second = Integer.parseInt(data[1]);
+			double probability = Double.parseDouble(data[2]);
+			if (writer != null) {
+				writer.add(first, second, probability);
+				continue;
+			}
+			if(!rows.containsKey(first)){
+				rows.put(first, new HashMap<Integer, Double>());
+			}
+			rows.get(first).put(second, probability);
+		}
+		pro.close();
+	}
+
+	/**
+	 * The PMI scores of the tags for a word, or null.
+	 */
+	public PagedRowStore.Row row(int wordId) {
+		PmiRows rows = pmi;
+		PagedRowStore.Row row = rows.map.get(wordId);
+		if (row == null && rows.store != null) {
+			row = rows.store.get(wordId);
+		}
+		return row;
 	}
 
 	@Override
 	public void setConfig(Properties config) {
 		fe = new WordFeatureExtractor(config);
+		tagFilter = new TagFilter(config, null);
 		numTags = Integer.parseInt(config.getProperty("num_tags", "5"));
+		updateBatch = Integer.parseInt(config.getProperty("update_batch", "1000"));
 		this.config = config;
+		snapshotter = ModelSnapshotter.restart(snapshotter, this, config, modelPath);
 	}
 
 	@Override
@@ -96,6 +481,7 @@ public class PMITagSuggest implements TagSuggest {
 		HashMap<Integer, Double> wordTfidf = new HashMap<Integer, Double>();
 		
 		String[] words = fe.extract(p);
+		long start = LOOKUP.start();
 		Counter<String> termFreq = new Counter<String>();
 		// calculate the word tfidf
 		for (String word : words) {
@@ -119,14 +505,15 @@ public class PMITagSuggest implements TagSuggest {
 			}
 			double tfidf = tf * idf;
 			int id = wordLex.getWord(word).getId();
-			if (pmiMap.containsKey(id)) {
+			PagedRowStore.Row row = row(id);
+			if (row != null) {
 				wordTfidf.put(id, tfidf);
 				
 				// to suggest the tags
-				for (Entry<Integer, Double> ee : pmiMap.get(id).entrySet()) {
-					int tagId = ee.getKey();
+				for (int i = 0; i < row.size(); i++) {
+					int tagId = row.cols[i];
 					if(tagLex.getWord(tagId) != null){
-						double pro = ee.getValue();
+						double pro = row.values[i];
 						if(!proMap.containsKey(tagId)){
 							proMap.put(tagId, 0.0);
 						}
@@ -136,7 +523,10 @@ public class PMITagSuggest implements TagSuggest {
 			}
 		}
 		
+		LOOKUP.stop(start);
+
 		// ranking
+		start = RANK.start();
 		List<WeightString> tags = new ArrayList<WeightString>();
 		for (Entry<Integer, Double> e : proMap.entrySet()) {
 			tags.add(new WeightString(tagLex.getWord(e.getKey()).getName(), e
@@ -150,6 +540,7 @@ public class PMITagSuggest implements TagSuggest {
 			}
 
 		});
+		RANK.stop(start);
 		return tags;
 	}
 }
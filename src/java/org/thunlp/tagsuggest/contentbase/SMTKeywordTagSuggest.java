@@ -35,6 +35,7 @@ import org.thunlp.tagsuggest.common.KeywordPost;
 import org.thunlp.tagsuggest.common.TagSuggest;
 import org.thunlp.tagsuggest.common.Filter;
 import org.thunlp.tagsuggest.common.WordFeatureExtractor;
+import org.thunlp.text.FrozenVocabulary;
 import org.thunlp.text.Lexicon;
 
 public class SMTKeywordTagSuggest implements TagSuggest {
@@ -46,11 +47,9 @@ public class SMTKeywordTagSuggest implements TagSuggest {
 	private Properties config = new Properties();
 	private static List<WeightString> EMPTY_SUGGESTION = new LinkedList<WeightString>();
 
-	private HashMap<Integer, String> bookMap = new HashMap<Integer, String>();
-	private HashMap<String, Integer> idMap = new HashMap<String, Integer>();
-	private HashMap<Integer, String> bookTagMap = new HashMap<Integer, String>();
-
-	private HashMap<String, Integer> df = new HashMap<String, Integer>();
+	// Word and tag ids of book.vcb and bookTag.vcb.
+	private FrozenVocabulary bookWords = null;
+	private FrozenVocabulary bookTags = null;
 
 	private HashMap<Integer, HashMap<Integer, Double>> proTable = new HashMap<Integer, HashMap<Integer, Double>>();
 	private HashMap<Integer, HashMap<Integer, Double>> inverseTable = new HashMap<Integer, HashMap<Integer,Double>>();
@@ -67,34 +66,16 @@ public class SMTKeywordTagSuggest implements TagSuggest {
 
 		para = Double.parseDouble(config.getProperty("para", "0.5"));
 
-		// Read book.vcb
-		String bookFile = modelPath + File.separator + "book.vcb";
-		BufferedReader book = new BufferedReader(new InputStreamReader(
-				new FileInputStream(bookFile), "UTF-8"));
-		String bookLine;
-		while ((bookLine = book.readLine()) != null) {
-			String[] datas = bookLine.split(" ");
-			bookMap.put(Integer.parseInt(datas[0]), datas[1]);
-			idMap.put(datas[1], Integer.parseInt(datas[0]));
-			df.put(datas[1], Integer.parseInt(datas[2]));
-		}
-		book.close();
-
-		// Read bookTag.vcb
-		String tagFile = modelPath + File.separator + "bookTag.vcb";
-		BufferedReader bookTag = new BufferedReader(new InputStreamReader(
-				new FileInputStream(tagFile), "UTF-8"));
-		String tagLine;
-		while ((tagLine = bookTag.readLine()) != null) {
-			String[] datas = tagLine.split(" ");
-			bookTagMap.put(Integer.parseInt(datas[0]), datas[1]);
-		}
-		bookTag.close();
+		// Read book.vcb and bookTag.vcb
+		bookWords = SMTTagSuggest.readVocabulary(modelPath + File.separator
+				+ "book.vcb");
+		bookTags = SMTTagSuggest.readVocabulary(modelPath + File.separator
+				+ "bookTag.vcb");
 
-		// Read *.t1.5
+		// Read *.t1.5, or the tables of the last iteration.
 		File dir = new File(modelPath);
 		
-		Filter filter = new Filter("t1.5");
+		Filter filter = new Filter(Filter.lastTranslationTables(dir));
 		String files_tmp[] = dir.list(filter);
 
 		Vector<String> files = new Vector<String>();
@@ -225,7 +206,7 @@ public class SMTKeywordTagSuggest implements TagSuggest {
 		Counter<String> termFreq = new Counter<String>();
 		// calculate the word tfidf
 		for (String word : words) {
-			if (idMap.containsKey(word))
+			if (bookWords.contains(word))
 				termFreq.inc(word, 1);
 		}
 
@@ -246,7 +227,7 @@ public class SMTKeywordTagSuggest implements TagSuggest {
 				continue;
 			}
 			double tfidf = tf * idf;
-			int id = idMap.get(word);
+			int id = bookWords.getId(word);
 			if (proTable.containsKey(id)) {
 				wordTfidf.put(id, tfidf);
 				
@@ -276,7 +257,7 @@ public class SMTKeywordTagSuggest implements TagSuggest {
 		// ranking
 		List<WeightString> tags = new ArrayList<WeightString>();
 		for (Entry<Integer, Double> e : proMap.entrySet()) {
-			tags.add(new WeightString(bookTagMap.get(e.getKey()), e
+			tags.add(new WeightString(bookTags.get(e.getKey()), e
 							.getValue()));
 		}
 		Collections.sort(tags, new Comparator<WeightString>() {
@@ -26,19 +26,26 @@ import javax.crypto.spec.IvParameterSpec;
 
 import org.thunlp.io.JsonUtil;
 import org.thunlp.io.RecordReader;
+import org.thunlp.matrix.PagedRowStore;
+import org.thunlp.metrics.Histogram;
+import org.thunlp.metrics.Metrics;
 import org.thunlp.misc.Counter;
 import org.thunlp.misc.WeightString;
 import org.thunlp.tagsuggest.common.ConfigIO;
 import org.thunlp.tagsuggest.common.DoubanPost;
 import org.thunlp.tagsuggest.common.Post;
 import org.thunlp.tagsuggest.common.KeywordPost;
+import org.thunlp.tagsuggest.common.ModelSnapshotter;
 import org.thunlp.tagsuggest.common.TagSuggest;
 import org.thunlp.tagsuggest.common.Filter;
 import org.thunlp.tagsuggest.common.WordFeatureExtractor;
+import org.thunlp.text.FrozenVocabulary;
 import org.thunlp.text.Lexicon;
 
 public class SMTTagSuggest implements TagSuggest {
 	private static Logger LOG = Logger.getAnonymousLogger();
+	private static Histogram LOOKUP = Metrics.histogram("smt.lookup_ns");
+	private static Histogram RANK = Metrics.histogram("smt.rank_ns");
 
 	private WordFeatureExtractor extractor = null;
 	private Lexicon wordLex = null;
@@ -46,14 +53,16 @@ public class SMTTagSuggest implements TagSuggest {
 	private Properties config = new Properties();
 	private static List<WeightString> EMPTY_SUGGESTION = new LinkedList<WeightString>();
 
-	private HashMap<Integer, String> bookMap = new HashMap<Integer, String>();
-	private HashMap<String, Integer> idMap = new HashMap<String, Integer>();
-	private HashMap<Integer, String> bookTagMap = new HashMap<Integer, String>();
+	// Word and tag ids of book.vcb and bookTag.vcb.
+	private FrozenVocabulary bookWords = null;
+	private FrozenVocabulary bookTags = null;
 
-	private HashMap<String, Integer> df = new HashMap<String, Integer>();
-
-	private HashMap<Integer, HashMap<Integer, Double>> proTable = new HashMap<Integer, HashMap<Integer, Double>>();
-	private HashMap<Integer, HashMap<Integer, Double>> inverseTable = new HashMap<Integer, HashMap<Integer,Double>>();
+	// Word to tag and tag to word probabilities by word id, in the heap, or
+	// paged from the model directory if "paged_model" is true.
+	private HashMap<Integer, PagedRowStore.Row> proTable = new HashMap<Integer, PagedRowStore.Row>();
+	private HashMap<Integer, PagedRowStore.Row> inverseTable = new HashMap<Integer, PagedRowStore.Row>();
+	private PagedRowStore proStore = null;
+	private PagedRowStore inverseStore = null;
 	private double para = 0.5;
 	
 	@Override
@@ -66,35 +75,21 @@ public class SMTTagSuggest implements TagSuggest {
 		// TODO Auto-generated method stub
 
 		para = Double.parseDouble(config.getProperty("para", "0.5"));
-
-		// Read book.vcb
-		String bookFile = modelPath + File.separator + "book.vcb";
-		BufferedReader book = new BufferedReader(new InputStreamReader(
-				new FileInputStream(bookFile), "UTF-8"));
-		String bookLine;
-		while ((bookLine = book.readLine()) != null) {
-			String[] datas = bookLine.split(" ");
-			bookMap.put(Integer.parseInt(datas[0]), datas[1]);
-			idMap.put(datas[1], Integer.parseInt(datas[0]));
-			df.put(datas[1], Integer.parseInt(datas[2]));
-		}
-		book.close();
-
-		// Read bookTag.vcb
-		String tagFile = modelPath + File.separator + "bookTag.vcb";
-		BufferedReader bookTag = new BufferedReader(new InputStreamReader(
-				new FileInputStream(tagFile), "UTF-8"));
-		String tagLine;
-		while ((tagLine = bookTag.readLine()) != null) {
-			String[] datas = tagLine.split(" ");
-			bookTagMap.put(Integer.parseInt(datas[0]), datas[1]);
-		}
-		bookTag.close();
-
-		// Read *.t1.5
+		boolean paged = config.getProperty("paged_model", "false").equals("true");
+		long cacheBytes = Long.parseLong(config.getProperty("row_cache_mb", "64")) << 20;
+		proTable = new HashMap<Integer, PagedRowStore.Row>();
+		inverseTable = new HashMap<Integer, PagedRowStore.Row>();
+		proStore = null;
+		inverseStore = null;
+
+		// Read book.vcb and bookTag.vcb
+		bookWords = readVocabulary(modelPath + File.separator + "book.vcb");
+		bookTags = readVocabulary(modelPath + File.separator + "bookTag.vcb");
+
+		// Read *.t1.5, or the tables of the last iteration.
 		File dir = new File(modelPath);
 		
-		Filter filter = new Filter("t1.5");
+		Filter filter = new Filter(Filter.lastTranslationTables(dir));
 		String files_tmp[] = dir.list(filter);
 
 		Vector<String> files = new Vector<String>();
@@ -117,33 +112,14 @@ public class SMTTagSuggest implements TagSuggest {
 			tag2Word = files.get(files_len-1);
 			LOG.info(word2Tag);
 			LOG.info(tag2Word);
-			BufferedReader pro = new BufferedReader(new InputStreamReader(
-					new FileInputStream(modelPath + File.separator +  word2Tag),
-					"UTF-8"));
-			String proLine;
-			while ((proLine = pro.readLine()) != null) {
-				String[] data = proLine.split(" ");
-				
-				if (data.length != 3)
-					continue;
-
-				int first = Integer.parseInt(data[0]);
-				int second = Integer.parseInt(data[1]);
-				double probability = Double.parseDouble(data[2]);
-				if (first == 0 || second == 0) {
-					continue;
-				}
-				if (proTable.containsKey(first)) {
-					proTable.get(first).put(second, probability);
-				} else {
-					HashMap<Integer, Double> tmp = new HashMap<Integer, Double>();
-					tmp.put(second, probability);
-					proTable.put(first, tmp);
-				}
+			File table = new File(modelPath, word2Tag);
+			if (paged) {
+				proStore = pagedTable(table, 0.0, cacheBytes / 2);
+			} else {
+				readTable(table, 0.0, proTable, null);
 			}
-			pro.close();
 		}
-		LOG.info(new Integer(proTable.size()).toString());
+		LOG.info(Integer.toString(proStore != null ? proStore.numRows() : proTable.size()));
 		
 		// Read ti.fianl
 		Filter filter2 = new Filter("ti.final");
@@ -173,29 +149,12 @@ public class SMTTagSuggest implements TagSuggest {
 			tag2Word = files2.get(files2_len-1);
 			LOG.info(word2Tag);
 			LOG.info(tag2Word);
-			BufferedReader inverse = new BufferedReader(
-					new InputStreamReader(new FileInputStream(modelPath + File.separator + tag2Word),"UTF-8"));
-			String line;
-			while((line = inverse.readLine()) != null){
-				String[] data = line.split(" ");
-				if(data.length != 3) continue;
-
-				int first = Integer.parseInt(data[0]);
-				int second = Integer.parseInt(data[1]);
-				double probability = Double.parseDouble(data[2]);
-				if(first == 0 || second == 0 || (probability < 0.01)){
-					continue;
-				}
-				if(inverseTable.containsKey(first)){
-					inverseTable.get(first).put(second, probability);
-				}
-				else{
-					HashMap<Integer, Double> tmp = new HashMap<Integer, Double>();
-					tmp.put(second, probability);
-					inverseTable.put(first, tmp);
-				}
+			File table = new File(modelPath, tag2Word);
+			if (paged) {
+				inverseStore = pagedTable(table, 0.01, cacheBytes / 2);
+			} else {
+				readTable(table, 0.01, inverseTable, null);
 			}
-			inverse.close();
 		}
 
 		// read wordlex
@@ -206,6 +165,37 @@ public class SMTTagSuggest implements TagSuggest {
 			LOG.info("Use cached lexicons");
 			wordLex.loadFromFile(cachedWordLexFile);
 		}
+
+		// Fault in the rows of the most frequent words.
+		int warmup = Integer.parseInt(config.getProperty("warmup_words", "0"));
+		if (paged && warmup > 0) {
+			Lexicon byFreq = wordLex.reorderWordsByFreq();
+			int n = Math.min(warmup, byFreq.getSize());
+			int[] rows = new int[n];
+			for (int i = 0; i < n; i++) {
+				rows[i] = bookWords.getId(byFreq.getWord(i).getName());
+			}
+			if (proStore != null) {
+				proStore.warmUp(rows);
+			}
+			if (inverseStore != null) {
+				inverseStore.warmUp(rows);
+			}
+		}
+	}
+
+	/**
+	 * The word to tag probabilities of a word, or null.
+	 */
+	public PagedRowStore.Row forwardRow(int wordId) {
+		return proStore != null ? proStore.get(wordId) : proTable.get(wordId);
+	}
+
+	/**
+	 * The tag to word probabilities of a word, or null.
+	 */
+	public PagedRowStore.Row inverseRow(int wordId) {
+		return inverseStore != null ? inverseStore.get(wordId) : inverseTable.get(wordId);
 	}
 
 	@Override
@@ -222,10 +212,11 @@ public class SMTTagSuggest implements TagSuggest {
 	//	HashMap<Integer, HashMap<Integer, Double>> LDA = new HashMap<Integer, HashMap<Integer,Double>>();
 		
 		String[] words = extractor.extract(p);
+		long start = LOOKUP.start();
 		Counter<String> termFreq = new Counter<String>();
 		// calculate the word tfidf
 		for (String word : words) {
-			if (idMap.containsKey(word))
+			if (bookWords.contains(word))
 				termFreq.inc(word, 1);
 		}
 
@@ -246,19 +237,21 @@ public class SMTTagSuggest implements TagSuggest {
 				continue;
 			}
 			double tfidf = tf * idf;
-			int id = idMap.get(word);
-			if (proTable.containsKey(id)) {
+			int id = bookWords.getId(word);
+			PagedRowStore.Row forward = forwardRow(id);
+			if (forward != null) {
 				wordTfidf.put(id, tfidf);
-				
-				HashMap<Integer, Double> tmpMap = new HashMap<Integer, Double>();
-				tmpMap.putAll(proTable.get(id));
+				PagedRowStore.Row inverse = inverseRow(id);
+				if (inverse == null) {
+					continue;
+				}
 				
 				// to suggest the tags
-				for (Entry<Integer, Double> ee : proTable.get(id).entrySet()) {
-					int tagId = ee.getKey();
-					if(inverseTable.containsKey(id) && inverseTable.get(id).containsKey(tagId)){
-//						double pro = ee.getValue() * inverseTable.get(id).get(tagId);
-					double pro = 1.0 / ( para / ee.getValue() + (1.0 - para) / inverseTable.get(id).get(tagId));
+				for (int i = 0; i < forward.size(); i++) {
+					int tagId = forward.cols[i];
+					double inv = inverse.get(tagId, Double.NaN);
+					if (!Double.isNaN(inv)) {
+						double pro = 1.0 / ( para / forward.values[i] + (1.0 - para) / inv);
 
 						if (proMap.containsKey(tagId)) {
 							double tmp = proMap.get(tagId);
@@ -273,10 +266,13 @@ public class SMTTagSuggest implements TagSuggest {
 			}
 		}
 
+		LOOKUP.stop(start);
+
 		// ranking
+		start = RANK.start();
 		List<WeightString> tags = new ArrayList<WeightString>();
 		for (Entry<Integer, Double> e : proMap.entrySet()) {
-			tags.add(new WeightString(bookTagMap.get(e.getKey()), e
+			tags.add(new WeightString(bookTags.get(e.getKey()), e
 							.getValue()));
 		}
 		Collections.sort(tags, new Comparator<WeightString>() {
@@ -288,9 +284,87 @@ public class SMTTagSuggest implements TagSuggest {
 
 		});
 
+		RANK.stop(start);
 		return tags;
 	}
 
+	/**
+	 * Read a GIZA++ table of "first second probability" lines into rows by
+	 * first, or into writer if it is not null. The NULL word (id 0) and
+	 * probabilities below minProbability are skipped.
+	 */
+	static void readTable(File file, double minProbability,
+			HashMap<Integer, PagedRowStore.Row> table, PagedRowStore.Writer writer)
+			throws IOException {
+		HashMap<Integer, HashMap<Integer, Double>> rows = new HashMap<Integer, HashMap<Integer, Double>>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), "UTF-8"));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			String[] data = line.split(" ");
+			if (data.length != 3)
+				continue;
+
+			int first = Integer.parseInt(data[0]);
+			int second = Integer.parseInt(data[1]);
+			double probability = Double.parseDouble(data[2]);
+			if (first == 0 || second == 0 || probability < minProbability) {
+				continue;
+			}
+			if (writer != null) {
+				writer.add(first, second, probability);
+			} else if (rows.containsKey(first)) {
+				rows.get(first).put(second, probability);
+			} else {
+				HashMap<Integer, Double> tmp = new HashMap<Integer, Double>();
+				tmp.put(second, probability);
+				rows.put(first, tmp);
+			}
+		}
+		reader.close();
+		for (Entry<Integer, HashMap<Integer, Double>> e : rows.entrySet()) {
+			table.put(e.getKey(), PagedRowStore.Row.of(e.getValue()));
+		}
+	}
+
+	/**
+	 * Open the paged copy of a GIZA++ table, which is made next to it as
+	 * "<table>.rows" when missing or older than the table.
+	 */
+	static PagedRowStore pagedTable(File file, double minProbability,
+			long cacheBytes) throws IOException {
+		File rows = new File(file.getPath() + ".rows");
+		if (!rows.exists() || rows.lastModified() < file.lastModified()) {
+			LOG.info("paging " + file + " to " + rows);
+			File tmp = ModelSnapshotter.temporary(rows);
+			PagedRowStore.Writer writer = new PagedRowStore.Writer(tmp);
+			readTable(file, minProbability, null, writer);
+			writer.close();
+			ModelSnapshotter.replace(tmp, rows);
+		}
+		return new PagedRowStore(rows, cacheBytes);
+	}
+
+	/**
+	 * Read a GIZA++ vocabulary file of "id word count" lines.
+	 */
+	static FrozenVocabulary readVocabulary(String path) throws IOException {
+		ArrayList<String> names = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(path), "UTF-8"));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			String[] datas = line.split(" ");
+			int id = Integer.parseInt(datas[0]);
+			while (names.size() <= id) {
+				names.add(null);
+			}
+			names.set(id, datas[1]);
+		}
+		reader.close();
+		return new FrozenVocabulary(names);
+	}
+
 	public static void main(String[] args) throws IOException {
 		SMTTagSuggest smt = new SMTTagSuggest();
 		smt.setConfig(ConfigIO.configFromString("stop_wordnum_tags=10;norm=all_log;model=/home/meepo/test/sample;size=70000;dataType=KeywordPost;minwordfreq=10;mintagfreq=10"));
@@ -15,27 +15,61 @@ import org.thunlp.tagsuggest.common.ConfigIO;
 import org.thunlp.tagsuggest.common.FeatureExtractor;
 import org.thunlp.tagsuggest.common.Post;
 import org.thunlp.tagsuggest.common.KeywordPost;
-import org.thunlp.tagsuggest.common.TagSuggest;
+import org.thunlp.tagsuggest.common.ModelSnapshotter;
+import org.thunlp.tagsuggest.common.UpdatableTagSuggest;
 import org.thunlp.tagsuggest.common.WordFeatureExtractor;
 import org.thunlp.tagsuggest.train.TrainTFIDF;
 import org.thunlp.text.Lexicon;
 import org.thunlp.text.Lexicon.Word;
 
-public class TFIDFTagSuggest implements TagSuggest {
+public class TFIDFTagSuggest implements UpdatableTagSuggest {
 private static Logger LOG = Logger.getAnonymousLogger();
 
   Lexicon lex = null;
   private WordFeatureExtractor extractor = new WordFeatureExtractor();
   private Properties config = null;
   private int numTags = 10;
+  private String modelPath = null;
+  private ModelSnapshotter snapshotter = null;
   
+  /**
+   * Count the post in the lexicon, which updates df and the number of
+   * documents at once. Lexicon serializes writers, and suggest() can read it
+   * at the same time.
+   */
   @Override
   public void feedback(Post p) {
+    String [] features;
+    if (p instanceof KeywordPost) {
+      features = extractor.extractKeyword((KeywordPost) p, true, true, true);
+    } else {
+      features = extractor.extract(p);
+    }
+    lex.addDocument(features);
+  }
+
+  @Override
+  public void applyUpdates() {
+    // Updates are visible immediately.
+  }
 
+  @Override
+  public void saveModel(String modelPath) throws IOException {
+    File dir = new File(modelPath);
+    if (!dir.exists()) {
+      dir.mkdirs();
+    }
+    File target = new File(dir, "wordlex");
+    File tmp = ModelSnapshotter.temporary(target);
+    if (!lex.saveToFile(tmp)) {
+      throw new IOException("cannot write " + tmp);
+    }
+    ModelSnapshotter.replace(tmp, target);
   }
 
   @Override
   public void loadModel(String modelPath) throws IOException {
+	this.modelPath = modelPath;
 	lex = new Lexicon();
 	String input = modelPath + "/wordlex";
 	File cachedWordLexFile = new File(input);
@@ -44,6 +78,7 @@ private static Logger LOG = Logger.getAnonymousLogger();
 	
 		lex.loadFromFile(cachedWordLexFile);
 	} 
+	snapshotter = ModelSnapshotter.restart(snapshotter, this, config, modelPath);
 
   }
 
@@ -52,6 +87,7 @@ private static Logger LOG = Logger.getAnonymousLogger();
     extractor = new WordFeatureExtractor(config);
     numTags = Integer.parseInt(config.getProperty("num_tags", "5"));
     this.config = config;
+    snapshotter = ModelSnapshotter.restart(snapshotter, this, config, modelPath);
   }
 
   @Override
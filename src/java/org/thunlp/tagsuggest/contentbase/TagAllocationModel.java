@@ -11,9 +11,11 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -23,6 +25,9 @@ import java.util.logging.Logger;
 
 import org.thunlp.tagsuggest.common.DataSource;
 import org.thunlp.tagsuggest.common.ListDataSource;
+import org.thunlp.tagsuggest.common.PackedCorpus;
+import org.thunlp.metrics.Gauge;
+import org.thunlp.metrics.Metrics;
 import org.thunlp.misc.AnyDoublePair;
 import org.thunlp.misc.Counter;
 import org.thunlp.misc.WeightString;
@@ -37,6 +42,10 @@ import org.thunlp.text.Lexicon.Word;
  */
 public class TagAllocationModel {
   public static Logger LOG = Logger.getAnonymousLogger();
+  private static Gauge LL = Metrics.gauge("tam.loglikelihood");
+  private static Gauge SPEED = Metrics.gauge("tam.tokens_per_sec");
+  private static org.thunlp.metrics.Counter ITERATIONS =
+    Metrics.counter("tam.iterations");
   /**
    * The reason is a noise.
    */
@@ -411,6 +420,113 @@ public class TagAllocationModel {
     }
   }
   
+  /**
+   * Train the model with a packed corpus. The reasons are kept as word ids
+   * in one int per tag token, and every document is turned into a Document
+   * only while it is sampled.
+   */
+  public List<Double> train(
+      PackedCorpus corpus, int numIterations, int numBurnIn) {
+    return train(new CorpusSource(corpus), numIterations, numBurnIn);
+  }
+
+  /**
+   * Documents of a PackedCorpus. The Document handed out last is written
+   * back to the reasons when the iterator moves on or runs out, so the
+   * model must be done with a Document before asking for the next one.
+   */
+  private static class CorpusSource implements DataSource<Document> {
+    private static final int NOISE_ID = -1;
+    private static final int UNASSIGNED = -2;
+    private PackedCorpus corpus;
+    private PackedCorpus.Cursor cursor;
+    private int [] reasons;
+    private Document current = null;
+    private int numIterations = 0;
+
+    CorpusSource(PackedCorpus corpus) {
+      this.corpus = corpus;
+      cursor = corpus.cursor();
+      reasons = new int[corpus.numTagTokens()];
+      Arrays.fill(reasons, UNASSIGNED);
+    }
+
+    @Override
+    public int rewind() {
+      store();
+      cursor.rewind();
+      return numIterations++;
+    }
+
+    @Override
+    public Iterator<Document> iterator() {
+      return new Iterator<Document>() {
+        public boolean hasNext() {
+          store();
+          return cursor.doc() + 1 < corpus.numDocs();
+        }
+
+        public Document next() {
+          store();
+          cursor.next();
+          current = load();
+          return current;
+        }
+
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+
+    private Document load() {
+      Document d = new Document();
+      d.words = new String[cursor.numWords()];
+      for (int i = 0; i < d.words.length; i++) {
+        d.words[i] = cursor.word(i);
+      }
+      d.tags = new String[cursor.numTags()];
+      d.reason = new String[d.tags.length];
+      int start = cursor.tagStart();
+      for (int i = 0; i < d.tags.length; i++) {
+        d.tags[i] = cursor.tag(i);
+        int r = reasons[start + i];
+        if (r == NOISE_ID) {
+          d.reason[i] = NOISE;
+        } else if (r != UNASSIGNED) {
+          d.reason[i] = corpus.word(r);
+        }
+      }
+      return d;
+    }
+
+    private void store() {
+      if (current == null) {
+        return;
+      }
+      int start = cursor.tagStart();
+      for (int i = 0; i < current.reason.length; i++) {
+        reasons[start + i] = reasonId(current.reason[i]);
+      }
+      current = null;
+    }
+
+    private int reasonId(String reason) {
+      if (reason == null) {
+        return UNASSIGNED;
+      }
+      if (reason.equals(NOISE)) {
+        return NOISE_ID;
+      }
+      for (int i = 0; i < cursor.numWords(); i++) {
+        if (cursor.word(i).equals(reason)) {
+          return cursor.wordId(i);
+        }
+      }
+      throw new IllegalStateException("reason not in document: " + reason);
+    }
+  }
+
   /**
    * Train the model with given set of documents.
    * @param docs
@@ -442,6 +558,7 @@ public class TagAllocationModel {
       Map<String, AnyDoublePair<Integer>> perTagLikelihood = 
         new Hashtable<String, AnyDoublePair<Integer>>();
       long numDocs = 0;
+      long start = System.nanoTime();
       for (Document d : docs) {
         l += inference(d, perTagLikelihood);
         numDocs ++;
@@ -452,6 +569,8 @@ public class TagAllocationModel {
         }
       }
       docs.rewind();
+      double speed =
+        numTagTokens * 1e9 / Math.max(1, System.nanoTime() - start);
       l /= numTagTokens;
       
       // Compute macro-average likelihood.
@@ -467,7 +586,11 @@ public class TagAllocationModel {
           " PL: " + String.format("%.4f", pertagl) +
           " NR: " + String.format("%.4f", pcm()) + 
           " SP: " + String.format("%.4f", ntw.sparsity()) +
-          " NZ: " + ntw.numNonZeroElements());
+          " NZ: " + ntw.numNonZeroElements() +
+          " tokens/s: " + Math.round(speed));
+      LL.set(l);
+      SPEED.set(speed);
+      ITERATIONS.inc();
       if (i > numBurnIn) {
         meanNtw.inc(ntw);
         meanNw.inc(nw);
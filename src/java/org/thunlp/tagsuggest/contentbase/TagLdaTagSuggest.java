@@ -7,10 +7,8 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
-import java.util.Set;
 import java.util.logging.Logger;
 
 import org.thunlp.hadooplda.LdaModel;
@@ -20,6 +18,7 @@ import org.thunlp.tagsuggest.common.GenerativeTagSuggest;
 import org.thunlp.tagsuggest.common.Post;
 import org.thunlp.tagsuggest.common.TagSuggest;
 import org.thunlp.tagsuggest.common.WordFeatureExtractor;
+import org.thunlp.text.FrozenVocabulary;
 
 /**
  * This class use the Tag-LDA method proposed by Xiance Si.
@@ -29,7 +28,7 @@ import org.thunlp.tagsuggest.common.WordFeatureExtractor;
 public class TagLdaTagSuggest implements TagSuggest, GenerativeTagSuggest {
   private static Logger LOG = Logger.getAnonymousLogger();
   private LdaModel model;
-  private Set<String> knownTags = new HashSet<String>();
+  private FrozenVocabulary knownTags = null;
   private double [] norms = null;
   private Properties config = null;
   private FeatureExtractor extractor = new WordFeatureExtractor();
@@ -47,14 +46,16 @@ public class TagLdaTagSuggest implements TagSuggest, GenerativeTagSuggest {
     double [] ptz = new double[model.getNumTopics()];
     norms = new double[model.getNumTopics()];
     Arrays.fill(norms, 0);
+    List<String> tags = new ArrayList<String>();
     for (String token : model.getAllWords()) {
       if (token.charAt(0) == '_') {
-        knownTags.add(token.substring(1));
+        tags.add(token.substring(1));
         model.pwz(token, ptz);
         for (int k = 0; k < model.getNumTopics(); k++)
           norms[k] += ptz[k];
       }
     }
+    knownTags = new FrozenVocabulary(tags);
     LOG.info("Load LDA model of " + model.getNumTopics()
         + " topics and " + knownTags.size() + " tags.");
   }
@@ -74,7 +75,8 @@ public class TagLdaTagSuggest implements TagSuggest, GenerativeTagSuggest {
     int [] topics = new int[features.length];
     model.inference(features, topics, pzd);
     List<WeightString> results = new ArrayList<WeightString>();
-    for (String t : knownTags) {
+    for (int id = 0; id < knownTags.maxId(); id++) {
+      String t = knownTags.get(id);
       double ptd = 0;
       model.pwz("_" + t, ptz);
       for (int i = 0; i < pzd.length; i++) {
@@ -1,14 +1,19 @@
 package org.thunlp.tagsuggest.dataset;
 
+import java.io.File;
 import java.io.IOException;
 
 import org.thunlp.io.JsonUtil;
+import org.thunlp.io.RecordIndex;
 import org.thunlp.io.RecordReader;
 import org.thunlp.io.RecordWriter;
 import org.thunlp.misc.Flags;
 import org.thunlp.tagsuggest.common.DoubanPost;
 import org.thunlp.tagsuggest.common.KeywordPost;
 import org.thunlp.tagsuggest.common.Post;
+import org.thunlp.tagsuggest.common.PostInput;
+import org.thunlp.tagsuggest.common.PostStore;
+import org.thunlp.tagsuggest.common.PostStoreWriter;
 import org.thunlp.tool.GenericTool;
 
 public class CutFolds implements GenericTool {
@@ -25,33 +30,111 @@ public class CutFolds implements GenericTool {
         flags.getInt("num_folds"), "Post");
   }
 
+  /**
+   * Assign the n-th post to fold n % numFolds. The input is read once, each
+   * fold is written to its own temporary file, and the folds are then copied
+   * one after another to the output, so that each fold is a contiguous range
+   * of records. Plain text and gzipped output also gets a sidecar
+   * RecordIndex, which lets trainers and evaluators read only the folds they
+   * need through RecordReader.openFold()/openWithoutFold().
+   *
+   * Input and output may also be PostStore files (".posts"), for Post and
+   * DoubanPost data; cutting json lines into a PostStore converts them.
+   */
   public void cutFolds(String inputPath, String outputPath, int numFolds,String dataType)
   throws IOException {
-    RecordReader input = new RecordReader(inputPath);
-    RecordWriter output = new RecordWriter(outputPath);
+    Class<? extends Post> type = postClass(dataType);
+    if (PostStore.isPostStore(outputPath)) {
+      cutFoldsToStore(inputPath, outputPath, numFolds, type);
+      return;
+    }
+    // Gzipped folds are written in blocks so that trainers can inflate them
+    // in parallel, the file is still readable by any gzip reader.
+    int outputType = RecordReader.detectType(outputPath);
+    if (outputType == RecordWriter.TYPE_GZIPPED_TEXT) {
+      outputType = RecordWriter.TYPE_BLOCK_GZIPPED_TEXT;
+    }
+    int indexInterval = 0;
+    if (outputType == RecordWriter.TYPE_PLAIN_TEXT
+        || outputType == RecordWriter.TYPE_BLOCK_GZIPPED_TEXT) {
+      indexInterval = RecordIndex.DEFAULT_INTERVAL;
+    }
     JsonUtil J = new JsonUtil();
-    int n = 0;
 
+    File [] foldFiles = new File[numFolds];
+    try {
+      RecordWriter [] folds = new RecordWriter[numFolds];
+      for (int fold = 0; fold < numFolds; fold++) {
+        foldFiles[fold] = File.createTempFile("fold" + fold + "-", ".txt");
+        folds[fold] = new RecordWriter(foldFiles[fold].getAbsolutePath());
+      }
+      PostInput input = PostInput.open(inputPath, PostStore.ALL, true);
+      int n = 0;
+      while (input.next()) {
+        int fold = n % numFolds;
+        Post p = input.get(type);
+        p.setExtras(Integer.toString(fold));
+        folds[fold].add(J.toJson(p));
+        n++;
+      }
+      input.close();
+      for (RecordWriter w : folds) {
+        w.close();
+      }
+
+      RecordWriter output = new RecordWriter(outputPath, "UTF-8", outputType,
+          RecordReader.detectFs(outputPath), indexInterval);
+      for (int fold = 0; fold < numFolds; fold++) {
+        output.setFold(Integer.toString(fold));
+        RecordReader reader =
+          new RecordReader(foldFiles[fold].getAbsolutePath());
+        while (reader.next()) {
+          output.add(reader.value());
+        }
+        reader.close();
+      }
+      output.close();
+    } finally {
+      for (File f : foldFiles) {
+        if (f != null) {
+          f.delete();
+        }
+      }
+    }
+  }
+
+  /**
+   * Folds are a column of the store, so the posts are written in input order
+   * in a single pass.
+   */
+  private void cutFoldsToStore(String inputPath, String outputPath,
+      int numFolds, Class<? extends Post> type) throws IOException {
+    if (type == KeywordPost.class) {
+      throw new IllegalArgumentException(
+          "post stores only hold Post and DoubanPost");
+    }
+    PostStoreWriter output = new PostStoreWriter(outputPath);
+    PostInput input = PostInput.open(inputPath, PostStore.ALL, true);
+    int n = 0;
     while (input.next()) {
-    	if(dataType.equals("DoubanPost")){
-	  	      DoubanPost p = J.fromJson(input.value(), DoubanPost.class);
-		      p.setExtras(Integer.toString(n % numFolds));
-		      output.add(J.toJson(p));
-	    }
-	    else if(dataType.equals("Post")){
-	    	 Post p = J.fromJson(input.value(), Post.class);
-		      p.setExtras(Integer.toString(n % numFolds));
-		      output.add(J.toJson(p));
-	    }
-    	else if(dataType.equals("KeywordPost")){
-    		KeywordPost p = J.fromJson(input.value(), KeywordPost.class);
-    		p.setExtras(Integer.toString(n % numFolds));
-		    output.add(J.toJson(p));
-    	}
+      Post p = input.get(type);
+      p.setExtras(Integer.toString(n % numFolds));
+      output.add(p);
       n++;
     }
     input.close();
     output.close();
   }
 
+  private Class<? extends Post> postClass(String dataType) {
+    if (dataType.equals("DoubanPost")) {
+      return DoubanPost.class;
+    } else if (dataType.equals("KeywordPost")) {
+      return KeywordPost.class;
+    } else if (dataType.equals("Post")) {
+      return Post.class;
+    }
+    throw new IllegalArgumentException("unknown data type " + dataType);
+  }
+
 }
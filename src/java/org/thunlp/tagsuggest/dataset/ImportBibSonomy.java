@@ -6,13 +6,14 @@ import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -21,22 +22,56 @@ import org.thunlp.io.JsonUtil;
 import org.thunlp.io.RecordWriter;
 import org.thunlp.language.chinese.LangUtils;
 import org.thunlp.misc.Flags;
+import org.thunlp.misc.Pipeline;
 import org.thunlp.misc.StringUtil;
 import org.thunlp.tagsuggest.common.LegacyFeatureExtractor;
 import org.thunlp.tagsuggest.common.Post;
 import org.thunlp.tool.GenericTool;
 
+/**
+ * Export the bibtex and bookmark posts of a BibSonomy database as Posts.
+ *
+ * The posts and the tas table are read by two forward-only cursors, both
+ * sorted by content_id, and the tags are joined to their post by merging
+ * the two, so neither table is held in memory and no query is issued per
+ * post. Posts without tags are skipped. The rows are cleaned and serialized by a Pipeline; the last stage
+ * has one thread per output shard, each with its own RecordWriter. With
+ * more than one shard, shard i of "out.json.gz" is "out-0000i.json.gz".
+ *
+ * Any JDBC database with the same tables can be read through db_url and
+ * db_driver, e.g. an embedded one for tests; by default it is MySQL with
+ * server side cursors, so fetch_size rows are transferred at a time.
+ */
 public class ImportBibSonomy implements GenericTool {
   private static Logger LOG = Logger.getAnonymousLogger();
   private Connection dbconn = null;
-  private Statement tagStmt = null;
+  // The tas cursor is open at the same time as the posts cursor, which
+  // MySQL does not allow on one connection.
+  private Connection tagconn = null;
   private Pattern keywordsRE = Pattern.compile("keywords = \\{(.*?)\\}");
   private Pattern accentRE = Pattern.compile("\\{[\\\"']*([a-zA-Z]+)\\}");
   private LegacyFeatureExtractor extractor = null;
   private Random random = new Random();
   private int numFolds = 5;
-  private JsonUtil J = new JsonUtil();
-  
+  private int fetchSize = 1000;
+  private int numThreads = Runtime.getRuntime().availableProcessors();
+  private int numShards = 1;
+  private int queueCapacity = 1000;
+
+  /**
+   * A post as read from the database, before it is cleaned.
+   */
+  private static class RawPost {
+    long id;
+    String resourceKey;
+    String title;
+    List<String> parts = new ArrayList<String>();
+    Set<String> tags = new HashSet<String>();
+    Set<String> userIds = new TreeSet<String>();
+    long timestamp;
+    String extras;
+  }
+
   public ImportBibSonomy() {
     Properties config = new Properties();
     config.setProperty("userid", "false");
@@ -44,138 +79,229 @@ public class ImportBibSonomy implements GenericTool {
     extractor = new LegacyFeatureExtractor();
   }
 
-  public void openDbConnection(String addr, 
+  public void openDbConnection(String addr,
       String user, String pass, String dbName) throws Exception {
     Class.forName("com.mysql.jdbc.Driver").newInstance();
-    String url = "jdbc:mysql://" + addr + "/" + dbName;
-    dbconn = DriverManager.getConnection (url, user, pass);
-    LOG.info("Database opened.");
+    openDbConnection("jdbc:mysql://" + addr + "/" + dbName
+        + "?useCursorFetch=true", user, pass);
   }
-  
-  private String loadTags(Post p, Set<String> tags)
+
+  /**
+   * Open any JDBC url, the driver must be loaded already.
+   */
+  public void openDbConnection(String url, String user, String pass)
   throws SQLException {
-    tags.clear();
-    ResultSet tagSet = 
-      tagStmt.executeQuery("SELECT * from tas WHERE content_id=" +
-          p.getId() + " ORDER BY user");
-    String userId = null;
-    Set<String> allUserIds= new TreeSet<String>();
-    while (tagSet.next()) {
-      userId = Long.toString(tagSet.getLong("user"));
-      String tag = noNull(tagSet.getString("tag"));
-      tags.add(tag);
-      allUserIds.add(userId);
-      p.setTimestamp(tagSet.getDate("date").getTime() / 1000);
-    }
-    tagSet.close();
-    if (allUserIds.size() != 1) {
-      throw new RuntimeException("multi-user for the same resource. "
-          + allUserIds.size());
-    }
-    return userId;
+    dbconn = DriverManager.getConnection(url, user, pass);
+    tagconn = DriverManager.getConnection(url, user, pass);
+    LOG.info("Database opened.");
+  }
+
+  public void setFetchSize(int fetchSize) {
+    this.fetchSize = fetchSize;
+  }
+
+  public void setThreads(int numThreads) {
+    this.numThreads = numThreads;
+  }
+
+  public void setShards(int numShards) {
+    this.numShards = numShards;
   }
-  
+
   public String noNull(String text) {
     return text == null ? "" : text;
   }
-  
+
   public void dumpBibtex(String path) throws IOException, SQLException {
     if (path.length() == 0)
       return;
-    RecordWriter writer = new RecordWriter(path);
-    Statement stmt = dbconn.createStatement();
-    tagStmt = dbconn.createStatement();
-    Post doc = new Post();
-    Set<String> rawTags = new HashSet<String>();
-    doc.setTags(new HashSet<String>());
-    ResultSet rs = null;
-    int n = 0;
-    
     LOG.info("Exporting bibtex.");
-    rs = stmt.executeQuery("SELECT * FROM bibtex");
-    List<String> parts = new LinkedList<String>();
-    while (rs.next()) {
-      doc.setId(Long.toString(rs.getLong("content_id")));
-      doc.setResourceKey(rs.getString("simhash1"));
-      doc.setTitle(clean(noNull(rs.getString("title"))));
-      parts.clear();
-      // parts.add(noNull(rs.getString("bibtexAbstract")));
-      // parts.add(noNull(rs.getString("journal")));
-      // parts.add(noNull(rs.getString("booktitle")));
-      // parts.add(noNull(rs.getString("annote")));
-      parts.add(noNull(rs.getString("note")));
-      parts.add(noNull(rs.getString("description")));
-      // parts.add(noNull(rs.getString("author")));
-      parts.add(getKeywordsFromBibtex(rs.getString("misc")));
-      String content = StringUtil.join(parts, " ");
-      doc.setContent(clean(content));
-      rawTags.clear();
-      String userId = loadTags(doc, rawTags);
-      doc.setUserId(userId);
-      doc.setExtras(Integer.toString(random.nextInt(numFolds)));
-      doc.getTags().clear();
-      extractor.cleanTags(rawTags, doc.getTags());
-      n++;
-      if (n % 1000 == 0)
-        LOG.info(Integer.toString(n));
-      writer.add(J.toJson(doc));
-    }
-    rs.close();
-    LOG.info("loaded " + n);
-    writer.close();
-  }
-  
-  private String clean(String content) {
-    content = accentRE.matcher(content).replaceAll("$1");
-    content = LangUtils.removePunctuationMarks(content);
-    content = LangUtils.removeLineEnds(content);
-    content = LangUtils.removeExtraSpaces(content);
-    return content;
+    dump("SELECT content_id, simhash1, title, note, description, misc "
+        + "FROM bibtex ORDER BY content_id", true, path);
   }
-  
-  public void dumpBookmark(String path) 
+
+  public void dumpBookmark(String path)
   throws IOException, SQLException {
     if (path.length() == 0)
       return;
-    RecordWriter writer = new RecordWriter(path);
-    Statement stmt = dbconn.createStatement();
-    tagStmt = dbconn.createStatement();
-    Post doc = new Post();
-    Set<String> rawTags = new HashSet<String>();
-    doc.setTags(new HashSet<String>());
-    ResultSet rs = null;
-    int n = 0;
-    
     LOG.info("Exporting bookmark.");
-    rs = stmt.executeQuery("SELECT * FROM bookmark");
-    List<String> parts = new LinkedList<String>();
-    while (rs.next()) {
-      doc.setId(Long.toString(rs.getLong("content_id")));
-      doc.setResourceKey(rs.getString("url_hash"));
-      parts.clear();
-      parts.add(noNull(rs.getString("description")));
-      parts.add(noNull(rs.getString("extended")));
-      String content = StringUtil.join(parts, " ");
+    dump("SELECT content_id, url_hash, description, extended "
+        + "FROM bookmark ORDER BY content_id", false, path);
+  }
+
+  private void dump(String query, final boolean bibtex, String path)
+  throws IOException, SQLException {
+    final RecordWriter [] writers = new RecordWriter[numShards];
+    for (int i = 0; i < numShards; i++) {
+      writers[i] = new RecordWriter(shardName(path, i, numShards));
+    }
+    Pipeline pipeline = buildPipeline(bibtex, writers);
+    Statement stmt = openCursor(dbconn);
+    Statement tagStmt = openCursor(tagconn);
+    int n = 0;
+    boolean finished = false;
+    try {
+      ResultSet rs = stmt.executeQuery(query);
+      ResultSet tagSet = tagStmt.executeQuery(
+          "SELECT content_id, user, tag, date FROM tas "
+          + "ORDER BY content_id, user");
+      pipeline.start();
+      boolean hasTag = tagSet.next();
+      while (rs.next()) {
+        RawPost p = new RawPost();
+        p.id = rs.getLong("content_id");
+        if (bibtex) {
+          p.resourceKey = rs.getString("simhash1");
+          p.title = noNull(rs.getString("title"));
+          p.parts.add(noNull(rs.getString("note")));
+          p.parts.add(noNull(rs.getString("description")));
+          p.parts.add(noNull(rs.getString("misc")));
+        } else {
+          p.resourceKey = rs.getString("url_hash");
+          p.parts.add(noNull(rs.getString("description")));
+          p.parts.add(noNull(rs.getString("extended")));
+        }
+        // Skip the tags of posts not in this table.
+        while (hasTag && tagSet.getLong("content_id") < p.id) {
+          hasTag = tagSet.next();
+        }
+        while (hasTag && tagSet.getLong("content_id") == p.id) {
+          p.userIds.add(Long.toString(tagSet.getLong("user")));
+          p.tags.add(noNull(tagSet.getString("tag")));
+          p.timestamp = tagSet.getDate("date").getTime() / 1000;
+          hasTag = tagSet.next();
+        }
+        p.extras = Integer.toString(random.nextInt(numFolds));
+        pipeline.put(p);
+        n++;
+        if (n % 10000 == 0)
+          LOG.info(Integer.toString(n));
+      }
+      tagSet.close();
+      rs.close();
+      pipeline.finish();
+      finished = true;
+      // A post the write stage failed on is missing from the output.
+      long failed = pipeline.stats("write").failed;
+      if (failed > 0) {
+        throw new IOException(failed + " of " + n + " posts could not be "
+            + "written to " + path);
+      }
+    } catch (InterruptedException e) {
+      throw new IOException("interrupted after " + n + " posts");
+    } finally {
+      if (!finished) {
+        // Waits for the write threads, which may be in add().
+        pipeline.abort();
+      }
+      stmt.close();
+      tagStmt.close();
+      for (RecordWriter writer : writers) {
+        writer.close();
+      }
+    }
+    LOG.info("loaded " + n + ", skipped "
+        + pipeline.stats("clean").dropped + " without tags");
+  }
+
+  private Statement openCursor(Connection conn) throws SQLException {
+    Statement stmt = conn.createStatement(
+        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    stmt.setFetchSize(fetchSize);
+    return stmt;
+  }
+
+  private Pipeline buildPipeline(final boolean bibtex,
+      final RecordWriter [] writers) {
+    Pipeline pipeline = new Pipeline("bibsonomy", queueCapacity);
+    pipeline.addStage("clean", numThreads, new Pipeline.Stage<RawPost, Post>() {
+      public Post process(RawPost p) {
+        return toPost(p, bibtex);
+      }
+    });
+    // Every thread of the last stage takes one writer for all its posts.
+    final AtomicInteger nextShard = new AtomicInteger();
+    final ThreadLocal<RecordWriter> shardWriter =
+      new ThreadLocal<RecordWriter>() {
+      protected RecordWriter initialValue() {
+        return writers[nextShard.getAndIncrement()];
+      }
+    };
+    final ThreadLocal<JsonUtil> jsonUtils = new ThreadLocal<JsonUtil>() {
+      protected JsonUtil initialValue() {
+        return new JsonUtil();
+      }
+    };
+    pipeline.addStage("write", writers.length,
+        new Pipeline.Stage<Post, Post>() {
+      public Post process(Post doc) throws IOException {
+        shardWriter.get().add(jsonUtils.get().toJson(doc));
+        return doc;
+      }
+    });
+    return pipeline;
+  }
+
+  /**
+   * The cleaned post, null if it has no tag.
+   */
+  private Post toPost(RawPost p, boolean bibtex) {
+    if (p.userIds.isEmpty()) {
+      return null;
+    }
+    if (p.userIds.size() != 1) {
+      throw new RuntimeException("multi-user for the same resource. "
+          + p.userIds.size());
+    }
+    Post doc = new Post();
+    doc.setId(Long.toString(p.id));
+    doc.setResourceKey(p.resourceKey);
+    if (bibtex) {
+      doc.setTitle(clean(p.title));
+      // misc is the last part, only its keywords are kept.
+      int misc = p.parts.size() - 1;
+      p.parts.set(misc, getKeywordsFromBibtex(p.parts.get(misc)));
+      doc.setContent(clean(StringUtil.join(p.parts, " ")));
+    } else {
+      String content = StringUtil.join(p.parts, " ");
       content = LangUtils.removePunctuationMarks(content);
       content = LangUtils.removeLineEnds(content);
       content = LangUtils.removeExtraSpaces(content);
       doc.setContent(content);
-      rawTags.clear();
-      String userId = loadTags(doc, rawTags);
-      doc.setUserId(userId);
-      doc.setExtras(Integer.toString(random.nextInt(numFolds)));
-      doc.getTags().clear();
-      extractor.cleanTags(rawTags, doc.getTags());
-      n++;
-      if (n % 1000 == 0)
-        LOG.info(Integer.toString(n));
-      writer.add(J.toJson(doc));
     }
-    rs.close();
-    LOG.info(" ... " + n);
-    writer.close();
+    doc.setUserId(p.userIds.iterator().next());
+    doc.setTimestamp(p.timestamp);
+    doc.setExtras(p.extras);
+    doc.setTags(new HashSet<String>());
+    extractor.cleanTags(p.tags, doc.getTags());
+    return doc;
+  }
+
+  private String clean(String content) {
+    content = accentRE.matcher(content).replaceAll("$1");
+    content = LangUtils.removePunctuationMarks(content);
+    content = LangUtils.removeLineEnds(content);
+    content = LangUtils.removeExtraSpaces(content);
+    return content;
+  }
+
+  /**
+   * The name of a shard: the shard number goes before the extension, so
+   * the type of the file is kept.
+   */
+  public static String shardName(String path, int shard, int numShards) {
+    if (numShards == 1) {
+      return path;
+    }
+    String number = String.format("-%05d", shard);
+    int slash = path.lastIndexOf('/');
+    int dot = path.indexOf('.', slash + 1);
+    if (dot <= slash + 1) {
+      return path + number;
+    }
+    return path.substring(0, dot) + number + path.substring(dot);
   }
-  
+
   public String getKeywordsFromBibtex(String text) {
     if (text == null) {
       return "";
@@ -189,8 +315,9 @@ public class ImportBibSonomy implements GenericTool {
 
   public void close() throws SQLException {
     dbconn.close();
+    tagconn.close();
   }
-  
+
   /**
    * @param args
    */
@@ -200,15 +327,36 @@ public class ImportBibSonomy implements GenericTool {
     flags.addWithDefaultValue("db_user", "root", "");
     flags.addWithDefaultValue("db_pass", "secret", "");
     flags.addWithDefaultValue("db_name", "rsdc_cleaned", "");
+    flags.addWithDefaultValue("db_url", "",
+        "JDBC url used instead of db_addr and db_name");
+    flags.addWithDefaultValue("db_driver", "com.mysql.jdbc.Driver",
+        "JDBC driver class of db_url");
+    flags.addWithDefaultValue("fetch_size", "1000",
+        "rows transferred from the database at a time");
+    flags.addWithDefaultValue("threads",
+        Integer.toString(Runtime.getRuntime().availableProcessors()),
+        "threads cleaning the posts");
+    flags.addWithDefaultValue("shards", "1", "output files of each table");
     flags.add("output_bibtex");
     flags.add("output_bookmark");
     flags.parseAndCheck(args);
-    
-    openDbConnection(
-        flags.getString("db_addr"),
-        flags.getString("db_user"),
-        flags.getString("db_pass"),
-        flags.getString("db_name"));
+
+    setFetchSize(flags.getInt("fetch_size"));
+    setThreads(flags.getInt("threads"));
+    setShards(flags.getInt("shards"));
+    if (flags.getString("db_url").length() > 0) {
+      Class.forName(flags.getString("db_driver")).newInstance();
+      openDbConnection(
+          flags.getString("db_url"),
+          flags.getString("db_user"),
+          flags.getString("db_pass"));
+    } else {
+      openDbConnection(
+          flags.getString("db_addr"),
+          flags.getString("db_user"),
+          flags.getString("db_pass"),
+          flags.getString("db_name"));
+    }
     dumpBibtex(flags.getString("output_bibtex"));
     dumpBookmark(flags.getString("output_bookmark"));
     close();
@@ -0,0 +1,312 @@
+package org.thunlp.tagsuggest.dataset;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.thunlp.crawler.CrawlerListener;
+import org.thunlp.crawler.WebCrawler;
+import org.thunlp.html.EncodingDetector;
+import org.thunlp.html.HtmlReformatter;
+import org.thunlp.html.HtmlTextExtractor;
+import org.thunlp.io.JsonUtil;
+import org.thunlp.io.RecordReader;
+import org.thunlp.io.RecordWriter;
+import org.thunlp.language.chinese.ForwardMaxWordSegment;
+import org.thunlp.language.chinese.LangUtils;
+import org.thunlp.metrics.Metrics;
+import org.thunlp.misc.Flags;
+import org.thunlp.misc.Pipeline;
+import org.thunlp.tagsuggest.common.ConfigIO;
+import org.thunlp.tagsuggest.common.Post;
+import org.thunlp.tagsuggest.common.TagFilter;
+import org.thunlp.tool.GenericTool;
+
+/**
+ * Crawl a list of urls into cleaned, segmented Posts in one streaming pass,
+ * instead of dumping the pages and running ParseSinaXmlData, PostCleaner and
+ * the segmenter over files one after another. The stages are fetch, decode
+ * (which also strips the markup), build, segment and write, connected by
+ * bounded queues of a Pipeline; each stage has its own number of threads
+ * and the counters of the stages are logged at the end, and kept in
+ * Metrics.
+ *
+ * The charset of a page is taken from its Content-Type header, else from
+ * the page itself. The title of a post is the title of the page, its tags
+ * are the keywords meta of the page and its content the plain text of the
+ * page. Pages without any tag left after TagFilter are dropped. Posts are
+ * written in the order they are done, not in the order of the urls, and the
+ * tool fails if any of them cannot be written.
+ *
+ * Config: "model" (the directory of book.model), and "segment" (true).
+ * @author sixiance
+ *
+ */
+public class IngestPages implements GenericTool {
+  private static Logger LOG = Logger.getAnonymousLogger();
+  private static Pattern TITLE = Pattern.compile(
+      "<title[^>]*>(.*?)</title>", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+  private static Pattern META = Pattern.compile(
+      "<meta\\s[^>]*>", Pattern.CASE_INSENSITIVE);
+  private static Pattern META_NAME = Pattern.compile(
+      "name\\s*=\\s*[\"']?([a-zA-Z]+)", Pattern.CASE_INSENSITIVE);
+  private static Pattern META_CONTENT = Pattern.compile(
+      "content\\s*=\\s*(\"([^\"]*)\"|'([^']*)'|([^\\s>]*))",
+      Pattern.CASE_INSENSITIVE);
+  private static Pattern HEAD_END = Pattern.compile(
+      "</head\\s*>", Pattern.CASE_INSENSITIVE);
+  private static Pattern TAG_SEPARATORS = Pattern.compile("[,，;；\\s]+");
+  // The head of a page is looked for in its first characters only.
+  private static int HEAD_LENGTH = 8192;
+
+  /**
+   * A page between the stages.
+   */
+  private static class Page {
+    String url;
+    byte[] data;
+    String[] headers;
+    String title;
+    String keywords;
+    String content;
+    Post post;
+  }
+
+  private WebCrawler crawler;
+  private TagFilter tagFilter;
+  private ForwardMaxWordSegment segmenter = null;
+  private AtomicLong nextId = new AtomicLong();
+  private ThreadLocal<HtmlTextExtractor> extractors =
+    new ThreadLocal<HtmlTextExtractor>() {
+      protected HtmlTextExtractor initialValue() {
+        return new HtmlTextExtractor();
+      }
+    };
+  // Pages are decoded into the buffer of the thread, grown on demand, and
+  // stripped before the thread decodes the next one.
+  private ThreadLocal<CharBuffer> decodeBuffers = new ThreadLocal<CharBuffer>();
+  private ThreadLocal<JsonUtil> jsonUtils = new ThreadLocal<JsonUtil>() {
+    protected JsonUtil initialValue() {
+      return new JsonUtil();
+    }
+  };
+
+  @Override
+  public void run(String[] args) throws Exception {
+    Flags flags = new Flags();
+    flags.add("urls", "one url a line");
+    flags.add("output");
+    flags.add("config");
+    flags.addWithDefaultValue("fetch_threads", "16",
+        "pages fetched at the same time");
+    flags.addWithDefaultValue("threads",
+        Integer.toString(Runtime.getRuntime().availableProcessors()),
+        "threads of each of the decode, build and segment stages");
+    flags.addWithDefaultValue("queue", "1000", "pages waiting before a stage");
+    flags.addWithDefaultValue("site_interval", "1000",
+        "milliseconds between two fetches from one site");
+    flags.parseAndCheck(args);
+
+    Properties config = ConfigIO.configFromString(flags.getString("config"));
+    Metrics.configure(config);
+    tagFilter = new TagFilter(config, null);
+    if (config.getProperty("segment", "true").equals("true")) {
+      segmenter = newSegmenter(config);
+    }
+    crawler = new WebCrawler(new CrawlerListener() {
+      // Pages are taken from the futures of fetch().
+      public void handleSuccess(String url, String ip, byte[] content,
+          String[] responseHeaders, Object customData) {}
+      public void handleFailed(String url, String ip, int httpStatusCode,
+          Object customData) {}
+      public void workersAvailable(int capacity) {}
+      public void workerQueueAvailable(int hashcode, int capacity) {}
+    });
+    crawler.setMaxConcurrency(flags.getInt("fetch_threads"));
+    crawler.setSiteInterval(flags.getInt("site_interval"));
+    crawler.start();
+
+    RecordWriter writer = new RecordWriter(flags.getString("output"));
+    Pipeline pipeline = buildPipeline(flags.getInt("fetch_threads"),
+        flags.getInt("threads"), flags.getInt("queue"), writer);
+    pipeline.start();
+    RecordReader reader = new RecordReader(flags.getString("urls"));
+    while (reader.next()) {
+      String url = reader.value().trim();
+      if (url.length() > 0) {
+        pipeline.put(url);
+      }
+    }
+    reader.close();
+    pipeline.finish();
+    writer.close();
+    crawler.shutdown();
+    // A post the write stage failed on is missing from the output.
+    long failed = pipeline.stats("write").failed;
+    if (failed > 0) {
+      throw new IOException(failed + " posts could not be written to "
+          + flags.getString("output"));
+    }
+    LOG.info("Read " + reader.numRead() + " urls, wrote " + nextId.get()
+        + " posts in " + pipeline.elapsedNanos() / 1000000 + "ms");
+  }
+
+  private ForwardMaxWordSegment newSegmenter(Properties config)
+      throws IOException {
+    String model = config.getProperty("model");
+    if (model != null) {
+      System.setProperty("wordsegment.automata.file",
+          model + File.separator + "book.model");
+    }
+    try {
+      return new ForwardMaxWordSegment();
+    } finally {
+      System.clearProperty("wordsegment.automata.file");
+    }
+  }
+
+  private Pipeline buildPipeline(int fetchThreads, int threads, int queue,
+      final RecordWriter writer) {
+    Pipeline pipeline = new Pipeline("ingest", queue);
+    pipeline.addStage("fetch", fetchThreads, new Pipeline.Stage<String, Page>() {
+      public Page process(String url) throws InterruptedException {
+        Page page = new Page();
+        page.url = url;
+        try {
+          WebCrawler.Response response = crawler.fetch(url, null).get();
+          page.data = response.content;
+          page.headers = response.headers;
+        } catch (ExecutionException e) {
+          LOG.fine("cannot fetch " + url + ": " + e.getCause());
+          return null;
+        }
+        return page;
+      }
+    });
+    pipeline.addStage("decode", threads, new Pipeline.Stage<Page, Page>() {
+      public Page process(Page page) {
+        Charset charset = EncodingDetector.detect(
+            page.data, 0, page.data.length, page.headers);
+        CharBuffer text = EncodingDetector.decode(page.data, 0,
+            page.data.length, charset, decodeBuffers.get());
+        decodeBuffers.set(text);
+        page.data = null;
+        page.headers = null;
+        strip(page, text);
+        return page;
+      }
+    });
+    pipeline.addStage("build", threads, new Pipeline.Stage<Page, Page>() {
+      public Page process(Page page) {
+        return build(page);
+      }
+    });
+    pipeline.addStage("segment", threads, new Pipeline.Stage<Page, String>() {
+      public String process(Page page) throws IOException {
+        if (segmenter != null) {
+          page.post.setTitle(segment(page.post.getTitle()));
+          page.post.setContent(segment(page.post.getContent()));
+        }
+        return jsonUtils.get().toJson(page.post);
+      }
+    });
+    pipeline.addStage("write", 1, new Pipeline.Stage<String, String>() {
+      public String process(String json) throws IOException {
+        writer.add(json);
+        return json;
+      }
+    });
+    return pipeline;
+  }
+
+  /**
+   * Find the title and keywords in the head of the page, and the plain text
+   * of the whole page.
+   */
+  private void strip(Page page, CharBuffer text) {
+    CharSequence head = text.subSequence(0,
+        Math.min(text.remaining(), HEAD_LENGTH));
+    Matcher title = TITLE.matcher(head);
+    page.title = title.find()
+        ? HtmlReformatter.getPlainText(title.group(1)) : "";
+    page.keywords = "";
+    Matcher meta = META.matcher(head);
+    while (meta.find()) {
+      Matcher name = META_NAME.matcher(meta.group());
+      Matcher content = META_CONTENT.matcher(meta.group());
+      if (name.find() && name.group(1).equalsIgnoreCase("keywords")
+          && content.find()) {
+        for (int i = 2; i <= 4; i++) {
+          if (content.group(i) != null) {
+            page.keywords = HtmlReformatter.getPlainText(content.group(i));
+            break;
+          }
+        }
+        break;
+      }
+    }
+    // The title is not repeated in the content.
+    Matcher headEnd = HEAD_END.matcher(head);
+    int bodyStart = headEnd.find() ? headEnd.end() : 0;
+    page.content = extractors.get().extract(text.array(),
+        text.arrayOffset() + text.position() + bodyStart,
+        text.remaining() - bodyStart);
+  }
+
+  /**
+   * Make a post of the page, null if it has no tag.
+   */
+  private Page build(Page page) {
+    Set<String> keywords = new HashSet<String>();
+    for (String keyword : TAG_SEPARATORS.split(normalize(page.keywords))) {
+      if (keyword.length() > 0) {
+        keywords.add(keyword);
+      }
+    }
+    Set<String> tags = new TreeSet<String>();
+    tagFilter.filterWithNorm(keywords, tags);
+    if (tags.size() == 0) {
+      return null;
+    }
+    Post p = new Post();
+    p.setId(Long.toString(nextId.getAndIncrement()));
+    p.setResourceKey(page.url);
+    p.setTitle(normalize(page.title));
+    p.setContent(normalize(page.content));
+    p.setTags(tags);
+    p.setTimestamp(System.currentTimeMillis());
+    page.post = p;
+    return page;
+  }
+
+  private String normalize(String content) {
+    content = LangUtils.mapChineseMarksToAnsi(content);
+    content = LangUtils.mapFullWidthLetterToHalfWidth(content);
+    content = LangUtils.mapFullWidthNumberToHalfWidth(content);
+    content = LangUtils.T2S(content);
+    content = LangUtils.removeExtraSpaces(content);
+    content = LangUtils.removeEmptyLines(content);
+    return content;
+  }
+
+  private String segment(String text) {
+    StringBuilder sb = new StringBuilder(text.length() * 3 / 2);
+    for (String word : segmenter.segment(text)) {
+      if (sb.length() > 0) {
+        sb.append(' ');
+      }
+      sb.append(word);
+    }
+    return sb.toString();
+  }
+}
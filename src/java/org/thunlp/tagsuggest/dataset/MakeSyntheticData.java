@@ -1,17 +1,138 @@
 package org.thunlp.tagsuggest.dataset;
 
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.thunlp.io.JsonUtil;
+import org.thunlp.io.RecordWriter;
+import org.thunlp.misc.Flags;
+import org.thunlp.tagsuggest.common.DoubanPost;
+import org.thunlp.tagsuggest.common.Post;
 import org.thunlp.tool.GenericTool;
 
 /**
  * Make synthetic data, with words and tags.
+ *
+ * Every post is drawn from one topic. A topic owns a block of the vocabulary
+ * and of the tags, and the words of a post come from its topic by a Zipf
+ * distribution, with one word in five drawn from the whole vocabulary as
+ * background. Each post gets one to three tags of its topic, and one in ten
+ * posts also a random tag as noise. Words and tags are made of lower case
+ * letters, so that they pass the feature extractors unchanged.
+ *
+ * The same seed gives the same data, which makes the output usable for
+ * benchmarks and regression tests.
  * @author sixiance
  *
  */
 public class MakeSyntheticData implements GenericTool {
+  private JsonUtil J = new JsonUtil();
 
   @Override
   public void run(String[] args) throws Exception {
+    Flags flags = new Flags();
+    flags.add("output");
+    flags.addWithDefaultValue("num_posts", "10000", "");
+    flags.addWithDefaultValue("num_topics", "20", "");
+    flags.addWithDefaultValue("num_words", "5000", "size of the vocabulary");
+    flags.addWithDefaultValue("num_tags", "200", "");
+    flags.addWithDefaultValue("post_length", "50", "words per post");
+    flags.addWithDefaultValue("data_type", "Post", "Post or DoubanPost");
+    flags.addWithDefaultValue("seed", "0", "");
+    flags.parseAndCheck(args);
 
+    make(flags.getString("output"), flags.getInt("num_posts"),
+        flags.getInt("num_topics"), flags.getInt("num_words"),
+        flags.getInt("num_tags"), flags.getInt("post_length"),
+        flags.getString("data_type"), Long.parseLong(flags.getString("seed")));
   }
 
+  public void make(String outputPath, int numPosts, int numTopics,
+      int numWords, int numTags, int postLength, String dataType, long seed)
+  throws IOException {
+    Random random = new Random(seed);
+    int wordsPerTopic = Math.max(1, numWords / numTopics);
+    int tagsPerTopic = Math.max(1, numTags / numTopics);
+    double [] zipf = new double[wordsPerTopic];
+    double norm = 0;
+    for (int i = 0; i < wordsPerTopic; i++) {
+      norm += 1.0 / (i + 1);
+      zipf[i] = norm;
+    }
+
+    RecordWriter writer = new RecordWriter(outputPath);
+    StringBuilder title = new StringBuilder();
+    StringBuilder content = new StringBuilder();
+    for (int n = 0; n < numPosts; n++) {
+      int topic = random.nextInt(numTopics);
+      title.setLength(0);
+      content.setLength(0);
+      for (int i = 0; i < postLength; i++) {
+        int word;
+        if (random.nextInt(5) == 0) {
+          word = random.nextInt(numWords);
+        } else {
+          double u = random.nextDouble() * norm;
+          int rank = 0;
+          while (zipf[rank] < u) {
+            rank++;
+          }
+          word = (topic * wordsPerTopic + rank) % numWords;
+        }
+        StringBuilder sb = (i < postLength / 10) ? title : content;
+        if (sb.length() > 0) {
+          sb.append(' ');
+        }
+        sb.append(name("w", word));
+      }
+
+      Set<String> tags = new HashSet<String>();
+      int numPostTags = 1 + random.nextInt(3);
+      for (int i = 0; i < numPostTags; i++) {
+        tags.add(name("t", (topic * tagsPerTopic + random.nextInt(tagsPerTopic))
+            % numTags));
+      }
+      if (random.nextInt(10) == 0) {
+        tags.add(name("t", random.nextInt(numTags)));
+      }
+
+      Post p;
+      if (dataType.equals("DoubanPost")) {
+        DoubanPost dp = new DoubanPost();
+        HashMap<String, Integer> doubanTags = new HashMap<String, Integer>();
+        for (String tag : tags) {
+          doubanTags.put(tag, 1 + random.nextInt(20));
+        }
+        dp.setDoubanTags(doubanTags);
+        p = dp;
+      } else {
+        p = new Post();
+      }
+      p.setId(Integer.toString(n));
+      p.setUserId("u" + random.nextInt(Math.max(1, numPosts / 10)));
+      p.setResourceKey(Integer.toString(n));
+      p.setTimestamp(n);
+      p.setTitle(title.toString());
+      p.setContent(content.toString());
+      p.setTags(tags);
+      writer.add(J.toJson(p));
+    }
+    writer.close();
+  }
+
+  /**
+   * A name of lower case letters for id, like "wab", which never collides
+   * for different ids.
+   */
+  private static String name(String prefix, int id) {
+    StringBuilder sb = new StringBuilder(prefix);
+    do {
+      sb.append((char) ('a' + id % 26));
+      id /= 26;
+    } while (id > 0);
+    return sb.toString();
+  }
 }
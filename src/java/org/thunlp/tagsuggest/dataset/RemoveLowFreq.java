@@ -6,12 +6,14 @@ import java.util.List;
 import java.util.logging.Logger;
 
 import org.thunlp.io.JsonUtil;
-import org.thunlp.io.RecordReader;
 import org.thunlp.io.RecordWriter;
 import org.thunlp.misc.Flags;
 import org.thunlp.misc.StringUtil;
 import org.thunlp.tagsuggest.common.FeatureExtractor;
 import org.thunlp.tagsuggest.common.Post;
+import org.thunlp.tagsuggest.common.PostInput;
+import org.thunlp.tagsuggest.common.PostStore;
+import org.thunlp.tagsuggest.common.PostStoreWriter;
 import org.thunlp.tagsuggest.common.SimpleExtractor;
 import org.thunlp.text.Lexicon;
 import org.thunlp.tool.GenericTool;
@@ -46,11 +48,17 @@ public class RemoveLowFreq implements GenericTool {
       Lexicon wordDict, Lexicon tagDict) throws IOException {
     FeatureExtractor extractor = new SimpleExtractor(); 
     // Load all docs.
-    RecordReader reader = new RecordReader(input);
-    RecordWriter writer = new RecordWriter(output);
+    PostInput reader = PostInput.open(input, PostStore.ALL);
+    RecordWriter writer = null;
+    PostStoreWriter store = null;
+    if (PostStore.isPostStore(output)) {
+      store = new PostStoreWriter(output);
+    } else {
+      writer = new RecordWriter(output);
+    }
     List<String> filtered = new LinkedList<String>();
     while (reader.next()) {
-      Post p = J.fromJson(reader.value(), Post.class);
+      Post p = reader.get(Post.class);
       String [] words = extractor.extract(p);
       filtered.clear();
       for (String w : words) {
@@ -68,21 +76,30 @@ public class RemoveLowFreq implements GenericTool {
       for (String t :filtered) {
         p.getTags().add(t);
       }
-      writer.add(reader.key(), J.toJson(p));
+      if (store != null) {
+        store.add(p);
+      } else {
+        writer.add(reader.key(), J.toJson(p));
+      }
       if (reader.numRead() % 1000 == 0)
         LOG.info("  " + reader.numRead());
     }
     reader.close();
-    writer.close();
+    if (store != null) {
+      store.close();
+    } else {
+      writer.close();
+    }
   }
 
   private void buildLexicon(String path, Lexicon wordDict, Lexicon tagDict)
   throws IOException {
     FeatureExtractor extractor = new SimpleExtractor(); 
-    // Load all docs.
-    RecordReader reader = new RecordReader(path);
+    // Load all docs, without the columns the lexicons do not use.
+    PostInput reader = PostInput.open(path,
+        PostStore.TITLE | PostStore.CONTENT | PostStore.TAGS);
     while (reader.next()) {
-      Post p = J.fromJson(reader.value(), Post.class);
+      Post p = reader.get(Post.class);
       String [] words = extractor.extract(p);
       wordDict.addDocument(words);
       String [] tags = p.getTags().toArray(new String[p.getTags().size()]);
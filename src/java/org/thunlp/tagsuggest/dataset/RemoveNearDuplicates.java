@@ -0,0 +1,172 @@
+package org.thunlp.tagsuggest.dataset;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import org.thunlp.io.JsonUtil;
+import org.thunlp.io.RecordReader;
+import org.thunlp.io.RecordWriter;
+import org.thunlp.misc.Flags;
+import org.thunlp.tagsuggest.common.ConfigIO;
+import org.thunlp.tagsuggest.common.DoubanPost;
+import org.thunlp.tagsuggest.common.KeywordPost;
+import org.thunlp.tagsuggest.common.Post;
+import org.thunlp.tagsuggest.common.WordFeatureExtractor;
+import org.thunlp.text.NearDuplicateIndex;
+import org.thunlp.tool.GenericTool;
+
+/**
+ * Remove reposts and other near-duplicate posts in one streaming pass. Posts
+ * are segmented by WordFeatureExtractor and indexed by a MinHash LSH index
+ * over word shingles; a post is dropped if an earlier kept post is similar
+ * enough. Posts without any word are kept and not indexed. Records are
+ * copied unchanged.
+ *
+ * Config: "dataType" (Post, DoubanPost or KeywordPost), "dedup_bands" (16),
+ * "dedup_rows" (6), "dedup_shingle" (3) and "dedup_threshold" (0.8, the
+ * estimated Jaccard similarity of the word shingles).
+ * @author sixiance
+ *
+ */
+public class RemoveNearDuplicates implements GenericTool {
+  private static Logger LOG = Logger.getAnonymousLogger();
+  private JsonUtil J = new JsonUtil();
+  private WordFeatureExtractor extractor;
+  private String dataType = "Post";
+  private Properties config;
+
+  @Override
+  public void run(String[] args) throws Exception {
+    Flags flags = new Flags();
+    flags.add("input");
+    flags.add("output");
+    flags.add("config");
+    flags.addWithDefaultValue("duplicates", "",
+        "write 'removed_id kept_id' lines to this file");
+    flags.parseAndCheck(args);
+
+    setConfig(ConfigIO.configFromString(flags.getString("config")));
+    removeDuplicates(flags.getString("input"), flags.getString("output"),
+        flags.getString("duplicates"));
+  }
+
+  public void setConfig(Properties config) {
+    this.config = config;
+    extractor = new WordFeatureExtractor(config);
+    dataType = config.getProperty("dataType", "Post");
+  }
+
+  public NearDuplicateIndex newIndex() {
+    return new NearDuplicateIndex(
+        Integer.parseInt(config.getProperty("dedup_bands", "16")),
+        Integer.parseInt(config.getProperty("dedup_rows", "6")),
+        Integer.parseInt(config.getProperty("dedup_shingle", "3")),
+        Double.parseDouble(config.getProperty("dedup_threshold", "0.8")));
+  }
+
+  public Post parse(String json) throws IOException {
+    if (dataType.equals("DoubanPost")) {
+      return J.fromJson(json, DoubanPost.class);
+    } else if (dataType.equals("KeywordPost")) {
+      return J.fromJson(json, KeywordPost.class);
+    }
+    return J.fromJson(json, Post.class);
+  }
+
+  /**
+   * The signature of the words of the post, null if it has none.
+   */
+  public int[] signature(NearDuplicateIndex index, Post p) {
+    return index.signature(extractor.extract(p));
+  }
+
+  public void removeDuplicates(String input, String output,
+      String duplicatesPath) throws IOException {
+    NearDuplicateIndex index = newIndex();
+    // Ids of the kept posts, by index id.
+    List<String> keptIds = new ArrayList<String>();
+    RecordReader reader = new RecordReader(input);
+    RecordWriter writer = new RecordWriter(output);
+    RecordWriter duplicates = null;
+    if (duplicatesPath.length() > 0) {
+      duplicates = new RecordWriter(duplicatesPath);
+    }
+    int removed = 0;
+    while (reader.next()) {
+      Post p = parse(reader.value());
+      int[] sig = signature(index, p);
+      int original = index.findDuplicate(sig);
+      if (sig == null) {
+        writer.add(reader.value());
+      } else if (original >= 0) {
+        removed++;
+        if (duplicates != null) {
+          duplicates.add(p.getId() + " " + keptIds.get(original));
+        }
+      } else {
+        index.add(sig);
+        keptIds.add(p.getId());
+        writer.add(reader.value());
+      }
+      if (reader.numRead() % 10000 == 0) {
+        LOG.info(reader.numRead() + " posts, " + removed + " removed");
+      }
+    }
+    LOG.info("Processed " + reader.numRead() + " posts, removed " + removed
+        + " near-duplicates");
+    reader.close();
+    writer.close();
+    if (duplicates != null) {
+      duplicates.close();
+    }
+  }
+
+  /**
+   * Count the posts of a dataset cut by CutFolds that are near-duplicates of
+   * a post in another fold. Each post is compared with the first post of its
+   * group of near-duplicates. Leaked pairs are written to report as
+   * "post_id fold original_id original_fold" lines, if report is not null.
+   * Returns the number of leaked posts.
+   */
+  public int checkFoldLeakage(String cutDataset, String report)
+  throws IOException {
+    NearDuplicateIndex index = newIndex();
+    List<String> ids = new ArrayList<String>();
+    List<String> folds = new ArrayList<String>();
+    RecordReader reader = new RecordReader(cutDataset);
+    RecordWriter writer = null;
+    if (report != null) {
+      writer = new RecordWriter(report);
+    }
+    int leaked = 0;
+    while (reader.next()) {
+      Post p = parse(reader.value());
+      int[] sig = signature(index, p);
+      if (sig == null) {
+        continue;
+      }
+      int original = index.findDuplicate(sig);
+      if (original < 0) {
+        index.add(sig);
+        ids.add(p.getId());
+        folds.add(p.getExtras());
+      } else if (!folds.get(original).equals(p.getExtras())) {
+        leaked++;
+        if (writer != null) {
+          writer.add(p.getId() + " " + p.getExtras() + " "
+              + ids.get(original) + " " + folds.get(original));
+        }
+      }
+    }
+    LOG.info(leaked + " of " + reader.numRead()
+        + " posts are near-duplicates of posts in other folds");
+    reader.close();
+    if (writer != null) {
+      writer.close();
+    }
+    return leaked;
+  }
+}
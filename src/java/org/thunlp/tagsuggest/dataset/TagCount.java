@@ -14,11 +14,12 @@ import java.util.Map.Entry;
 import java.util.logging.Logger;
 
 import org.thunlp.io.JsonUtil;
-import org.thunlp.io.RecordReader;
 import org.thunlp.misc.Counter;
 import org.thunlp.misc.Flags;
 import org.thunlp.tagsuggest.common.ConfigIO;
 import org.thunlp.tagsuggest.common.DoubanPost;
+import org.thunlp.tagsuggest.common.PostInput;
+import org.thunlp.tagsuggest.common.PostStore;
 import org.thunlp.tagsuggest.common.TagFilter;
 import org.thunlp.tagsuggest.common.WordFeatureExtractor;
 import org.thunlp.text.Lexicon;
@@ -68,7 +69,8 @@ public class TagCount implements GenericTool {
 		    
 		    Set<String> filtered = new HashSet<String>();
 			
-			RecordReader reader = new RecordReader(input);
+			PostInput reader = PostInput.open(input, PostStore.TITLE
+					| PostStore.CONTENT | PostStore.DOUBAN_TAGS);
 			
 			BufferedWriter out = new BufferedWriter(
 					new OutputStreamWriter(new FileOutputStream(modelDir.getAbsolutePath()+"/tagCount.vcb"),"UTF-8"));
@@ -77,7 +79,7 @@ public class TagCount implements GenericTool {
 
 		    while (reader.next()) {
 		    	counter ++;	
-		    	DoubanPost p = J.fromJson(reader.value(), DoubanPost.class);			
+		    	DoubanPost p = reader.get(DoubanPost.class);			
 		    	String [] words = fe.extract(p);
 				if(words.length <= 0){
 					continue;
@@ -5,17 +5,23 @@ import java.util.Properties;
 import java.util.logging.Logger;
 
 import org.thunlp.io.TextFileWriter;
+import org.thunlp.metrics.Metrics;
 import org.thunlp.misc.Flags;
 import org.thunlp.tagsuggest.common.ConfigIO;
 import org.thunlp.tagsuggest.common.ModelTrainer;
 import org.thunlp.tagsuggest.common.TagSuggest;
 import org.thunlp.tagsuggest.dataset.CutFolds;
+import org.thunlp.tagsuggest.dataset.RemoveNearDuplicates;
 import org.thunlp.tagsuggest.evaluation.Evaluator.Result;
-import org.thunlp.tagsuggest.evaluation.EvaluatorByActual.Result2;
 import org.thunlp.tool.GenericTool;
 
 /** 
  * Perform cross-validation on given dataset with given tag suggestion algorithm
+ *
+ * Several algorithms can be compared at once, with "trainer_class" and
+ * "suggester_class" given as comma separated lists. The test posts of each
+ * fold are then read and featurized once for all suggesters, "report" gets
+ * a comparison table and "report.Name" the report of each suggester.
  * @author sixiance
  *
  */
@@ -28,10 +34,13 @@ public class CrossValidator implements GenericTool {
     flags.add("report");
     flags.add("working_dir");
     flags.add("config");
-    flags.add("trainer_class");
-    flags.add("suggester_class");
+    flags.add("trainer_class", "trainer class names, separated by commas");
+    flags.add("suggester_class",
+        "suggester class names, one for each trainer");
     flags.addWithDefaultValue("num_folds", "5", "");
-    flags.addWithDefaultValue("at_n", "10", "");
+    flags.addWithDefaultValue("at_n", "10", "n, or a list of cutoffs");
+    flags.addWithDefaultValue("check_leakage", "false",
+        "report posts that are near-duplicates of posts in other folds");
     flags.parseAndCheck(args);
   }
 
@@ -41,24 +50,34 @@ public class CrossValidator implements GenericTool {
 
     int numFolds = flags.getInt("num_folds");
     Properties config = ConfigIO.configFromString(flags.getString("config"));
+    Metrics.configure(config);
     String workingDir = flags.getString("working_dir");
     String datasetPath = flags.getString("dataset");
     String reportPath = flags.getString("report");
-    int atN = flags.getInt("at_n");
+    int [] cutoffs = Evaluator.parseCutoffs(flags.getString("at_n"));
+    int atN = cutoffs[cutoffs.length - 1];
     String cutDatasetPath = workingDir + File.separator + "cut.gz";
 
     // Prepare trainer and suggester classes.
-    String suggesterClassName = flags.getString("suggester_class");
-    if (!suggesterClassName.startsWith("org.thunlp.tagsuggest.contentbase")) {
-      suggesterClassName = "org.thunlp.tagsuggest.contentbase." + suggesterClassName;
+    String [] suggesterClassNames = flags.getString("suggester_class").split(",");
+    String [] trainerNames = flags.getString("trainer_class").split(",");
+    if (trainerNames.length != suggesterClassNames.length) {
+      throw new IllegalArgumentException(suggesterClassNames.length
+          + " suggesters but " + trainerNames.length + " trainers");
     }
-
-    String trainerName = flags.getString("trainer_class");
-    if (!trainerName.startsWith("org.thunlp.tagsuggest.train")) {
-      trainerName = "org.thunlp.tagsuggest.train." + trainerName;
+    ModelTrainer [] trainers = new ModelTrainer[trainerNames.length];
+    for (int k = 0; k < suggesterClassNames.length; k++) {
+      if (!suggesterClassNames[k].startsWith(
+          "org.thunlp.tagsuggest.contentbase")) {
+        suggesterClassNames[k] =
+          "org.thunlp.tagsuggest.contentbase." + suggesterClassNames[k];
+      }
+      String trainerName = trainerNames[k];
+      if (!trainerName.startsWith("org.thunlp.tagsuggest.train")) {
+        trainerName = "org.thunlp.tagsuggest.train." + trainerName;
+      }
+      trainers[k] = (ModelTrainer) Class.forName(trainerName).newInstance();
     }
-    ModelTrainer trainer = 
-      (ModelTrainer) Class.forName(trainerName).newInstance();
 
     File workingDirFile = new File(workingDir);
 
@@ -75,34 +94,76 @@ public class CrossValidator implements GenericTool {
       cf.cutFolds(datasetPath, cutDatasetPath, numFolds,dataType);
     }
 
-    // Train & test for each fold.
-    Result [] results = new Result[numFolds];
+    if (flags.getBoolean("check_leakage")) {
+      String leakagePath = workingDir + File.separator + "leakage.txt";
+      LOG.info("Check near-duplicates across folds, see " + leakagePath);
+      RemoveNearDuplicates dedup = new RemoveNearDuplicates();
+      dedup.setConfig(config);
+      int leaked = dedup.checkFoldLeakage(cutDatasetPath, leakagePath);
+      if (leaked > 0) {
+        LOG.warning(leaked + " test posts have near-duplicates in training "
+            + "folds, consider RemoveNearDuplicates on the dataset");
+      }
+    }
+
+    // Train & test for each fold. All suggesters are tested in one pass
+    // over the test posts of the fold.
+    Result [][] results = new Result[suggesterClassNames.length][numFolds];
     Evaluator evaluator = new Evaluator(config);
     evaluator.setMinLog(
         Double.parseDouble(config.getProperty("minlog", "-10")));
+    TagSuggest [] suggesters = new TagSuggest[suggesterClassNames.length];
     for (int i = 0; i < numFolds; i++) {
       LOG.info("Fold " + i);
       config.setProperty("fold", Integer.toString(i));
-      String modelPath = workingDir + File.separator + "model." + i + ".gz";
+      for (int k = 0; k < suggesters.length; k++) {
+        suggesters[k] = (TagSuggest)
+          Class.forName(suggesterClassNames[k]).newInstance();
+      }
+      for (int k = 0; k < suggesters.length; k++) {
+        String modelPath = workingDir + File.separator + "model."
+          + modelName(suggesters, k) + i + ".gz";
 
-      if (!fileExists(modelPath)) {
-        LOG.info("Training " + i);
-        trainer.train(cutDatasetPath, modelPath, config);
-      } else {
-        LOG.info("Using existing model " + i);
+        if (!fileExists(modelPath)) {
+          LOG.info("Training " + i + " " + trainerNames[k]);
+          trainers[k].train(cutDatasetPath, modelPath, config);
+        } else {
+          LOG.info("Using existing model " + modelPath);
+        }
+        suggesters[k].setConfig(config);
+        suggesters[k].loadModel(modelPath);
       }
       LOG.info("Testing " + i);
 
-      TagSuggest ts =
-        (TagSuggest) Class.forName(suggesterClassName).newInstance();
-      ts.setConfig(config);
-      ts.loadModel(modelPath);
+      Result [] foldResults =
+        evaluator.evaluateSuggesters(cutDatasetPath, suggesters, atN, i);
+      for (int k = 0; k < suggesters.length; k++) {
+        results[k][i] = foldResults[k];
+      }
+    }
 
-      results[i] = evaluator.evaluateSuggester(cutDatasetPath, ts, atN, i);
+    if (suggesters.length == 1) {
+      String report = writeReport(results[0], cutoffs);
+      TextFileWriter.writeToFile(report, new File(reportPath), "UTF-8");
+      return;
+    }
+    String [] names = new String[suggesters.length];
+    for (int k = 0; k < suggesters.length; k++) {
+      names[k] = Evaluator.suffix(suggesters, k).substring(1);
+      String report = writeReport(results[k], cutoffs);
+      TextFileWriter.writeToFile(report,
+          new File(reportPath + "." + names[k]), "UTF-8");
     }
+    TextFileWriter.writeToFile(writeComparison(names, results, cutoffs),
+        new File(reportPath), "UTF-8");
+  }
 
-    String report = writeReport(results);
-    TextFileWriter.writeToFile(report, new File(reportPath), "UTF-8");
+  /**
+   * The part of the model file name for a suggester, empty if it is alone.
+   */
+  private String modelName(TagSuggest [] suggesters, int k) {
+    String suffix = Evaluator.suffix(suggesters, k);
+    return suffix.length() == 0 ? "" : suffix.substring(1) + ".";
   }
 
   public boolean fileExists(String filename) {
@@ -111,6 +172,51 @@ public class CrossValidator implements GenericTool {
   }
 
   public String writeReport(Result [] results) {
+    int [] cutoffs = new int[results[0].f1.length];
+    for (int i = 0; i < cutoffs.length; i++) {
+      cutoffs[i] = i + 1;
+    }
+    return writeReport(results, cutoffs);
+  }
+
+  /**
+   * One line for each suggester, with its P/R/F1 at the cutoffs averaged
+   * over the folds, and its time for a post.
+   */
+  public String writeComparison(String [] names, Result [][] results,
+      int [] cutoffs) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("suggester");
+    for (int n : cutoffs) {
+      sb.append(" P@" + n + " R@" + n + " F1@" + n);
+    }
+    sb.append(" ms/post\n");
+    for (int k = 0; k < names.length; k++) {
+      sb.append(names[k]);
+      for (int n : cutoffs) {
+        double p = 0, r = 0, f1 = 0;
+        for (Result fold : results[k]) {
+          p += fold.p[n - 1];
+          r += fold.r[n - 1];
+          f1 += fold.f1[n - 1];
+        }
+        int numFolds = results[k].length;
+        sb.append(String.format(" %.5f %.5f %.5f", p / numFolds,
+            r / numFolds, f1 / numFolds));
+      }
+      long nanos = 0;
+      long posts = 0;
+      for (Result fold : results[k]) {
+        nanos += fold.suggestNanos;
+        posts += fold.n;
+      }
+      sb.append(String.format(" %.3f\n", posts == 0 ? 0.0
+          : nanos / 1e6 / posts));
+    }
+    return sb.toString();
+  }
+
+  public String writeReport(Result [] results, int [] cutoffs) {
     int atN = results[0].f1.length;
     Result result = new Result(atN);
     Result stdev = new Result(atN);
@@ -160,8 +266,9 @@ public class CrossValidator implements GenericTool {
     stdev.perplexity = Math.sqrt(stdev.perplexity / results.length);
 
     StringBuilder sb = new StringBuilder();
-    for (int i = 0; i < atN; i++) {
-      sb.append(i+1);
+    for (int n : cutoffs) {
+      int i = n - 1;
+      sb.append(n);
       sb.append(" ");
       sb.append(String.format("%.5f", result.p[i]));
       sb.append(" ");
@@ -1,27 +1,33 @@
 package org.thunlp.tagsuggest.evaluation;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
-import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 
 import org.thunlp.io.JsonUtil;
 import org.thunlp.io.RecordReader;
 import org.thunlp.io.TextFileWriter;
+import org.thunlp.metrics.Counter;
+import org.thunlp.metrics.Histogram;
+import org.thunlp.metrics.Metrics;
 import org.thunlp.misc.Flags;
 import org.thunlp.misc.WeightString;
 import org.thunlp.tagsuggest.common.ConfigIO;
@@ -31,6 +37,7 @@ import org.thunlp.tagsuggest.common.KeywordPost;
 import org.thunlp.tagsuggest.common.MyKeyword2;
 import org.thunlp.tagsuggest.common.MyTag;
 import org.thunlp.tagsuggest.common.Post;
+import org.thunlp.tagsuggest.common.SharedFeatures;
 import org.thunlp.tagsuggest.common.TagFilter;
 import org.thunlp.tagsuggest.common.TagSuggest;
 import org.thunlp.tagsuggest.common.WordFeatureExtractor;
@@ -41,12 +48,25 @@ import edu.stanford.nlp.util.StringUtils;
 
 /**
  * Compute P/R/F1 at different number of tags for a tag suggester.
- * 
+ *
+ * Several suggesters can be evaluated in one pass over the test posts, with
+ * "suggester" and "model_path" given as comma separated lists, and "at_n"
+ * is either n, for P/R/F1 at 1..n, or a list of cutoffs like "1,3,5,10".
+ * The tags which count as answers are found once per dataset and shared by
+ * all folds. The outputs of "outputFile", "outputF" and "outputWrong" are
+ * only created when something is written to them.
+ *
+ * The suggesters of one pass share the features of each post, and run in
+ * parallel on up to "eval_threads" threads (the number of processors).
+ *
  * @author sixiance
- * 
+ *
  */
 public class Evaluator implements GenericTool {
 	private static Logger LOG = Logger.getAnonymousLogger();
+	private static Histogram SUGGEST = Metrics.histogram("suggest.total_ns");
+	private static Counter POSTS = Metrics.counter("suggest.posts");
+	private static Map<String, Lexicon> tagLexicons = new HashMap<String, Lexicon>();
 	private JsonUtil J = new JsonUtil();
 	private Properties config = null;
 	private double minLog = -10;
@@ -68,6 +88,9 @@ public class Evaluator implements GenericTool {
 		}
 	}
 
+	/**
+	 * Sums of the scores of the posts, which finish() turns into means.
+	 */
 	public static class Result {
 		double[] p;
 		double[] r;
@@ -76,13 +99,15 @@ public class Evaluator implements GenericTool {
 		double loglikelihood;
 		double perplexity;
 		double numTags;
-		
+
 		long num;
 		long suggestnum;
 		long answernum;
 
 		long[] record;
-		
+		// Time spent in suggest().
+		long suggestNanos;
+
 		public Result(int atN) {
 			p = new double[atN];
 			r = new double[atN];
@@ -91,12 +116,22 @@ public class Evaluator implements GenericTool {
 			loglikelihood = 0;
 			perplexity = 0;
 			numTags = 0;
-			
+
 			record = new long[atN];
 			num = 0;
 			suggestnum = 0;
 			answernum = 0;
 		}
+
+		void finish() {
+			for (int i = 0; i < p.length; i++) {
+				p[i] /= n;
+				r[i] /= n;
+				f1[i] /= n;
+			}
+			loglikelihood /= numTags;
+			perplexity = Math.pow(2.0, -loglikelihood);
+		}
 	}
 
 	@Override
@@ -104,349 +139,382 @@ public class Evaluator implements GenericTool {
 		Flags flags = new Flags();
 		flags.add("input", "test data");
 		flags.add("output", "evaluation report");
-		flags.add("suggester", "suggester class name");
-		flags.add("model_path", "model path for suggester's loadModel");
+		flags.add("suggester", "suggester class names, separated by commas");
+		flags.add("model_path", "model paths for suggesters' loadModel");
 		flags.add("config", "config string");
-		flags.add("at_n", "evaluate p/r/f1 at i<=n.");
+		flags.add("at_n", "evaluate p/r/f1 at i<=n, or at a list of i.");
 		flags.parseAndCheck(args);
 
 		config = ConfigIO.configFromString(flags.getString("config"));
+		Metrics.configure(config);
 		int fold = Integer.parseInt(config.getProperty("fold", "-1"));
-		File output = new File(flags.getString("output"));
-		int atN = flags.getInt("at_n");
+		int[] cutoffs = parseCutoffs(flags.getString("at_n"));
 
 		setMinLog(Double.parseDouble(config.getProperty("minlog", "-10")));
-		String suggesterClassName = flags.getString("suggester");
-		if (!suggesterClassName.startsWith("org.thunlp.tagsuggest.")) {
-			suggesterClassName = "org.thunlp.tagsuggest." + suggesterClassName;
+		String[] names = flags.getString("suggester").split(",");
+		String[] modelPaths = flags.getString("model_path").split(",");
+		if (modelPaths.length != names.length) {
+			throw new IllegalArgumentException(names.length
+					+ " suggesters but " + modelPaths.length + " model paths");
+		}
+		TagSuggest[] suggesters = new TagSuggest[names.length];
+		for (int i = 0; i < names.length; i++) {
+			String suggesterClassName = names[i];
+			if (!suggesterClassName.startsWith("org.thunlp.tagsuggest.")) {
+				suggesterClassName = "org.thunlp.tagsuggest." + suggesterClassName;
+			}
+			suggesters[i] = (TagSuggest) Class.forName(suggesterClassName)
+					.newInstance();
+			suggesters[i].setConfig(config);
+			suggesters[i].loadModel(modelPaths[i]);
 		}
-		TagSuggest ts = (TagSuggest) Class.forName(suggesterClassName)
-				.newInstance();
-		ts.setConfig(config);
-		ts.loadModel(flags.getString("model_path"));
 
-		Result result = evaluateSuggester(flags.getString("input"), ts, atN,
-				fold);
+		Result[] results = evaluateSuggesters(flags.getString("input"),
+				suggesters, cutoffs[cutoffs.length - 1], fold);
 
-		writeReport(result, output);
+		for (int i = 0; i < suggesters.length; i++) {
+			writeReport(results[i], cutoffs, new File(flags.getString("output")
+					+ suffix(suggesters, i)));
+		}
 	}
 
 	public Result evaluateSuggester(String input, TagSuggest ts, int atN,
 			int fold) throws IOException {
-		RecordReader reader = new RecordReader(input);
-		Result result = new Result(atN);
-		int n = 0;
-		long duration = 0l;
+		return evaluateSuggesters(input, new TagSuggest[] { ts }, atN, fold)[0];
+	}
 
-		String outputFile = config.getProperty("outputFile",input);
-		BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
-				new FileOutputStream(outputFile+fold),
-				"UTF-8"));
-		
-		boolean outputF = config.getProperty("outputF", "false").equals("true");
-		BufferedWriter outF = new BufferedWriter(new OutputStreamWriter(
-				new FileOutputStream(outputFile+"F"+fold),"UTF-8"));
-		List<WeightString> fmeasure = new ArrayList<WeightString>();
-		
-		boolean outputWrong = config.getProperty("outputWrong", "false").equals("true");
-		BufferedWriter outWrong = new BufferedWriter(new OutputStreamWriter(
-				new FileOutputStream(outputFile+fold+"wrong"),
-				"UTF-8"));
-		
-		
-		
+	/**
+	 * Evaluate the suggesters on the same test posts, reading the posts once.
+	 * With more than one suggester, the outputs of each go to files named
+	 * after its class.
+	 */
+	public Result[] evaluateSuggesters(String input, TagSuggest[] suggesters,
+			int atN, int fold) throws IOException {
+		Result[] results = new Result[suggesters.length];
+		for (int i = 0; i < suggesters.length; i++) {
+			results[i] = new Result(atN);
+		}
 		String dataType = config.getProperty("dataType", "Post");
-		if(dataType.equals("DoubanPost")){
-				Lexicon wordlex = new Lexicon();
-				Lexicon taglex = new Lexicon();
-				WordFeatureExtractor.buildLexicons(input, wordlex, taglex, config);
-				int minTagFreq = Integer.parseInt(config.getProperty("mintagfreq",
-						"1"));
-				
-				TagFilter tagFilter = new TagFilter(config, taglex);
-			
-				// Evaluation.
-				Set<String> normedTags = new HashSet<String>();
-				Pattern spaceRE = Pattern.compile(" +");
-				while (reader.next()) {
-					DoubanPost p = J.fromJson(reader.value(), DoubanPost.class);
-					if (fold >= 0) {
-						if (!p.getExtras().equals(Integer.toString(fold)))
-							continue;
-					}
-					// p.getTags().removeAll(tagblacklist);
-					if (p.getDoubanTags().size() == 0)
-						continue;
-					long start = System.currentTimeMillis();
-					List<WeightString> tags = ts.suggest(p, null);
-					duration += System.currentTimeMillis() - start;
-					
-					normedTags.clear();
-					
-					tagFilter.filterMapWithNorm(p.getDoubanTags(), normedTags);
-					
-					if (normedTags.size() == 0)
-						continue; // Skip documents with no valid tags.
-					
-					collectScore(tags, normedTags, result);
-	
-					if(fold == 3){
-						// output for Demo
-						MyTag myTag = new MyTag();
-						myTag.setTitle(p.getTitle());
-						myTag.setContent(p.getContent());
-						myTag.setAnswer(normedTags);
-
-						if(tags.size() < 10) myTag.setSuggestTags(tags);
-						else myTag.setSuggestTags(tags.subList(0, 10));
-						out.write(J.toJson(myTag));
-						out.newLine();
-						out.flush();
-					}
-					
-					if (n % 100 == 0) {
-						LOG.info("evaluated " + n);
-						LOG.info("  @5 p:" + (result.p[4] / result.n) + " r: "
-								+ (result.r[4] / result.n));
-						LOG.info("  Perplexity:"
-								+ Math.pow(2.0, -result.loglikelihood
-										/ result.numTags));
-					}
-					n++;
-				}
-				out.close();
-				reader.close();
-				
-				LOG.info("suggester speed:" + duration + "/" + n + "="
-						+ (duration / (double) n) + ", "
-						+ (duration / (double) n / 1000.0) + "ms.");
-				// Normalize the result.
-				for (int i = 0; i < atN; i++) {
-					result.p[i] /= result.n;
-					result.r[i] /= result.n;
-					result.f1[i] /= result.n;
-				}
-				
-				result.loglikelihood /= result.numTags;
-				result.perplexity = Math.pow(2.0, -result.loglikelihood);
-				return result;
-		} 
-		else if (dataType.equals("Post")){
-				// Load the word frequency info, count it if not exist.
-				Lexicon wordlex = new Lexicon();
-				Lexicon taglex = new Lexicon();
-				WordFeatureExtractor.buildLexicons(input, wordlex, taglex, config);
-				int minTagFreq = Integer.parseInt(config.getProperty("mintagfreq",
-						"1"));
-				taglex = taglex.removeLowDfWords(minTagFreq);
-	
-				// Check if this suggester can provide likelihood.
-				boolean useLikelihood = (ts instanceof GenerativeTagSuggest);
-				GenerativeTagSuggest gts = null;
-				if (useLikelihood)
-					gts = (GenerativeTagSuggest) ts;
-	
-				TagFilter tagFilter = new TagFilter(config, taglex);
-				// Evaluation.
-				Set<String> normedTags = new HashSet<String>();
-				while (reader.next()) {
-					Post p = J.fromJson(reader.value(), Post.class);
-					if (fold >= 0) {
-						if (!p.getExtras().equals(Integer.toString(fold)))
-							continue;
-					}
-					p.getTags().removeAll(tagblacklist);
-					if (p.getTags().size() == 0)
-						continue;
-					long start = System.currentTimeMillis();
-					List<WeightString> tags = ts.suggest(p, null);
-					duration += System.currentTimeMillis() - start;
-					normedTags.clear();
-			
-					tagFilter.filterWithNorm(p.getTags(), normedTags);
-					if (normedTags.size() == 0)
-						continue; // Skip documents with no valid tags.
-					
-					collectScore(tags, normedTags, result);
-	
-					if(fold == 3){
-						// output for Demo
-						MyTag myTag = new MyTag();
-						myTag.setTitle(p.getTitle());
-						myTag.setContent(p.getContent());
-			
-						myTag.setAnswer(normedTags);
-						if(tags.size() < 10) myTag.setSuggestTags(tags);
-						else myTag.setSuggestTags(tags.subList(0, 10));
-						out.write(J.toJson(myTag));
-						out.newLine();
-						out.flush();
-					}
-					
-	
-					if (useLikelihood) {
-						likelihoods.clear();
-						gts.likelihood(p, likelihoods);
-						for (Double l : likelihoods) {
-							result.loglikelihood += takeSafeLog(l);
-							result.numTags++;
-						}
-					}
-	
-					if (n % 100 == 0) {
-						LOG.info("evaluated " + n);
-						LOG.info("  @5 p:" + (result.p[4] / result.n) + " r: "
-								+ (result.r[4] / result.n));
-						LOG.info("  Perplexity:"
-								+ Math.pow(2.0, -result.loglikelihood
-										/ result.numTags));
-					}
-					n++;
-				}
-				reader.close();
-				
-				LOG.info("suggester speed:" + duration + "/" + n + "="
-						+ (duration / (double) n) + ", "
-						+ (duration / (double) n / 1000.0) + "ms.");
-				// Normalize the result.
-				for (int i = 0; i < atN; i++) {
-					result.p[i] /= result.n;
-					result.r[i] /= result.n;
-					result.f1[i] /= result.n;
-				}
-				result.loglikelihood /= result.numTags;
-				result.perplexity = Math.pow(2.0, -result.loglikelihood);
-				return result;
+		Class<? extends Post> type;
+		if (dataType.equals("DoubanPost")) {
+			type = DoubanPost.class;
+		} else if (dataType.equals("Post")) {
+			type = Post.class;
+		} else if (dataType.equals("KeywordPost")) {
+			type = KeywordPost.class;
+		} else {
+			return results;
 		}
-		else if (dataType.equals("KeywordPost")){
-			Lexicon wordlex = new Lexicon();
-			Lexicon taglex = new Lexicon();
-			WordFeatureExtractor.buildLexicons(input, wordlex, taglex, config);
-			int minTagFreq = Integer.parseInt(config.getProperty("mintagfreq",
-					"1"));
-			taglex = taglex.removeLowDfWords(minTagFreq);
+		TagFilter tagFilter = tagFilter(input, config);
 
-			// Check if this suggester can provide likelihood.
-			boolean useLikelihood = (ts instanceof GenerativeTagSuggest);
-			GenerativeTagSuggest gts = null;
-			if (useLikelihood)
-				gts = (GenerativeTagSuggest) ts;
+		String outputFile = config.getProperty("outputFile",input);
+		boolean outputF = config.getProperty("outputF", "false").equals("true");
+		LazyWriter[] out = new LazyWriter[suggesters.length];
+		List<List<WeightString>> fmeasure = new ArrayList<List<WeightString>>();
+		for (int i = 0; i < suggesters.length; i++) {
+			out[i] = new LazyWriter(outputFile + fold + suffix(suggesters, i));
+			fmeasure.add(new ArrayList<WeightString>());
+		}
+		long[] duration = new long[suggesters.length];
+		int numThreads = Math.min(suggesters.length, Integer.parseInt(config
+				.getProperty("eval_threads", Integer.toString(Runtime
+						.getRuntime().availableProcessors()))));
+		ExecutorService pool = (numThreads > 1) ? Executors
+				.newFixedThreadPool(numThreads - 1) : null;
 
-			
-			TagFilter tagFilter = new TagFilter(config, taglex);
-			// Evaluation.
-			Set<String> normedTags = new HashSet<String>();
+		// Only the test fold is read when the dataset has a fold index.
+		RecordReader reader = (fold >= 0) ? RecordReader.openFold(input,
+				Integer.toString(fold)) : new RecordReader(input);
+		Set<String> normedTags = new HashSet<String>();
+		int n = 0;
+		try {
 			while (reader.next()) {
-				KeywordPost p = J.fromJson(reader.value(), KeywordPost.class);
+				Post p = J.fromJson(reader.value(), type);
 				if (fold >= 0) {
 					if (!p.getExtras().equals(Integer.toString(fold)))
 						continue;
 				}
-				p.getTags().removeAll(tagblacklist);
-				if (p.getTags().size() == 0)
-					continue;
-				long start = System.currentTimeMillis();
-				List<WeightString> tags = ts.suggest(p, null);
-				duration += System.currentTimeMillis() - start;
-				normedTags.clear();
-				
-				tagFilter.filterWithNorm(p.getTags(), normedTags);
+				if (p instanceof DoubanPost) {
+					if (((DoubanPost) p).getDoubanTags().size() == 0)
+						continue;
+					tagFilter.filterMapWithNorm(((DoubanPost) p).getDoubanTags(),
+							normedTags);
+				} else {
+					p.getTags().removeAll(tagblacklist);
+					if (p.getTags().size() == 0)
+						continue;
+					tagFilter.filterWithNorm(p.getTags(), normedTags);
+				}
 				if (normedTags.size() == 0)
 					continue; // Skip documents with no valid tags.
-				
-				collectScore(tags, normedTags, result);
-
-				if(outputF){
-					int count = 0;
-					for(int i = 0; i < tags.size() && i < 10; i++){
-						if (normedTags.contains(tags.get(i).text.toLowerCase())) {
-							count ++;
-						}
-					}
-					double pp = 0.0;
-					if(tags.size() < 10){
-						pp = (tags.size() == 0) ? 0.0 : (double)count / (double)tags.size() ;
-					}
-					else{
-						pp = (double)count / 10.0;
+
+				List<List<WeightString>> suggested = suggestAll(suggesters, p,
+						duration, pool);
+				for (int i = 0; i < suggesters.length; i++) {
+					List<WeightString> tags = suggested.get(i);
+					collectScore(tags, normedTags, results[i]);
+					if (outputF) {
+						fmeasure.get(i).add(new WeightString(p.getId(),
+								fmeasureAt10(tags, normedTags)));
 					}
-					double r = (normedTags.size() == 0) ? 0.0 : (double)count / (double)normedTags.size() ;
-					double f = 0.0;
-					if (pp == 0 || r == 0)
-						f = 0;
-					else
-						f = 2 * pp * r / (pp + r);
-					fmeasure.add(new WeightString(p.getId(), f));
-					
-					
-				}
-		
-				MyKeyword2 myKeyword = new MyKeyword2();
-				myKeyword.setTitle(p.getTitle());
-				myKeyword.setSummary(p.getSummary());
-				myKeyword.setContent(p.getContent());
-				myKeyword.setId(p.getId());
-				myKeyword.setAnswer(normedTags);
-		
-				for(int i = 0 ; i < tags.size() && i < 10; i ++){
-					myKeyword.getSuggestTags().add(tags.get(i).text);
-				}
-				out.write(J.toJson(myKeyword));
-				out.newLine();
-				out.flush();
-				
-				if (useLikelihood) {
-					likelihoods.clear();
-					gts.likelihood(p, likelihoods);
-					for (Double l : likelihoods) {
-						result.loglikelihood += takeSafeLog(l);
-						result.numTags++;
+					writeSuggestions(out[i], p, tags, normedTags, fold);
+
+					// Likelihoods are not defined for the weighted douban tags.
+					if (suggesters[i] instanceof GenerativeTagSuggest
+							&& !(p instanceof DoubanPost)) {
+						likelihoods.clear();
+						((GenerativeTagSuggest) suggesters[i]).likelihood(p,
+								likelihoods);
+						for (Double l : likelihoods) {
+							results[i].loglikelihood += takeSafeLog(l);
+							results[i].numTags++;
+						}
 					}
 				}
 
 				if (n % 100 == 0) {
+					Result result = results[0];
+					int at = Math.min(5, atN);
 					LOG.info("evaluated " + n);
-					LOG.info("  @5 p:" + (result.p[4] / result.n) + " r: "
-							+ (result.r[4] / result.n));
+					LOG.info("  @" + at + " p:" + (result.p[at - 1] / result.n)
+							+ " r: " + (result.r[at - 1] / result.n));
 					LOG.info("  Perplexity:"
 							+ Math.pow(2.0, -result.loglikelihood
 									/ result.numTags));
 				}
 				n++;
 			}
+		} finally {
 			reader.close();
-			out.close();
-			outWrong.close();
-			
-			if(outputF){
-				Collections.sort(fmeasure, new Comparator<WeightString>() {
-					@Override
-					public int compare(WeightString o1, WeightString o2) {
-						return Double.compare(o2.weight, o1.weight);
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
+
+		for (int i = 0; i < suggesters.length; i++) {
+			out[i].close();
+			if (outputF) {
+				writeFMeasure(fmeasure.get(i), new LazyWriter(outputFile + "F"
+						+ fold + suffix(suggesters, i)));
+			}
+			double ms = duration[i] / 1e6;
+			LOG.info(suggesters[i].getClass().getSimpleName() + " speed:"
+					+ String.format("%.0f", ms) + "ms/" + n + "="
+					+ String.format("%.3f", ms / n) + "ms.");
+			results[i].suggestNanos = duration[i];
+			results[i].finish();
+		}
+		return results;
+	}
+
+	/**
+	 * The suggestions of all suggesters for the post. With more than one
+	 * suggester the post is featurized once, and with a pool the suggesters
+	 * run in parallel, the first one in this thread.
+	 */
+	private List<List<WeightString>> suggestAll(final TagSuggest[] suggesters,
+			final Post p, final long[] duration, ExecutorService pool)
+			throws IOException {
+		List<List<WeightString>> suggested = new ArrayList<List<WeightString>>();
+		if (suggesters.length == 1) {
+			suggested.add(suggest(suggesters[0], p, duration, 0));
+			return suggested;
+		}
+		SharedFeatures.share(p);
+		try {
+			List<Future<List<WeightString>>> futures = new ArrayList<Future<List<WeightString>>>();
+			for (int i = 1; pool != null && i < suggesters.length; i++) {
+				final int k = i;
+				futures.add(pool.submit(new Callable<List<WeightString>>() {
+					public List<WeightString> call() {
+						return suggest(suggesters[k], p, duration, k);
 					}
-				});
-				for(int i = 0; i < fmeasure.size(); i ++){
-					outF.write(fmeasure.get(i).text + " " + fmeasure.get(i).weight);
-					outF.newLine();
-					outF.flush();
+				}));
+			}
+			suggested.add(suggest(suggesters[0], p, duration, 0));
+			for (int i = 1; i < suggesters.length; i++) {
+				if (pool == null) {
+					suggested.add(suggest(suggesters[i], p, duration, i));
+					continue;
+				}
+				try {
+					suggested.add(futures.get(i - 1).get());
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException("interrupted in suggest()");
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof RuntimeException) {
+						throw (RuntimeException) e.getCause();
+					}
+					if (e.getCause() instanceof Error) {
+						throw (Error) e.getCause();
+					}
+					throw new IllegalStateException(e.getCause());
 				}
-				outF.close();
 			}
-			
-			LOG.info("suggester speed:" + duration + "/" + n + "="
-					+ (duration / (double) n) + ", "
-					+ (duration / (double) n / 1000.0) + "ms.");
-			// Normalize the result.
-			for (int i = 0; i < atN; i++) {
-				result.p[i] /= result.n;
-				result.r[i] /= result.n;
-				result.f1[i] /= result.n;
+		} finally {
+			SharedFeatures.release(p);
+		}
+		return suggested;
+	}
+
+	private static List<WeightString> suggest(TagSuggest ts, Post p,
+			long[] duration, int i) {
+		long start = System.nanoTime();
+		long suggestStart = SUGGEST.start();
+		List<WeightString> tags = ts.suggest(p, null);
+		SUGGEST.stop(suggestStart);
+		POSTS.inc();
+		duration[i] += System.nanoTime() - start;
+		return tags;
+	}
+
+	/**
+	 * The filter of the tags of a dataset which count as answers. Only the
+	 * tag lexicon of the dataset is shared; the filter is made for each
+	 * config, since suggesters of one run can filter tags differently.
+	 */
+	static TagFilter tagFilter(String input, Properties config)
+			throws IOException {
+		String dataType = config.getProperty("dataType", "Post");
+		int minTagFreq = Integer.parseInt(config.getProperty("mintagfreq", "1"));
+		Lexicon taglex = tagLexicon(input, config);
+		if (!dataType.equals("DoubanPost")) {
+			taglex = taglex.removeLowDfWords(minTagFreq);
+		}
+		return new TagFilter(config, taglex);
+	}
+
+	/**
+	 * The tag lexicon of a dataset, shared by all callers, which must not
+	 * change it.
+	 */
+	static synchronized Lexicon tagLexicon(String input, Properties config)
+			throws IOException {
+		String key = datasetKey(input, config);
+		Lexicon taglex = tagLexicons.get(key);
+		if (taglex == null) {
+			taglex = new Lexicon();
+			WordFeatureExtractor.buildTagLexicon(input, taglex, config);
+			tagLexicons.put(key, taglex);
+		}
+		return taglex;
+	}
+
+	/**
+	 * Tells a dataset apart from the same file rewritten.
+	 */
+	private static String datasetKey(String input, Properties config) {
+		File f = new File(input);
+		return f.getAbsolutePath() + " " + f.lastModified() + " " + f.length()
+				+ " " + config.getProperty("dataType", "Post");
+	}
+
+	/**
+	 * Parse "n" as the cutoffs 1..n, or "i,j,k" as the cutoffs i, j and k.
+	 */
+	public static int[] parseCutoffs(String atN) {
+		String[] fields = atN.split(",");
+		int[] cutoffs;
+		if (fields.length == 1) {
+			cutoffs = new int[Integer.parseInt(fields[0].trim())];
+			for (int i = 0; i < cutoffs.length; i++) {
+				cutoffs[i] = i + 1;
 			}
-			result.loglikelihood /= result.numTags;
-			result.perplexity = Math.pow(2.0, -result.loglikelihood);
-			return result;
+		} else {
+			cutoffs = new int[fields.length];
+			for (int i = 0; i < fields.length; i++) {
+				cutoffs[i] = Integer.parseInt(fields[i].trim());
+			}
+			Arrays.sort(cutoffs);
+		}
+		if (cutoffs.length == 0 || cutoffs[0] < 1) {
+			throw new IllegalArgumentException("bad at_n " + atN);
 		}
-		return result;
+		return cutoffs;
+	}
+
+	/**
+	 * The suffix of the output files of a suggester, which is empty when
+	 * there is only one.
+	 */
+	static String suffix(TagSuggest[] suggesters, int i) {
+		if (suggesters.length == 1) {
+			return "";
+		}
+		String name = suggesters[i].getClass().getSimpleName();
+		for (int j = 0; j < suggesters.length; j++) {
+			if (j != i && suggesters[j].getClass() == suggesters[i].getClass()) {
+				return "." + name + i;
+			}
+		}
+		return "." + name;
+	}
+
+	private void writeSuggestions(LazyWriter out, Post p,
+			List<WeightString> tags, Set<String> normedTags, int fold)
+			throws IOException {
+		if (p instanceof KeywordPost) {
+			KeywordPost kp = (KeywordPost) p;
+			MyKeyword2 myKeyword = new MyKeyword2();
+			myKeyword.setTitle(kp.getTitle());
+			myKeyword.setSummary(kp.getSummary());
+			myKeyword.setContent(kp.getContent());
+			myKeyword.setId(kp.getId());
+			myKeyword.setAnswer(normedTags);
+
+			for(int i = 0 ; i < tags.size() && i < 10; i ++){
+				myKeyword.getSuggestTags().add(tags.get(i).text);
+			}
+			out.writeLine(J.toJson(myKeyword));
+		} else if (fold == 3) {
+			// output for Demo
+			MyTag myTag = new MyTag();
+			myTag.setTitle(p.getTitle());
+			myTag.setContent(p.getContent());
+			myTag.setAnswer(normedTags);
+
+			if(tags.size() < 10) myTag.setSuggestTags(tags);
+			else myTag.setSuggestTags(tags.subList(0, 10));
+			out.writeLine(J.toJson(myTag));
+		}
+	}
+
+	/**
+	 * F1 of the first 10 suggested tags, or all of them if fewer.
+	 */
+	private double fmeasureAt10(List<WeightString> tags,
+			Set<String> normedTags) {
+		int count = 0;
+		for(int i = 0; i < tags.size() && i < 10; i++){
+			if (normedTags.contains(tags.get(i).text.toLowerCase())) {
+				count ++;
+			}
+		}
+		double pp = 0.0;
+		if(tags.size() < 10){
+			pp = (tags.size() == 0) ? 0.0 : (double)count / (double)tags.size() ;
+		}
+		else{
+			pp = (double)count / 10.0;
+		}
+		double r = (normedTags.size() == 0) ? 0.0 : (double)count / (double)normedTags.size() ;
+		if (pp == 0 || r == 0)
+			return 0;
+		return 2 * pp * r / (pp + r);
+	}
+
+	private void writeFMeasure(List<WeightString> fmeasure, LazyWriter outF)
+			throws IOException {
+		Collections.sort(fmeasure, new Comparator<WeightString>() {
+			@Override
+			public int compare(WeightString o1, WeightString o2) {
+				return Double.compare(o2.weight, o1.weight);
+			}
+		});
+		for (WeightString ws : fmeasure) {
+			outF.writeLine(ws.text + " " + ws.weight);
+		}
+		outF.close();
 	}
 
 	public void collectScore(List<WeightString> suggested,
@@ -464,8 +532,8 @@ public class Evaluator implements GenericTool {
 			}
 			scores.record[i] += correct[i];
 		}
-		
-		
+
+
 		// modified by cxx
 		// compute P/R/F1.
 		if(suggested.size() < 10 && suggested.size() != 0){
@@ -477,7 +545,7 @@ public class Evaluator implements GenericTool {
 					f1 = 0;
 				else
 					f1 = 2 * p * r / (p + r);
-	
+
 				scores.p[i] += p;
 				scores.r[i] += r;
 				scores.f1[i] += f1;
@@ -490,7 +558,7 @@ public class Evaluator implements GenericTool {
 					f1 = 0;
 				else
 					f1 = 2 * p * r / (p + r);
-	
+
 				scores.p[i] += p;
 				scores.r[i] += r;
 				scores.f1[i] += f1;
@@ -511,7 +579,7 @@ public class Evaluator implements GenericTool {
 				scores.f1[i] += f1;
 			}
 		}
-		
+
 		int count = 0;
 		for(int i = 0; i < suggested.size() && i < 10; i++){
 			if (real.contains(suggested.get(i).text.toLowerCase())) {
@@ -530,10 +598,12 @@ public class Evaluator implements GenericTool {
 		return Math.log(v) / Math.log(2.0);
 	}
 
-	private void writeReport(Result result, File output) throws IOException {
+	private void writeReport(Result result, int[] cutoffs, File output)
+			throws IOException {
 		StringBuilder sb = new StringBuilder();
-		for (int i = 0; i < result.p.length; i++) {
-			sb.append(i + 1);
+		for (int n : cutoffs) {
+			int i = n - 1;
+			sb.append(n);
 			sb.append(" ");
 			sb.append(result.p[i]);
 			sb.append(" ");
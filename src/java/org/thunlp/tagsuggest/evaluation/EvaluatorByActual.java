@@ -1,16 +1,9 @@
 package org.thunlp.tagsuggest.evaluation;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -18,13 +11,10 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.Map.Entry;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 
-import org.apache.hadoop.mapred.RecordWriter;
 import org.thunlp.io.JsonUtil;
 import org.thunlp.io.RecordReader;
 import org.thunlp.io.TextFileWriter;
-import org.thunlp.language.chinese.LangUtils;
 import org.thunlp.misc.Flags;
 import org.thunlp.misc.WeightString;
 import org.thunlp.tagsuggest.common.ConfigIO;
@@ -33,12 +23,9 @@ import org.thunlp.tagsuggest.common.GenerativeTagSuggest;
 import org.thunlp.tagsuggest.common.MyTag;
 import org.thunlp.tagsuggest.common.Post;
 import org.thunlp.tagsuggest.common.TagSuggest;
-import org.thunlp.tagsuggest.common.WordFeatureExtractor;
 import org.thunlp.text.Lexicon;
 import org.thunlp.tool.GenericTool;
 
-import com.sun.mail.handlers.image_gif;
-
 import edu.stanford.nlp.util.StringUtils;
 
 /**
@@ -88,6 +75,16 @@ public class EvaluatorByActual implements GenericTool {
 			perplexity = 0;
 			numTags = 0;
 		}
+
+		void finish() {
+			for (int i = 0; i < p.length; i++) {
+				p[i] /= n;
+				r[i] /= n;
+				f1[i] /= n;
+			}
+			loglikelihood /= numTags;
+			perplexity = Math.pow(2.0, -loglikelihood);
+		}
 	}
 	
 	public static class Result2 {
@@ -108,139 +105,99 @@ public class EvaluatorByActual implements GenericTool {
 		Flags flags = new Flags();
 		flags.add("input", "test data");
 		flags.add("output", "evaluation report");
-		flags.add("suggester", "suggester class name");
-		flags.add("model_path", "model path for suggester's loadModel");
+		flags.add("suggester", "suggester class names, separated by commas");
+		flags.add("model_path", "model paths for suggesters' loadModel");
 		flags.add("config", "config string");
-		flags.add("at_n", "evaluate p/r/f1 at i<=n.");
+		flags.add("at_n", "evaluate p/r/f1 at i<=n, or at a list of i.");
 		flags.parseAndCheck(args);
 
 		config = ConfigIO.configFromString(flags.getString("config"));
 		int fold = Integer.parseInt(config.getProperty("fold", "-1"));
-		File output = new File(flags.getString("output"));
-		int atN = flags.getInt("at_n");
+		int[] cutoffs = Evaluator.parseCutoffs(flags.getString("at_n"));
 
 		setMinLog(Double.parseDouble(config.getProperty("minlog", "-10")));
-		String suggesterClassName = flags.getString("suggester");
-		if (!suggesterClassName.startsWith("org.thunlp.tagsuggest.")) {
-			suggesterClassName = "org.thunlp.tagsuggest." + suggesterClassName;
+		String[] names = flags.getString("suggester").split(",");
+		String[] modelPaths = flags.getString("model_path").split(",");
+		if (modelPaths.length != names.length) {
+			throw new IllegalArgumentException(names.length
+					+ " suggesters but " + modelPaths.length + " model paths");
+		}
+		TagSuggest[] suggesters = new TagSuggest[names.length];
+		for (int i = 0; i < names.length; i++) {
+			String suggesterClassName = names[i];
+			if (!suggesterClassName.startsWith("org.thunlp.tagsuggest.")) {
+				suggesterClassName = "org.thunlp.tagsuggest." + suggesterClassName;
+			}
+			suggesters[i] = (TagSuggest) Class.forName(suggesterClassName)
+					.newInstance();
+			suggesters[i].setConfig(config);
+			suggesters[i].loadModel(modelPaths[i]);
 		}
-		TagSuggest ts = (TagSuggest) Class.forName(suggesterClassName)
-				.newInstance();
-		ts.setConfig(config);
-		ts.loadModel(flags.getString("model_path"));
 
-		Result result = evaluateSuggester(flags.getString("input"), ts, atN,
-				fold);
-		
-		writeReport(result, output);
+		Result[] results = evaluateSuggesters(flags.getString("input"),
+				suggesters, cutoffs[cutoffs.length - 1], fold);
+
+		for (int i = 0; i < suggesters.length; i++) {
+			writeReport(results[i], cutoffs, new File(flags.getString("output")
+					+ Evaluator.suffix(suggesters, i)));
+		}
 	}
 
 	public Result evaluateSuggester(String input, TagSuggest ts, int atN,
 			int fold) throws IOException {
-		RecordReader reader = new RecordReader(input);
-		Result result = new Result(atN);
-		int n = 0;
-		long duration = 0l;
+		return evaluateSuggesters(input, new TagSuggest[] { ts }, atN, fold)[0];
+	}
 
-		BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
-				new FileOutputStream(input+fold),
-				"UTF-8"));
-		
-		if (config.getProperty("isSample", "true").equals("true")) {
-			Lexicon wordlex = new Lexicon();
-			Lexicon taglex = new Lexicon();
-			WordFeatureExtractor.buildLexicons(input, wordlex, taglex, config);
-			int minTagFreq = Integer.parseInt(config.getProperty("mintagfreq",
-					"1"));
-			taglex = taglex.removeLowDfWords(minTagFreq);
+	/**
+	 * Evaluate the suggesters on the same test posts, reading the posts once.
+	 * The answers are the tags of the post which are in the tag lexicon of
+	 * the dataset, as they are, without normalization.
+	 */
+	public Result[] evaluateSuggesters(String input, TagSuggest[] suggesters,
+			int atN, int fold) throws IOException {
+		Result[] results = new Result[suggesters.length];
+		LazyWriter[] out = new LazyWriter[suggesters.length];
+		for (int i = 0; i < suggesters.length; i++) {
+			results[i] = new Result(atN);
+			out[i] = new LazyWriter(input + fold
+					+ Evaluator.suffix(suggesters, i));
+		}
+		long[] duration = new long[suggesters.length];
+		boolean isSample = config.getProperty("isSample", "true").equals("true");
 
-			// Evaluation.
-			Set<String> normedTags = new HashSet<String>();
-			Pattern spaceRE = Pattern.compile(" +");
-			while (reader.next()) {
-				DoubanPost p = J.fromJson(reader.value(), DoubanPost.class);
+		// The lexicon of the whole dataset is shared with Evaluator and by
+		// the folds.
+		int minTagFreq = Integer.parseInt(config.getProperty("mintagfreq",
+				"1"));
+		Lexicon taglex = Evaluator.tagLexicon(input, config).removeLowDfWords(
+				minTagFreq);
+
+		// Only the test fold is read when the dataset has a fold index.
+		RecordReader reader = (fold >= 0) ? RecordReader.openFold(input,
+				Integer.toString(fold)) : new RecordReader(input);
+		Set<String> normedTags = new HashSet<String>();
+		int n = 0;
+		while (reader.next()) {
+			Post p;
+			normedTags.clear();
+			if (isSample) {
+				DoubanPost dp = J.fromJson(reader.value(), DoubanPost.class);
+				p = dp;
 				if (fold >= 0) {
 					if (!p.getExtras().equals(Integer.toString(fold)))
 						continue;
 				}
 				// p.getTags().removeAll(tagblacklist);
-				if (p.getDoubanTags().size() == 0)
+				if (dp.getDoubanTags().size() == 0)
 					continue;
-				long start = System.currentTimeMillis();
-				List<WeightString> tags = ts.suggest(p, null);
-				duration += System.currentTimeMillis() - start;
-				normedTags.clear();
-				for (Entry<String, Integer> e : p.getDoubanTags().entrySet()) {
+				for (Entry<String, Integer> e : dp.getDoubanTags().entrySet()) {
 					String tag = e.getKey();
-			
 					if (taglex.getWord(tag) == null)
 						continue; // Skip low freq tags.
 					normedTags.add(tag);
-				
-				}
-				if (normedTags.size() == 0)
-					continue; // Skip documents with no valid tags.
-
-				collectScore(tags, normedTags, result);
-				
-
-				if(fold == 3){
-					// output for Demo
-					MyTag myTag = new MyTag();
-					myTag.setTitle(p.getTitle());
-					myTag.setContent(p.getContent());
-					myTag.setAnswer(normedTags);
-			
-					if(tags.size() < 10) myTag.setSuggestTags(tags);
-					else myTag.setSuggestTags(tags.subList(0, 10));
-					out.write(J.toJson(myTag));
-					out.newLine();
-					out.flush();
-				}
-				
-				if (n % 100 == 0) {
-					LOG.info("evaluated " + n);
-					LOG.info("  @5 p:" + (result.p[4] / result.n) + " r: "
-							+ (result.r[4] / result.n));
-					LOG.info("  Perplexity:"
-							+ Math.pow(2.0, -result.loglikelihood
-									/ result.numTags));
 				}
-				n++;
-			}
-			out.close();
-			reader.close();
-			LOG.info("suggester speed:" + duration + "/" + n + "="
-					+ (duration / (double) n) + ", "
-					+ (duration / (double) n / 1000.0) + "ms.");
-			// Normalize the result.
-			for (int i = 0; i < atN; i++) {
-				result.p[i] /= result.n;
-				result.r[i] /= result.n;
-				result.f1[i] /= result.n;
-			}
-			result.loglikelihood /= result.numTags;
-			result.perplexity = Math.pow(2.0, -result.loglikelihood);
-			return result;
-		} else {
-			// Load the word frequency info, count it if not exist.
-			Lexicon wordlex = new Lexicon();
-			Lexicon taglex = new Lexicon();
-			WordFeatureExtractor.buildLexicons(input, wordlex, taglex, config);
-			int minTagFreq = Integer.parseInt(config.getProperty("mintagfreq",
-					"1"));
-			taglex = taglex.removeLowDfWords(minTagFreq);
-
-			// Check if this suggester can provide likelihood.
-			boolean useLikelihood = (ts instanceof GenerativeTagSuggest);
-			GenerativeTagSuggest gts = null;
-			if (useLikelihood)
-				gts = (GenerativeTagSuggest) ts;
-
-			// Evaluation.
-			Set<String> normedTags = new HashSet<String>();
-			while (reader.next()) {
-				Post p = J.fromJson(reader.value(), Post.class);
+			} else {
+				p = J.fromJson(reader.value(), Post.class);
 				if (fold >= 0) {
 					if (!p.getExtras().equals(Integer.toString(fold)))
 						continue;
@@ -248,68 +205,68 @@ public class EvaluatorByActual implements GenericTool {
 				p.getTags().removeAll(tagblacklist);
 				if (p.getTags().size() == 0)
 					continue;
-				long start = System.currentTimeMillis();
-				List<WeightString> tags = ts.suggest(p, null);
-				duration += System.currentTimeMillis() - start;
-				normedTags.clear();
 				for (String tag : p.getTags()) {
 					if (taglex.getWord(tag) == null)
 						continue; // Skip low freq tags.
 					normedTags.add(tag.toLowerCase());
 				}
-				if (normedTags.size() == 0)
-					continue; // Skip documents with no valid tags.
+			}
+			if (normedTags.size() == 0)
+				continue; // Skip documents with no valid tags.
 
-				collectScore(tags, normedTags, result);
+			for (int i = 0; i < suggesters.length; i++) {
+				long start = System.nanoTime();
+				List<WeightString> tags = suggesters[i].suggest(p, null);
+				duration[i] += System.nanoTime() - start;
+
+				collectScore(tags, normedTags, results[i]);
 
 				if(fold == 3){
 					// output for Demo
 					MyTag myTag = new MyTag();
 					myTag.setTitle(p.getTitle());
 					myTag.setContent(p.getContent());
-			
 					myTag.setAnswer(normedTags);
+
 					if(tags.size() < 10) myTag.setSuggestTags(tags);
 					else myTag.setSuggestTags(tags.subList(0, 10));
-					out.write(J.toJson(myTag));
-					out.newLine();
-					out.flush();
+					out[i].writeLine(J.toJson(myTag));
 				}
-				
 
-				if (useLikelihood) {
+				if (!isSample && suggesters[i] instanceof GenerativeTagSuggest) {
 					likelihoods.clear();
-					gts.likelihood(p, likelihoods);
+					((GenerativeTagSuggest) suggesters[i]).likelihood(p,
+							likelihoods);
 					for (Double l : likelihoods) {
-						result.loglikelihood += takeSafeLog(l);
-						result.numTags++;
+						results[i].loglikelihood += takeSafeLog(l);
+						results[i].numTags++;
 					}
 				}
-
-				if (n % 100 == 0) {
-					LOG.info("evaluated " + n);
-					LOG.info("  @5 p:" + (result.p[4] / result.n) + " r: "
-							+ (result.r[4] / result.n));
-					LOG.info("  Perplexity:"
-							+ Math.pow(2.0, -result.loglikelihood
-									/ result.numTags));
-				}
-				n++;
 			}
-			reader.close();
-			LOG.info("suggester speed:" + duration + "/" + n + "="
-					+ (duration / (double) n) + ", "
-					+ (duration / (double) n / 1000.0) + "ms.");
-			// Normalize the result.
-			for (int i = 0; i < atN; i++) {
-				result.p[i] /= result.n;
-				result.r[i] /= result.n;
-				result.f1[i] /= result.n;
+
+			if (n % 100 == 0) {
+				Result result = results[0];
+				int at = Math.min(5, atN);
+				LOG.info("evaluated " + n);
+				LOG.info("  @" + at + " p:" + (result.p[at - 1] / result.n)
+						+ " r: " + (result.r[at - 1] / result.n));
+				LOG.info("  Perplexity:"
+						+ Math.pow(2.0, -result.loglikelihood
+								/ result.numTags));
 			}
-			result.loglikelihood /= result.numTags;
-			result.perplexity = Math.pow(2.0, -result.loglikelihood);
-			return result;
+			n++;
+		}
+		reader.close();
+
+		for (int i = 0; i < suggesters.length; i++) {
+			out[i].close();
+			double ms = duration[i] / 1e6;
+			LOG.info(suggesters[i].getClass().getSimpleName() + " speed:"
+					+ String.format("%.0f", ms) + "ms/" + n + "="
+					+ String.format("%.3f", ms / n) + "ms.");
+			results[i].finish();
 		}
+		return results;
 	}
 	
 	public void collectScoreByNature(List<WeightString> suggested,
@@ -408,10 +365,12 @@ public class EvaluatorByActual implements GenericTool {
 		return Math.log(v) / Math.log(2.0);
 	}
 
-	private void writeReport(Result result, File output) throws IOException {
+	private void writeReport(Result result, int[] cutoffs, File output)
+			throws IOException {
 		StringBuilder sb = new StringBuilder();
-		for (int i = 0; i < result.p.length; i++) {
-			sb.append(i + 1);
+		for (int n : cutoffs) {
+			int i = n - 1;
+			sb.append(n);
 			sb.append(" ");
 			sb.append(result.p[i]);
 			sb.append(" ");
@@ -0,0 +1,38 @@
+package org.thunlp.tagsuggest.evaluation;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+
+/**
+ * A UTF-8 line writer which creates its file on the first line, so the
+ * optional outputs of the evaluators leave no empty files behind.
+ *
+ * @author sixiance
+ *
+ */
+class LazyWriter {
+	private String path;
+	private BufferedWriter out = null;
+
+	LazyWriter(String path) {
+		this.path = path;
+	}
+
+	void writeLine(String line) throws IOException {
+		if (out == null) {
+			out = new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(path), "UTF-8"));
+		}
+		out.write(line);
+		out.newLine();
+	}
+
+	void close() throws IOException {
+		if (out != null) {
+			out.close();
+			out = null;
+		}
+	}
+}
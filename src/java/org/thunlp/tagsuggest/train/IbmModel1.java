@@ -0,0 +1,365 @@
+package org.thunlp.tagsuggest.train;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * In-process IBM Model 1 trainer, replacing the mkcls / plain2snt.out /
+ * GIZA++ -m1 5 pipeline used by TrainWTM and TrainWAM.
+ *
+ * Sentence pairs are added in memory as (book, bookTag) token arrays. The
+ * vocabularies are numbered the way plain2snt.out does (0 is NULL, 1 is
+ * reserved, real tokens start at 2), and written as "book.vcb" and
+ * "bookTag.vcb". Then EM is run in both directions, book->bookTag and
+ * bookTag->book, and each direction is written as a "*.t1.&lt;iterations&gt;"
+ * translation table ("source target p(target|source)") and a "*.ti.final"
+ * inverse table ("target source p(target|source)"). The file names sort in
+ * the order SMTTagSuggest expects: word->tag first, then tag->word.
+ *
+ * The expected counts of each EM iteration are collected by several threads,
+ * each over its own share of the sentences and into its own count buffer, and
+ * merged before the M-step.
+ */
+public class IbmModel1 {
+	private static Logger LOG = Logger.getAnonymousLogger();
+	public static final int NULL_ID = 0;
+	public static final int FIRST_ID = 2;
+	// Entries below this are not written, as GIZA++ does.
+	public static double PROB_CUTOFF = 1e-7;
+
+	private Vocabulary bookVocab = new Vocabulary();
+	private Vocabulary tagVocab = new Vocabulary();
+	private List<int[]> bookSentences = new ArrayList<int[]>();
+	private List<int[]> tagSentences = new ArrayList<int[]>();
+	private int numThreads;
+
+	public IbmModel1(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/**
+	 * Add a sentence pair. Pairs with an empty side are ignored, as GIZA++
+	 * does.
+	 */
+	public void addPair(String[] book, String[] bookTag) {
+		if (book.length == 0 || bookTag.length == 0)
+			return;
+		bookSentences.add(bookVocab.add(book));
+		tagSentences.add(tagVocab.add(bookTag));
+	}
+
+	public int numPairs() {
+		return bookSentences.size();
+	}
+
+	/**
+	 * Train both directions and write the vocabularies and tables into the
+	 * model directory.
+	 */
+	public void trainAndSave(File modelDir, int iterations) throws IOException {
+		bookVocab.save(new File(modelDir, "book.vcb"));
+		tagVocab.save(new File(modelDir, "bookTag.vcb"));
+
+		LOG.info("IBM model 1 book->bookTag, " + numPairs() + " pairs");
+		TranslationTable forward = train(bookSentences, tagSentences, bookVocab.size(), tagVocab.size(), iterations);
+		forward.save(new File(modelDir, "ibm1.1.book_bookTag.t1." + iterations),
+				new File(modelDir, "ibm1.1.book_bookTag.ti.final"));
+		forward = null;
+
+		LOG.info("IBM model 1 bookTag->book, " + numPairs() + " pairs");
+		TranslationTable backward = train(tagSentences, bookSentences, tagVocab.size(), bookVocab.size(), iterations);
+		backward.save(new File(modelDir, "ibm1.2.bookTag_book.t1." + iterations),
+				new File(modelDir, "ibm1.2.bookTag_book.ti.final"));
+	}
+
+	/**
+	 * Run EM for t(f|e), e from the source sentences and f from the target
+	 * sentences. The NULL word is added to every source sentence.
+	 */
+	public TranslationTable train(List<int[]> source, List<int[]> target, int sourceVocabSize, int targetVocabSize,
+			int iterations) throws IOException {
+		final List<int[][]> sentences = new ArrayList<int[][]>(source.size());
+		for (int i = 0; i < source.size(); i++) {
+			sentences.add(new int[][] { countTokens(source.get(i), true), countTokens(target.get(i), false) });
+		}
+		final TranslationTable table = TranslationTable.build(sentences, sourceVocabSize);
+		// Uniform initialization over the target vocabulary.
+		Arrays.fill(table.prob, 1.0 / (targetVocabSize - FIRST_ID));
+
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		try {
+			for (int iter = 1; iter <= iterations; iter++) {
+				long start = System.currentTimeMillis();
+				List<Future<double[]>> shards = new ArrayList<Future<double[]>>();
+				int shardSize = (sentences.size() + numThreads - 1) / numThreads;
+				for (int t = 0; t < numThreads; t++) {
+					final int begin = t * shardSize;
+					final int end = Math.min(sentences.size(), begin + shardSize);
+					if (begin >= end)
+						break;
+					shards.add(pool.submit(new Callable<double[]>() {
+						public double[] call() {
+							return table.expectedCounts(sentences, begin, end);
+						}
+					}));
+				}
+				double[] counts = null;
+				for (Future<double[]> shard : shards) {
+					double[] c = shard.get();
+					if (counts == null) {
+						counts = c;
+					} else {
+						for (int i = 0; i < counts.length; i++)
+							counts[i] += c[i];
+					}
+				}
+				table.normalize(counts);
+				LOG.info("model 1 iteration " + iter + " " + (System.currentTimeMillis() - start) + "ms");
+			}
+		} catch (InterruptedException e) {
+			throw new IOException("interrupted during EM");
+		} catch (ExecutionException e) {
+			IOException ioe = new IOException("EM failed: " + e.getCause());
+			ioe.initCause(e.getCause());
+			throw ioe;
+		} finally {
+			pool.shutdown();
+		}
+		return table;
+	}
+
+	/**
+	 * Turn a sentence into sorted {id, count} pairs, flattened.
+	 */
+	static int[] countTokens(int[] sentence, boolean addNull) {
+		int[] sorted = Arrays.copyOf(sentence, sentence.length + (addNull ? 1 : 0));
+		if (addNull)
+			sorted[sentence.length] = NULL_ID;
+		Arrays.sort(sorted);
+		int[] pairs = new int[sorted.length * 2];
+		int n = 0;
+		for (int i = 0; i < sorted.length;) {
+			int j = i;
+			while (j < sorted.length && sorted[j] == sorted[i])
+				j++;
+			pairs[n++] = sorted[i];
+			pairs[n++] = j - i;
+			i = j;
+		}
+		return Arrays.copyOf(pairs, n);
+	}
+
+	/**
+	 * t(f|e) over the (e, f) pairs that co-occur in some sentence pair, in CSR
+	 * layout: row e holds the sorted target ids f.
+	 */
+	static class TranslationTable {
+		int[] rowStart;
+		int[] targets;
+		double[] prob;
+
+		static TranslationTable build(List<int[][]> sentences, int sourceVocabSize) {
+			// Collect distinct targets per source with one hash set per row.
+			IntSet[] rows = new IntSet[sourceVocabSize];
+			for (int[][] s : sentences) {
+				int[] src = s[0];
+				int[] tgt = s[1];
+				for (int i = 0; i < src.length; i += 2) {
+					IntSet row = rows[src[i]];
+					if (row == null) {
+						row = new IntSet();
+						rows[src[i]] = row;
+					}
+					for (int j = 0; j < tgt.length; j += 2)
+						row.add(tgt[j]);
+				}
+			}
+			TranslationTable table = new TranslationTable();
+			table.rowStart = new int[sourceVocabSize + 1];
+			long nnz = 0;
+			for (int e = 0; e < sourceVocabSize; e++) {
+				table.rowStart[e] = (int) nnz;
+				nnz += (rows[e] == null) ? 0 : rows[e].size;
+				if (nnz > Integer.MAX_VALUE)
+					throw new IllegalStateException("too many word pairs: " + nnz);
+			}
+			table.rowStart[sourceVocabSize] = (int) nnz;
+			table.targets = new int[(int) nnz];
+			for (int e = 0; e < sourceVocabSize; e++) {
+				if (rows[e] == null)
+					continue;
+				int[] values = rows[e].toSortedArray();
+				System.arraycopy(values, 0, table.targets, table.rowStart[e], values.length);
+				rows[e] = null;
+			}
+			table.prob = new double[(int) nnz];
+			return table;
+		}
+
+		int find(int e, int f) {
+			return Arrays.binarySearch(targets, rowStart[e], rowStart[e + 1], f);
+		}
+
+		/**
+		 * E-step over sentences [begin, end), into a fresh count buffer.
+		 */
+		double[] expectedCounts(List<int[][]> sentences, int begin, int end) {
+			double[] counts = new double[prob.length];
+			int[] entries = new int[16];
+			for (int s = begin; s < end; s++) {
+				int[] src = sentences.get(s)[0];
+				int[] tgt = sentences.get(s)[1];
+				int numSrc = src.length / 2;
+				if (entries.length < numSrc)
+					entries = new int[numSrc * 2];
+				for (int j = 0; j < tgt.length; j += 2) {
+					int f = tgt[j];
+					double denom = 0;
+					for (int i = 0; i < numSrc; i++) {
+						entries[i] = find(src[i * 2], f);
+						denom += src[i * 2 + 1] * prob[entries[i]];
+					}
+					if (denom <= 0)
+						continue;
+					double scale = tgt[j + 1] / denom;
+					for (int i = 0; i < numSrc; i++) {
+						counts[entries[i]] += scale * src[i * 2 + 1] * prob[entries[i]];
+					}
+				}
+			}
+			return counts;
+		}
+
+		/**
+		 * M-step: t(f|e) = c(f,e) / sum_f c(f,e).
+		 */
+		void normalize(double[] counts) {
+			for (int e = 0; e + 1 < rowStart.length; e++) {
+				double total = 0;
+				for (int k = rowStart[e]; k < rowStart[e + 1]; k++)
+					total += counts[k];
+				for (int k = rowStart[e]; k < rowStart[e + 1]; k++)
+					prob[k] = (total > 0) ? counts[k] / total : 0;
+			}
+		}
+
+		void save(File tableFile, File inverseFile) throws IOException {
+			BufferedWriter t = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tableFile), "UTF-8"));
+			BufferedWriter ti = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(inverseFile), "UTF-8"));
+			for (int e = 0; e + 1 < rowStart.length; e++) {
+				for (int k = rowStart[e]; k < rowStart[e + 1]; k++) {
+					if (prob[k] < PROB_CUTOFF)
+						continue;
+					t.write(e + " " + targets[k] + " " + prob[k] + "\n");
+					ti.write(targets[k] + " " + e + " " + prob[k] + "\n");
+				}
+			}
+			t.close();
+			ti.close();
+		}
+	}
+
+	/**
+	 * Token ids and frequencies, numbered from FIRST_ID in order of first
+	 * appearance.
+	 */
+	static class Vocabulary {
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		List<String> words = new ArrayList<String>();
+		int[] freq = new int[1024];
+
+		int[] add(String[] tokens) {
+			int[] result = new int[tokens.length];
+			for (int i = 0; i < tokens.length; i++) {
+				Integer id = ids.get(tokens[i]);
+				if (id == null) {
+					id = FIRST_ID + words.size();
+					ids.put(tokens[i], id);
+					words.add(tokens[i]);
+					if (words.size() > freq.length)
+						freq = Arrays.copyOf(freq, freq.length * 2);
+				}
+				freq[id - FIRST_ID]++;
+				result[i] = id;
+			}
+			return result;
+		}
+
+		/**
+		 * Size of the id space, including NULL and the reserved id.
+		 */
+		int size() {
+			return FIRST_ID + words.size();
+		}
+
+		void save(File file) throws IOException {
+			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+			for (int i = 0; i < words.size(); i++) {
+				out.write((i + FIRST_ID) + " " + words.get(i) + " " + freq[i] + "\n");
+			}
+			out.close();
+		}
+	}
+
+	/**
+	 * Open addressing set of non-negative ints.
+	 */
+	static class IntSet {
+		int[] table = new int[8];
+		int size = 0;
+
+		IntSet() {
+			Arrays.fill(table, -1);
+		}
+
+		void add(int v) {
+			if ((size + 1) * 2 > table.length)
+				rehash();
+			int mask = table.length - 1;
+			int i = (v * 0x9E3779B9) >>> 1 & mask;
+			while (table[i] != -1) {
+				if (table[i] == v)
+					return;
+				i = (i + 1) & mask;
+			}
+			table[i] = v;
+			size++;
+		}
+
+		void rehash() {
+			int[] old = table;
+			table = new int[old.length * 2];
+			Arrays.fill(table, -1);
+			size = 0;
+			for (int v : old) {
+				if (v != -1)
+					add(v);
+			}
+		}
+
+		int[] toSortedArray() {
+			int[] result = new int[size];
+			int n = 0;
+			for (int v : table) {
+				if (v != -1)
+					result[n++] = v;
+			}
+			Arrays.sort(result);
+			return result;
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package org.thunlp.tagsuggest.train;
+
+import java.util.Arrays;
+
+/**
+ * Sparse (row, column) -> count matrix in an open addressing hash table of
+ * primitive longs, used to count word-tag co-occurrences without boxing.
+ * Besides the count, every cell carries one flag bit which is or-ed on every
+ * add, so a trainer can mark pairs that were seen under some extra
+ * condition.
+ *
+ * Not thread-safe; give each thread its own counter and merge them with
+ * addAll().
+ */
+public class PairCounter {
+	private static final long EMPTY = -1L;
+	private static final int FLAG = 0x80000000;
+	private static final int COUNT_MASK = 0x7fffffff;
+
+	private long[] keys;
+	private int[] values;
+	private int size = 0;
+
+	public PairCounter() {
+		this(1024);
+	}
+
+	public PairCounter(int expectedSize) {
+		int capacity = 16;
+		while (capacity < expectedSize * 2)
+			capacity <<= 1;
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+	}
+
+	public static long key(int row, int column) {
+		return ((long) row << 32) | (column & 0xffffffffL);
+	}
+
+	public static int row(long key) {
+		return (int) (key >>> 32);
+	}
+
+	public static int column(long key) {
+		return (int) key;
+	}
+
+	public void add(int row, int column, int count, boolean flag) {
+		add(key(row, column), count | (flag ? FLAG : 0));
+	}
+
+	private void add(long key, int value) {
+		if ((size + 1) * 2 > keys.length)
+			rehash();
+		int i = slot(key);
+		if (keys[i] == EMPTY) {
+			keys[i] = key;
+			size++;
+		}
+		values[i] = (((values[i] & COUNT_MASK) + (value & COUNT_MASK)) & COUNT_MASK)
+				| ((values[i] | value) & FLAG);
+	}
+
+	/**
+	 * Add all counts and flags of another counter into this one.
+	 */
+	public void addAll(PairCounter other) {
+		for (int i = 0; i < other.keys.length; i++) {
+			if (other.keys[i] != EMPTY)
+				add(other.keys[i], other.values[i]);
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int count(int row, int column) {
+		int i = slot(key(row, column));
+		return keys[i] == EMPTY ? 0 : values[i] & COUNT_MASK;
+	}
+
+	public boolean flag(int row, int column) {
+		int i = slot(key(row, column));
+		return keys[i] != EMPTY && (values[i] & FLAG) != 0;
+	}
+
+	/**
+	 * All non-zero cells sorted by (row, column), with counts and flags in
+	 * parallel arrays.
+	 */
+	public Cells sortedCells() {
+		long[] sorted = new long[size];
+		int n = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != EMPTY)
+				sorted[n++] = keys[i];
+		}
+		Arrays.sort(sorted);
+		Cells cells = new Cells();
+		cells.keys = sorted;
+		cells.counts = new int[n];
+		cells.flags = new boolean[n];
+		for (int k = 0; k < n; k++) {
+			int v = values[slot(sorted[k])];
+			cells.counts[k] = v & COUNT_MASK;
+			cells.flags[k] = (v & FLAG) != 0;
+		}
+		return cells;
+	}
+
+	public static class Cells {
+		public long[] keys;
+		public int[] counts;
+		public boolean[] flags;
+	}
+
+	private int slot(long key) {
+		int mask = keys.length - 1;
+		long h = key * 0x9E3779B97F4A7C15L;
+		int i = (int) (h >>> 32) & mask;
+		while (keys[i] != EMPTY && keys[i] != key)
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	private void rehash() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new int[oldKeys.length * 2];
+		Arrays.fill(keys, EMPTY);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				int j = slot(oldKeys[i]);
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+		}
+	}
+}
@@ -0,0 +1,216 @@
+package org.thunlp.tagsuggest.train;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.thunlp.io.JsonUtil;
+import org.thunlp.io.RecordReader;
+import org.thunlp.misc.Flags;
+import org.thunlp.tagsuggest.common.ConfigIO;
+import org.thunlp.tagsuggest.common.ModelTrainer;
+import org.thunlp.tagsuggest.common.Post;
+import org.thunlp.tagsuggest.common.TagFilter;
+import org.thunlp.tagsuggest.common.TagGraph;
+import org.thunlp.tagsuggest.common.WordFeatureExtractor;
+import org.thunlp.tool.GenericTool;
+
+/**
+ * This tool build a tag-user-word graph G(V,E). V is the set of nodes,
+ * including tags, users and the words of the posts. E is the set of edges
+ * user-tag, tag-word and user-word, the weight of edges are co-occurrence
+ * counts in posts; edges seen less than min_count times are dropped. The
+ * words stand for the resources, so the graph can be used for new posts.
+ *
+ * Nodes are given int ids while reading and the pairs are counted in
+ * PairCounters, then the graph is written as a TagGraph to graph.bin in the
+ * model directory.
+ * @author sixiance
+ *
+ */
+public class TagUserGraphBuilder implements GenericTool, ModelTrainer {
+  private static Logger LOG = Logger.getAnonymousLogger();
+  public static String GRAPH_FILE = "graph.bin";
+  JsonUtil J = new JsonUtil();
+
+  /**
+   * Names to local ids of one type of node.
+   */
+  private static class Ids {
+    Map<String, Integer> ids = new HashMap<String, Integer>();
+    List<String> names = new ArrayList<String>();
+
+    int get(String name) {
+      Integer id = ids.get(name);
+      if (id == null) {
+        id = names.size();
+        ids.put(name, id);
+        names.add(name);
+      }
+      return id;
+    }
+
+    String [] names() {
+      return names.toArray(new String[names.size()]);
+    }
+  }
+
+  @Override
+  public void run(String[] args) throws Exception {
+    Flags flags = new Flags();
+    flags.add("input", "training data in Post@json format.");
+    flags.add("output", "the model directory.");
+    flags.add("config");
+    flags.addWithDefaultValue("min_count", "1", "minimum weight of an edge");
+    flags.parseAndCheck(args);
+
+    Properties config = ConfigIO.configFromString(flags.getString("config"));
+    config.setProperty("min_count", flags.getString("min_count"));
+    train(flags.getString("input"), flags.getString("output"), config);
+  }
+
+  @Override
+  public void train(String inputPath, String modelPath, Properties config)
+  throws IOException {
+    int minCount = Integer.parseInt(config.getProperty("min_count", "1"));
+    String fold = config.getProperty("fold", "-1");
+    WordFeatureExtractor fe = new WordFeatureExtractor(config);
+    TagFilter tagFilter = new TagFilter(config, null);
+
+    Ids tags = new Ids();
+    Ids users = new Ids();
+    Ids words = new Ids();
+    PairCounter userTag = new PairCounter();
+    PairCounter tagWord = new PairCounter();
+    PairCounter userWord = new PairCounter();
+    Set<String> filtered = new HashSet<String>();
+    Set<String> uniqueWords = new HashSet<String>();
+    int [] tagIds = new int[16];
+    int [] wordIds = new int[256];
+
+    RecordReader reader = RecordReader.openWithoutFold(inputPath, fold);
+    while (reader.next()) {
+      Post p = J.fromJson(reader.value(), Post.class);
+      if (p.getExtras().equals(fold)) {
+        continue;
+      }
+      filtered.clear();
+      tagFilter.filterWithNorm(p.getTags(), filtered);
+      uniqueWords.clear();
+      uniqueWords.addAll(Arrays.asList(fe.extract(p)));
+
+      if (filtered.size() > tagIds.length) {
+        tagIds = new int[filtered.size() * 2];
+      }
+      int numTags = 0;
+      for (String tag : filtered) {
+        tagIds[numTags++] = tags.get(tag);
+      }
+      if (uniqueWords.size() > wordIds.length) {
+        wordIds = new int[uniqueWords.size() * 2];
+      }
+      int numWords = 0;
+      for (String word : uniqueWords) {
+        wordIds[numWords++] = words.get(word);
+      }
+      int user = -1;
+      if (p.getUserId() != null && p.getUserId().length() > 0) {
+        user = users.get(p.getUserId());
+      }
+
+      for (int i = 0; i < numTags; i++) {
+        if (user >= 0) {
+          userTag.add(user, tagIds[i], 1, false);
+        }
+        for (int j = 0; j < numWords; j++) {
+          tagWord.add(tagIds[i], wordIds[j], 1, false);
+        }
+      }
+      if (user >= 0) {
+        for (int j = 0; j < numWords; j++) {
+          userWord.add(user, wordIds[j], 1, false);
+        }
+      }
+      if (reader.numRead() % 10000 == 0) {
+        LOG.info("Process " + reader.numRead() + " #edges:"
+            + (userTag.size() + tagWord.size() + userWord.size()));
+      }
+    }
+    reader.close();
+
+    TagGraph graph = makeGraph(tags.names(), users.names(), words.names(),
+        userTag, tagWord, userWord, minCount);
+    File modelDir = new File(modelPath);
+    if (!modelDir.exists()) {
+      modelDir.mkdirs();
+    }
+    graph.save(new File(modelDir, GRAPH_FILE));
+    LOG.info("Wrote " + graph.numNodes() + " nodes and "
+        + graph.numEdges() / 2 + " edges");
+  }
+
+  /**
+   * Lay the counted edges out in CSR: count the edges of every node, place
+   * them by their first node with a counting sort, then sort every row by
+   * the other node. Each edge is kept in both directions.
+   */
+  public TagGraph makeGraph(String [] tags, String [] users, String [] words,
+      PairCounter userTag, PairCounter tagWord, PairCounter userWord,
+      int minCount) {
+    int userStart = tags.length;
+    int wordStart = userStart + users.length;
+    int numNodes = wordStart + words.length;
+    PairCounter.Cells [] cells = {
+        userTag.sortedCells(), tagWord.sortedCells(), userWord.sortedCells()
+    };
+    int [] rowOffsets = {userStart, 0, userStart};
+    int [] colOffsets = {0, wordStart, wordStart};
+
+    int [] rowStart = new int[numNodes + 1];
+    for (int c = 0; c < cells.length; c++) {
+      for (int k = 0; k < cells[c].keys.length; k++) {
+        if (cells[c].counts[k] >= minCount) {
+          long key = cells[c].keys[k];
+          rowStart[PairCounter.row(key) + rowOffsets[c] + 1]++;
+          rowStart[PairCounter.column(key) + colOffsets[c] + 1]++;
+        }
+      }
+    }
+    for (int i = 0; i < numNodes; i++) {
+      rowStart[i + 1] += rowStart[i];
+    }
+    int [] fill = Arrays.copyOf(rowStart, numNodes);
+    // The other node in the high half, so a row sorts by it.
+    long [] packed = new long[rowStart[numNodes]];
+    for (int c = 0; c < cells.length; c++) {
+      for (int k = 0; k < cells[c].keys.length; k++) {
+        int count = cells[c].counts[k];
+        if (count >= minCount) {
+          long key = cells[c].keys[k];
+          int from = PairCounter.row(key) + rowOffsets[c];
+          int to = PairCounter.column(key) + colOffsets[c];
+          packed[fill[from]++] = ((long) to << 32) | count;
+          packed[fill[to]++] = ((long) from << 32) | count;
+        }
+      }
+    }
+    int [] cols = new int[packed.length];
+    float [] weights = new float[packed.length];
+    for (int i = 0; i < numNodes; i++) {
+      Arrays.sort(packed, rowStart[i], rowStart[i + 1]);
+      for (int e = rowStart[i]; e < rowStart[i + 1]; e++) {
+        cols[e] = (int) (packed[e] >>> 32);
+        weights[e] = (int) packed[e];
+      }
+    }
+    return new TagGraph(tags, users, words, rowStart, cols, weights);
+  }
+}
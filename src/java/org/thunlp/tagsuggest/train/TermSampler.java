@@ -0,0 +1,91 @@
+package org.thunlp.tagsuggest.train;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import org.thunlp.misc.AliasSampler;
+import org.thunlp.text.Lexicon;
+
+/**
+ * Sample terms of a post in proportion to their tf-idf weights, used to build
+ * the pseudo parallel corpus of the alignment trainers. Distinct terms and
+ * their weights are kept in primitive arrays, and each draw is O(1) through
+ * an alias table.
+ *
+ * A sampler is refilled for every post with reset() or resetTfidf(), which
+ * reuse its arrays. It is not thread-safe; use one sampler per thread.
+ */
+public class TermSampler {
+	private String[] terms = new String[16];
+	private double[] weights = new double[16];
+	private String[] sorted = new String[16];
+	private AliasSampler sampler = new AliasSampler();
+
+	public TermSampler() {
+	}
+
+	public TermSampler(String[] terms, double[] weights) {
+		reset(terms, weights);
+	}
+
+	/**
+	 * Sample the terms in proportion to the weights.
+	 */
+	public void reset(String[] terms, double[] weights) {
+		ensureCapacity(terms.length);
+		System.arraycopy(terms, 0, this.terms, 0, terms.length);
+		sampler.reset(weights, weights.length);
+	}
+
+	public static TermSampler fromTfidf(String[] post, Lexicon lex) {
+		TermSampler s = new TermSampler();
+		s.resetTfidf(post, lex);
+		return s;
+	}
+
+	/**
+	 * Weight each distinct term by tf * idf, where tf is its frequency in the
+	 * post and idf comes from the lexicon. Terms missing in the lexicon get
+	 * zero weight.
+	 */
+	public void resetTfidf(String[] post, Lexicon lex) {
+		ensureCapacity(post.length);
+		System.arraycopy(post, 0, sorted, 0, post.length);
+		Arrays.sort(sorted, 0, post.length);
+		int n = 0;
+		for (int i = 0; i < post.length;) {
+			int j = i;
+			while (j < post.length && sorted[j].equals(sorted[i]))
+				j++;
+			terms[n] = sorted[i];
+			weights[n] = idf(lex, sorted[i]) * (j - i) / post.length;
+			n++;
+			i = j;
+		}
+		sampler.reset(weights, n);
+	}
+
+	private void ensureCapacity(int n) {
+		if (terms.length < n) {
+			int capacity = Math.max(n, terms.length * 2);
+			terms = new String[capacity];
+			weights = new double[capacity];
+			sorted = new String[capacity];
+		}
+	}
+
+	public static double idf(Lexicon lex, String term) {
+		Lexicon.Word w = lex.getWord(term);
+		if (w == null)
+			return 0.0;
+		return Math.log(((double) lex.getNumDocs()) / ((double) w.getDocumentFrequency()));
+	}
+
+	public String[] sample(int n, SplittableRandom random) {
+		String[] result = new String[n];
+		for (int i = 0; i < n; i++) {
+			result[i] = terms[sampler.sample(random)];
+		}
+		return result;
+	}
+}
@@ -93,7 +93,7 @@ public class TrainExpandRank implements GenericTool, ModelTrainer {
     IndexWriter docsIndex =
       new IndexWriter(new File(modelDir, "docs"), analyzer);
     
-    RecordReader reader = new RecordReader(input);
+    RecordReader reader = RecordReader.openWithoutFold(input, fold);
     while (reader.next()) {
       //Post p = J.fromJson(reader.value(), Post.class);
     	KeywordPost p = J.fromJson(reader.value(), KeywordPost.class);
@@ -92,7 +92,7 @@ public class TrainKnn implements GenericTool, ModelTrainer {
     IndexWriter docsIndex =
       new IndexWriter(new File(modelDir, "docs"), analyzer);
     
-    RecordReader reader = new RecordReader(input);
+    RecordReader reader = RecordReader.openWithoutFold(input, fold);
     while (reader.next()) {
       Post p = J.fromJson(reader.value(), Post.class);
       if (blacklist.contains(p.getUserId())) {
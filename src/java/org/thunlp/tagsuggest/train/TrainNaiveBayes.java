@@ -64,7 +64,7 @@ public class TrainNaiveBayes implements GenericTool, ModelTrainer {
     Set<String> filtered = new HashSet<String>();
     String fold = config.getProperty("fold", "-1");
     
-    RecordReader reader = new RecordReader(inputPath);
+    RecordReader reader = RecordReader.openWithoutFold(inputPath, fold);
     Map<String, Counter<String>> counts =
       new Hashtable<String, Counter<String>>();
 
@@ -8,17 +8,24 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map.Entry;
+import java.util.List;
 import java.util.Properties;
-import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
-import javax.swing.text.Position;
-
 import org.thunlp.io.JsonUtil;
 import org.thunlp.io.RecordReader;
 import org.thunlp.misc.Flags;
@@ -33,26 +40,16 @@ import org.thunlp.tool.GenericTool;
 
 public class TrainPMI implements GenericTool, ModelTrainer {
 	private static Logger LOG = Logger.getAnonymousLogger();
+	private static int BATCH_SIZE = 256;
+	public static String COOCCUR_FILE = "cooccur.txt";
+	private static final List<PostIds> END_OF_INPUT = new ArrayList<PostIds>();
 	private Properties config = null;
 	private String fold = "";
 	JsonUtil J = new JsonUtil();
 	WordFeatureExtractor fe = null;
 	TagFilter tagFilter = null;
 
-	private Comparator<Object> c = new Comparator<Object>() {
-		public int compare(Object o1, Object o2) {
-			int d1 = ((Vector<Integer>) o1).size();
-			int d2 = ((Vector<Integer>) o2).size();
-			if (d1 > d2)
-				return 1;
-			if (d1 == d2)
-				return 0;
-			else
-				return -1;
-		}
-	};
-
-	private Comparator<Object> cDouble = new Comparator<Object>() {
+	private static Comparator<Object> cDouble = new Comparator<Object>() {
 		public int compare(Object o1, Object o2) {
 			double d1 = ((Entry<Integer, Double>) o1).getValue();
 			double d2 = ((Entry<Integer, Double>) o2).getValue();
@@ -103,65 +100,30 @@ public class TrainPMI implements GenericTool, ModelTrainer {
 			tagFilter = new TagFilter(config, taglex);
 			HashSet<String> filtered = new HashSet<String>();
 
-			RecordReader reader = new RecordReader(input);
-
-			// the first time : create wordlex and taglex to store the tf and df
-			// information
+			// One pass: build wordlex and taglex for the tf and df information,
+			// and count word-tag co-occurrences on worker threads, each into its
+			// own counter.
 			Lexicon localWordlex = new Lexicon();
 			Lexicon localTaglex = new Lexicon();
 			File wordLexFile = new File(modelDir.getAbsolutePath() + "/wordlex");
 			File tagLexFile = new File(modelDir.getAbsolutePath() + "/taglex");
 
-			int lineCouter = 0;
-			HashMap<String, Vector<Integer>> wordInverted = new HashMap<String, Vector<Integer>>();
-			HashMap<String, Vector<Integer>> tagInverted = new HashMap<String, Vector<Integer>>();
-
-			HashSet<String> wordSet = new HashSet<String>();
-			HashSet<String> tagSet = new HashSet<String>();
+			int numThreads = Integer.parseInt(config.getProperty("num_threads",
+					Integer.toString(Runtime.getRuntime().availableProcessors())));
+			ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+			BlockingQueue<List<PostIds>> queue = new ArrayBlockingQueue<List<PostIds>>(
+					numThreads * 4);
+			List<Future<PairCounter>> shards = new ArrayList<Future<PairCounter>>();
+			for (int i = 0; i < numThreads; i++) {
+				shards.add(pool.submit(new CountWorker(queue)));
+			}
 
-			
-			
-			BufferedWriter out = null;
-
-			if (wordLexFile.exists() && tagLexFile.exists()) {
-				LOG.info("Use cached lexicons");
-				localWordlex.loadFromFile(wordLexFile);
-				localTaglex.loadFromFile(tagLexFile);
-
-				BufferedReader in = new BufferedReader(new InputStreamReader(
-						new FileInputStream(modelDir.getAbsolutePath()
-								+ "/wordInverted.txt"), "UTF8"));
-				String line = "";
-				while ((line = in.readLine()) != null) {
-					String[] words = line.split(" ");
-					wordInverted.put(words[0], new Vector<Integer>());
-					for (int i = 1; i < words.length; i++) {
-						wordInverted.get(words[0]).add(
-								Integer.parseInt(words[i]));
-					}
-				}
-				in.close();
-
-				in = new BufferedReader(new InputStreamReader(
-						new FileInputStream(modelDir.getAbsolutePath()
-								+ "/tagInverted.txt"), "UTF8"));
-				while ((line = in.readLine()) != null) {
-					String[] words = line.split(" ");
-					tagInverted.put(words[0], new Vector<Integer>());
-					for (int i = 1; i < words.length; i++) {
-						tagInverted.get(words[0]).add(
-								Integer.parseInt(words[i]));
-					}
-				}
-				in.close();
-			} else {
+			PairCounter cooccur = null;
+			try {
+				RecordReader reader = RecordReader.openWithoutFold(input, fold);
+				List<PostIds> batch = new ArrayList<PostIds>(BATCH_SIZE);
+				HashSet<String> wordSet = new HashSet<String>();
 				while (reader.next()) {
-
-					lineCouter++;
-
-					wordSet.clear();
-					tagSet.clear();
-
 					DoubanPost p = J.fromJson(reader.value(), DoubanPost.class);
 					if (fold.length() > 0 && p.getExtras().equals(fold)) {
 						continue;
@@ -170,295 +132,323 @@ public class TrainPMI implements GenericTool, ModelTrainer {
 					if (features.length <= 0) {
 						continue;
 					}
+					tagFilter.filterMapWithNorm(p.getDoubanTags(), filtered);
+					localWordlex.addDocument(features);
+					localTaglex.addDocument(filtered
+							.toArray(new String[filtered.size()]));
 
-					for (String word : features) {
-						if (wordSet.contains(word)) {
-							continue;
-						} else {
+					if (filtered.size() > 0) {
+						wordSet.clear();
+						for (String word : features) {
 							wordSet.add(word);
 						}
-						if (!wordInverted.containsKey(word)) {
-							wordInverted.put(word, new Vector<Integer>());
+						PostIds ids = new PostIds(wordSet.size(), filtered.size());
+						int n = 0;
+						for (String word : wordSet) {
+							ids.words[n++] = localWordlex.getWord(word).getId();
 						}
-						wordInverted.get(word).add(lineCouter);
-					}
-
-					tagFilter.filterMapWithNorm(p.getDoubanTags(), filtered);
-					if (filtered == null) {
-						continue;
-					}
-
-					for (String tag : filtered) {
-						if (tagSet.contains(tag)) {
-							continue;
-						} else {
-							tagSet.add(tag);
+						n = 0;
+						for (String tag : filtered) {
+							ids.tags[n] = localTaglex.getWord(tag).getId();
+							// The tag appears un-normalized in the post.
+							ids.raw[n] = p.getDoubanTags().containsKey(tag);
+							n++;
 						}
-						if (!tagInverted.containsKey(tag)) {
-							tagInverted.put(tag, new Vector<Integer>());
+						batch.add(ids);
+						if (batch.size() >= BATCH_SIZE) {
+							put(queue, batch, shards);
+							batch = new ArrayList<PostIds>(BATCH_SIZE);
 						}
-						tagInverted.get(tag).add(lineCouter);
 					}
 
-					localWordlex.addDocument(features);
-					localTaglex.addDocument(filtered
-							.toArray(new String[filtered.size()]));
-
 					if (reader.numRead() % 1000 == 0)
 						LOG.info(modelDir.getAbsolutePath()
-								+ " building lexicons: " + reader.numRead());
+								+ " counting co-occurrences: " + reader.numRead());
 				}
-
-				out = new BufferedWriter(new OutputStreamWriter(
-						new FileOutputStream(modelDir.getAbsolutePath()
-								+ "/wordInverted.txt"), "UTF-8"));
-				for (Entry<String, Vector<Integer>> e : wordInverted.entrySet()) {
-					out.write(e.getKey());
-					for (int num : e.getValue()) {
-						out.write(" " + num);
-					}
-					out.newLine();
-					out.flush();
+				reader.close();
+				put(queue, batch, shards);
+				for (int i = 0; i < numThreads; i++) {
+					put(queue, END_OF_INPUT, shards);
 				}
-				out.close();
-
-				out = new BufferedWriter(new OutputStreamWriter(
-						new FileOutputStream(modelDir.getAbsolutePath()
-								+ "/tagInverted.txt"), "UTF-8"));
-				for (Entry<String, Vector<Integer>> e : tagInverted.entrySet()) {
-					out.write(e.getKey());
-					for (int num : e.getValue()) {
-						out.write(" " + num);
+				for (Future<PairCounter> shard : shards) {
+					if (cooccur == null) {
+						cooccur = shard.get();
+					} else {
+						cooccur.addAll(shard.get());
 					}
-					out.newLine();
-					out.flush();
 				}
-				out.close();
-
-				localWordlex.saveToFile(wordLexFile);
-				localTaglex.saveToFile(tagLexFile);
-
-				reader.close();
-				reader = new RecordReader(input);
+			} finally {
+				pool.shutdownNow();
 			}
+			localWordlex.saveToFile(wordLexFile);
+			localTaglex.saveToFile(tagLexFile);
 
-			LOG.info("First Round Done!" + wordInverted.size() + ":"
-					+ tagInverted.size());
+			LOG.info("Counting Done! " + localWordlex.getSize() + ":"
+					+ localTaglex.getSize() + ":" + cooccur.size());
 
-			TagFilter localTagFilter = new TagFilter(config, localTaglex);
-			HashSet<String> localFiltered = new HashSet<String>();
-			HashMap<Integer, HashMap<Integer, Double>> pmiMap = new HashMap<Integer, HashMap<Integer, Double>>();
+			writePmi(cooccur.sortedCells(), localWordlex, localTaglex,
+					modelDir, numThreads);
+		} catch (Exception e) {
+			// TODO: handle exception
+			e.printStackTrace();
+			LOG.info("Error exec!");
+		}
+	}
 
-			Vector<Word> wordVec = new Vector<Word>();
-			Vector<Word> tagVec = new Vector<Word>();
-			double N = localWordlex.getNumDocs();
+	/**
+	 * Compute the mutual information of every counted (word, tag) pair, rows
+	 * in parallel, and write pmi.txt sorted by score, together with the raw
+	 * counts in cooccur.txt for incremental updates.
+	 *
+	 * Only pairs where the tag passes the tag filter built on the local tag
+	 * lexicon in at least one post with the word are scored. That filter only
+	 * accepts tags that appear in their normalized form.
+	 */
+	private void writePmi(final PairCounter.Cells cells,
+			final Lexicon localWordlex, final Lexicon localTaglex,
+			File modelDir, int numThreads) throws IOException,
+			InterruptedException, ExecutionException {
+		final double N = localWordlex.getNumDocs();
+		final int commonLimit = Integer.parseInt(config.getProperty(
+				"commonLimit", "5"));
+		final double selfTrans = Double.parseDouble(config.getProperty(
+				"selfTrans", "0.0"));
+		LOG.info("selfTrans:" + selfTrans);
+		final int minTagFreq = Integer.parseInt(config.getProperty(
+				"mintagfreq", "1"));
+
+		// Row boundaries, by word id.
+		ArrayList<Integer> rowStarts = new ArrayList<Integer>();
+		for (int k = 0; k < cells.keys.length; k++) {
+			if (k == 0
+					|| PairCounter.row(cells.keys[k]) != PairCounter
+							.row(cells.keys[k - 1])) {
+				rowStarts.add(k);
+			}
+		}
+		rowStarts.add(cells.keys.length);
+
+		List<Callable<String[]>> chunks = new ArrayList<Callable<String[]>>();
+		int rowsPerChunk = 256;
+		for (int r = 0; r + 1 < rowStarts.size(); r += rowsPerChunk) {
+			final int begin = rowStarts.get(r);
+			final int end = rowStarts.get(Math.min(r + rowsPerChunk,
+					rowStarts.size() - 1));
+			chunks.add(new Callable<String[]>() {
+				public String[] call() {
+					StringBuilder out = new StringBuilder();
+					StringBuilder outCheck = new StringBuilder();
+					StringBuilder outCount = new StringBuilder();
+					int[] tagIds = new int[16];
+					int[] counts = new int[16];
+					int rowStart = begin;
+					while (rowStart < end) {
+						int wordId = PairCounter.row(cells.keys[rowStart]);
+						int n = 0;
+						int k = rowStart;
+						for (; k < end
+								&& PairCounter.row(cells.keys[k]) == wordId; k++) {
+							if (!cells.flags[k])
+								continue;
+							if (n == tagIds.length) {
+								tagIds = Arrays.copyOf(tagIds, n * 2);
+								counts = Arrays.copyOf(counts, n * 2);
+							}
+							tagIds[n] = PairCounter.column(cells.keys[k]);
+							counts[n] = cells.counts[k];
+							outCount.append(wordId + " " + tagIds[n] + " "
+									+ counts[n]).append('\n');
+							n++;
+						}
+						rowStart = k;
+						HashMap<Integer, Double> row = scoreRow(wordId, tagIds,
+								counts, n, N, commonLimit, selfTrans,
+								minTagFreq, localWordlex, localTaglex);
+						if (row != null) {
+							writeRow(wordId, row, localWordlex, localTaglex,
+									out, outCheck);
+						}
+					}
+					return new String[] { out.toString(), outCheck.toString(),
+							outCount.toString() };
+				}
+			});
+		}
 
-			lineCouter = 0;
-			int pmiCounter = 0;
+		BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(modelDir.getAbsolutePath() + "/pmi.txt"),
+				"UTF-8"));
+		BufferedWriter outCheck = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(modelDir.getAbsolutePath() + "/check.txt"),
+				"UTF-8"));
+		BufferedWriter outCount = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(modelDir.getAbsolutePath() + "/"
+						+ COOCCUR_FILE), "UTF-8"));
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		try {
+			for (Future<String[]> f : pool.invokeAll(chunks)) {
+				String[] text = f.get();
+				out.write(text[0]);
+				outCheck.write(text[1]);
+				outCount.write(text[2]);
+			}
+		} finally {
+			pool.shutdown();
+		}
+		out.close();
+		outCheck.close();
+		outCount.close();
+		LOG.info("PMI size!" + (rowStarts.size() - 1));
+	}
 
-			int wordNullCounter = 0;
-			int tagNullCounter = 0;
-			int positionNullCounter = 0;
-			int commonNullCounter = 0;
-			int calBeforeCounter = 0;
+	/**
+	 * Score one word's row of pmi.txt from its first n (tag, co-occurrence
+	 * count) pairs and the document frequencies in the lexicons. Pairs below
+	 * commonLimit, and tags with a frequency below minTagFreq, are skipped.
+	 * The mutual information scores are normalized to sum to one, and if the
+	 * word is also a tag, selfTrans of the mass moves to it. Returns null if
+	 * nothing is left.
+	 */
+	public static HashMap<Integer, Double> scoreRow(int wordId, int[] tagIds,
+			int[] counts, int n, double N, int commonLimit, double selfTrans,
+			int minTagFreq, Lexicon wordlex, Lexicon taglex) {
+		Word wordStruct = wordlex.getWord(wordId);
+		if (wordStruct == null) {
+			return null;
+		}
+		double wordDf = wordStruct.getDocumentFrequency();
+		HashMap<Integer, Double> tmpMap = new HashMap<Integer, Double>();
+		for (int k = 0; k < n; k++) {
+			int commonCounter = counts[k];
+			if (commonCounter < commonLimit) {
+				continue;
+			}
+			int tagId = tagIds[k];
+			Word tagStruct = taglex.getWord(tagId);
+			if (tagStruct == null || tagStruct.getFrequency() < minTagFreq) {
+				continue;
+			}
+			double tagDf = tagStruct.getDocumentFrequency();
 
-			int commonLimit = Integer.parseInt(config.getProperty("commonLimit", "5"));
-			//BufferedWriter outLog = new BufferedWriter(new OutputStreamWriter(new FileOutputStream("res/pmi/log.txt"), "UTF8"));
-			double selfTrans = Double.parseDouble(config.getProperty("selfTrans", "0.0"));
-			LOG.info("selfTrans:"+selfTrans);
-			
-			while (reader.next()) {
-
-				wordSet.clear();
-				tagSet.clear();
-				wordVec.clear();
-				tagVec.clear();
-
-				if (reader.numRead() % 100 == 0)
-					LOG.info("Second Round!" + reader.numRead() + ":"
-							+ lineCouter + ":" + pmiMap.size() + ":"
-							+ pmiCounter + ":" + wordNullCounter + ":"
-							+ tagNullCounter + ":" + positionNullCounter + ":"
-							+ commonNullCounter + ":" + calBeforeCounter);
-
-				DoubanPost p = J.fromJson(reader.value(), DoubanPost.class);
-				if (fold.length() > 0 && p.getExtras().equals(fold)) {
-					continue;
-				}
-				localTagFilter.filterMapWithNorm(p.getDoubanTags(),
-						localFiltered);
-				if (localFiltered == null || localFiltered.size() == 0) {
-					tagNullCounter++;
-					continue;
-				}
+			double Pw1 = wordDf / N;
+			double Pw0 = 1.0 - Pw1;
+			double Pt1 = tagDf / N;
+			double Pt0 = 1.0 - Pt1;
 
-				String[] features = fe.extract(p);
-				if (features.length <= 0) {
-					wordNullCounter++;
-					continue;
-				}
+			double P11 = ((double) commonCounter) / N;
+			double P10 = (wordDf - commonCounter) / N;
+			double P01 = (tagDf - commonCounter) / N;
+			double P00 = 1.0 - P11 - P10 - P01;
 
-				for (String word : features) {
-					if (wordSet.contains(word)) {
-						continue;
-					} else {
-						wordSet.add(word);
+			double pmi10 = (wordDf - commonCounter == 0) ? 0.0 : P10 * Math.log(P10 / Pw1 / Pt0);
+			double pmi01 = (tagDf - commonCounter == 0) ? 0.0 : P01 * Math.log(P01 / Pw0 / Pt1);
 
-						Word wordStruct = localWordlex.getWord(word);
-						if (wordStruct == null) {
-							continue;
-						}
-						wordVec.add(wordStruct);
-					}
-				}
+			double pmi = P11 * Math.log(P11 / Pw1 / Pt1) + pmi10 + pmi01 + P00 * Math.log(P00 / Pw0 / Pt0);
+			tmpMap.put(tagId, pmi);
+		}
 
-				for (String tag : localFiltered) {
-					if (tagSet.contains(tag)) {
-						continue;
-					} else {
-						tagSet.add(tag);
+		double total = 0.0;
+		for (Entry<Integer, Double> ee : tmpMap.entrySet()) {
+			total += ee.getValue();
+		}
+		if (total == 0) {
+			return null;
+		}
+		for (Entry<Integer, Double> ee : tmpMap.entrySet()) {
+			ee.setValue(ee.getValue() / total);
+		}
 
-						Word tagStruct = localTaglex.getWord(tag);
-						if (tagStruct == null) {
-							continue;
-						}
-						tagVec.add(tagStruct);
-					}
-				}
+		Word selfTag = taglex.getWord(wordStruct.getName());
+		if (selfTag != null) {
+			int tagId = selfTag.getId();
+			for (Entry<Integer, Double> ee : tmpMap.entrySet()) {
+				ee.setValue((1.0 - selfTrans) * ee.getValue());
+			}
+			if (!tmpMap.containsKey(tagId)) {
+				tmpMap.put(tagId, 0.0);
+			}
+			tmpMap.put(tagId, tmpMap.get(tagId) + selfTrans);
+		}
+		return tmpMap;
+	}
 
-				if (wordVec.size() == 0 || tagVec.size() == 0) {
-					continue;
-				}
+	/**
+	 * Append a row to pmi.txt and check.txt, sorted by score.
+	 */
+	public static void writeRow(int wordId, HashMap<Integer, Double> row,
+			Lexicon wordlex, Lexicon taglex, StringBuilder out,
+			StringBuilder outCheck) {
+		Object[] ans = row.entrySet().toArray();
+		Arrays.sort(ans, cDouble);
+
+		outCheck.append(wordlex.getWord(wordId).getName()).append(":\n");
+		for (Object s : ans) {
+			int tagId = ((Entry<Integer, Double>) s).getKey();
+			double score = ((Entry<Integer, Double>) s).getValue();
+			out.append(wordId + " " + tagId + " " + score).append('\n');
+			outCheck.append("\t" + taglex.getWord(tagId).getName() + ":"
+					+ score).append('\n');
+		}
+	}
 
-				lineCouter++;
+	/**
+	 * Distinct word and tag ids of one post.
+	 */
+	static class PostIds {
+		int[] words;
+		int[] tags;
+		boolean[] raw;
+
+		PostIds(int numWords, int numTags) {
+			words = new int[numWords];
+			tags = new int[numTags];
+			raw = new boolean[numTags];
+		}
+	}
 
-				for (int i = 0; i < wordVec.size(); i++) {
-					int wordId = wordVec.get(i).getId();
-					String word = wordVec.get(i).getName();
-					Vector<Integer> wordPosition = wordInverted.get(word);
-					if (!pmiMap.containsKey(wordId)) {
-						pmiMap.put(wordId, new HashMap<Integer, Double>());
-					}
-					HashMap<Integer, Double> tmpMap = pmiMap.get(wordId);
-
-					for (int j = 0; j < tagVec.size(); j++) {
-						int tagId = tagVec.get(j).getId();
-						String tag = tagVec.get(j).getName();
-
-						if (tmpMap.containsKey(tagId)) {
-							calBeforeCounter++;
-							continue;
-						} else {
-							Vector<Integer> tagPosition = tagInverted.get(tag);
-							if (wordPosition == null || tagPosition == null) {
-								positionNullCounter++;
-								continue;
-							}
-							
-							Vector<Integer> common = interTwoVector(
-									wordPosition, tagPosition);
-							int commonCounter = common.size();
+	/**
+	 * Queue a batch for the count workers. A failed worker no longer takes
+	 * batches, so while the queue is full its error is thrown instead of
+	 * waiting for room forever.
+	 */
+	private static void put(BlockingQueue<List<PostIds>> queue,
+			List<PostIds> batch, List<Future<PairCounter>> shards)
+			throws InterruptedException, ExecutionException {
+		while (!queue.offer(batch, 1, TimeUnit.SECONDS)) {
+			for (Future<PairCounter> shard : shards) {
+				// A worker done without error has taken its END_OF_INPUT.
+				if (shard.isDone()) {
+					shard.get();
+				}
+			}
+		}
+	}
 
-							if (commonCounter < commonLimit) {
-							
-								continue;
-							}
+	/**
+	 * Count co-occurrences of the posts taken from the queue into a private
+	 * counter, until END_OF_INPUT.
+	 */
+	static class CountWorker implements Callable<PairCounter> {
+		BlockingQueue<List<PostIds>> queue;
 
-							double Pw1 = ((double) wordPosition.size()) / N;
-							double Pw0 = 1.0 - Pw1;
-							double Pt1 = ((double) tagPosition.size()) / N;
-							double Pt0 = 1.0 - Pt1;
-
-							double P11 = ((double) commonCounter) / N;
-							double P10 = (double) (wordPosition.size() - commonCounter)
-									/ N;
-							double P01 = (double) (tagPosition.size() - commonCounter)
-									/ N;
-							double P00 = 1.0 - P11 - P10 - P01;
-							
-							double pmi10 = (wordPosition.size() - commonCounter == 0) ? 0.0 : P10 * Math.log(P10 / Pw1 / Pt0);
-							double pmi01 = (tagPosition.size() - commonCounter == 0) ? 0.0 : P01 * Math.log(P01 / Pw0 / Pt1);
-									
-							double pmi = P11 * Math.log(P11 / Pw1 / Pt1) + pmi10 + pmi01 + P00 * Math.log(P00 / Pw0 / Pt0);
-							
-							tmpMap.put(tagId, pmi);
-							pmiCounter++;
-						}
-					}
-					pmiMap.put(wordId, tmpMap);
-				
-				}
+		CountWorker(BlockingQueue<List<PostIds>> queue) {
+			this.queue = queue;
+		}
 
-			}
-			reader.close();
-		
-			LOG.info("PMI size!" + pmiMap.size());
-					
-			out = new BufferedWriter(new OutputStreamWriter(
-					new FileOutputStream(modelDir.getAbsolutePath()
-							+ "/pmi.txt"), "UTF-8"));
-			
-			BufferedWriter outCheck = new BufferedWriter(new OutputStreamWriter(
-					new FileOutputStream(modelDir.getAbsolutePath()
-							+ "/check.txt"), "UTF-8"));
-			
-			for (Entry<Integer, HashMap<Integer, Double>> e : pmiMap.entrySet()) {
-				double total = 0.0;
-				for(Entry<Integer, Double> ee : e.getValue().entrySet()){
-					total += ee.getValue();
-				}
-				
-				if(total == 0){
-					continue;
-				}
-				
-				for(Entry<Integer, Double> ee : e.getValue().entrySet()){
-					ee.setValue(ee.getValue() / total);
-				}
-				
-				int wordId = e.getKey();
-				Word wordStruct = localWordlex.getWord(wordId);
-				if(wordStruct != null){
-					String word = wordStruct.getName();
-					Word tagStruct = localTaglex.getWord(word);
-					if(tagStruct != null){
-						int tagId = tagStruct.getId();
-						for(Entry<Integer, Double> ee : e.getValue().entrySet()){
-							ee.setValue((1.0 - selfTrans) * ee.getValue());
-						}
-						if(!e.getValue().containsKey(tagId)){
-							e.getValue().put(tagId, 0.0);
+		public PairCounter call() throws InterruptedException {
+			PairCounter counter = new PairCounter();
+			while (true) {
+				List<PostIds> batch = queue.take();
+				if (batch == END_OF_INPUT)
+					return counter;
+				for (PostIds ids : batch) {
+					for (int word : ids.words) {
+						for (int j = 0; j < ids.tags.length; j++) {
+							counter.add(word, ids.tags[j], 1, ids.raw[j]);
 						}
-						e.getValue().put(tagId, e.getValue().get(tagId) + selfTrans);
 					}
 				}
-				
-				Object[] ans = e.getValue().entrySet().toArray();
-				Arrays.sort(ans, cDouble);
-
-				outCheck.write(wordStruct.getName()+":");
-				outCheck.newLine();
-				outCheck.flush();
-				
-				for (Object s : ans) {
-					int tagId = ((Entry<Integer, Double>) s).getKey();
-					double score = ((Entry<Integer, Double>) s).getValue();
-					out.write(e.getKey() + " " + tagId + " " + score );
-					out.newLine();
-					out.flush();
-					
-					outCheck.write("\t"+localTaglex.getWord(tagId).getName()+":"+score);
-					outCheck.newLine();
-					outCheck.flush();
-				}
 			}
-			out.close();
-			outCheck.close();
-
-		} catch (Exception e) {
-			// TODO: handle exception
-			e.printStackTrace();
-			LOG.info("Error exec!");
 		}
 	}
 
@@ -496,29 +486,6 @@ public class TrainPMI implements GenericTool, ModelTrainer {
 		out.close();
 	}
 
-	public Vector<Integer> interTwoVector(Vector<Integer> a, Vector<Integer> b) {
-		Vector<Integer> ans = new Vector<Integer>();
-		int aLen = a.size();
-		int bLen = b.size();
-		int i = 0;
-		int j = 0;
-		while (i < aLen && j < bLen) {
-			int aValue = a.get(i).intValue();
-			int bValue = b.get(j).intValue();
-			if (aValue == bValue) {
-				ans.add(aValue);
-				i++;
-				j++;
-			} else if (aValue < bValue) {
-				i++;
-			} else {
-				j++;
-			}
-		}
-
-		return ans;
-	}
-
 	public static void main(String[] args) throws IOException {
 		TrainPMI pmi = new TrainPMI();
 	
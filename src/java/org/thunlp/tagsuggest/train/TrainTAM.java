@@ -5,24 +5,21 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 import java.util.logging.Logger;
 
-import org.thunlp.io.JsonUtil;
-import org.thunlp.io.RecordReader;
+import org.thunlp.metrics.Metrics;
 import org.thunlp.misc.Flags;
-import org.thunlp.tagsuggest.common.DataSource;
-import org.thunlp.tagsuggest.common.ListDataSource;
 import org.thunlp.tagsuggest.common.ConfigIO;
 import org.thunlp.tagsuggest.common.ModelTrainer;
+import org.thunlp.tagsuggest.common.PackedCorpus;
 import org.thunlp.tagsuggest.common.Post;
+import org.thunlp.tagsuggest.common.PostInput;
+import org.thunlp.tagsuggest.common.PostStore;
 import org.thunlp.tagsuggest.common.TagFilter;
 import org.thunlp.tagsuggest.common.WordFeatureExtractor;
 import org.thunlp.tagsuggest.contentbase.TagAllocationModel;
-import org.thunlp.tagsuggest.contentbase.TagAllocationModel.Document;
 import org.thunlp.text.Lexicon;
 import org.thunlp.tool.GenericTool;
 
@@ -33,7 +30,6 @@ import org.thunlp.tool.GenericTool;
  */
 public class TrainTAM implements GenericTool, ModelTrainer {
   private static Logger LOG = Logger.getAnonymousLogger();
-  JsonUtil J = new JsonUtil();
   WordFeatureExtractor fe = null;
   int minTagFreq = 1;
   TagFilter tagFilter = null;
@@ -53,6 +49,7 @@ public class TrainTAM implements GenericTool, ModelTrainer {
   @Override
   public void train(String inputPath, String modelPath, Properties config)
   throws IOException {  
+    Metrics.configure(config);
 
 	String fold = config.getProperty("fold", "-1");
     Lexicon wordlex = new Lexicon();
@@ -66,8 +63,8 @@ public class TrainTAM implements GenericTool, ModelTrainer {
     Set<String> filtered = new HashSet<String>();
     
     // Load all docs.
-    List<Document> docs = new LinkedList<Document>();
-    RecordReader reader = new RecordReader(inputPath);
+    PackedCorpus docs = new PackedCorpus();
+    PostInput reader = PostInput.open(inputPath, PostStore.ALL);
     String workingDir = modelPath;
     File workingDirFile = new File(workingDir);
     if (!workingDirFile.exists()) {
@@ -76,20 +73,17 @@ public class TrainTAM implements GenericTool, ModelTrainer {
     
      
     while (reader.next()) {
-      Post p = J.fromJson(reader.value(), Post.class);
+      Post p = reader.get(Post.class);
       if (!p.getExtras().equals(fold)) {        
-        Document d = new Document();
-        d.words = fe.extract(p);
         tagFilter.filterWithNorm(p.getTags(), filtered);
-        d.tags = filtered.toArray(new String [filtered.size()]);
-        d.reason = new String[d.tags.length];
-        docs.add(d);
+        docs.add(fe.extract(p), filtered);
       }
       if (reader.numRead() % 5000 == 0)
         LOG.info("loading " + reader.numRead() + " docs");
     }
     reader.close();
-    LOG.info("load " + docs.size() + " docs.");
+    docs.freeze();
+    LOG.info("load " + docs.numDocs() + " docs.");
 
     int numIter = Integer.parseInt(config.getProperty("niter", "40"));
     int numBurnIn = Integer.parseInt(config.getProperty("burnin", "30"));
@@ -104,8 +98,7 @@ public class TrainTAM implements GenericTool, ModelTrainer {
     tam.setGamma(
         Double.parseDouble(config.getProperty("gamma", "0.01")));
     // tam.setWordLexicon(wordlex);
-    DataSource<Document> dataSource = new ListDataSource<Document>(docs);
-    tam.train(dataSource, numIter, numBurnIn);
+    tam.train(docs, numIter, numBurnIn);
 
     OutputStream output = 
       new FileOutputStream(new File(modelPath+File.separator +"reason"));
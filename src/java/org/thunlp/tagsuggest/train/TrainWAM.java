@@ -45,6 +45,9 @@ public class TrainWAM implements GenericTool, ModelTrainer {
 	private Properties config = null;
 	private String fold = "";
 	private String giza_path = null;
+	private String aligner = "ibm1";
+	private int numThreads = 1;
+	private int iterations = 5;
 	private RtuMain jar_path = new RtuMain();
 
 	JsonUtil J = new JsonUtil();
@@ -73,13 +76,24 @@ public class TrainWAM implements GenericTool, ModelTrainer {
 		this.config = config;
 		this.fold = config.getProperty("fold", "");
 		
-		giza_path = config.getProperty("giza_path", jar_path.getProjectPath());
-		LOG.info("giza_path:" + giza_path);
+		// "ibm1" trains the word alignment in process, "giza" runs GIZA++.
+		aligner = config.getProperty("aligner", "ibm1");
+		if (aligner.equals("giza")) {
+			giza_path = config.getProperty("giza_path");
+			if (giza_path == null)
+				giza_path = jar_path.getProjectPath();
+			LOG.info("giza_path:" + giza_path);
+		}
+		numThreads = Integer.parseInt(config.getProperty("num_threads",
+				Integer.toString(Runtime.getRuntime().availableProcessors())));
+		// EM iterations of IBM model 1, in process or by GIZA++ -m1.
+		iterations = Integer.parseInt(config.getProperty("model1_iterations",
+				"5"));
 		
 		buildProTable(inputPath, new File(modelPath));
 	}
 
-	public void buildProTable(String input, File modelDir) {
+	public void buildProTable(String input, File modelDir) throws IOException {
 
 		try {
 			if (!modelDir.exists()) {
@@ -97,7 +111,7 @@ public class TrainWAM implements GenericTool, ModelTrainer {
 			Set<String> filtered = new HashSet<String>();
 			HashSet<String> tagSet = new HashSet<String>();
 
-			RecordReader reader = new RecordReader(input);
+			RecordReader reader = RecordReader.openWithoutFold(input, fold);
 
 			// the first time : create wordlex and taglex to store the tf and df
 			// information
@@ -134,16 +148,22 @@ public class TrainWAM implements GenericTool, ModelTrainer {
 				localWordlex.saveToFile(wordLexFile);
 				localTaglex.saveToFile(tagLexFile);
 				reader.close();
-				reader = new RecordReader(input);
+				reader = RecordReader.openWithoutFold(input, fold);
 			}
 
-			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
-					new FileOutputStream(modelDir.getAbsolutePath() + "/book"),
-					"UTF-8"));
-
-			BufferedWriter outTag = new BufferedWriter(new OutputStreamWriter(
-					new FileOutputStream(modelDir.getAbsolutePath()
-							+ "/bookTag"), "UTF-8"));
+			IbmModel1 model = null;
+			BufferedWriter out = null;
+			BufferedWriter outTag = null;
+			if (aligner.equals("giza")) {
+				out = new BufferedWriter(new OutputStreamWriter(
+						new FileOutputStream(modelDir.getAbsolutePath() + "/book"),
+						"UTF-8"));
+				outTag = new BufferedWriter(new OutputStreamWriter(
+						new FileOutputStream(modelDir.getAbsolutePath()
+								+ "/bookTag"), "UTF-8"));
+			} else {
+				model = new IbmModel1(numThreads);
+			}
 			
 			double scoreLimit = Double.parseDouble(config.getProperty("scoreLimit", "0.1"));
 			// the second time :
@@ -155,22 +175,8 @@ public class TrainWAM implements GenericTool, ModelTrainer {
 				}
 				String title = p.getTitle();
 				String[] titleWords = ws.segment(title);
-				
-				for(int i = 0; i < titleWords.length; i ++){
-					if(localWordlex.getWord(titleWords[i]) != null){
-						if(i == 0){
-							out.write(titleWords[i]);
-							outTag.write(titleWords[i]);
-						}else{
-							out.write(" "+titleWords[i]);
-							outTag.write(" "+titleWords[i]);
-						}
-					}
-				}
-				out.newLine();
-				out.flush();
-				outTag.newLine();
-				outTag.flush();
+				String[] knownTitleWords = knownWords(titleWords, localWordlex);
+				addPair(model, out, outTag, knownTitleWords, knownTitleWords);
 				
 				Vector<Double> wordTfidf = new Vector<Double>();
 				Vector<String> wordList = new Vector<String>();
@@ -249,36 +255,20 @@ public class TrainWAM implements GenericTool, ModelTrainer {
 						}
 					}
 					if(score >= scoreLimit){
-						for(int j = 0; j < words.length; j ++){
-							if(localWordlex.getWord(words[j]) != null){
-								if(j == 0 ){
-									out.write(words[j]);
-								}
-								else{
-									out.write(" "+words[j]);
-								}
-							}
-						}
-						out.newLine();
-						out.flush();
-						
-						for(int j = 0; j < titleWords.length; j ++){
-							if(localWordlex.getWord(titleWords[j]) != null){
-								if(j == 0){
-									outTag.write(titleWords[j]);
-								}else{
-									outTag.write(" "+titleWords[j]);
-								}
-							}
-						}
-						outTag.newLine();
-						outTag.flush();
+						addPair(model, out, outTag,
+								knownWords(words, localWordlex), knownTitleWords);
 					}
 				}
 				
 			}
 			
 			reader.close();
+			if (model != null) {
+				LOG.info("source and target are prepared!");
+				model.trainAndSave(modelDir, iterations);
+				LOG.info("IBM model 1 word to tag and tag to word Ok!");
+				return;
+			}
 			out.close();
 			outTag.close();
 			
@@ -303,7 +293,7 @@ public class TrainWAM implements GenericTool, ModelTrainer {
 			LOG.info("plain2snt ok!");
 
 			// from word to tag
-			p = rn.exec(giza_path+File.separator +"GIZA++ -S book.vcb -T bookTag.vcb -C book_bookTag.snt  -m1 5 -m2 0 -mh 0 -m3 0 -m4 0 -model1dumpfrequency 1"		
+			p = rn.exec(giza_path+File.separator +"GIZA++ -S book.vcb -T bookTag.vcb -C book_bookTag.snt  -m1 " + iterations + " -m2 0 -mh 0 -m3 0 -m4 0 -model1dumpfrequency 1"		
 					,null, modelDir);
 			StreamGobbler errorGobbler = new StreamGobbler(p.getErrorStream(),
 					"Error");
@@ -321,7 +311,7 @@ public class TrainWAM implements GenericTool, ModelTrainer {
 			}
 			
 			// from tag to word
-			p = rn.exec(giza_path+File.separator +"GIZA++ -S bookTag.vcb -T book.vcb -C bookTag_book.snt -m1 5 -m2 0 -mh 0 -m3 0 -m4 0  -model1dumpfrequency 1",		
+			p = rn.exec(giza_path+File.separator +"GIZA++ -S bookTag.vcb -T book.vcb -C bookTag_book.snt -m1 " + iterations + " -m2 0 -mh 0 -m3 0 -m4 0  -model1dumpfrequency 1",		
 										null, modelDir);
 			errorGobbler = new StreamGobbler(p.getErrorStream(), "Error");
 			outputGobbler = new StreamGobbler(p.getInputStream(), "Output");
@@ -330,11 +320,44 @@ public class TrainWAM implements GenericTool, ModelTrainer {
 			p.waitFor();
 			LOG.info("GIZA++ tag to word Ok!");
 
-		} catch (Exception e) {
-			LOG.info("Error exec!");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while training " + modelDir);
 		}
 }
 
+	private static String[] knownWords(String[] words, Lexicon lex) {
+		Vector<String> known = new Vector<String>();
+		for (String word : words) {
+			if (lex.getWord(word) != null)
+				known.add(word);
+		}
+		return known.toArray(new String[known.size()]);
+	}
+
+	private static void addPair(IbmModel1 model, BufferedWriter out,
+			BufferedWriter outTag, String[] source, String[] target)
+			throws IOException {
+		if (model != null) {
+			model.addPair(source, target);
+			return;
+		}
+		out.write(join(source));
+		out.newLine();
+		outTag.write(join(target));
+		outTag.newLine();
+	}
+
+	private static String join(String[] tokens) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < tokens.length; i++) {
+			if (i > 0)
+				sb.append(' ');
+			sb.append(tokens[i]);
+		}
+		return sb.toString();
+	}
+
 	public static void main(String[] args) throws IOException {
 		TrainWAM Test = new TrainWAM();
 		Test.config = ConfigIO.configFromString("num_tags=10;norm=all_log;isSample=true;model=/home/meepo/test/sample/book.model;size=70000;minwordfreq=10;mintagfreq=10;selfTrans=0.2;commonLimit=2");
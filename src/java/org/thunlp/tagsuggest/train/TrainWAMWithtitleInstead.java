@@ -96,7 +96,7 @@ public class TrainWAMWithtitleInstead implements GenericTool, ModelTrainer {
 			Set<String> filtered = new HashSet<String>();
 			HashSet<String> tagSet = new HashSet<String>();
 
-			RecordReader reader = new RecordReader(input);
+			RecordReader reader = RecordReader.openWithoutFold(input, fold);
 
 			// the first time : create wordlex and taglex to store the tf and df
 			// information
@@ -133,7 +133,7 @@ public class TrainWAMWithtitleInstead implements GenericTool, ModelTrainer {
 				localWordlex.saveToFile(wordLexFile);
 				localTaglex.saveToFile(tagLexFile);
 				reader.close();
-				reader = new RecordReader(input);
+				reader = RecordReader.openWithoutFold(input, fold);
 			}
 
 			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
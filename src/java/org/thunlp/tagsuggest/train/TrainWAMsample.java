@@ -11,19 +11,15 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Properties;
-import java.util.Random;
 import java.util.Set;
-import java.util.Vector;
-import java.util.Map.Entry;
+import java.util.SplittableRandom;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
 import org.thunlp.io.JsonUtil;
 import org.thunlp.io.RecordReader;
 import org.thunlp.language.chinese.LangUtils;
-import org.thunlp.misc.Counter;
 import org.thunlp.misc.Flags;
 import org.thunlp.tagsuggest.common.ConfigIO;
 import org.thunlp.tagsuggest.common.DoubanPost;
@@ -87,7 +83,7 @@ public class TrainWAMsample implements GenericTool, ModelTrainer {
 			Set<String> filtered = new HashSet<String>();
 			HashSet<String> tagSet = new HashSet<String>();
 
-			RecordReader reader = new RecordReader(input);
+			RecordReader reader = RecordReader.openWithoutFold(input, fold);
 
 			// the first time : create wordlex and taglex to store the tf and df
 			// information
@@ -124,7 +120,7 @@ public class TrainWAMsample implements GenericTool, ModelTrainer {
 				localWordlex.saveToFile(wordLexFile);
 				localTaglex.saveToFile(tagLexFile);
 				reader.close();
-				reader = new RecordReader(input);
+				reader = RecordReader.openWithoutFold(input, fold);
 			}
 
 			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
@@ -138,7 +134,9 @@ public class TrainWAMsample implements GenericTool, ModelTrainer {
 			TagFilter localTagFilter = new TagFilter(config, localTaglex);
 			Set<String> localFiltered = new HashSet<String>();
 
-			Random random = new Random();
+			SplittableRandom random = new SplittableRandom(Long.parseLong(config
+					.getProperty("seed", "0")));
+			TermSampler sampler = new TermSampler();
 			Pattern spaceRE = Pattern.compile(" +");
 			// the second time :
 			while (reader.next()) {
@@ -160,96 +158,21 @@ public class TrainWAMsample implements GenericTool, ModelTrainer {
 				
 				int wordnum = (words.length > 100) ? 100 : words.length;
 
-				// sample the words
-				Vector<Double> wordTfidf = new Vector<Double>();
-				Vector<String> wordList = new Vector<String>();
-				Counter<String> termFreq = new Counter<String>();
-				for (String word : words) {
-					termFreq.inc(word, 1);
-				}
-				Iterator<Entry<String, Long>> iter = termFreq.iterator();
-				double totalTfidf = 0.0;
-				while (iter.hasNext()) {
-					Entry<String, Long> e = iter.next();
-					String word = e.getKey();
-					wordList.add(word);
-					double tf = ((double) e.getValue())
-							/ ((double) words.length);
-					double idf = Math.log(((double) localWordlex.getNumDocs())
-							/ ((double) localWordlex.getWord(word)
-									.getDocumentFrequency()));
-					wordTfidf.add(tf * idf);
-					totalTfidf += tf * idf;
-				}
-				Vector<Double> wordProb = new Vector<Double>();
-				for (int i = 0; i < wordTfidf.size(); i++) {
-					wordProb.add(wordTfidf.elementAt(i) / totalTfidf);
-				}
-
+				// sample the words and the tags
+				sampler.resetTfidf(words, localWordlex);
+				String[] sampledWords = sampler.sample(wordnum, random);
+				sampler.resetTfidf(tags, localWordlex);
+				String[] sampledTags = sampler.sample(wordnum, random);
 				for (int i = 0; i < wordnum; i++) {
-					double select = random.nextDouble();
-					double sum = 0.0;
-					int j = 0;
-					for (j = 0; j < wordProb.size(); j++) {
-						sum += wordProb.elementAt(j);
-						if (sum >= select)
-							break;
+					if (i > 0) {
+						out.write(' ');
+						outTag.write(' ');
 					}
-					String word = wordList.elementAt(j);
-					if (i == 0) {
-						out.write(word);
-					} else {
-						out.write(" " + word);
-					}
-				}
-				
-				// sample the tags
-				Vector<Double> tagTfidf = new Vector<Double>();
-				Vector<String> tagList = new Vector<String>();
-				Counter<String> tagTermFreq = new Counter<String>();
-				for (String tag : tags) {
-					tagTermFreq.inc(tag, 1);
-				}
-				iter = tagTermFreq.iterator();
-				totalTfidf = 0.0;
-				while (iter.hasNext()) {
-					Entry<String, Long> e = iter.next();
-					String tag = e.getKey();
-					tagList.add(tag);
-					double tf = ((double) e.getValue())
-							/ ((double) tags.length);
-					double idf = Math.log(((double) localWordlex.getNumDocs())
-							/ ((double) localWordlex.getWord(tag)
-									.getDocumentFrequency()));
-					tagTfidf.add(tf * idf);
-					totalTfidf += tf * idf;
+					out.write(sampledWords[i]);
+					outTag.write(sampledTags[i]);
 				}
-				Vector<Double> tagProb = new Vector<Double>();
-				for (int i = 0; i < tagTfidf.size(); i++) {
-					tagProb.add(tagTfidf.elementAt(i) / totalTfidf);
-				}
-
-				for (int i = 0; i < wordnum; i++) {
-					double select = random.nextDouble();
-					double sum = 0.0;
-					int j = 0;
-					for (j = 0; j < tagProb.size(); j++) {
-						sum += tagProb.elementAt(j);
-						if (sum >= select)
-							break;
-					}
-					String tag = tagList.elementAt(j);
-					if (i == 0) {
-						outTag.write(tag);
-					} else {
-						outTag.write(" " + tag);
-					}
-				}
-				
 				out.newLine();
-				out.flush();
 				outTag.newLine();
-				outTag.flush();
 			}
 
 			reader.close();
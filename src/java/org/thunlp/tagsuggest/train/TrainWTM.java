@@ -9,21 +9,26 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
-import java.util.Random;
 import java.util.Set;
+import java.util.SplittableRandom;
 import java.util.Vector;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
 import org.thunlp.io.JsonUtil;
 import org.thunlp.io.RecordReader;
 import org.thunlp.language.chinese.LangUtils;
-import org.thunlp.misc.Counter;
 import org.thunlp.misc.Flags;
 import org.thunlp.tagsuggest.common.ConfigIO;
 import org.thunlp.tagsuggest.common.DoubanPost;
@@ -37,9 +42,13 @@ import org.thunlp.tool.GenericTool;
 
 public class TrainWTM implements GenericTool, ModelTrainer {
 	private static Logger LOG = Logger.getAnonymousLogger();
+	private static int SAMPLE_BATCH_SIZE = 1024;
 	private Properties config = null;
 	private String fold = "";
 	private String giza_path = null;
+	private String aligner = "ibm1";
+	private int numThreads = 1;
+	private int iterations = 5;
 	private RtuMain jar_path = new RtuMain();
 
 	JsonUtil J = new JsonUtil();
@@ -71,13 +80,24 @@ public class TrainWTM implements GenericTool, ModelTrainer {
 		
 		this.fold = config.getProperty("fold", "");
 
-		giza_path = config.getProperty("giza_path", jar_path.getProjectPath());
-		LOG.info("giza_path:" + giza_path);
+		// "ibm1" trains the word alignment in process, "giza" runs GIZA++.
+		aligner = config.getProperty("aligner", "ibm1");
+		if (aligner.equals("giza")) {
+			giza_path = config.getProperty("giza_path");
+			if (giza_path == null)
+				giza_path = jar_path.getProjectPath();
+			LOG.info("giza_path:" + giza_path);
+		}
+		numThreads = Integer.parseInt(config.getProperty("num_threads",
+				Integer.toString(Runtime.getRuntime().availableProcessors())));
+		// EM iterations of IBM model 1, in process or by GIZA++ -m1.
+		iterations = Integer.parseInt(config.getProperty("model1_iterations",
+				"5"));
 
 		buildProTable(inputPath, new File(modelPath));
 	}
 
-	public void buildProTable(String input, File modelDir) {
+	public void buildProTable(String input, File modelDir) throws IOException {
 
 		try {
 			if (!modelDir.exists()) {
@@ -97,7 +117,7 @@ public class TrainWTM implements GenericTool, ModelTrainer {
 			Set<String> filtered = new HashSet<String>();
 			HashSet<String> tagSet = new HashSet<String>();
 
-			RecordReader reader = new RecordReader(input);
+			RecordReader reader = RecordReader.openWithoutFold(input, fold);
 			// the first time : create wordlex and taglex to store the tf and df
 			// information.
 			Lexicon localWordlex = new Lexicon();
@@ -137,153 +157,111 @@ public class TrainWTM implements GenericTool, ModelTrainer {
 				localWordlex.saveToFile(wordLexFile);
 				localTaglex.saveToFile(tagLexFile);
 				reader.close();
-				reader = new RecordReader(input);
+				reader = RecordReader.openWithoutFold(input, fold);
 			}
 
-			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
-					new FileOutputStream(modelDir.getAbsolutePath() + "/book"),
-					"UTF-8"));
-
-			BufferedWriter outTag = new BufferedWriter(new OutputStreamWriter(
-					new FileOutputStream(modelDir.getAbsolutePath()
-							+ "/bookTag"), "UTF-8"));
+			IbmModel1 model = null;
+			BufferedWriter out = null;
+			BufferedWriter outTag = null;
+			if (aligner.equals("giza")) {
+				out = new BufferedWriter(new OutputStreamWriter(
+						new FileOutputStream(modelDir.getAbsolutePath() + "/book"),
+						"UTF-8"));
+				outTag = new BufferedWriter(new OutputStreamWriter(
+						new FileOutputStream(modelDir.getAbsolutePath()
+								+ "/bookTag"), "UTF-8"));
+			} else {
+				model = new IbmModel1(numThreads);
+			}
 
 			TagFilter localTagFilter = new TagFilter(config, localTaglex);
 			Set<String> localFiltered = new HashSet<String>();
 
-			Random random = new Random();
+			long seed = Long.parseLong(config.getProperty("seed", "0"));
+			SplittableRandom random = new SplittableRandom(seed);
+			ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+			List<PostSample> batch = new ArrayList<PostSample>();
+			int wordCount = Integer.parseInt(config.getProperty("wordCount", "1"));
+			int tagCount = Integer.parseInt(config.getProperty("tagCount", "1"));
 			Pattern spaceRE = Pattern.compile(" +");
 			// the second time :
-			while (reader.next()) {
-				DoubanPost p = J.fromJson(reader.value(), DoubanPost.class);
-				if (fold.length() > 0 && p.getExtras().equals(fold)) {
-					continue;
-				}
-				localTagFilter.filterMapWithNorm(p.getDoubanTags(),
-						localFiltered);
-				double total = 0.0;
-				Vector<Double> tagTfidf = new Vector<Double>();
-				Vector<String> tagList = new Vector<String>();
-				// calculate the tfidf of tag
-				for (Entry<String, Integer> e : p.getDoubanTags().entrySet()) {
-					String tag = e.getKey();
-					tag = LangUtils.removePunctuationMarks(tag);
-					tag = spaceRE.matcher(tag).replaceAll("");
-					tag = LangUtils.T2S(tag);
-					tag = tag.toLowerCase();
-					if (localFiltered.contains(tag)) {
-						double idf = Math.log(((double) localTaglex
-								.getNumDocs())
-								/ ((double) localTaglex.getWord(tag)
-										.getDocumentFrequency()));
-						tagTfidf.add(((double) e.getValue()) * idf);
-						total += ((double) e.getValue()) * idf;
-						tagList.add(tag);
-						tagSet.add(tag);
+			try {
+				while (reader.next()) {
+					DoubanPost p = J.fromJson(reader.value(), DoubanPost.class);
+					if (fold.length() > 0 && p.getExtras().equals(fold)) {
+						continue;
+					}
+					localTagFilter.filterMapWithNorm(p.getDoubanTags(),
+							localFiltered);
+					double total = 0.0;
+					Vector<Double> tagTfidf = new Vector<Double>();
+					Vector<String> tagList = new Vector<String>();
+					// calculate the tfidf of tag
+					for (Entry<String, Integer> e : p.getDoubanTags().entrySet()) {
+						String tag = e.getKey();
+						tag = LangUtils.removePunctuationMarks(tag);
+						tag = spaceRE.matcher(tag).replaceAll("");
+						tag = LangUtils.T2S(tag);
+						tag = tag.toLowerCase();
+						if (localFiltered.contains(tag)) {
+							double idf = TermSampler.idf(localTaglex, tag);
+							tagTfidf.add(((double) e.getValue()) * idf);
+							total += ((double) e.getValue()) * idf;
+							tagList.add(tag);
+							tagSet.add(tag);
+						}
+					}
+					if (total == 0.0)
+						continue;
+					String[] words = fe.extract(p);
+					if (words.length <= 0) {
+						continue;
 					}
-				}
-				if (total == 0.0)
-					continue;
-				Vector<Double> tagProb = new Vector<Double>();
-				for (int i = 0; i < tagTfidf.size(); i++) {
-					tagProb.add(tagTfidf.elementAt(i) / total);
-				}
-				String[] words = fe.extract(p);
-				if (words.length <= 0) {
-					continue;
-				}
-
-				
-				int wordnum = (words.length > 100) ? 100 : words.length;
-				int wordCount = Integer.parseInt(config.getProperty("wordCount", "1"));
-				int tagCount = Integer.parseInt(config.getProperty("tagCount", "1"));
-				int tagLength = wordnum * tagCount / wordCount;
-				if(tagLength <= 0){
-					continue;
-				}
-				if(tagLength > 100){
-					tagLength = 100;
-				}
-
-				// sample the words
-				Vector<Double> wordTfidf = new Vector<Double>();
-				Vector<String> wordList = new Vector<String>();
-				Counter<String> termFreq = new Counter<String>();
-				for (String word : words) {
-					termFreq.inc(word, 1);
-				}
-				Iterator<Entry<String, Long>> iter = termFreq.iterator();
-				double totalTfidf = 0.0;
-				while (iter.hasNext()) {
-					Entry<String, Long> e = iter.next();
-					String word = e.getKey();
-					wordList.add(word);
-					double tf = ((double) e.getValue())
-							/ ((double) words.length);
-					double idf = Math.log(((double) localWordlex.getNumDocs())
-							/ ((double) localWordlex.getWord(word)
-									.getDocumentFrequency()));
-					wordTfidf.add(tf * idf);
-					totalTfidf += tf * idf;
-				}
-				Vector<Double> wordProb = new Vector<Double>();
-				for (int i = 0; i < wordTfidf.size(); i++) {
-					wordProb.add(wordTfidf.elementAt(i) / totalTfidf);
-				}
 
-				for (int i = 0; i < words.length && i < 100; i++) {
-					double select = random.nextDouble();
-					double sum = 0.0;
-					int j = 0;
-					for (j = 0; j < wordProb.size(); j++) {
-						sum += wordProb.elementAt(j);
-						if (sum >= select)
-							break;
+					int wordnum = (words.length > 100) ? 100 : words.length;
+					int tagLength = wordnum * tagCount / wordCount;
+					if(tagLength <= 0){
+						continue;
 					}
-					String word = wordList.elementAt(j);
-					if (i == 0) {
-						out.write(word);
-					} else {
-						out.write(" " + word);
+					if(tagLength > 100){
+						tagLength = 100;
 					}
-				}
-				out.newLine();
-				out.flush();
-
-				// sample the tags
-				for (int i = 0; i < tagLength; i++) {
-					double num = random.nextDouble();
-					double sum = 0.0;
-					int j = 0;
-					for (j = 0; j < tagProb.size(); j++) {
-						sum += tagProb.elementAt(j);
-						if (sum >= num)
-							break;
+					double[] tagWeights = new double[tagTfidf.size()];
+					for (int i = 0; i < tagWeights.length; i++) {
+						tagWeights[i] = tagTfidf.elementAt(i);
 					}
-					if (i == 0) {
-						outTag.write(tagList.elementAt(j));
-					} else {
-						outTag.write(" " + tagList.elementAt(j));
+
+					// Each post gets its own random stream, split in input order,
+					// so the samples do not depend on the number of threads.
+					batch.add(new PostSample(words, wordnum,
+							tagList.toArray(new String[tagList.size()]), tagWeights,
+							tagLength, localWordlex, random.split()));
+					if (batch.size() >= SAMPLE_BATCH_SIZE) {
+						sampleBatch(pool, batch, model, out, outTag);
 					}
 				}
-				outTag.newLine();
-				outTag.flush();
-			/*	if (reader.numRead() % 1000 == 0)
-				{
-						break;
-				}*/
+				sampleBatch(pool, batch, model, out, outTag);
+			} finally {
+				pool.shutdown();
 			}
 
 			for(String tag:tagSet){
-				out.write(tag);
-				out.newLine();
-				out.flush();
-				outTag.write(tag);
-				outTag.newLine();
-				outTag.flush();
+				String[] self = new String[] { tag };
+				if (model != null) {
+					model.addPair(self, self);
+				} else {
+					writeLine(out, self);
+					writeLine(outTag, self);
+				}
 			}
 			
 			reader.close();
+			if (model != null) {
+				LOG.info("source and target are prepared!");
+				model.trainAndSave(modelDir, iterations);
+				LOG.info("IBM model 1 word to tag and tag to word Ok!");
+				return;
+			}
 			out.close();
 			outTag.close();
 
@@ -309,7 +287,7 @@ public class TrainWTM implements GenericTool, ModelTrainer {
 			LOG.info("plain2snt ok!");
 
 			// from word to tag
-			p = rn.exec(giza_path+File.separator +"GIZA++ -S book.vcb -T bookTag.vcb -C book_bookTag.snt  -m1 5 -m2 0 -mh 0 -m3 0 -m4 0 -model1dumpfrequency 1"		
+			p = rn.exec(giza_path+File.separator +"GIZA++ -S book.vcb -T bookTag.vcb -C book_bookTag.snt  -m1 " + iterations + " -m2 0 -mh 0 -m3 0 -m4 0 -model1dumpfrequency 1"		
 					,null, modelDir);
 			StreamGobbler errorGobbler = new StreamGobbler(p.getErrorStream(),
 					"Error");
@@ -327,7 +305,7 @@ public class TrainWTM implements GenericTool, ModelTrainer {
 			}
 			
 			// from tag to word
-			p = rn.exec(giza_path+File.separator +"GIZA++ -S bookTag.vcb -T book.vcb -C bookTag_book.snt -m1 5 -m2 0 -mh 0 -m3 0 -m4 0  -model1dumpfrequency 1",		
+			p = rn.exec(giza_path+File.separator +"GIZA++ -S bookTag.vcb -T book.vcb -C bookTag_book.snt -m1 " + iterations + " -m2 0 -mh 0 -m3 0 -m4 0  -model1dumpfrequency 1",		
 										null, modelDir);
 			errorGobbler = new StreamGobbler(p.getErrorStream(), "Error");
 			outputGobbler = new StreamGobbler(p.getInputStream(), "Output");
@@ -336,9 +314,83 @@ public class TrainWTM implements GenericTool, ModelTrainer {
 			p.waitFor();
 			LOG.info("GIZA++ tag to word Ok!");
 
-		} catch (Exception e) {
-			LOG.info("Error exec!");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while training " + modelDir);
+		} catch (ExecutionException e) {
+			throw new IOException("cannot sample the posts", e.getCause());
+		}
+	}
+
+	/**
+	 * Sample the words and tags of a batch of posts in parallel, then add
+	 * them to the model or the corpus files in input order.
+	 */
+	private static void sampleBatch(ExecutorService pool,
+			List<PostSample> batch, IbmModel1 model, BufferedWriter out,
+			BufferedWriter outTag) throws IOException, InterruptedException,
+			ExecutionException {
+		for (Future<PostSample> f : pool.invokeAll(batch)) {
+			PostSample s = f.get();
+			if (model != null) {
+				model.addPair(s.sampledWords, s.sampledTags);
+			} else {
+				writeLine(out, s.sampledWords);
+				writeLine(outTag, s.sampledTags);
+			}
+		}
+		batch.clear();
+	}
+
+	static class PostSample implements Callable<PostSample> {
+		// One sampler per pool thread, refilled for every post.
+		private static ThreadLocal<TermSampler> samplers = new ThreadLocal<TermSampler>() {
+			@Override
+			protected TermSampler initialValue() {
+				return new TermSampler();
+			}
+		};
+
+		String[] words;
+		int wordnum;
+		String[] tags;
+		double[] tagWeights;
+		int tagLength;
+		Lexicon wordlex;
+		SplittableRandom random;
+		String[] sampledWords;
+		String[] sampledTags;
+
+		PostSample(String[] words, int wordnum, String[] tags,
+				double[] tagWeights, int tagLength, Lexicon wordlex,
+				SplittableRandom random) {
+			this.words = words;
+			this.wordnum = wordnum;
+			this.tags = tags;
+			this.tagWeights = tagWeights;
+			this.tagLength = tagLength;
+			this.wordlex = wordlex;
+			this.random = random;
+		}
+
+		public PostSample call() {
+			TermSampler sampler = samplers.get();
+			sampler.resetTfidf(words, wordlex);
+			sampledWords = sampler.sample(wordnum, random);
+			sampler.reset(tags, tagWeights);
+			sampledTags = sampler.sample(tagLength, random);
+			return this;
+		}
+	}
+
+	private static void writeLine(BufferedWriter out, String[] tokens)
+			throws IOException {
+		for (int i = 0; i < tokens.length; i++) {
+			if (i > 0)
+				out.write(" ");
+			out.write(tokens[i]);
 		}
+		out.newLine();
 	}
 
 	public static void main(String[] args) throws IOException {
@@ -23,7 +23,7 @@ public class EntryPoint {
     "train-knn", "org.thunlp.tagsuggest.train.TrainKnn",
     //"train-fdt", "org.thunlp.tagsuggest.train.TrainFDT",
     "train-naivebayes", "org.thunlp.tagsuggest.train.TrainNaiveBayes",
-   // "build-tag-user-graph", "org.thunlp.tagsuggest.train.TagUserGraphBuilder",
+    "build-tag-user-graph", "org.thunlp.tagsuggest.train.TagUserGraphBuilder",
     "evaluate", "org.thunlp.tagsuggest.evaluation.Evaluator",
     "sample", "org.thunlp.tagsuggest.dataset.Sample",
     "demo", "org.thunlp.tagsuggest.evaluation.GuiFrontEnd",
@@ -0,0 +1,236 @@
+package org.thunlp.tagsuggest.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class PostStoreTest extends TestCase {
+  // Spans three row groups, the last one partial.
+  private static final int NUM_POSTS = 2 * PostStore.ROWS_PER_GROUP + 100;
+  private File file;
+
+  @Override
+  public void setUp() throws IOException {
+    file = File.createTempFile("poststore", PostStore.EXTENSION);
+  }
+
+  @Override
+  public void tearDown() {
+    file.delete();
+  }
+
+  private static Post post(int i) {
+    Post p = new Post();
+    p.setId("p" + i);
+    p.setResourceKey("r" + (i % 7));
+    p.setUserId("u" + (i % 13));
+    p.setTimestamp(i * 1000L);
+    p.setExtras(Integer.toString(i % 3));
+    p.setTags(new HashSet<String>(Arrays.asList("t" + (i % 5), "all")));
+    p.setTitle("title " + i);
+    p.setContent("w" + (i % 11) + "  w" + (i % 3) + " x\n");
+    return p;
+  }
+
+  private void writePosts() throws IOException {
+    PostStoreWriter writer = new PostStoreWriter(file.getPath());
+    for (int i = 0; i < NUM_POSTS; i++) {
+      writer.add(post(i));
+    }
+    writer.close();
+  }
+
+  private static void assertPost(Post expected, Post actual) {
+    Assert.assertEquals(expected.getId(), actual.getId());
+    Assert.assertEquals(expected.getResourceKey(), actual.getResourceKey());
+    Assert.assertEquals(expected.getUserId(), actual.getUserId());
+    Assert.assertEquals(expected.getTimestamp(), actual.getTimestamp());
+    Assert.assertEquals(expected.getExtras(), actual.getExtras());
+    Assert.assertEquals(expected.getTags(), actual.getTags());
+    Assert.assertEquals(expected.getTitle(), actual.getTitle());
+    Assert.assertEquals(expected.getContent(), actual.getContent());
+  }
+
+  public void testRoundTrip() throws IOException {
+    writePosts();
+    PostStoreReader reader = new PostStoreReader(file.getPath(),
+        PostStore.ALL);
+    Assert.assertEquals(NUM_POSTS, reader.numPosts());
+    int n = 0;
+    while (reader.next()) {
+      Post expected = post(n);
+      assertPost(expected, reader.post());
+      // The content is split on whitespace into dictionary encoded tokens.
+      String [] tokens = expected.getContent().trim().split("\\s+");
+      Assert.assertEquals(tokens.length, reader.numTokens());
+      for (int i = 0; i < tokens.length; i++) {
+        Assert.assertEquals(tokens[i], reader.word(reader.tokenIds()[i]));
+      }
+      n++;
+    }
+    Assert.assertEquals(NUM_POSTS, n);
+    Assert.assertEquals(NUM_POSTS, reader.numRead());
+    Assert.assertEquals(6, reader.numTagsInDictionary());
+    reader.close();
+
+    PostInput input = PostInput.open(file.getPath(), PostStore.ALL);
+    n = 0;
+    while (input.next()) {
+      Assert.assertEquals("p" + n, input.key());
+      assertPost(post(n), input.get(Post.class));
+      n++;
+    }
+    Assert.assertEquals(NUM_POSTS, input.numRead());
+    input.close();
+  }
+
+  public void testProjection() throws IOException {
+    writePosts();
+    PostStoreReader reader = new PostStoreReader(file.getPath(),
+        PostStore.TAGS | PostStore.TIMESTAMP);
+    int n = 0;
+    while (reader.next()) {
+      Post expected = post(n);
+      Post p = reader.post();
+      Assert.assertEquals(expected.getTags(), p.getTags());
+      Assert.assertEquals(expected.getTimestamp(), p.getTimestamp());
+      // Columns not asked for are empty.
+      Assert.assertEquals("", p.getId());
+      Assert.assertEquals("", p.getUserId());
+      Assert.assertEquals("", p.getExtras());
+      Assert.assertEquals("", p.getTitle());
+      Assert.assertEquals("", p.getContent());
+      Assert.assertEquals(0, reader.numTokens());
+      n++;
+    }
+    Assert.assertEquals(NUM_POSTS, n);
+    reader.close();
+  }
+
+  public void testFolds() throws IOException {
+    writePosts();
+    PostStoreReader reader =
+      PostStoreReader.openFold(file.getPath(), "1", PostStore.ID);
+    int n = 0;
+    while (reader.next()) {
+      Assert.assertEquals("p" + (3 * n + 1), reader.id());
+      Assert.assertEquals("1", reader.fold());
+      n++;
+    }
+    Assert.assertEquals((NUM_POSTS + 1) / 3, n);
+    reader.close();
+
+    reader = PostStoreReader.openWithoutFold(file.getPath(), "1",
+        PostStore.ID);
+    int m = 0;
+    while (reader.next()) {
+      Assert.assertFalse("1".equals(reader.fold()));
+      m++;
+    }
+    Assert.assertEquals(NUM_POSTS, n + m);
+    reader.close();
+
+    // A fold not in the file has no posts, and excluding it keeps all.
+    reader = PostStoreReader.openFold(file.getPath(), "9", PostStore.ID);
+    Assert.assertFalse(reader.next());
+    reader.close();
+    reader = PostStoreReader.openWithoutFold(file.getPath(), "9",
+        PostStore.ID);
+    n = 0;
+    while (reader.next()) {
+      n++;
+    }
+    Assert.assertEquals(NUM_POSTS, n);
+    reader.close();
+  }
+
+  public void testNullFields() throws IOException {
+    PostStoreWriter writer = new PostStoreWriter(file.getPath());
+    Post p = new Post();
+    p.setId("empty");
+    p.setTags(null);
+    p.setTitle(null);
+    p.setContent(null);
+    writer.add(p);
+    writer.add(post(1));
+    writer.close();
+
+    PostStoreReader reader = new PostStoreReader(file.getPath(),
+        PostStore.ALL);
+    Assert.assertTrue(reader.next());
+    Post empty = reader.post();
+    Assert.assertEquals("empty", empty.getId());
+    Assert.assertTrue(empty.getTags().isEmpty());
+    Assert.assertEquals("", empty.getTitle());
+    Assert.assertEquals("", empty.getContent());
+    Assert.assertEquals(0, reader.numTokens());
+    Assert.assertTrue(reader.next());
+    assertPost(post(1), reader.post());
+    Assert.assertFalse(reader.next());
+    reader.close();
+  }
+
+  public void testDoubanTags() throws IOException {
+    PostStoreWriter writer = new PostStoreWriter(file.getPath());
+    for (int i = 0; i < 3; i++) {
+      DoubanPost p = new DoubanPost();
+      p.setId("d" + i);
+      p.setTags(new HashSet<String>(Arrays.asList("book")));
+      HashMap<String, Integer> counts = new HashMap<String, Integer>();
+      counts.put("book", 10 + i);
+      counts.put("novel", 300 * i);
+      p.setDoubanTags(counts);
+      writer.add(p);
+    }
+    // A plain post in the same store has no tag counts.
+    writer.add(post(0));
+    writer.close();
+
+    PostInput input = PostInput.open(file.getPath(),
+        PostStore.ID | PostStore.TAGS | PostStore.DOUBAN_TAGS);
+    for (int i = 0; i < 3; i++) {
+      Assert.assertTrue(input.next());
+      DoubanPost p = input.get(DoubanPost.class);
+      Assert.assertEquals("d" + i, p.getId());
+      Assert.assertEquals(Integer.valueOf(10 + i),
+          p.getDoubanTags().get("book"));
+      Assert.assertEquals(Integer.valueOf(300 * i),
+          p.getDoubanTags().get("novel"));
+      Assert.assertEquals(2, p.getDoubanTags().size());
+    }
+    Assert.assertTrue(input.next());
+    Assert.assertTrue(input.get(DoubanPost.class).getDoubanTags().isEmpty());
+    try {
+      input.get(KeywordPost.class);
+      Assert.fail("read a KeywordPost from a post store");
+    } catch (IllegalArgumentException e) {
+    }
+    Assert.assertFalse(input.next());
+    input.close();
+
+    // Tags and tag counts share one dictionary.
+    PostStoreReader reader = new PostStoreReader(file.getPath(),
+        PostStore.TAGS | PostStore.DOUBAN_TAGS);
+    Assert.assertTrue(reader.next());
+    Assert.assertEquals(1, reader.numTags());
+    Set<String> names = new HashSet<String>();
+    for (int i = 0; i < reader.numDoubanTags(); i++) {
+      int tagId = reader.doubanTagIds()[i];
+      names.add(reader.tag(tagId));
+      if (tagId == reader.tagIds()[0]) {
+        Assert.assertEquals(10, reader.doubanTagCounts()[i]);
+      }
+    }
+    Assert.assertEquals(new HashSet<String>(Arrays.asList("book", "novel")),
+        names);
+    // book, novel and the tags t0, all of the plain post.
+    Assert.assertEquals(4, reader.numTagsInDictionary());
+    reader.close();
+  }
+}
@@ -0,0 +1,76 @@
+package org.thunlp.tagsuggest.contentbase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.thunlp.misc.WeightString;
+import org.thunlp.tagsuggest.common.TagGraph;
+import org.thunlp.tagsuggest.train.TagUserGraphBuilder;
+
+public class FolkRankTagSuggestTest extends TestCase {
+  private File modelDir;
+  private FolkRankTagSuggest suggester;
+
+  /**
+   * Tags a, b, c, user u and words x, y with the edges x-a (2), x-b, y-c
+   * and u-b.
+   */
+  @Override
+  public void setUp() throws IOException {
+    modelDir = File.createTempFile("folkrank", "");
+    modelDir.delete();
+    modelDir.mkdir();
+    TagGraph graph = new TagGraph(
+        new String [] {"a", "b", "c"},
+        new String [] {"u"},
+        new String [] {"x", "y"},
+        new int [] {0, 1, 3, 4, 5, 7, 8},
+        new int [] {4, 3, 4, 5, 1, 0, 1, 2},
+        new float [] {2, 1, 1, 1, 1, 2, 1, 1});
+    graph.save(new File(modelDir, TagUserGraphBuilder.GRAPH_FILE));
+    suggester = new FolkRankTagSuggest();
+    suggester.loadModel(modelDir.getAbsolutePath());
+  }
+
+  @Override
+  public void tearDown() {
+    new File(modelDir, TagUserGraphBuilder.GRAPH_FILE).delete();
+    modelDir.delete();
+  }
+
+  public void testRankByWords() {
+    List<WeightString> tags =
+      suggester.rank(new String [] {"x"}, null, null);
+    // c is not reachable from x.
+    Assert.assertEquals(2, tags.size());
+    Assert.assertEquals("a", tags.get(0).text);
+    Assert.assertEquals("b", tags.get(1).text);
+    Assert.assertTrue(tags.get(0).weight > tags.get(1).weight);
+  }
+
+  public void testRankByUser() {
+    List<WeightString> tags = suggester.rank(new String [0], "u", null);
+    Assert.assertEquals("b", tags.get(0).text);
+    for (WeightString tag : tags) {
+      Assert.assertFalse("c".equals(tag.text));
+    }
+  }
+
+  public void testUnknownSeeds() {
+    Assert.assertTrue(
+        suggester.rank(new String [] {"z"}, "v", null).isEmpty());
+  }
+
+  public void testStateIsReset() {
+    List<WeightString> first = suggester.rank(new String [] {"y"}, null, null);
+    suggester.rank(new String [] {"x"}, "u", null);
+    List<WeightString> again = suggester.rank(new String [] {"y"}, null, null);
+    Assert.assertEquals(1, again.size());
+    Assert.assertEquals("c", again.get(0).text);
+    Assert.assertEquals(first.get(0).weight, again.get(0).weight, 1e-9);
+  }
+}
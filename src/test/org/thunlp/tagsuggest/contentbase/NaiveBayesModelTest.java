@@ -0,0 +1,128 @@
+package org.thunlp.tagsuggest.contentbase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.thunlp.io.RecordWriter;
+
+public class NaiveBayesModelTest extends TestCase {
+  private File file;
+
+  @Override
+  public void setUp() throws IOException {
+    file = File.createTempFile("naivebayes", ".txt");
+  }
+
+  @Override
+  public void tearDown() {
+    file.delete();
+  }
+
+  private NaiveBayesModel load(String ... lines) throws IOException {
+    RecordWriter writer = new RecordWriter(file.getPath());
+    for (String line : lines) {
+      writer.add(line);
+    }
+    writer.close();
+    return NaiveBayesModel.load(file.getPath());
+  }
+
+  private static void add(Map<String, Map<String, Long>> delta, String word,
+      String tag, long count) {
+    Map<String, Long> row = delta.get(word);
+    if (row == null) {
+      row = new HashMap<String, Long>();
+      delta.put(word, row);
+    }
+    row.put(tag, count);
+  }
+
+  /**
+   * Both models have the same words, tags and counts, by name.
+   */
+  private static void assertSameCounts(NaiveBayesModel expected,
+      NaiveBayesModel actual) {
+    Assert.assertEquals(expected.numWords(), actual.numWords());
+    Assert.assertEquals(expected.numTags(), actual.numTags());
+    for (String word : new String [] {"a", "b", "c", "d", "e"}) {
+      int ew = expected.wordId(word);
+      int aw = actual.wordId(word);
+      Assert.assertEquals(ew < 0, aw < 0);
+      if (ew < 0) {
+        continue;
+      }
+      Assert.assertEquals(expected.wordFreq(ew), actual.wordFreq(aw));
+      Assert.assertEquals(expected.rowEnd(ew) - expected.rowStart(ew),
+          actual.rowEnd(aw) - actual.rowStart(aw));
+      for (int e = actual.rowStart(aw); e < actual.rowEnd(aw); e++) {
+        int at = actual.tagIdAt(e);
+        if (e > actual.rowStart(aw)) {
+          Assert.assertTrue(actual.tagIdAt(e - 1) < at);
+        }
+        int et = expected.tagId(actual.tag(at));
+        Assert.assertEquals(expected.count(ew, et), actual.count(aw, at));
+        Assert.assertEquals(expected.prob(ew, et), actual.probAt(e), 1e-7);
+      }
+    }
+  }
+
+  public void testMergeTouchedRows() throws IOException {
+    NaiveBayesModel model = load(
+        "a x 2 y 1",
+        "b y 3",
+        "c x 1 z 4");
+    Map<String, Map<String, Long>> delta =
+      new HashMap<String, Map<String, Long>>();
+    add(delta, "b", "x", 1);
+    add(delta, "b", "y", 2);
+    add(delta, "d", "w", 5);
+    add(delta, "c", "w", 1);
+    NaiveBayesModel merged = model.merge(delta);
+
+    assertSameCounts(load(
+        "a x 2 y 1",
+        "b y 5 x 1",
+        "c x 1 z 4 w 1",
+        "d w 5"), merged);
+
+    // The old model is unchanged and does not see the new word and tag.
+    assertSameCounts(load(
+        "a x 2 y 1",
+        "b y 3",
+        "c x 1 z 4"), model);
+    Assert.assertEquals(-1, model.wordId("d"));
+    Assert.assertEquals(-1, model.tagId("w"));
+    Assert.assertEquals(1, model.count(model.wordId("c"), model.tagId("x")));
+  }
+
+  public void testMergeOlderModel() throws IOException {
+    NaiveBayesModel model = load("a x 1");
+    Map<String, Map<String, Long>> delta =
+      new HashMap<String, Map<String, Long>>();
+    add(delta, "b", "y", 1);
+    NaiveBayesModel first = model.merge(delta);
+    delta.clear();
+    add(delta, "c", "z", 2);
+    add(delta, "a", "x", 1);
+    // Merging the old model again does not see the words of the first merge.
+    NaiveBayesModel second = model.merge(delta);
+    assertSameCounts(load("a x 2", "c z 2"), second);
+    assertSameCounts(load("a x 1", "b y 1"), first);
+  }
+
+  public void testSaveMerged() throws IOException {
+    NaiveBayesModel model = load("a x 1", "b y 2");
+    Map<String, Map<String, Long>> delta =
+      new HashMap<String, Map<String, Long>>();
+    add(delta, "e", "x", 3);
+    NaiveBayesModel merged = model.merge(delta);
+    merged.merge(delta);
+    merged.save(file.getPath());
+    assertSameCounts(NaiveBayesModel.load(file.getPath()), merged);
+  }
+}
@@ -0,0 +1,270 @@
+package org.thunlp.tagsuggest.dataset;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.thunlp.io.JsonUtil;
+import org.thunlp.io.RecordReader;
+import org.thunlp.tagsuggest.common.Post;
+
+public class ImportBibSonomyTest extends TestCase {
+  private TableDriver driver;
+  private File dir;
+
+  @Override
+  public void setUp() throws Exception {
+    driver = new TableDriver();
+    DriverManager.registerDriver(driver);
+    dir = File.createTempFile("bibsonomy", "");
+    dir.delete();
+    dir.mkdir();
+
+    // Posts 1, 3 and 4 are tagged, 2 is not. The tas table also has the
+    // tags of bookmark 5, which the bibtex export skips.
+    driver.add("bibtex", bibtex(1, "A {\"o}ne paper", "keywords = {alpha}"));
+    driver.add("bibtex", bibtex(4, "Four", ""));
+    driver.add("bibtex", bibtex(2, "Two", ""));
+    driver.add("bibtex", bibtex(3, "Three", ""));
+    driver.add("bookmark", row("content_id", 5L, "url_hash", "u5",
+        "description", "Page five", "extended", "more"));
+    driver.add("tas", tas(3, 8, "Java", 3000));
+    driver.add("tas", tas(1, 7, "ML", 1000));
+    driver.add("tas", tas(5, 9, "web", 5000));
+    driver.add("tas", tas(3, 8, "Search-Engine", 3000));
+    driver.add("tas", tas(4, 7, "db", 4000));
+  }
+
+  @Override
+  public void tearDown() throws SQLException {
+    DriverManager.deregisterDriver(driver);
+    for (File f : dir.listFiles()) {
+      f.delete();
+    }
+    dir.delete();
+  }
+
+  public void testMergeJoin() throws Exception {
+    ImportBibSonomy importer = new ImportBibSonomy();
+    importer.openDbConnection(TableDriver.URL, "", "");
+    importer.setThreads(2);
+    importer.setShards(2);
+    importer.setFetchSize(2);
+    String path = new File(dir, "bib.json").getAbsolutePath();
+    importer.dumpBibtex(path);
+    importer.close();
+
+    Map<String, Post> posts = new TreeMap<String, Post>();
+    for (int shard = 0; shard < 2; shard++) {
+      for (Post p : read(ImportBibSonomy.shardName(path, shard, 2))) {
+        posts.put(p.getId(), p);
+      }
+    }
+    Assert.assertEquals(Arrays.asList("1", "3", "4"),
+        new ArrayList<String>(posts.keySet()));
+    Post one = posts.get("1");
+    Assert.assertEquals("7", one.getUserId());
+    Assert.assertEquals(Collections.singleton("ml"), one.getTags());
+    Assert.assertEquals(1, one.getTimestamp());
+    Assert.assertEquals("A one paper", one.getTitle().trim());
+    Assert.assertTrue(one.getContent().contains("alpha"));
+    Post three = posts.get("3");
+    Assert.assertEquals("8", three.getUserId());
+    Assert.assertEquals(2, three.getTags().size());
+    Assert.assertTrue(three.getTags().contains("searchengine"));
+  }
+
+  public void testBookmarks() throws Exception {
+    ImportBibSonomy importer = new ImportBibSonomy();
+    importer.openDbConnection(TableDriver.URL, "", "");
+    importer.setThreads(1);
+    String path = new File(dir, "bm.json").getAbsolutePath();
+    importer.dumpBookmark(path);
+    importer.close();
+    List<Post> posts = read(path);
+    Assert.assertEquals(1, posts.size());
+    Assert.assertEquals("u5", posts.get(0).getResourceKey());
+    Assert.assertEquals("9", posts.get(0).getUserId());
+  }
+
+  private List<Post> read(String path) throws IOException {
+    JsonUtil J = new JsonUtil();
+    List<Post> posts = new ArrayList<Post>();
+    RecordReader reader = new RecordReader(path);
+    while (reader.next()) {
+      posts.add(J.fromJson(reader.value(), Post.class));
+    }
+    reader.close();
+    return posts;
+  }
+
+  private static Map<String, Object> bibtex(long id, String title,
+      String misc) {
+    return row("content_id", id, "simhash1", "h" + id, "title", title,
+        "note", "", "description", "desc " + id, "misc", misc);
+  }
+
+  private static Map<String, Object> tas(long id, long user, String tag,
+      long millis) {
+    return row("content_id", id, "user", user, "tag", tag,
+        "date", new java.sql.Date(millis));
+  }
+
+  private static Map<String, Object> row(Object... columns) {
+    Map<String, Object> row = new HashMap<String, Object>();
+    for (int i = 0; i < columns.length; i += 2) {
+      row.put((String) columns[i], columns[i + 1]);
+    }
+    return row;
+  }
+
+  /**
+   * A JDBC driver over in-memory tables, for the queries of ImportBibSonomy:
+   * "SELECT ... FROM table ORDER BY column, ...", read through forward-only
+   * cursors.
+   */
+  private static class TableDriver implements Driver {
+    static final String URL = "jdbc:tables:bibsonomy";
+    private static Pattern QUERY = Pattern.compile(
+        ".*FROM (\\w+)(?: ORDER BY (.*))?");
+    private Map<String, List<Map<String, Object>>> tables =
+      new HashMap<String, List<Map<String, Object>>>();
+
+    void add(String table, Map<String, Object> row) {
+      if (!tables.containsKey(table)) {
+        tables.put(table, new ArrayList<Map<String, Object>>());
+      }
+      tables.get(table).add(row);
+    }
+
+    public Connection connect(String url, Properties info) {
+      if (!acceptsURL(url)) {
+        return null;
+      }
+      return (Connection) proxy(Connection.class, new InvocationHandler() {
+        public Object invoke(Object p, Method m, Object[] args) {
+          if (m.getName().equals("createStatement")) {
+            return statement();
+          }
+          return defaultValue(m);
+        }
+      });
+    }
+
+    private Statement statement() {
+      return (Statement) proxy(Statement.class, new InvocationHandler() {
+        public Object invoke(Object p, Method m, Object[] args)
+        throws SQLException {
+          if (m.getName().equals("executeQuery")) {
+            return query((String) args[0]);
+          }
+          return defaultValue(m);
+        }
+      });
+    }
+
+    private ResultSet query(String sql) throws SQLException {
+      Matcher m = QUERY.matcher(sql);
+      if (!m.matches() || !tables.containsKey(m.group(1))) {
+        throw new SQLException("unknown query " + sql);
+      }
+      final List<Map<String, Object>> rows =
+        new ArrayList<Map<String, Object>>(tables.get(m.group(1)));
+      if (m.group(2) != null) {
+        final String[] order = m.group(2).split(",\\s*");
+        Collections.sort(rows, new Comparator<Map<String, Object>>() {
+          @SuppressWarnings("unchecked")
+          public int compare(Map<String, Object> a, Map<String, Object> b) {
+            for (String column : order) {
+              int c = ((Comparable<Object>) a.get(column)).compareTo(
+                  b.get(column));
+              if (c != 0) {
+                return c;
+              }
+            }
+            return 0;
+          }
+        });
+      }
+      return (ResultSet) proxy(ResultSet.class, new InvocationHandler() {
+        int position = -1;
+
+        public Object invoke(Object p, Method m, Object[] args) {
+          String name = m.getName();
+          if (name.equals("next")) {
+            return ++position < rows.size();
+          } else if (name.startsWith("get") && args != null
+              && args[0] instanceof String) {
+            return rows.get(position).get(args[0]);
+          }
+          return defaultValue(m);
+        }
+      });
+    }
+
+    private static Object proxy(Class<?> type, InvocationHandler handler) {
+      return Proxy.newProxyInstance(TableDriver.class.getClassLoader(),
+          new Class<?>[] { type }, handler);
+    }
+
+    private static Object defaultValue(Method m) {
+      Class<?> type = m.getReturnType();
+      if (type == boolean.class) {
+        return false;
+      } else if (type == int.class) {
+        return 0;
+      } else if (type == long.class) {
+        return 0L;
+      }
+      return null;
+    }
+
+    public boolean acceptsURL(String url) {
+      return url.equals(URL);
+    }
+
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+      return new DriverPropertyInfo[0];
+    }
+
+    public int getMajorVersion() {
+      return 1;
+    }
+
+    public int getMinorVersion() {
+      return 0;
+    }
+
+    public boolean jdbcCompliant() {
+      return false;
+    }
+
+    public Logger getParentLogger() {
+      return Logger.getAnonymousLogger();
+    }
+  }
+}